@@ -44,6 +44,9 @@ public class DataSourceConfig {
     @Value("${spring.datasource.postgres.driver-class-name}")
     private String postgresDriverClassName;
 
+    @Value("${spring.datasource.postgres.maximum-pool-size:10}")
+    private int postgresMaximumPoolSize;
+
     // MonetDB DataSource Configuration
     @Value("${spring.datasource.monet.url}")
     private String monetUrl;
@@ -57,6 +60,9 @@ public class DataSourceConfig {
     @Value("${spring.datasource.monet.driver-class-name}")
     private String monetDriverClassName;
 
+    @Value("${spring.datasource.monet.maximum-pool-size:10}")
+    private int monetMaximumPoolSize;
+
     /**
      * PostgreSQL DataSource (Primary) - Used by JPA
      */
@@ -69,7 +75,7 @@ public class DataSourceConfig {
         config.setPassword(postgresPassword);
         config.setDriverClassName(postgresDriverClassName);
         config.setSchema("app");
-        config.setMaximumPoolSize(10);
+        config.setMaximumPoolSize(postgresMaximumPoolSize);
         config.setMinimumIdle(2);
         return new HikariDataSource(config);
     }
@@ -85,7 +91,7 @@ public class DataSourceConfig {
         config.setUsername(monetUsername);
         config.setPassword(monetPassword);
         config.setDriverClassName(monetDriverClassName);
-        config.setMaximumPoolSize(10);
+        config.setMaximumPoolSize(monetMaximumPoolSize);
         config.setMinimumIdle(2);
         return new HikariDataSource(config);
     }
@@ -3,13 +3,19 @@ package com.iri.mktgmix.upload.config;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import javax.sql.DataSource;
 
 /**
  * Configuration for MonetDB JdbcTemplate.
  * Creates JdbcTemplate bean using MonetDB DataSource.
+ * <p>
+ * Loads streamed into MonetDB run on {@code monetLoadExecutor}. A load only starts when a thread is
+ * free, since the work feeding it would otherwise wait on a load that never runs. The ranges of
+ * partitioned ingests run on {@code monetIngestExecutor}, waiting in its queue for a thread.
  */
 @Configuration
 public class MonetDbConfig {
@@ -19,5 +25,27 @@ public class MonetDbConfig {
     public JdbcTemplate monetJdbcTemplate(@Qualifier("monetDataSource") DataSource monetDataSource) {
         return new JdbcTemplate(monetDataSource);
     }
-}
 
+    @Bean
+    @Qualifier("monetLoadExecutor")
+    public ThreadPoolTaskExecutor monetLoadExecutor(
+            @Value("${mediamix.upload.pipeline.loader-threads:4}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("monet-load-");
+        return executor;
+    }
+
+    @Bean
+    @Qualifier("monetIngestExecutor")
+    public ThreadPoolTaskExecutor monetIngestExecutor(
+            @Value("${mediamix.upload.ingest.threads:8}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("monet-ingest-");
+        return executor;
+    }
+}
@@ -0,0 +1,13 @@
+package com.iri.mktgmix.upload.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables background jobs such as the staging storage sweep.
+ * They run on the scheduler thread, never on request threads.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,33 @@
+package com.iri.mktgmix.upload.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Worker pool for converting the sheets of one workbook in parallel. The pool is shared by all
+ * conversions, so the number of sheet threads stays bounded however many uploads complete at once.
+ * When the pool and its queue are full, the converting thread runs the sheet itself.
+ */
+@Configuration
+public class SheetConversionConfig {
+
+    @Bean
+    @Qualifier("sheetConversionExecutor")
+    public ThreadPoolTaskExecutor sheetConversionExecutor(
+            @Value("${mediamix.upload.sheet-conversion.threads:4}") int threads,
+            @Value("${mediamix.upload.sheet-conversion.queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("sheet-conversion-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
@@ -0,0 +1,28 @@
+package com.iri.mktgmix.upload.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Worker threads running upload jobs such as conversions. Jobs are only claimed while a worker is
+ * free, so the queue never holds more than one job per thread. It only bridges the moment between
+ * a thread finishing a job and taking the next one.
+ */
+@Configuration
+public class UploadJobConfig {
+
+    @Bean
+    @Qualifier("uploadJobExecutor")
+    public ThreadPoolTaskExecutor uploadJobExecutor(@Value("${mediamix.upload.jobs.workers:4}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers);
+        executor.setThreadNamePrefix("upload-job-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
@@ -1,15 +1,37 @@
 package com.iri.mktgmix.upload.controller;
 
+import com.iri.mktgmix.upload.controller.dto.ErrorResponse;
 import com.iri.mktgmix.upload.service.FileUploadService;
+import com.iri.mktgmix.upload.service.admission.AdmissionControl;
+import com.iri.mktgmix.upload.service.dto.AdmissionStats;
+import com.iri.mktgmix.upload.service.dto.SheetSelectionRequest;
+import com.iri.mktgmix.upload.service.dto.UploadProgress;
+import com.iri.mktgmix.upload.service.dto.UploadSessionStatus;
+import com.iri.mktgmix.upload.service.exception.AdmissionRejectedException;
+import com.iri.mktgmix.upload.service.exception.ErrorType;
+import com.iri.mktgmix.upload.service.exception.FileUploadException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
 
 @RestController
 @RequiredArgsConstructor
@@ -18,6 +40,22 @@ public class FileUploadController {
 
 
     private final FileUploadService fileUploadService;
+    private final AdmissionControl admissionControl;
+
+    @GetMapping(path = "/admission", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<AdmissionStats> getAdmissionStats() {
+        return admissionControl.getStats();
+    }
+
+    @GetMapping(path = "/{fileId}/chunks", produces = MediaType.APPLICATION_JSON_VALUE)
+    public UploadSessionStatus getUploadStatus(@PathVariable Long fileId) {
+        return fileUploadService.getSessionStatus(fileId);
+    }
+
+    @GetMapping(path = "/{fileId}/progress", produces = MediaType.APPLICATION_JSON_VALUE)
+    public UploadProgress getProgress(@PathVariable Long fileId) {
+        return fileUploadService.getProgress(fileId);
+    }
 
     @PutMapping(
             path = "/{fileId}/chunks",
@@ -25,8 +63,83 @@ public class FileUploadController {
     public void uploadChunk(@PathVariable Long fileId,
                             @RequestParam("originalFileName") String originalFileName,
                             @RequestParam("chunkNumber") Integer chunkNumber,
-                            @RequestPart("chunk") MultipartFile chunkFile) {
-        fileUploadService.mergeChunk(fileId, originalFileName, chunkNumber, chunkFile);
+                            @RequestParam("chunkSize") Long chunkSize,
+                            @RequestPart("chunk") MultipartFile chunkFile,
+                            MultipartHttpServletRequest request) {
+        // The encoding is declared on the part; a gzip-encoded multipart request as a whole is not decoded.
+        HttpHeaders partHeaders = request.getMultipartHeaders("chunk");
+        String contentEncoding = partHeaders == null ? null : partHeaders.getFirst(HttpHeaders.CONTENT_ENCODING);
+        fileUploadService.mergeChunk(fileId, originalFileName, chunkNumber, chunkSize, chunkFile, contentEncoding);
+    }
+
+    @PutMapping(
+            path = "/{fileId}/chunks/{chunkNumber}",
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void uploadRawChunk(@PathVariable Long fileId,
+                               @PathVariable Integer chunkNumber,
+                               @RequestParam("originalFileName") String originalFileName,
+                               @RequestParam("chunkSize") Long chunkSize,
+                               @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                               HttpServletRequest request) throws IOException {
+        fileUploadService.mergeChunk(fileId, originalFileName, chunkNumber, chunkSize,
+                request.getInputStream(), request.getContentLengthLong(), contentEncoding);
+    }
+
+    @PutMapping(path = "/{fileId}/sheets", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void selectSheets(@PathVariable Long fileId,
+                             @RequestBody SheetSelectionRequest sheetSelectionRequest) {
+        fileUploadService.selectSheets(fileId, sheetSelectionRequest);
     }
-}
 
+    @PostMapping(path = "/{fileId}/complete")
+    public void completeUpload(@PathVariable Long fileId,
+                               @RequestParam("originalFileName") String originalFileName) {
+        fileUploadService.finalizeUpload(fileId, originalFileName);
+    }
+
+    @PostMapping(path = "/{fileId}/cancel")
+    public void cancelUpload(@PathVariable Long fileId) {
+        fileUploadService.cancelUpload(fileId);
+    }
+
+    @PostMapping(path = "/{fileId}/ingest")
+    public void requestIngest(@PathVariable Long fileId) {
+        fileUploadService.requestIngest(fileId);
+    }
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<ErrorResponse> handleAdmissionRejectedException(AdmissionRejectedException ex) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .errorType(ex.getErrorType().name())
+                .errorMessage(ex.getErrorMessage())
+                .errorCode(ex.getErrorCode())
+                .build();
+
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(errorResponse);
+    }
+
+    @ExceptionHandler(FileUploadException.class)
+    public ResponseEntity<ErrorResponse> handleFileUploadException(FileUploadException ex) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .errorType(ex.getErrorType().name())
+                .errorMessage(ex.getErrorMessage())
+                .errorCode(ex.getErrorCode())
+                .build();
+
+        HttpStatus status;
+        if (ex.getErrorType() == ErrorType.UPLOAD_SESSION_ERROR || ex.getErrorType() == ErrorType.UPLOAD_CANCELLED) {
+            status = HttpStatus.CONFLICT;
+        } else if (ex.getErrorType() == ErrorType.STORAGE_QUOTA_EXCEEDED) {
+            status = HttpStatus.INSUFFICIENT_STORAGE;
+        } else if (ex.getErrorType() == ErrorType.UNSUPPORTED_CONTENT_ENCODING) {
+            status = HttpStatus.UNSUPPORTED_MEDIA_TYPE;
+        } else if (ex.getErrorType() == ErrorType.SHEET_SELECTION_ERROR) {
+            status = HttpStatus.UNPROCESSABLE_ENTITY;
+        } else {
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+        return ResponseEntity.status(status).body(errorResponse);
+    }
+}
@@ -6,74 +6,80 @@ import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 abstract class AbstractExcelConverter implements FileToCsvConverter {
 
     @Override
-    public Path convert(Path inputFile) throws IOException {
-        Path csvPath = replaceExtension(inputFile, ".csv");
-
+    public CsvConversionResult convert(Path inputFile, RowSink rowSink) throws IOException {
         try (Workbook workbook = createWorkbook(inputFile);
-             BufferedWriter writer = Files.newBufferedWriter(csvPath, StandardCharsets.UTF_8)) {
-            DataFormatter formatter = new DataFormatter();
-            Sheet sheet = workbook.getSheetAt(0);
-
-            for (Row row : sheet) {
-                writeRow(writer, row, formatter);
-            }
+             CsvRowWriter writer = CsvRowWriter.forInput(inputFile, rowSink)) {
+            writeSheet(writer, workbook.getSheetAt(0));
+            return writer.finish();
         }
-
-        return csvPath;
     }
 
-    protected abstract Workbook createWorkbook(Path inputFile) throws IOException;
-
-    private void writeRow(BufferedWriter writer, Row row, DataFormatter formatter) throws IOException {
-        boolean firstCell = true;
-        int lastCellNum = row.getLastCellNum() == -1 ? 0 : row.getLastCellNum();
-
-        for (int cellIndex = 0; cellIndex < lastCellNum; cellIndex++) {
-            if (firstCell) {
-                firstCell = false;
-            } else {
-                writer.write(',');
+    @Override
+    public List<String> listSheetNames(Path inputFile) throws IOException {
+        try (Workbook workbook = createWorkbook(inputFile)) {
+            List<String> sheetNames = new ArrayList<>();
+            for (Sheet sheet : workbook) {
+                sheetNames.add(sheet.getSheetName());
             }
-            Cell cell = row.getCell(cellIndex, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
-            String value = formatter.formatCellValue(cell);
-            writer.write(escapeForCsv(value));
+            return sheetNames;
         }
-        writer.newLine();
     }
 
-    private String escapeForCsv(String value) {
-        if (value == null) {
-            return "";
+    /**
+     * Converts the sheets one after the other; the usermodel workbook is not safe to read from
+     * several threads.
+     */
+    @Override
+    public List<CsvConversionResult> convertSheets(Path inputFile, List<String> sheetNames, Executor sheetExecutor,
+                                                   Function<String, RowSink> sheetSinks) throws IOException {
+        try (Workbook workbook = createWorkbook(inputFile)) {
+            List<CsvConversionResult> results = new ArrayList<>();
+            for (String sheetName : sheetNames) {
+                int sheetIndex = workbook.getSheetIndex(sheetName);
+                if (sheetIndex < 0) {
+                    throw new SheetNotFoundException("Sheet '" + sheetName + "' not found in " + inputFile.getFileName());
+                }
+                RowSink sheetSink = sheetSinks == null ? null : sheetSinks.apply(sheetName);
+                try (CsvRowWriter writer = CsvRowWriter.forSheet(inputFile, sheetIndex, sheetSink)) {
+                    writeSheet(writer, workbook.getSheetAt(sheetIndex));
+                    results.add(writer.finish(sheetName));
+                }
+            }
+            return results;
         }
+    }
 
-        boolean requiresQuoting = value.contains(",") || value.contains("\"")
-                || value.contains("\n") || value.contains("\r");
+    protected abstract Workbook createWorkbook(Path inputFile) throws IOException;
 
-        if (!requiresQuoting) {
-            return value;
+    private void writeSheet(CsvRowWriter writer, Sheet sheet) throws IOException {
+        DataFormatter formatter = new DataFormatter();
+        for (Row row : sheet) {
+            writeRow(writer, row, formatter);
         }
-
-        return "\"" + value.replace("\"", "\"\"") + "\"";
     }
 
-    private Path replaceExtension(Path originalFile, String newExtension) {
-        String fileName = originalFile.getFileName().toString();
-        int dotIndex = fileName.lastIndexOf('.');
-        if (dotIndex == -1) {
-            fileName = fileName + newExtension;
-        } else {
-            fileName = fileName.substring(0, dotIndex) + newExtension;
+    /**
+     * Writes the row's cells in column order. Columns without a cell are written as empty fields
+     * directly, which is what a blank cell formats to, instead of creating blank cells for them.
+     */
+    private void writeRow(CsvRowWriter writer, Row row, DataFormatter formatter) throws IOException {
+        int nextColumn = 0;
+        for (Cell cell : row) {
+            int columnIndex = cell.getColumnIndex();
+            writer.writeEmptyFields(columnIndex - nextColumn);
+            writer.writeField(formatter.formatCellValue(cell));
+            nextColumn = columnIndex + 1;
         }
-        return originalFile.getParent().resolve(fileName);
+        writer.endRow();
     }
 }
-
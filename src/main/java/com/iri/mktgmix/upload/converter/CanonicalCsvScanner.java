@@ -0,0 +1,181 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Checks in one read-only pass whether a file is byte-identical to what {@link CsvRowWriter} would
+ * write for the same fields: well-formed UTF-8 without a byte order mark, comma separated, fields
+ * quoted only when they contain a comma, quote or line break, and every row terminated by the
+ * platform line separator. Such files need no rewrite.
+ */
+final class CanonicalCsvScanner {
+
+    private static final int BUFFER_BYTES = 1024 * 1024;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private enum State {
+        FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED, LINE_SEPARATOR
+    }
+
+    private State state = State.FIELD_START;
+    private boolean atRecordStart = true;
+    private boolean quotingRequired;
+    private int separatorMatched;
+
+    private int utf8Remaining;
+    private int utf8Min = 0x80;
+    private int utf8Max = 0xBF;
+
+    private CanonicalCsvScanner() {
+    }
+
+    /**
+     * @return hex SHA-256 of the file when it is already canonical, {@code null} otherwise
+     */
+    static String checksumIfCanonical(Path file) throws IOException {
+        CanonicalCsvScanner scanner = new CanonicalCsvScanner();
+        MessageDigest digest = Checksums.newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        byte[] bytes = buffer.array();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    if (!scanner.accept(bytes[i])) {
+                        return null;
+                    }
+                }
+                digest.update(bytes, 0, read);
+                buffer.clear();
+            }
+        }
+        return scanner.isComplete() ? Checksums.toHex(digest.digest()) : null;
+    }
+
+    private boolean accept(byte value) {
+        return acceptUtf8(value & 0xFF) && acceptCsv(value);
+    }
+
+    private boolean acceptUtf8(int value) {
+        if (utf8Remaining > 0) {
+            if (value < utf8Min || value > utf8Max) {
+                return false;
+            }
+            utf8Remaining--;
+            utf8Min = 0x80;
+            utf8Max = 0xBF;
+            return true;
+        }
+        if (value < 0x80) {
+            return true;
+        }
+        // Second-byte ranges rule out overlong forms, surrogates and code points above U+10FFFF,
+        // all of which a decoder would replace and therefore change.
+        if (value >= 0xC2 && value <= 0xDF) {
+            utf8Remaining = 1;
+        } else if (value >= 0xE0 && value <= 0xEF) {
+            utf8Remaining = 2;
+            if (value == 0xE0) {
+                utf8Min = 0xA0;
+            } else if (value == 0xED) {
+                utf8Max = 0x9F;
+            }
+        } else if (value >= 0xF0 && value <= 0xF4) {
+            utf8Remaining = 3;
+            if (value == 0xF0) {
+                utf8Min = 0x90;
+            } else if (value == 0xF4) {
+                utf8Max = 0x8F;
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean acceptCsv(byte value) {
+        switch (state) {
+            case LINE_SEPARATOR:
+                if (value != LINE_SEPARATOR[separatorMatched]) {
+                    return false;
+                }
+                separatorMatched++;
+                if (separatorMatched == LINE_SEPARATOR.length) {
+                    endRecord();
+                }
+                return true;
+            case QUOTED:
+                if (value == '"') {
+                    state = State.QUOTE_IN_QUOTED;
+                } else if (value == ',' || value == '\r' || value == '\n') {
+                    quotingRequired = true;
+                }
+                return true;
+            case QUOTE_IN_QUOTED:
+                if (value == '"') {
+                    quotingRequired = true;
+                    state = State.QUOTED;
+                    return true;
+                }
+                // The writer never quotes a field that could have been written bare.
+                return quotingRequired && acceptFieldEnd(value);
+            case FIELD_START:
+                atRecordStart = false;
+                if (value == '"') {
+                    quotingRequired = false;
+                    state = State.QUOTED;
+                    return true;
+                }
+                return acceptUnquoted(value);
+            default:
+                if (value == '"') {
+                    return false;
+                }
+                return acceptUnquoted(value);
+        }
+    }
+
+    private boolean acceptUnquoted(byte value) {
+        if (value == ',' || value == LINE_SEPARATOR[0]) {
+            return acceptFieldEnd(value);
+        }
+        if (value == '\r' || value == '\n') {
+            return false;
+        }
+        state = State.UNQUOTED;
+        return true;
+    }
+
+    private boolean acceptFieldEnd(byte value) {
+        if (value == ',') {
+            state = State.FIELD_START;
+            return true;
+        }
+        if (value != LINE_SEPARATOR[0]) {
+            return false;
+        }
+        if (LINE_SEPARATOR.length == 1) {
+            endRecord();
+        } else {
+            separatorMatched = 1;
+            state = State.LINE_SEPARATOR;
+        }
+        return true;
+    }
+
+    private void endRecord() {
+        state = State.FIELD_START;
+        atRecordStart = true;
+        separatorMatched = 0;
+    }
+
+    private boolean isComplete() {
+        return utf8Remaining == 0 && state == State.FIELD_START && atRecordStart;
+    }
+}
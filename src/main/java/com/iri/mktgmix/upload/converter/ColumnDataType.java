@@ -0,0 +1,30 @@
+package com.iri.mktgmix.upload.converter;
+
+/**
+ * Type inferred for a source column from its converted values, stored as
+ * {@code source_column.data_type}.
+ */
+public enum ColumnDataType {
+
+    /**
+     * Integers of at most 18 digits, without leading zeros.
+     */
+    INTEGER,
+
+    /**
+     * Numbers with a fraction or an exponent, possibly mixed with integers.
+     */
+    DECIMAL,
+
+    /**
+     * ISO dates, or dates in one of the driver's {@code time_format} patterns.
+     */
+    DATE,
+
+    /**
+     * {@code TRUE} and {@code FALSE}, in any case.
+     */
+    BOOLEAN,
+
+    TEXT
+}
@@ -0,0 +1,42 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Remembers, per column, the style index of the column's last number cell and the format it
+ * resolved to. Columns of a media plan keep one style from row to row, so the style table lookup
+ * and the format resolution run once per column and style instead of once per cell.
+ */
+final class ColumnNumberFormats {
+
+    private final ScratchCellNumberFormatter numberFormatter;
+    private final IntFunction<String> formatStringOfStyle;
+
+    private int[] styleIndexes = new int[0];
+    private ScratchCellNumberFormatter.CellNumberFormat[] formats = new ScratchCellNumberFormatter.CellNumberFormat[0];
+
+    /**
+     * @param formatStringOfStyle gives the data format string of a style index, or null when the
+     *                            index has no style
+     */
+    ColumnNumberFormats(ScratchCellNumberFormatter numberFormatter, IntFunction<String> formatStringOfStyle) {
+        this.numberFormatter = numberFormatter;
+        this.formatStringOfStyle = formatStringOfStyle;
+    }
+
+    String format(int columnIndex, int styleIndex, double value) {
+        if (columnIndex >= formats.length) {
+            int length = Math.max(columnIndex + 1, formats.length * 2);
+            styleIndexes = Arrays.copyOf(styleIndexes, length);
+            formats = Arrays.copyOf(formats, length);
+        }
+        ScratchCellNumberFormatter.CellNumberFormat format = formats[columnIndex];
+        if (format == null || styleIndexes[columnIndex] != styleIndex) {
+            format = numberFormatter.forFormatString(formatStringOfStyle.apply(styleIndex));
+            formats[columnIndex] = format;
+            styleIndexes[columnIndex] = styleIndex;
+        }
+        return format.format(value);
+    }
+}
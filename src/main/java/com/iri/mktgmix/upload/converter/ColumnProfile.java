@@ -0,0 +1,45 @@
+package com.iri.mktgmix.upload.converter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Type and value statistics of one column, collected by {@link ColumnProfiler}.
+ */
+@Getter
+@Builder
+public class ColumnProfile {
+
+    /**
+     * 1-based position of the column.
+     */
+    private final int ordinal;
+
+    /**
+     * Header value of the column, empty when the header row is shorter than the data rows.
+     */
+    private final String headerName;
+
+    private final ColumnDataType dataType;
+
+    /**
+     * For a date column, the {@code time_format} pattern all of its values match, or null when they
+     * are ISO dates.
+     */
+    private final String datePattern;
+
+    /**
+     * Empty values, including the missing cells of short rows.
+     */
+    private final long nullCount;
+
+    /**
+     * Values made only of whitespace.
+     */
+    private final long blankCount;
+
+    /**
+     * Estimated number of distinct values, not counting nulls.
+     */
+    private final long distinctEstimate;
+}
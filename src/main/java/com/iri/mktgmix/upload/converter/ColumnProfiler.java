@@ -0,0 +1,212 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Infers the type of every column and counts nulls, blanks and distinct values while the rows are
+ * converted. The first row is the header and only names the columns.
+ * <p>
+ * A column starts without a type and takes the type of its first value. Later values either fit
+ * that type, an integer column also takes decimals, or turn the column into {@link ColumnDataType#TEXT}.
+ * Nulls fit every type. A blank value does not fit any type but text, since it cannot be loaded
+ * into a typed column. A date column keeps the date patterns all of its values matched so far, so
+ * {@code 01/02/2024} and {@code 13/02/2024} do not make a date column of two different patterns.
+ */
+public final class ColumnProfiler implements RowSink {
+
+    /**
+     * Patterns beyond this are ignored, a column tracks its candidate patterns in an int.
+     */
+    private static final int MAX_DATE_PATTERNS = Integer.SIZE - 1;
+
+    private final List<DateTimeFormatter> datePatterns = new ArrayList<>();
+    private final List<String> datePatternStrings = new ArrayList<>();
+    private final int allDatePatterns;
+    private final List<String> headerNames = new ArrayList<>();
+    private final List<Column> columns = new ArrayList<>();
+    private boolean headerRow = true;
+    private int fieldIndex;
+    private long rowCount;
+
+    /**
+     * @param timeFormats date patterns in {@link DateTimeFormatter} syntax, such as the
+     *                    {@code time_format} of the driver's columns; ISO dates are always recognized.
+     *                    Patterns that do not parse are skipped.
+     */
+    public ColumnProfiler(List<String> timeFormats) {
+        datePatterns.add(DateTimeFormatter.ISO_LOCAL_DATE);
+        datePatternStrings.add(null);
+        for (String timeFormat : timeFormats) {
+            if (datePatterns.size() == MAX_DATE_PATTERNS) {
+                break;
+            }
+            try {
+                // Without an era, 'yyyy' does not resolve strictly; 'uuuu' is the same year.
+                datePatterns.add(DateTimeFormatter.ofPattern(timeFormat.replace('y', 'u'))
+                        .withResolverStyle(ResolverStyle.STRICT));
+                datePatternStrings.add(timeFormat);
+            } catch (IllegalArgumentException invalidPattern) {
+                // Not a pattern; the column map is free text.
+            }
+        }
+        this.allDatePatterns = (1 << datePatterns.size()) - 1;
+    }
+
+    public ColumnProfiler() {
+        this(Collections.emptyList());
+    }
+
+    @Override
+    public void writeField(String value) {
+        if (headerRow) {
+            headerNames.add(value == null ? "" : value);
+            return;
+        }
+        if (fieldIndex == columns.size()) {
+            columns.add(new Column(rowCount));
+        }
+        columns.get(fieldIndex).accept(value);
+        fieldIndex++;
+    }
+
+    @Override
+    public void endRow() {
+        if (headerRow) {
+            headerRow = false;
+            return;
+        }
+        for (int i = fieldIndex; i < columns.size(); i++) {
+            columns.get(i).accept(null);
+        }
+        fieldIndex = 0;
+        rowCount++;
+    }
+
+    /**
+     * Rows profiled, without the header.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * The profile of every column of the header or of any data row, in column order. A column
+     * without non-null values is text.
+     */
+    public List<ColumnProfile> getColumns() {
+        int columnCount = Math.max(headerNames.size(), columns.size());
+        List<ColumnProfile> profiles = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            Column column = i < columns.size() ? columns.get(i) : new Column(rowCount);
+            boolean dateColumn = column.dataType == ColumnDataType.DATE;
+            profiles.add(ColumnProfile.builder()
+                    .ordinal(i + 1)
+                    .headerName(i < headerNames.size() ? headerNames.get(i) : "")
+                    .dataType(column.dataType == null ? ColumnDataType.TEXT : column.dataType)
+                    .datePattern(dateColumn
+                            ? datePatternStrings.get(Integer.numberOfTrailingZeros(column.datePatternCandidates))
+                            : null)
+                    .nullCount(column.nullCount)
+                    .blankCount(column.blankCount)
+                    .distinctEstimate(column.distinctValues.estimate())
+                    .build());
+        }
+        return profiles;
+    }
+
+    private static boolean isBoolean(String value) {
+        return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+    }
+
+    /**
+     * Returns the patterns of {@code candidates} that parse {@code value} as a valid date.
+     */
+    private int matchDatePatterns(String value, int candidates) {
+        int matched = 0;
+        for (int i = 0; i < datePatterns.size(); i++) {
+            int pattern = 1 << i;
+            if ((candidates & pattern) == 0) {
+                continue;
+            }
+            try {
+                LocalDate.parse(value, datePatterns.get(i));
+                matched |= pattern;
+            } catch (DateTimeParseException notThisPattern) {
+                // Thrown at most until the column has no candidate pattern left.
+            }
+        }
+        return matched;
+    }
+
+    private final class Column {
+
+        private final DistinctCountEstimator distinctValues = new DistinctCountEstimator();
+        private ColumnDataType dataType;
+        private int datePatternCandidates;
+        private long nullCount;
+        private long blankCount;
+
+        /**
+         * A column first seen in a later row is null in the rows before it.
+         */
+        private Column(long leadingNulls) {
+            this.nullCount = leadingNulls;
+        }
+
+        void accept(String value) {
+            if (value == null || value.isEmpty()) {
+                nullCount++;
+                return;
+            }
+            distinctValues.add(value);
+            if (value.trim().isEmpty()) {
+                blankCount++;
+                dataType = ColumnDataType.TEXT;
+                return;
+            }
+            if (dataType != ColumnDataType.TEXT) {
+                dataType = infer(value);
+            }
+        }
+
+        private ColumnDataType infer(String value) {
+            if (dataType == null) {
+                if (ColumnValueParser.isInteger(value)) {
+                    return ColumnDataType.INTEGER;
+                }
+                if (ColumnValueParser.isDecimal(value)) {
+                    return ColumnDataType.DECIMAL;
+                }
+                if (isBoolean(value)) {
+                    return ColumnDataType.BOOLEAN;
+                }
+                datePatternCandidates = matchDatePatterns(value, allDatePatterns);
+                return datePatternCandidates == 0 ? ColumnDataType.TEXT : ColumnDataType.DATE;
+            }
+            switch (dataType) {
+                case INTEGER:
+                    if (ColumnValueParser.isInteger(value)) {
+                        return ColumnDataType.INTEGER;
+                    }
+                    return ColumnValueParser.isDecimal(value) ? ColumnDataType.DECIMAL : ColumnDataType.TEXT;
+                case DECIMAL:
+                    return ColumnValueParser.isInteger(value) || ColumnValueParser.isDecimal(value)
+                            ? ColumnDataType.DECIMAL
+                            : ColumnDataType.TEXT;
+                case BOOLEAN:
+                    return isBoolean(value) ? ColumnDataType.BOOLEAN : ColumnDataType.TEXT;
+                case DATE:
+                    datePatternCandidates = matchDatePatterns(value, datePatternCandidates);
+                    return datePatternCandidates == 0 ? ColumnDataType.TEXT : ColumnDataType.DATE;
+                default:
+                    return ColumnDataType.TEXT;
+            }
+        }
+    }
+}
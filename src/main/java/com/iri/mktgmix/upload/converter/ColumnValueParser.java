@@ -0,0 +1,124 @@
+package com.iri.mktgmix.upload.converter;
+
+/**
+ * Recognizes the converted CSV values that can be stored in a typed column without changing what
+ * they mean. Only plain renderings are accepted: integers without leading zeros or grouping, since
+ * {@code 007} or {@code 1,234} would not read back the same, decimals with a point, and ISO dates.
+ */
+final class ColumnValueParser {
+
+    /**
+     * Integers with more digits may not fit a signed 64-bit value.
+     */
+    private static final int MAX_INTEGER_DIGITS = 18;
+
+    private ColumnValueParser() {
+    }
+
+    static boolean isInteger(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int digits = value.length() - start;
+        if (digits == 0 || digits > MAX_INTEGER_DIGITS) {
+            return false;
+        }
+        if (value.charAt(start) == '0' && digits > 1) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            if (!isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A number with a fraction, an exponent or both, such as {@code -0.25} or {@code 1.23457E+13}.
+     * Integers are not decimals.
+     */
+    static boolean isDecimal(String value) {
+        int i = value.startsWith("-") ? 1 : 0;
+        int integerStart = i;
+        while (i < value.length() && isDigit(value.charAt(i))) {
+            i++;
+        }
+        int integerDigits = i - integerStart;
+        if (integerDigits == 0 || (integerDigits > 1 && value.charAt(integerStart) == '0')) {
+            return false;
+        }
+        boolean fractionOrExponent = false;
+        if (i < value.length() && value.charAt(i) == '.') {
+            int fractionStart = ++i;
+            while (i < value.length() && isDigit(value.charAt(i))) {
+                i++;
+            }
+            if (i == fractionStart) {
+                return false;
+            }
+            fractionOrExponent = true;
+        }
+        if (i < value.length() && value.charAt(i) == 'E') {
+            i++;
+            if (i < value.length() && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentStart = i;
+            while (i < value.length() && isDigit(value.charAt(i))) {
+                i++;
+            }
+            if (i == exponentStart) {
+                return false;
+            }
+            fractionOrExponent = true;
+        }
+        return fractionOrExponent && i == value.length();
+    }
+
+    /**
+     * Parses a {@code yyyy-mm-dd} date into {@code year * 10000 + month * 100 + day}, or returns -1
+     * when the value is not a valid date in that form.
+     */
+    static int parseIsoDate(String value) {
+        if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return -1;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 7);
+        int day = digits(value, 8, 10);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return -1;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    private static int digits(String value, int from, int to) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leapYear = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+                return leapYear ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
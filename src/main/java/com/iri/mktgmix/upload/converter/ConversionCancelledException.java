@@ -0,0 +1,14 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.IOException;
+
+/**
+ * Thrown out of a conversion at a row boundary once its {@link ConversionProgress} was cancelled.
+ * An {@link IOException}, so the converters close their files on the way out as on a read error.
+ */
+public class ConversionCancelledException extends IOException {
+
+    public ConversionCancelledException(String message) {
+        super(message);
+    }
+}
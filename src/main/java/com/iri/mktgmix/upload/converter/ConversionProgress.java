@@ -0,0 +1,150 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks a running conversion for progress reports, and stops it when cancelled. Pass it to
+ * {@link FileToCsvConverter#convert(java.nio.file.Path, RowSink)}: it counts the rows and the input bytes read,
+ * and throws {@link ConversionCancelledException} at the next row once {@link #cancel()} was called.
+ * Sheets converted in parallel each get a {@link #newPart()} instead, which counts toward the same totals.
+ * <p>
+ * Updated by the converting threads, each its own counters, and read by any other.
+ */
+public final class ConversionProgress implements RowSink {
+
+    private final long startedAtNanos = System.nanoTime();
+    private volatile long rowsProcessed;
+    private volatile long bytesRead;
+    private volatile long totalBytes = -1;
+    private volatile boolean cancelled;
+    private final List<Part> parts = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void writeField(String value) {
+    }
+
+    @Override
+    public void endRow() throws ConversionCancelledException {
+        checkNotCancelled();
+        // Only the converting thread writes, so the increment cannot lose updates.
+        rowsProcessed = rowsProcessed + 1;
+    }
+
+    /**
+     * Returns a sink for one part of the input converted on its own thread, such as a sheet of a
+     * workbook. Its rows and input bytes add to this progress, and it stops at its next row once
+     * this progress is cancelled.
+     */
+    public RowSink newPart() {
+        Part part = new Part();
+        parts.add(part);
+        return part;
+    }
+
+    @Override
+    public void inputRead(long bytesRead, long totalBytes) {
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Stops the conversion at its next row.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Rows converted so far, the header included.
+     */
+    public long getRowsProcessed() {
+        long rows = rowsProcessed;
+        for (Part part : parts) {
+            rows += part.rowsProcessed;
+        }
+        return rows;
+    }
+
+    public long getBytesRead() {
+        long read = bytesRead;
+        for (Part part : parts) {
+            read += part.bytesRead;
+        }
+        return read;
+    }
+
+    /**
+     * Size of the input being read, or -1 while it is not known. For a workbook this is the
+     * uncompressed sheet or workbook stream, not the uploaded file; for parts, the sum of the sizes
+     * known so far.
+     */
+    public long getTotalBytes() {
+        long total = totalBytes;
+        for (Part part : parts) {
+            long partTotal = part.totalBytes;
+            if (partTotal >= 0) {
+                total = Math.max(total, 0) + partTotal;
+            }
+        }
+        return total;
+    }
+
+    public Duration getElapsed() {
+        return Duration.ofNanos(System.nanoTime() - startedAtNanos);
+    }
+
+    /**
+     * Time left at the rate the input has been read so far, or null while that cannot be told.
+     */
+    public Duration getEstimatedRemaining() {
+        return estimateRemaining(getElapsed(), bytesRead, totalBytes);
+    }
+
+    /**
+     * Time left to read {@code totalBytes} when {@code bytesRead} took {@code elapsed}, or null when
+     * nothing was read yet or the total is not known.
+     */
+    public static Duration estimateRemaining(Duration elapsed, long bytesRead, long totalBytes) {
+        if (bytesRead <= 0 || totalBytes <= 0) {
+            return null;
+        }
+        double remainingFraction = (double) Math.max(0, totalBytes - bytesRead) / bytesRead;
+        return Duration.ofMillis((long) (elapsed.toMillis() * remainingFraction));
+    }
+
+    private void checkNotCancelled() throws ConversionCancelledException {
+        if (cancelled) {
+            throw new ConversionCancelledException("Conversion cancelled after " + getRowsProcessed() + " rows");
+        }
+    }
+
+    private final class Part implements RowSink {
+
+        private volatile long rowsProcessed;
+        private volatile long bytesRead;
+        private volatile long totalBytes = -1;
+
+        @Override
+        public void writeField(String value) {
+        }
+
+        @Override
+        public void endRow() throws ConversionCancelledException {
+            checkNotCancelled();
+            // Only the part's converting thread writes, so the increment cannot lose updates.
+            rowsProcessed = rowsProcessed + 1;
+        }
+
+        @Override
+        public void inputRead(long bytesRead, long totalBytes) {
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+        }
+    }
+}
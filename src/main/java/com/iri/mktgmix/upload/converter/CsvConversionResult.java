@@ -0,0 +1,38 @@
+package com.iri.mktgmix.upload.converter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+@Getter
+@Builder
+public class CsvConversionResult {
+
+    private final Path csvPath;
+
+    /**
+     * Hex SHA-256 of the CSV bytes, computed while they were written.
+     */
+    private final String checksumSha256;
+
+    /**
+     * Workbook sheet the CSV was converted from, or null for the default first sheet.
+     */
+    private final String sheetName;
+
+    /**
+     * Directory of the MonetDB binary column files written along with the CSV, see
+     * {@link MonetBinaryColumn#list}, or null when only the CSV was written.
+     */
+    private final Path binaryColumnsDirectory;
+
+    public CsvConversionResult withBinaryColumnsDirectory(Path binaryColumnsDirectory) {
+        return CsvConversionResult.builder()
+                .csvPath(csvPath)
+                .checksumSha256(checksumSha256)
+                .sheetName(sheetName)
+                .binaryColumnsDirectory(binaryColumnsDirectory)
+                .build();
+    }
+}
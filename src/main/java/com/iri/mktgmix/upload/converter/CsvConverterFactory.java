@@ -1,5 +1,7 @@
 package com.iri.mktgmix.upload.converter;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Locale;
 
 public final class CsvConverterFactory {
@@ -12,14 +14,27 @@ public final class CsvConverterFactory {
 
         switch (extension) {
             case "xls":
-                return new XlsFileToCsvConverter();
+                return new XlsStreamingFileToCsvConverter();
             case "xlsx":
-                return new XlsxFileToCsvConverter();
+                return new XlsxStreamingFileToCsvConverter();
+            case "csv":
+            case "txt":
+                return new DelimitedTextFileToCsvConverter(',');
+            case "tsv":
+                return new DelimitedTextFileToCsvConverter('\t');
             default:
-                throw new IllegalArgumentException("Unsupported spreadsheet type: " + extension);
+                throw new IllegalArgumentException("Unsupported file type: " + extension);
         }
     }
 
+    /**
+     * Passes the rows of a CSV produced by a converter to {@code rowSink}, for outputs that were not
+     * produced while it was converted.
+     */
+    public static void readConvertedCsv(Path csvPath, RowSink rowSink) throws IOException {
+        DelimitedTextFileToCsvConverter.readConvertedCsv(csvPath, rowSink);
+    }
+
     private static String extractExtension(String originalFileName) {
         if (originalFileName == null || !originalFileName.contains(".")) {
             throw new IllegalArgumentException("Original filename must include extension");
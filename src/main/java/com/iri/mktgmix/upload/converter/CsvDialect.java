@@ -0,0 +1,43 @@
+package com.iri.mktgmix.upload.converter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * How a delimited text file is encoded and split into fields, as guessed by {@link CsvDialectSniffer}.
+ */
+@Getter
+@Builder
+final class CsvDialect {
+
+    private final Charset charset;
+
+    /**
+     * Length in bytes of the byte order mark at the start of the file, 0 when there is none.
+     */
+    private final int bomLength;
+
+    private final char delimiter;
+
+    /**
+     * Character that encloses fields containing the delimiter, quotes or line breaks.
+     */
+    private final char quote;
+
+    /**
+     * Whether a quote inside a quoted field is escaped with a backslash instead of being doubled.
+     */
+    private final boolean backslashEscape;
+
+    /**
+     * Whether files in this dialect may already be byte-identical to what {@link CsvRowWriter} writes.
+     * The whole file still has to be checked before it can be used unchanged.
+     */
+    boolean isCanonical() {
+        return StandardCharsets.UTF_8.equals(charset) && bomLength == 0 && delimiter == ','
+                && quote == '"' && !backslashEscape;
+    }
+}
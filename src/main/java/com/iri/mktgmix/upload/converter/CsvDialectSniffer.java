@@ -0,0 +1,248 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Guesses the {@link CsvDialect} of a delimited text file from its first {@value #PREFIX_BYTES} bytes.
+ */
+final class CsvDialectSniffer {
+
+    static final int PREFIX_BYTES = 64 * 1024;
+
+    private static final int SAMPLE_RECORDS = 100;
+    private static final char[] DELIMITER_CANDIDATES = {',', '\t', ';', '|'};
+    private static final Charset FALLBACK_CHARSET = Charset.isSupported("windows-1252")
+            ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+
+    private CsvDialectSniffer() {
+    }
+
+    /**
+     * @param preferredDelimiter delimiter to use when the sample does not clearly favour one, usually
+     *                           derived from the file extension
+     */
+    static CsvDialect sniff(Path file, char preferredDelimiter) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(PREFIX_BYTES);
+        boolean truncated;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (prefix.hasRemaining() && channel.read(prefix) >= 0) {
+                // keep reading until the prefix is full or the file ends
+            }
+            truncated = channel.size() > prefix.position();
+        }
+        prefix.flip();
+        return sniff(prefix, truncated, preferredDelimiter);
+    }
+
+    static CsvDialect sniff(ByteBuffer prefix, boolean truncated, char preferredDelimiter) {
+        CsvDialect.CsvDialectBuilder dialect = CsvDialect.builder();
+        Charset charset;
+        int bomLength = 0;
+        if (startsWith(prefix, 0xEF, 0xBB, 0xBF)) {
+            charset = StandardCharsets.UTF_8;
+            bomLength = 3;
+        } else if (startsWith(prefix, 0xFF, 0xFE)) {
+            charset = StandardCharsets.UTF_16LE;
+            bomLength = 2;
+        } else if (startsWith(prefix, 0xFE, 0xFF)) {
+            charset = StandardCharsets.UTF_16BE;
+            bomLength = 2;
+        } else {
+            charset = isUtf8(prefix.duplicate(), truncated) ? StandardCharsets.UTF_8 : FALLBACK_CHARSET;
+        }
+        dialect.charset(charset).bomLength(bomLength);
+
+        ByteBuffer body = prefix.duplicate();
+        body.position(body.position() + bomLength);
+        String sample = charset.decode(body).toString();
+        if (truncated) {
+            // The last line was most likely cut in half by the prefix limit.
+            int lastBreak = Math.max(sample.lastIndexOf('\n'), sample.lastIndexOf('\r'));
+            if (lastBreak > 0) {
+                sample = sample.substring(0, lastBreak);
+            }
+        }
+
+        char quote = sniffQuote(sample);
+        boolean backslashEscape = sniffBackslashEscape(sample, quote);
+        return dialect.quote(quote)
+                .backslashEscape(backslashEscape)
+                .delimiter(sniffDelimiter(sample, quote, backslashEscape, preferredDelimiter))
+                .build();
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int... bytes) {
+        if (buffer.remaining() < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((buffer.get(buffer.position() + i) & 0xFF) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUtf8(ByteBuffer prefix, boolean truncated) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(prefix.remaining());
+        // A truncated prefix may end inside a multi-byte sequence, which is not an error.
+        CoderResult result = decoder.decode(prefix, chars, !truncated);
+        if (result.isError()) {
+            return false;
+        }
+        return truncated || !decoder.flush(chars).isError();
+    }
+
+    /**
+     * Picks the quote character that opens fields most often. Apostrophes inside words do not count
+     * because only quotes at the start of a field are considered.
+     */
+    private static char sniffQuote(String sample) {
+        int doubleQuotes = 0;
+        int singleQuotes = 0;
+        for (int i = 0; i < sample.length(); i++) {
+            char c = sample.charAt(i);
+            if ((c == '"' || c == '\'') && (i == 0 || isFieldBoundary(sample.charAt(i - 1)))) {
+                if (c == '"') {
+                    doubleQuotes++;
+                } else {
+                    singleQuotes++;
+                }
+            }
+        }
+        if (doubleQuotes == 0 && singleQuotes > 0) {
+            return '\'';
+        }
+        return '"';
+    }
+
+    /**
+     * Backslash escaping is assumed only when escaped quotes appear and doubled quotes inside a field
+     * do not.
+     */
+    private static boolean sniffBackslashEscape(String sample, char quote) {
+        int backslashed = 0;
+        int doubled = 0;
+        for (int i = 1; i < sample.length() - 1; i++) {
+            if (sample.charAt(i) != quote) {
+                continue;
+            }
+            char previous = sample.charAt(i - 1);
+            char next = sample.charAt(i + 1);
+            if (previous == '\\' && !isFieldBoundary(next)) {
+                backslashed++;
+            } else if (next == quote && !isFieldBoundary(previous)
+                    && (i + 2 >= sample.length() || !isFieldBoundary(sample.charAt(i + 2)))) {
+                doubled++;
+            }
+        }
+        return backslashed > 0 && doubled == 0;
+    }
+
+    /**
+     * Picks the candidate whose per-record count is most consistent across the sample, preferring the
+     * one that splits records into more fields when two are equally consistent.
+     */
+    private static char sniffDelimiter(String sample, char quote, boolean backslashEscape, char preferredDelimiter) {
+        char best = preferredDelimiter;
+        double bestConsistency = 0;
+        int bestFields = 0;
+        for (char candidate : DELIMITER_CANDIDATES) {
+            List<Integer> counts = countPerRecord(sample, candidate, quote, backslashEscape);
+            Map<Integer, Integer> frequencies = new HashMap<>();
+            int mode = 0;
+            int modeFrequency = 0;
+            for (Integer count : counts) {
+                int frequency = frequencies.merge(count, 1, Integer::sum);
+                if (frequency > modeFrequency || (frequency == modeFrequency && count > mode)) {
+                    mode = count;
+                    modeFrequency = frequency;
+                }
+            }
+            if (mode == 0) {
+                continue;
+            }
+            double consistency = (double) modeFrequency / counts.size();
+            boolean better = consistency > bestConsistency
+                    || (consistency == bestConsistency && mode > bestFields)
+                    || (consistency == bestConsistency && mode == bestFields && candidate == preferredDelimiter);
+            if (better) {
+                best = candidate;
+                bestConsistency = consistency;
+                bestFields = mode;
+            }
+        }
+        return best;
+    }
+
+    private static List<Integer> countPerRecord(String sample, char delimiter, char quote, boolean backslashEscape) {
+        List<Integer> counts = new ArrayList<>();
+        int count = 0;
+        boolean recordHasContent = false;
+        boolean quoted = false;
+        boolean fieldStart = true;
+        for (int i = 0; i < sample.length() && counts.size() < SAMPLE_RECORDS; i++) {
+            char c = sample.charAt(i);
+            if (quoted) {
+                if (backslashEscape && c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quoted = false;
+                }
+                continue;
+            }
+            if (c == '\r' || c == '\n') {
+                if (recordHasContent) {
+                    counts.add(count);
+                }
+                count = 0;
+                recordHasContent = false;
+                fieldStart = true;
+                continue;
+            }
+            recordHasContent = true;
+            if (c == delimiter) {
+                count++;
+                fieldStart = true;
+            } else if (c == quote && fieldStart) {
+                quoted = true;
+                fieldStart = false;
+            } else {
+                fieldStart = false;
+            }
+        }
+        if (recordHasContent && counts.size() < SAMPLE_RECORDS) {
+            counts.add(count);
+        }
+        return counts;
+    }
+
+    private static boolean isFieldBoundary(char c) {
+        if (c == '\r' || c == '\n') {
+            return true;
+        }
+        for (char candidate : DELIMITER_CANDIDATES) {
+            if (c == candidate) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
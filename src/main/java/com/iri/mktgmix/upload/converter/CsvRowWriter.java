@@ -0,0 +1,232 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Writes CSV rows field by field and computes the SHA-256 of the written bytes on the way out.
+ * Shared by all converters so they produce byte-identical output for the same cell values.
+ * <p>
+ * This is the innermost loop of every conversion, so it allocates nothing per field. Each value is
+ * scanned once for characters that need quoting and copied straight into a reusable char buffer,
+ * with quotes doubled in place. The buffer is encoded to UTF-8 into a reusable byte buffer.
+ * <p>
+ * Every field and row end is also passed on to an optional {@link RowSink}, for outputs written in
+ * the same pass as the CSV.
+ */
+final class CsvRowWriter implements RowSink, Closeable {
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+    private final Path csvPath;
+    private final RowSink rowSink;
+    private final MessageDigest digest;
+    private final OutputStream out;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final char[] chars = new char[BUFFER_CHARS];
+    private final CharBuffer charView = CharBuffer.wrap(chars);
+    private final ByteBuffer bytes;
+    private int charCount;
+    private boolean firstField = true;
+    private boolean closed;
+
+    private CsvRowWriter(Path csvPath, RowSink rowSink) throws IOException {
+        this.csvPath = csvPath;
+        this.rowSink = rowSink;
+        this.digest = Checksums.newSha256();
+        this.bytes = ByteBuffer.allocate((int) (BUFFER_CHARS * encoder.maxBytesPerChar()));
+        this.out = new DigestOutputStream(Files.newOutputStream(csvPath), digest);
+    }
+
+    /**
+     * Opens a writer for the CSV that sits next to {@code inputFile}, with its extension replaced.
+     * An input that is itself a {@code .csv} gets a {@code .normalized.csv} sibling instead.
+     */
+    static CsvRowWriter forInput(Path inputFile) throws IOException {
+        return forInput(inputFile, null);
+    }
+
+    /**
+     * Same as {@link #forInput(Path)}, also passing every row to {@code rowSink} when it is not null.
+     */
+    static CsvRowWriter forInput(Path inputFile, RowSink rowSink) throws IOException {
+        Path csvPath = replaceExtension(inputFile, ".csv");
+        if (csvPath.equals(inputFile)) {
+            csvPath = replaceExtension(inputFile, ".normalized.csv");
+        }
+        return new CsvRowWriter(csvPath, rowSink);
+    }
+
+    /**
+     * Opens a writer for the CSV of one sheet of {@code inputFile}, numbered by its 0-based position
+     * in the workbook.
+     */
+    static CsvRowWriter forSheet(Path inputFile, int sheetIndex) throws IOException {
+        return forSheet(inputFile, sheetIndex, null);
+    }
+
+    /**
+     * Same as {@link #forSheet(Path, int)}, also passing every row to {@code rowSink} when it is not null.
+     */
+    static CsvRowWriter forSheet(Path inputFile, int sheetIndex, RowSink rowSink) throws IOException {
+        return new CsvRowWriter(replaceExtension(inputFile, ".sheet" + sheetIndex + ".csv"), rowSink);
+    }
+
+    @Override
+    public void writeField(String value) throws IOException {
+        if (rowSink != null) {
+            rowSink.writeField(value);
+        }
+        if (firstField) {
+            firstField = false;
+        } else {
+            append(',');
+        }
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        int special = 0;
+        while (special < length && !requiresQuoting(value.charAt(special))) {
+            special++;
+        }
+        if (special == length) {
+            append(value, 0, length);
+            return;
+        }
+        append('"');
+        int runStart = 0;
+        for (int i = special; i < length; i++) {
+            if (value.charAt(i) == '"') {
+                append(value, runStart, i + 1);
+                append('"');
+                runStart = i + 1;
+            }
+        }
+        append(value, runStart, length);
+        append('"');
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        if (rowSink != null) {
+            rowSink.endRow();
+        }
+        for (char c : LINE_SEPARATOR) {
+            append(c);
+        }
+        firstField = true;
+    }
+
+    @Override
+    public void inputRead(long bytesRead, long totalBytes) {
+        if (rowSink != null) {
+            rowSink.inputRead(bytesRead, totalBytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            encode(true);
+            encoder.flush(bytes);
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Closes the CSV and returns its location and checksum.
+     */
+    CsvConversionResult finish() throws IOException {
+        return finish(null);
+    }
+
+    /**
+     * Same as {@link #finish()} for the CSV of the named sheet.
+     */
+    CsvConversionResult finish(String sheetName) throws IOException {
+        close();
+        return CsvConversionResult.builder()
+                .csvPath(csvPath)
+                .checksumSha256(Checksums.toHex(digest.digest()))
+                .sheetName(sheetName)
+                .build();
+    }
+
+    private static boolean requiresQuoting(char c) {
+        return c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+
+    private void append(char c) throws IOException {
+        if (charCount == chars.length) {
+            encode(false);
+        }
+        chars[charCount++] = c;
+    }
+
+    private void append(String value, int from, int to) throws IOException {
+        while (from < to) {
+            if (charCount == chars.length) {
+                encode(false);
+            }
+            int count = Math.min(to - from, chars.length - charCount);
+            value.getChars(from, from + count, chars, charCount);
+            charCount += count;
+            from += count;
+        }
+    }
+
+    /**
+     * Encodes the buffered chars. A high surrogate at the end of the buffer is kept for the next
+     * round, so pairs split across buffer boundaries are encoded as one code point.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        charView.limit(charCount).position(0);
+        CoderResult result;
+        do {
+            result = encoder.encode(charView, bytes, endOfInput);
+            drain();
+        } while (result.isOverflow());
+        int remaining = charView.remaining();
+        System.arraycopy(chars, charView.position(), chars, 0, remaining);
+        charCount = remaining;
+    }
+
+    private void drain() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+
+    private static Path replaceExtension(Path originalFile, String newExtension) {
+        String fileName = originalFile.getFileName().toString();
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex == -1) {
+            fileName = fileName + newExtension;
+        } else {
+            fileName = fileName.substring(0, dotIndex) + newExtension;
+        }
+        return originalFile.getParent().resolve(fileName);
+    }
+}
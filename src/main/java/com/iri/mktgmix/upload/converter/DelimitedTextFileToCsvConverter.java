@@ -0,0 +1,176 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Converts CSV, TSV and other delimited text files. The dialect is sniffed from a prefix of the file
+ * and the file is rewritten as canonical CSV in one streaming pass. A file that is already canonical
+ * is returned as is, so the content store renames it into place instead of copying it.
+ */
+class DelimitedTextFileToCsvConverter implements FileToCsvConverter {
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    /**
+     * The dialect {@link CsvRowWriter} writes.
+     */
+    private static final CsvDialect CONVERTED_CSV = CsvDialect.builder()
+            .charset(StandardCharsets.UTF_8)
+            .delimiter(',')
+            .quote('"')
+            .build();
+
+    private final char preferredDelimiter;
+
+    DelimitedTextFileToCsvConverter(char preferredDelimiter) {
+        this.preferredDelimiter = preferredDelimiter;
+    }
+
+    @Override
+    public CsvConversionResult convert(Path inputFile, RowSink rowSink) throws IOException {
+        CsvDialect dialect = CsvDialectSniffer.sniff(inputFile, preferredDelimiter);
+        if (dialect.isCanonical()) {
+            String checksum = CanonicalCsvScanner.checksumIfCanonical(inputFile);
+            if (checksum != null) {
+                if (rowSink != null) {
+                    // The CSV is kept as is, the rows are only read for the sink.
+                    copyRecords(inputFile, dialect, rowSink);
+                }
+                return CsvConversionResult.builder()
+                        .csvPath(inputFile)
+                        .checksumSha256(checksum)
+                        .build();
+            }
+        }
+        try (CsvRowWriter writer = CsvRowWriter.forInput(inputFile, rowSink)) {
+            copyRecords(inputFile, dialect, writer);
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Reads a CSV written by {@link CsvRowWriter}, such as a stored conversion, into {@code rowSink}.
+     */
+    static void readConvertedCsv(Path csvPath, RowSink rowSink) throws IOException {
+        copyRecords(csvPath, CONVERTED_CSV, rowSink);
+    }
+
+    private static void copyRecords(Path inputFile, CsvDialect dialect, RowSink target) throws IOException {
+        try (InputStream input = new ProgressInputStream(Files.newInputStream(inputFile), Files.size(inputFile), target)) {
+            long skipped = 0;
+            while (skipped < dialect.getBomLength()) {
+                skipped += input.skip(dialect.getBomLength() - skipped);
+            }
+            new FieldReader(new InputStreamReader(input, dialect.getCharset()), dialect, target).copyRecords();
+        }
+    }
+
+    private static final class FieldReader {
+
+        private enum State {
+            FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED, ESCAPE_IN_QUOTED
+        }
+
+        private final Reader reader;
+        private final char delimiter;
+        private final char quote;
+        private final boolean backslashEscape;
+        private final RowSink writer;
+        private final StringBuilder field = new StringBuilder();
+
+        private State state = State.FIELD_START;
+        private boolean recordStarted;
+        private boolean skipLineFeed;
+
+        private FieldReader(Reader reader, CsvDialect dialect, RowSink writer) {
+            this.reader = reader;
+            this.delimiter = dialect.getDelimiter();
+            this.quote = dialect.getQuote();
+            this.backslashEscape = dialect.isBackslashEscape();
+            this.writer = writer;
+        }
+
+        void copyRecords() throws IOException {
+            char[] buffer = new char[BUFFER_CHARS];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    accept(buffer[i]);
+                }
+            }
+            // Unterminated quotes and a missing final line break are tolerated.
+            if (recordStarted) {
+                endRecord();
+            }
+        }
+
+        private void accept(char c) throws IOException {
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    return;
+                }
+            }
+            recordStarted = true;
+            switch (state) {
+                case QUOTED:
+                    if (backslashEscape && c == '\\') {
+                        state = State.ESCAPE_IN_QUOTED;
+                    } else if (c == quote) {
+                        state = State.QUOTE_IN_QUOTED;
+                    } else {
+                        field.append(c);
+                    }
+                    return;
+                case ESCAPE_IN_QUOTED:
+                    field.append(c);
+                    state = State.QUOTED;
+                    return;
+                case QUOTE_IN_QUOTED:
+                    if (c == quote && !backslashEscape) {
+                        field.append(c);
+                        state = State.QUOTED;
+                        return;
+                    }
+                    break;
+                case FIELD_START:
+                    if (c == quote) {
+                        state = State.QUOTED;
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (c == delimiter) {
+                endField();
+            } else if (c == '\r' || c == '\n') {
+                skipLineFeed = c == '\r';
+                endRecord();
+            } else {
+                // Text after a closing quote is kept, as most spreadsheet tools do.
+                field.append(c);
+                state = State.UNQUOTED;
+            }
+        }
+
+        private void endField() throws IOException {
+            writer.writeField(field.toString());
+            field.setLength(0);
+            state = State.FIELD_START;
+        }
+
+        private void endRecord() throws IOException {
+            endField();
+            writer.endRow();
+            recordStarted = false;
+        }
+    }
+}
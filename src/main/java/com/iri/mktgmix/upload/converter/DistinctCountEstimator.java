@@ -0,0 +1,59 @@
+package com.iri.mktgmix.upload.converter;
+
+/**
+ * HyperLogLog estimate of the number of distinct values, in a fixed 1 KiB per column. The standard
+ * error is about 3%; small counts are estimated by linear counting and are close to exact.
+ */
+final class DistinctCountEstimator {
+
+    private static final int INDEX_BITS = 10;
+    private static final int REGISTER_COUNT = 1 << INDEX_BITS;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+
+    private final byte[] registers = new byte[REGISTER_COUNT];
+
+    void add(String value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (Long.SIZE - INDEX_BITS));
+        // The remaining bits, with a stop bit so the run of leading zeros is bounded.
+        long remaining = (hash << INDEX_BITS) | (1L << (INDEX_BITS - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    long estimate() {
+        double sum = 0;
+        int emptyRegisters = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                emptyRegisters++;
+            }
+        }
+        double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (estimate <= 2.5 * REGISTER_COUNT && emptyRegisters > 0) {
+            estimate = REGISTER_COUNT * Math.log((double) REGISTER_COUNT / emptyRegisters);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units, then the MurmurHash3 finalizer, which spreads the
+     * bits FNV leaves correlated for short values.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
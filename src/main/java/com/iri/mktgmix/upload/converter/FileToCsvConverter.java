@@ -2,9 +2,52 @@ package com.iri.mktgmix.upload.converter;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 public interface FileToCsvConverter {
 
-    Path convert(Path inputFile) throws IOException;
-}
+    /**
+     * Writes the CSV next to {@code inputFile}. A converter whose input is already the CSV it would
+     * write may return {@code inputFile} itself; either way the caller takes ownership of the result.
+     */
+    default CsvConversionResult convert(Path inputFile) throws IOException {
+        return convert(inputFile, null);
+    }
+
+    /**
+     * Same as {@link #convert(Path)}, also passing every row written to the CSV to {@code rowSink}
+     * when it is not null. The rows are passed on even when the input is returned as is.
+     */
+    CsvConversionResult convert(Path inputFile, RowSink rowSink) throws IOException;
+
+    /**
+     * Names of the sheets in {@code inputFile} in workbook order, or an empty list for formats that
+     * have no sheets.
+     */
+    default List<String> listSheetNames(Path inputFile) throws IOException {
+        return Collections.emptyList();
+    }
 
+    /**
+     * Writes one CSV per named sheet, returned in the order of {@code sheetNames}. Converters that
+     * can read sheets independently run them on {@code sheetExecutor}.
+     */
+    default List<CsvConversionResult> convertSheets(Path inputFile, List<String> sheetNames, Executor sheetExecutor)
+            throws IOException {
+        return convertSheets(inputFile, sheetNames, sheetExecutor, null);
+    }
+
+    /**
+     * Same as {@link #convertSheets(Path, List, Executor)}, also passing every row of a sheet to the
+     * sink {@code sheetSinks} returns for its name, when either is not null. Each sink is used by one
+     * thread at a time, but sheets converted in parallel use theirs at once. A converter that reads
+     * all sheets from one stream reports the bytes read of it to the first sheet's sink.
+     */
+    default List<CsvConversionResult> convertSheets(Path inputFile, List<String> sheetNames, Executor sheetExecutor,
+                                                    Function<String, RowSink> sheetSinks) throws IOException {
+        throw new SheetNotFoundException(inputFile.getFileName() + " has no sheets to select from");
+    }
+}
@@ -0,0 +1,62 @@
+package com.iri.mktgmix.upload.converter;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One column file written by {@link MonetBinaryColumnWriter}. Files are named
+ * {@code col{ordinal}.{type extension}}, with 1-based, zero-padded ordinals.
+ */
+@Getter
+public final class MonetBinaryColumn {
+
+    private static final String FILE_PREFIX = "col";
+
+    private final int ordinal;
+    private final MonetBinaryColumnType type;
+    private final Path path;
+
+    MonetBinaryColumn(int ordinal, MonetBinaryColumnType type, Path path) {
+        this.ordinal = ordinal;
+        this.type = type;
+        this.path = path;
+    }
+
+    /**
+     * Lists the column files in {@code directory} in column order.
+     */
+    public static List<MonetBinaryColumn> list(Path directory) throws IOException {
+        List<MonetBinaryColumn> columns = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*.*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                int dotIndex = fileName.indexOf('.');
+                MonetBinaryColumnType type = MonetBinaryColumnType.forFileExtension(fileName.substring(dotIndex + 1));
+                if (type != null) {
+                    columns.add(new MonetBinaryColumn(
+                            Integer.parseInt(fileName.substring(FILE_PREFIX.length(), dotIndex)), type, file));
+                }
+            }
+        }
+        columns.sort(Comparator.comparingInt(MonetBinaryColumn::getOrdinal));
+        return columns;
+    }
+
+    static String fileName(int ordinal, MonetBinaryColumnType type) {
+        return baseName(ordinal) + '.' + type.getFileExtension();
+    }
+
+    /**
+     * The file name without extension; files whose extension is not a type's are not listed.
+     */
+    static String baseName(int ordinal) {
+        return String.format("%s%05d", FILE_PREFIX, ordinal);
+    }
+}
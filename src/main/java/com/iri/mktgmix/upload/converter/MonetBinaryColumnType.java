@@ -0,0 +1,53 @@
+package com.iri.mktgmix.upload.converter;
+
+/**
+ * Column types written by {@link MonetBinaryColumnWriter}, each in the little-endian layout MonetDB's
+ * {@code COPY LITTLE ENDIAN BINARY INTO} reads for the SQL type.
+ */
+public enum MonetBinaryColumnType {
+
+    /**
+     * Signed 64-bit integers; null is the smallest value.
+     */
+    BIGINT("bigint", "BIGINT"),
+
+    /**
+     * IEEE 754 doubles; null is NaN.
+     */
+    DOUBLE("double", "DOUBLE"),
+
+    /**
+     * Day and month as one byte each, then the year as a signed 16-bit integer; null is all ones.
+     */
+    DATE("date", "DATE"),
+
+    /**
+     * UTF-8 strings, each terminated by a zero byte; null is the single byte {@code 0x80}.
+     */
+    TEXT("text", "STRING");
+
+    private final String fileExtension;
+    private final String sqlType;
+
+    MonetBinaryColumnType(String fileExtension, String sqlType) {
+        this.fileExtension = fileExtension;
+        this.sqlType = sqlType;
+    }
+
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    public String getSqlType() {
+        return sqlType;
+    }
+
+    static MonetBinaryColumnType forFileExtension(String fileExtension) {
+        for (MonetBinaryColumnType type : values()) {
+            if (type.fileExtension.equals(fileExtension)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,355 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes converted rows as one binary file per column, in the layout MonetDB's
+ * {@code COPY LITTLE ENDIAN BINARY INTO} loads without parsing any text, see
+ * {@link MonetBinaryColumnType}. The first row is the header: it sets the number of columns and is
+ * not written. Short rows are padded with nulls, and empty values are null as in the CSV load.
+ * <p>
+ * A column's type is only known once all of its values have been seen. So while a column still
+ * looks typed, each value is written both as text and in the column's type so far. Integers that
+ * are followed by decimals are widened to doubles when the column is finished. Any other mismatch
+ * turns the column into text. In the end only the file of the final type is kept. Text values are
+ * the CSV values, so a text column loads exactly what the CSV would.
+ */
+public final class MonetBinaryColumnWriter implements RowSink, Closeable {
+
+    private static final String DIRECTORY_SUFFIX = ".columns";
+    private static final String PARTIAL_TEXT_SUFFIX = ".text-partial";
+    private static final String PARTIAL_TYPED_SUFFIX = ".typed-partial";
+    private static final int BUFFER_BYTES = 8 * 1024;
+
+    /**
+     * Integers of larger magnitude are not exact as doubles, so they are never widened.
+     */
+    private static final long MAX_EXACT_DOUBLE_INTEGER = 1L << 53;
+
+    private static final byte TEXT_TERMINATOR = 0;
+    private static final byte TEXT_NULL = (byte) 0x80;
+    private static final long BIGINT_NULL = Long.MIN_VALUE;
+    private static final int DATE_NULL_DAY_MONTH = 0xFF;
+    private static final int DATE_NULL_YEAR = 0xFFFF;
+
+    private final Path directory;
+    private final List<Column> columns = new ArrayList<>();
+    private final byte[] scratch = new byte[Long.BYTES];
+    private boolean headerRow = true;
+    private int fieldIndex;
+    private long rowCount;
+    private boolean unrepresentable;
+    private boolean finished;
+    private boolean closed;
+
+    private MonetBinaryColumnWriter(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a writer for the column files of {@code inputFile}, in a {@code .columns} directory next
+     * to it. Files left there by an earlier attempt are removed.
+     */
+    public static MonetBinaryColumnWriter forInput(Path inputFile) throws IOException {
+        Path directory = inputFile.resolveSibling(inputFile.getFileName() + DIRECTORY_SUFFIX);
+        deleteDirectory(directory);
+        return new MonetBinaryColumnWriter(Files.createDirectories(directory));
+    }
+
+    @Override
+    public void writeField(String value) throws IOException {
+        if (fieldIndex == columns.size()) {
+            columns.add(new Column(columns.size() + 1));
+        }
+        if (!headerRow) {
+            columns.get(fieldIndex).write(value == null || value.isEmpty() ? null : value);
+        }
+        fieldIndex++;
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        if (headerRow) {
+            headerRow = false;
+        } else {
+            for (int i = fieldIndex; i < columns.size(); i++) {
+                columns.get(i).write(null);
+            }
+            rowCount++;
+        }
+        fieldIndex = 0;
+    }
+
+    /**
+     * Rows written, without the header.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Closes the column files and returns their directory, see {@link MonetBinaryColumn#list}. Returns
+     * null, and removes the files, when a value cannot be stored in the binary layout: text values
+     * are zero-terminated, so a value with a NUL character is only loadable from the CSV.
+     */
+    public Path finish() throws IOException {
+        if (unrepresentable) {
+            close();
+            return null;
+        }
+        for (Column column : columns) {
+            column.finish();
+        }
+        finished = true;
+        close();
+        return directory;
+    }
+
+    /**
+     * Removes the column files unless {@link #finish()} completed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (finished) {
+            return;
+        }
+        for (Column column : columns) {
+            column.closeStreams();
+        }
+        deleteDirectory(directory);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * The files of one column. {@code type} is null until the first non-null value; {@code typed}
+     * is null until then and again once the column has turned into text.
+     */
+    private final class Column {
+
+        private final int ordinal;
+        private final Path textPath;
+        private final Path typedPath;
+        private final OutputStream text;
+        private OutputStream typed;
+        private MonetBinaryColumnType type;
+        private long leadingNulls;
+        private long typedValues;
+        private long integersBeforeDoubles;
+        private boolean inexactAsDouble;
+
+        private Column(int ordinal) throws IOException {
+            this.ordinal = ordinal;
+            this.textPath = directory.resolve(MonetBinaryColumn.baseName(ordinal) + PARTIAL_TEXT_SUFFIX);
+            this.typedPath = directory.resolve(MonetBinaryColumn.baseName(ordinal) + PARTIAL_TYPED_SUFFIX);
+            this.text = new BufferedOutputStream(Files.newOutputStream(textPath), BUFFER_BYTES);
+            // A column that first appears in a later row is null in the rows before it.
+            for (long row = 0; row < rowCount; row++) {
+                write(null);
+            }
+        }
+
+        void write(String value) throws IOException {
+            writeText(value);
+            if (type == MonetBinaryColumnType.TEXT) {
+                return;
+            }
+            if (value == null) {
+                if (type == null) {
+                    leadingNulls++;
+                } else {
+                    writeTypedNull();
+                }
+                return;
+            }
+            if (ColumnValueParser.isInteger(value)) {
+                writeInteger(Long.parseLong(value));
+            } else if (ColumnValueParser.isDecimal(value)) {
+                writeDecimal(Double.parseDouble(value));
+            } else {
+                int date = ColumnValueParser.parseIsoDate(value);
+                if (date < 0) {
+                    turnIntoText();
+                } else {
+                    writeDate(date);
+                }
+            }
+        }
+
+        private void writeInteger(long value) throws IOException {
+            boolean inexact = Math.abs(value) > MAX_EXACT_DOUBLE_INTEGER;
+            if (type == null) {
+                start(MonetBinaryColumnType.BIGINT);
+            }
+            if (type == MonetBinaryColumnType.BIGINT) {
+                inexactAsDouble |= inexact;
+                writeLong(value);
+            } else if (type == MonetBinaryColumnType.DOUBLE && !inexact) {
+                writeLong(Double.doubleToLongBits(value));
+            } else {
+                turnIntoText();
+            }
+        }
+
+        private void writeDecimal(double value) throws IOException {
+            if (Double.isInfinite(value)) {
+                turnIntoText();
+                return;
+            }
+            if (type == null) {
+                start(MonetBinaryColumnType.DOUBLE);
+            } else if (type == MonetBinaryColumnType.BIGINT && !inexactAsDouble) {
+                // The integers written so far are converted in finish().
+                integersBeforeDoubles = typedValues;
+                type = MonetBinaryColumnType.DOUBLE;
+            }
+            if (type == MonetBinaryColumnType.DOUBLE) {
+                writeLong(Double.doubleToLongBits(value));
+            } else {
+                turnIntoText();
+            }
+        }
+
+        private void writeDate(int date) throws IOException {
+            if (type == null) {
+                start(MonetBinaryColumnType.DATE);
+            }
+            if (type == MonetBinaryColumnType.DATE) {
+                writeDate(date % 100, date / 100 % 100, date / 10000);
+            } else {
+                turnIntoText();
+            }
+        }
+
+        private void writeDate(int day, int month, int year) throws IOException {
+            scratch[0] = (byte) day;
+            scratch[1] = (byte) month;
+            scratch[2] = (byte) year;
+            scratch[3] = (byte) (year >> 8);
+            typed.write(scratch, 0, 4);
+            typedValues++;
+        }
+
+        private void start(MonetBinaryColumnType firstType) throws IOException {
+            type = firstType;
+            typed = new BufferedOutputStream(Files.newOutputStream(typedPath), BUFFER_BYTES);
+            for (long row = 0; row < leadingNulls; row++) {
+                writeTypedNull();
+            }
+        }
+
+        private void writeTypedNull() throws IOException {
+            switch (type) {
+                case BIGINT:
+                    writeLong(BIGINT_NULL);
+                    break;
+                case DOUBLE:
+                    writeLong(Double.doubleToLongBits(Double.NaN));
+                    break;
+                default:
+                    writeDate(DATE_NULL_DAY_MONTH, DATE_NULL_DAY_MONTH, DATE_NULL_YEAR);
+                    break;
+            }
+        }
+
+        private void writeLong(long value) throws IOException {
+            for (int i = 0; i < Long.BYTES; i++) {
+                scratch[i] = (byte) (value >>> (8 * i));
+            }
+            typed.write(scratch, 0, Long.BYTES);
+            typedValues++;
+        }
+
+        private void writeText(String value) throws IOException {
+            if (value == null) {
+                text.write(TEXT_NULL);
+            } else {
+                if (value.indexOf('\0') >= 0) {
+                    unrepresentable = true;
+                }
+                text.write(value.getBytes(StandardCharsets.UTF_8));
+            }
+            text.write(TEXT_TERMINATOR);
+        }
+
+        private void turnIntoText() throws IOException {
+            type = MonetBinaryColumnType.TEXT;
+            if (typed != null) {
+                typed.close();
+                typed = null;
+                Files.delete(typedPath);
+            }
+        }
+
+        void finish() throws IOException {
+            closeStreams();
+            if (type == null || type == MonetBinaryColumnType.TEXT) {
+                Files.move(textPath, directory.resolve(MonetBinaryColumn.fileName(ordinal, MonetBinaryColumnType.TEXT)));
+                return;
+            }
+            if (type == MonetBinaryColumnType.DOUBLE && integersBeforeDoubles > 0) {
+                widenLeadingIntegers();
+            }
+            Files.move(typedPath, directory.resolve(MonetBinaryColumn.fileName(ordinal, type)));
+            Files.delete(textPath);
+        }
+
+        void closeStreams() throws IOException {
+            text.close();
+            if (typed != null) {
+                typed.close();
+            }
+        }
+
+        /**
+         * Rewrites the integers written before the column's first decimal as doubles, in place.
+         */
+        private void widenLeadingIntegers() throws IOException {
+            try (FileChannel channel = FileChannel.open(typedPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                long end = integersBeforeDoubles * Long.BYTES;
+                for (long position = 0; position < end; position += buffer.limit()) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    while (buffer.hasRemaining()) {
+                        channel.read(buffer, position + buffer.position());
+                    }
+                    for (int i = 0; i < buffer.limit(); i += Long.BYTES) {
+                        long value = buffer.getLong(i);
+                        buffer.putDouble(i, value == BIGINT_NULL ? Double.NaN : value);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, position + buffer.position());
+                    }
+                }
+            }
+        }
+    }
+}
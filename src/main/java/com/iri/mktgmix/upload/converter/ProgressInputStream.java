@@ -0,0 +1,61 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reports the bytes read from a converter's input to a {@link RowSink}.
+ */
+final class ProgressInputStream extends FilterInputStream {
+
+    private final long totalBytes;
+    private final RowSink rowSink;
+    private long bytesRead;
+
+    /**
+     * @param totalBytes size of {@code in}, or -1 when it is not known
+     */
+    ProgressInputStream(InputStream in, long totalBytes, RowSink rowSink) {
+        super(in);
+        this.totalBytes = totalBytes;
+        this.rowSink = rowSink;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            advance(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            advance(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            advance(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void advance(long count) {
+        bytesRead += count;
+        rowSink.inputRead(bytesRead, totalBytes);
+    }
+}
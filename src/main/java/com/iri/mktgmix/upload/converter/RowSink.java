@@ -0,0 +1,60 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.IOException;
+
+/**
+ * Receives converted rows field by field, exactly as they are written to the CSV, so further outputs
+ * can be produced in the same pass over the source file. A null or empty value is an empty field.
+ */
+public interface RowSink {
+
+    void writeField(String value) throws IOException;
+
+    /**
+     * Writes {@code count} empty fields, for columns that have no cell.
+     */
+    default void writeEmptyFields(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            writeField(null);
+        }
+    }
+
+    void endRow() throws IOException;
+
+    /**
+     * Reports how many bytes of the input the converter has read, out of {@code totalBytes}, or -1
+     * when the total is not known. Called as the input is read, between rows.
+     */
+    default void inputRead(long bytesRead, long totalBytes) {
+    }
+
+    /**
+     * Returns a sink that passes every row to this sink and then to {@code next}. A null {@code next}
+     * returns this sink.
+     */
+    default RowSink andThen(RowSink next) {
+        if (next == null) {
+            return this;
+        }
+        RowSink first = this;
+        return new RowSink() {
+            @Override
+            public void writeField(String value) throws IOException {
+                first.writeField(value);
+                next.writeField(value);
+            }
+
+            @Override
+            public void endRow() throws IOException {
+                first.endRow();
+                next.endRow();
+            }
+
+            @Override
+            public void inputRead(long bytesRead, long totalBytes) {
+                first.inputRead(bytesRead, totalBytes);
+                next.inputRead(bytesRead, totalBytes);
+            }
+        };
+    }
+}
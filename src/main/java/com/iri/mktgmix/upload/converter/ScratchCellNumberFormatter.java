@@ -0,0 +1,214 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.ExcelGeneralNumberFormat;
+import org.apache.poi.ss.usermodel.ExcelStyleDateFormatter;
+import org.apache.poi.util.LocaleUtil;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.text.Format;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats numeric values read by the streaming converters exactly like
+ * {@link DataFormatter#formatCellValue} does for a usermodel cell with the same data format.
+ * <p>
+ * {@link DataFormatter#formatRawCellContents} is not equivalent: it rounds through a different
+ * decimal conversion and writes exponents differently. So the first value of each distinct format
+ * is set on a single scratch cell whose style carries the data format, and formatted through the
+ * cell path. That also compiles the format: the {@link Format} the cell path built for it is kept
+ * in a {@link CellNumberFormat}, and later values are formatted with it directly, without the
+ * scratch cell, the style lookups and the per-value regular expression of the cell path. Integral
+ * values in the General format are written with {@link Long#toString(long)}.
+ * <p>
+ * The locale is read once when the formatter is created, so a sheet is formatted with one locale
+ * throughout.
+ */
+final class ScratchCellNumberFormatter {
+
+    /**
+     * Below this magnitude the General format writes integral values without an exponent.
+     */
+    private static final double GENERAL_INTEGER_LIMIT = 1E11;
+
+    private final Locale locale = LocaleUtil.getUserLocale();
+    private final DataFormatter formatter = new DataFormatter(locale);
+    private final boolean asciiIntegers;
+    private final boolean date1904;
+    private final XSSFWorkbook scratchWorkbook = new XSSFWorkbook();
+    private final XSSFCell scratchCell;
+    private final Map<String, CellNumberFormat> formats = new HashMap<>();
+    private final CellNumberFormat unformatted = new CellNumberFormat(null, null, false);
+
+    ScratchCellNumberFormatter(boolean date1904) {
+        this.date1904 = date1904;
+        if (date1904) {
+            // A new workbook already has a workbookPr element, and only the first one is read.
+            CTWorkbook workbook = scratchWorkbook.getCTWorkbook();
+            (workbook.isSetWorkbookPr() ? workbook.getWorkbookPr() : workbook.addNewWorkbookPr()).setDate1904(true);
+        }
+        this.scratchCell = scratchWorkbook.createSheet().createRow(0).createCell(0);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        this.asciiIntegers = symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+    }
+
+    /**
+     * Formats {@code value} with {@code formatString}, the data format string of the source cell's
+     * style, or null when the cell has no style.
+     */
+    String format(double value, String formatString) {
+        return forFormatString(formatString).format(value);
+    }
+
+    /**
+     * Returns the format for {@code formatString}, which callers may keep for later values with the
+     * same data format.
+     */
+    CellNumberFormat forFormatString(String formatString) {
+        // Without a style or format, the usermodel falls back to Double.toString.
+        if (formatString == null || formatString.trim().isEmpty()) {
+            return unformatted;
+        }
+        CellNumberFormat format = formats.get(formatString);
+        if (format == null) {
+            XSSFCellStyle style = scratchWorkbook.createCellStyle();
+            style.setDataFormat(scratchWorkbook.createDataFormat().getFormat(formatString));
+            format = new CellNumberFormat(formatString, style,
+                    DateUtil.isADateFormat(style.getDataFormat(), formatString));
+            formats.put(formatString, format);
+        }
+        return format;
+    }
+
+    void close() throws IOException {
+        scratchWorkbook.close();
+    }
+
+    /**
+     * A data format of {@link ScratchCellNumberFormatter}, compiled when its first value is
+     * formatted.
+     */
+    final class CellNumberFormat {
+
+        private final String formatString;
+        private final XSSFCellStyle style;
+        private final boolean dateFormat;
+        private boolean compiled;
+        private Format compiledFormat;
+        private boolean generalFormat;
+
+        private CellNumberFormat(String formatString, XSSFCellStyle style, boolean dateFormat) {
+            this.formatString = formatString;
+            this.style = style;
+            this.dateFormat = dateFormat;
+        }
+
+        String format(double value) {
+            if (style == null) {
+                return Double.toString(value);
+            }
+            if (compiledFormat == null) {
+                String formatted = formatThroughScratchCell(value);
+                if (!compiled) {
+                    compiled = true;
+                    compile(value);
+                }
+                return formatted;
+            }
+            if (dateFormat) {
+                return DateUtil.isValidExcelDate(value) ? formatDate(value) : formatThroughScratchCell(value);
+            }
+            if (generalFormat && asciiIntegers && Math.floor(value) == value
+                    && Math.abs(value) < GENERAL_INTEGER_LIMIT) {
+                return Long.toString((long) value);
+            }
+            return formatNumber(value);
+        }
+
+        private String formatThroughScratchCell(double value) {
+            scratchCell.setCellStyle(style);
+            scratchCell.setCellValue(value);
+            return formatter.formatCellValue(scratchCell);
+        }
+
+        /**
+         * Builds the same {@link Format} the cell path has just built and cached for the first
+         * value, and replaces the cached one with it. Formats whose {@link Format} depends on each
+         * value, multi-section and conditional ones, keep going through the scratch cell, as does a
+         * date format first seen with a value that is not a valid date, since the cell path then
+         * cached a number format for it.
+         */
+        private void compile(double firstValue) {
+            if (formatString.contains("\\%") || isValueDependent(formatString)) {
+                return;
+            }
+            if (dateFormat && !DateUtil.isValidExcelDate(firstValue)) {
+                return;
+            }
+            // The scratch cell still holds the first value and this format's style. The cell path
+            // then shares the instance: a date formatter keeps the last date it was given, and the
+            // cell path reads that back when it formats a value that is not a valid date.
+            compiledFormat = formatter.createFormat(scratchCell);
+            if (compiledFormat instanceof ExcelStyleDateFormatter) {
+                ((ExcelStyleDateFormatter) compiledFormat).setDateToBeFormatted(firstValue);
+            }
+            formatter.addFormat(formatString, compiledFormat);
+            generalFormat = compiledFormat instanceof ExcelGeneralNumberFormat;
+        }
+
+        private String formatDate(double value) {
+            if (compiledFormat instanceof ExcelStyleDateFormatter) {
+                ((ExcelStyleDateFormatter) compiledFormat).setDateToBeFormatted(value);
+            }
+            return compiledFormat.format(DateUtil.getJavaDate(value, date1904));
+        }
+
+        private String formatNumber(double value) {
+            String formatted;
+            try {
+                formatted = compiledFormat.format(BigDecimal.valueOf(value));
+            } catch (NumberFormatException notFinite) {
+                formatted = compiledFormat.format(value);
+            }
+            return withExplicitExponentSign(formatted);
+        }
+    }
+
+    /**
+     * True when {@link DataFormatter} picks the format per value: more than one section, or a
+     * section with a range condition such as {@code [>=100]}. Conservative, a condition in any
+     * two-section format counts.
+     */
+    private static boolean isValueDependent(String formatString) {
+        int firstSection = formatString.indexOf(';');
+        if (firstSection < 0) {
+            return false;
+        }
+        return firstSection != formatString.lastIndexOf(';')
+                || formatString.indexOf('<') >= 0
+                || formatString.indexOf('>') >= 0
+                || formatString.indexOf('=') >= 0;
+    }
+
+    /**
+     * Same as {@code formatted.replaceFirst("E(\\d)", "E+$1")} in the cell path.
+     */
+    private static String withExplicitExponentSign(String formatted) {
+        for (int i = formatted.indexOf('E'); i >= 0 && i < formatted.length() - 1; i = formatted.indexOf('E', i + 1)) {
+            char next = formatted.charAt(i + 1);
+            if (next >= '0' && next <= '9') {
+                return formatted.substring(0, i + 1) + '+' + formatted.substring(i + 1);
+            }
+        }
+        return formatted;
+    }
+}
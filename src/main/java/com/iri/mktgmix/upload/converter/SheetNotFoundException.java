@@ -0,0 +1,13 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.io.IOException;
+
+/**
+ * A requested sheet does not exist in the uploaded file, or the file has no sheets to choose from.
+ */
+public class SheetNotFoundException extends IOException {
+
+    public SheetNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,111 @@
+package com.iri.mktgmix.upload.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Which sheets of a workbook are converted: the first one (the default), all of them, or a list of
+ * names. The selection is stored on the upload as a single column value, see {@link #toColumnValue()}.
+ */
+public final class SheetSelection {
+
+    /**
+     * Column value selecting every sheet. Excel does not allow {@code *} or {@code /} in sheet names,
+     * so neither marker can clash with a real name.
+     */
+    private static final String ALL_SHEETS = "*";
+    private static final char NAME_SEPARATOR = '/';
+
+    private static final SheetSelection FIRST_SHEET = new SheetSelection(false, Collections.<String>emptyList());
+    private static final SheetSelection EVERY_SHEET = new SheetSelection(true, Collections.<String>emptyList());
+
+    private final boolean allSheets;
+    private final List<String> sheetNames;
+
+    private SheetSelection(boolean allSheets, List<String> sheetNames) {
+        this.allSheets = allSheets;
+        this.sheetNames = sheetNames;
+    }
+
+    public static SheetSelection firstSheet() {
+        return FIRST_SHEET;
+    }
+
+    public static SheetSelection allSheets() {
+        return EVERY_SHEET;
+    }
+
+    /**
+     * Selects the named sheets in the given order; duplicates are dropped.
+     *
+     * @throws IllegalArgumentException when a name is blank or contains a character Excel forbids
+     */
+    public static SheetSelection named(List<String> sheetNames) {
+        if (sheetNames == null || sheetNames.isEmpty()) {
+            return FIRST_SHEET;
+        }
+        for (String sheetName : sheetNames) {
+            if (sheetName == null || sheetName.trim().isEmpty()) {
+                throw new IllegalArgumentException("Sheet names must not be blank");
+            }
+            if (sheetName.indexOf(NAME_SEPARATOR) >= 0 || sheetName.contains(ALL_SHEETS)) {
+                throw new IllegalArgumentException("Invalid sheet name: " + sheetName);
+            }
+        }
+        return new SheetSelection(false, Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(sheetNames))));
+    }
+
+    public static SheetSelection fromColumnValue(String columnValue) {
+        if (columnValue == null || columnValue.isEmpty()) {
+            return FIRST_SHEET;
+        }
+        if (ALL_SHEETS.equals(columnValue)) {
+            return EVERY_SHEET;
+        }
+        return named(Arrays.asList(columnValue.split(String.valueOf(NAME_SEPARATOR), -1)));
+    }
+
+    /**
+     * @return the column value for this selection, or null for the default first sheet
+     */
+    public String toColumnValue() {
+        if (allSheets) {
+            return ALL_SHEETS;
+        }
+        if (sheetNames.isEmpty()) {
+            return null;
+        }
+        return String.join(String.valueOf(NAME_SEPARATOR), sheetNames);
+    }
+
+    public boolean isFirstSheetOnly() {
+        return !allSheets && sheetNames.isEmpty();
+    }
+
+    /**
+     * Resolves the selection against the sheets the workbook actually has, in workbook order for
+     * {@link #allSheets()} and in requested order otherwise.
+     *
+     * @throws SheetNotFoundException when a named sheet is missing
+     */
+    public List<String> resolve(List<String> availableSheetNames) throws SheetNotFoundException {
+        if (allSheets) {
+            return availableSheetNames;
+        }
+        if (sheetNames.isEmpty()) {
+            return availableSheetNames.isEmpty()
+                    ? Collections.<String>emptyList()
+                    : Collections.singletonList(availableSheetNames.get(0));
+        }
+        for (String sheetName : sheetNames) {
+            if (!availableSheetNames.contains(sheetName)) {
+                throw new SheetNotFoundException("Sheet '" + sheetName + "' not found, available sheets: "
+                        + availableSheetNames);
+            }
+        }
+        return sheetNames;
+    }
+}
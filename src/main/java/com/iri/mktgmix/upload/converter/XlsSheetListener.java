@@ -0,0 +1,364 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.model.InternalWorkbook;
+import org.apache.poi.hssf.record.ArrayRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.SharedFormulaRecord;
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record listener that writes sheets of a BIFF8 workbook as CSV while the records are read, and
+ * aborts the read once the last selected sheet ends. All sheets are substreams of one record
+ * stream, so selected sheets are written one after the other in workbook order.
+ * <p>
+ * Only the workbook globals substream is kept. It is turned into a workbook with empty sheets, which
+ * gives exactly the styles, data formats, date window and formula rendering context the
+ * usermodel uses. Cell records of the first sheet are buffered one row at a time. The row is
+ * written when the next row starts, after any shared or array formula record that follows its
+ * master cell. Rows that only have a ROW record become empty lines, as in the usermodel. Columns
+ * without a cell record become empty fields.
+ */
+final class XlsSheetListener extends AbortableHSSFListener {
+
+    private static final short CONTINUE = 0;
+    private static final short ABORT = 1;
+
+    private final Path inputFile;
+    private final List<String> requestedSheetNames;
+    private final CsvRowWriter firstSheetWriter;
+    private final Map<String, RowSink> sheetSinks;
+
+    private List<String> sheetNames;
+    private final Map<Integer, String> selectedSheets = new HashMap<>();
+    private int lastSelectedSheet = -1;
+    private final Map<String, CsvConversionResult> results = new HashMap<>();
+    private CsvRowWriter writer;
+
+    private final List<Record> globalsRecords = new ArrayList<>();
+    private HSSFWorkbook globalsWorkbook;
+    private SSTRecord sharedStrings;
+    private ScratchCellNumberFormatter numberFormatter;
+    private ColumnNumberFormats numberFormats;
+
+    private int depth;
+    private int substreamIndex = -1;
+
+    private final BitSet rowsWithRecords = new BitSet();
+    private final List<Object> rowValues = new ArrayList<>();
+    private int currentRow = -1;
+    private int lastWrittenRow = -1;
+    private final Map<Long, SharedFormulaRecord> sharedFormulas = new HashMap<>();
+    private final Map<Long, ArrayRecord> arrayFormulas = new HashMap<>();
+
+    private XlsSheetListener(Path inputFile, List<String> requestedSheetNames, CsvRowWriter firstSheetWriter,
+                             Map<String, RowSink> sheetSinks) {
+        this.inputFile = inputFile;
+        this.requestedSheetNames = requestedSheetNames;
+        this.firstSheetWriter = firstSheetWriter;
+        this.sheetSinks = sheetSinks;
+    }
+
+    /**
+     * Writes the first sheet to {@code writer}, which the caller finishes.
+     */
+    static XlsSheetListener firstSheet(CsvRowWriter writer) {
+        return new XlsSheetListener(null, null, writer, Collections.<String, RowSink>emptyMap());
+    }
+
+    /**
+     * Writes each named sheet to its own CSV next to {@code inputFile}, see {@link #getResults()},
+     * passing its rows to its sink in {@code sheetSinks}, if any.
+     */
+    static XlsSheetListener sheets(Path inputFile, List<String> sheetNames, Map<String, RowSink> sheetSinks) {
+        return new XlsSheetListener(inputFile, sheetNames, null, sheetSinks);
+    }
+
+    /**
+     * Reads only the workbook globals, see {@link #getSheetNames()}.
+     */
+    static XlsSheetListener sheetNamesOnly() {
+        return new XlsSheetListener(null, Collections.<String>emptyList(), null, Collections.<String, RowSink>emptyMap());
+    }
+
+    List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    /**
+     * Results in the order the sheets were requested in.
+     */
+    List<CsvConversionResult> getResults() {
+        List<CsvConversionResult> ordered = new ArrayList<>();
+        for (String sheetName : requestedSheetNames) {
+            ordered.add(results.get(sheetName));
+        }
+        return ordered;
+    }
+
+    @Override
+    public short abortableProcessRecord(Record record) throws HSSFUserException {
+        try {
+            return process(record);
+        } catch (IOException ioException) {
+            throw new HSSFUserException(ioException);
+        }
+    }
+
+    void close() throws IOException {
+        if (writer != null && writer != firstSheetWriter) {
+            writer.close();
+        }
+        if (numberFormatter != null) {
+            numberFormatter.close();
+        }
+        if (globalsWorkbook != null) {
+            globalsWorkbook.close();
+        }
+    }
+
+    private short process(Record record) throws IOException {
+        if (record instanceof BOFRecord) {
+            if (depth == 0) {
+                substreamIndex++;
+                if (substreamIndex > 0) {
+                    startSheet(substreamIndex - 1);
+                }
+            }
+            depth++;
+        }
+        if (substreamIndex == 0) {
+            globalsRecords.add(record);
+            if (record instanceof SSTRecord) {
+                sharedStrings = (SSTRecord) record;
+            }
+        } else if (writer != null && depth == 1) {
+            processSheetRecord(record);
+        }
+        if (record instanceof EOFRecord) {
+            depth--;
+            if (depth == 0 && substreamIndex == 0) {
+                openGlobals();
+                if (lastSelectedSheet < 0) {
+                    return ABORT;
+                }
+            } else if (depth == 0 && writer != null) {
+                finishSheet();
+                if (substreamIndex - 1 == lastSelectedSheet) {
+                    return ABORT;
+                }
+            }
+        }
+        return CONTINUE;
+    }
+
+    private void openGlobals() throws SheetNotFoundException {
+        InternalWorkbook internalWorkbook = InternalWorkbook.createWorkbook(globalsRecords);
+        sheetNames = new ArrayList<>();
+        for (int sheetIndex = 0; sheetIndex < internalWorkbook.getNumSheets(); sheetIndex++) {
+            sheetNames.add(internalWorkbook.getSheetName(sheetIndex));
+        }
+        if (requestedSheetNames == null) {
+            if (!sheetNames.isEmpty()) {
+                selectedSheets.put(0, null);
+            }
+        } else {
+            for (String sheetName : requestedSheetNames) {
+                int sheetIndex = sheetNames.indexOf(sheetName);
+                if (sheetIndex < 0) {
+                    throw new SheetNotFoundException("Sheet '" + sheetName + "' not found, available sheets: " + sheetNames);
+                }
+                selectedSheets.put(sheetIndex, sheetName);
+            }
+        }
+        for (Integer sheetIndex : selectedSheets.keySet()) {
+            lastSelectedSheet = Math.max(lastSelectedSheet, sheetIndex);
+        }
+        if (lastSelectedSheet < 0) {
+            globalsRecords.clear();
+            return;
+        }
+
+        globalsWorkbook = HSSFWorkbook.create(internalWorkbook);
+        // Empty sheets under the existing names, so formulas referring to other sheets render.
+        for (String sheetName : sheetNames) {
+            globalsWorkbook.createSheet(sheetName);
+        }
+        numberFormatter = new ScratchCellNumberFormatter(internalWorkbook.isUsing1904DateWindowing());
+        numberFormats = new ColumnNumberFormats(numberFormatter, xfIndex -> {
+            HSSFCellStyle style = globalsWorkbook.getCellStyleAt(xfIndex);
+            return style == null ? null : style.getDataFormatString();
+        });
+        globalsRecords.clear();
+    }
+
+    private void startSheet(int sheetIndex) throws IOException {
+        if (!selectedSheets.containsKey(sheetIndex)) {
+            return;
+        }
+        writer = firstSheetWriter != null
+                ? firstSheetWriter
+                : CsvRowWriter.forSheet(inputFile, sheetIndex, sheetSinks.get(selectedSheets.get(sheetIndex)));
+        rowsWithRecords.clear();
+        rowValues.clear();
+        currentRow = -1;
+        lastWrittenRow = -1;
+        sharedFormulas.clear();
+        arrayFormulas.clear();
+    }
+
+    private void processSheetRecord(Record record) throws IOException {
+        switch (record.getSid()) {
+            case RowRecord.sid:
+                rowsWithRecords.set(((RowRecord) record).getRowNumber());
+                break;
+            case NumberRecord.sid:
+                NumberRecord number = (NumberRecord) record;
+                putCell(number.getRow(), number.getColumn(),
+                        numberFormats.format(number.getColumn(), number.getXFIndex(), number.getValue()));
+                break;
+            case LabelSSTRecord.sid:
+                LabelSSTRecord label = (LabelSSTRecord) record;
+                putCell(label.getRow(), label.getColumn(), sharedStrings.getString(label.getSSTIndex()).getString());
+                break;
+            case LabelRecord.sid:
+                LabelRecord legacyLabel = (LabelRecord) record;
+                putCell(legacyLabel.getRow(), legacyLabel.getColumn(), legacyLabel.getValue());
+                break;
+            case BoolErrRecord.sid:
+                BoolErrRecord boolErr = (BoolErrRecord) record;
+                putCell(boolErr.getRow(), boolErr.getColumn(), boolErr.isBoolean()
+                        ? (boolErr.getBooleanValue() ? "TRUE" : "FALSE")
+                        : FormulaError.forInt(boolErr.getErrorValue()).getString());
+                break;
+            case BlankRecord.sid:
+                BlankRecord blank = (BlankRecord) record;
+                putCell(blank.getRow(), blank.getColumn(), "");
+                break;
+            case MulBlankRecord.sid:
+                MulBlankRecord blanks = (MulBlankRecord) record;
+                for (int column = blanks.getFirstColumn(); column <= blanks.getLastColumn(); column++) {
+                    putCell(blanks.getRow(), column, "");
+                }
+                break;
+            case FormulaRecord.sid:
+                FormulaRecord formula = (FormulaRecord) record;
+                // Resolved when the row is written, since a shared or array record may still follow.
+                putCell(formula.getRow(), formula.getColumn(), formula);
+                break;
+            case SharedFormulaRecord.sid:
+                SharedFormulaRecord sharedFormula = (SharedFormulaRecord) record;
+                sharedFormulas.put(key(sharedFormula.getFirstRow(), sharedFormula.getFirstColumn()), sharedFormula);
+                break;
+            case ArrayRecord.sid:
+                ArrayRecord arrayFormula = (ArrayRecord) record;
+                arrayFormulas.put(key(arrayFormula.getFirstRow(), arrayFormula.getFirstColumn()), arrayFormula);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void putCell(int row, int column, Object value) throws IOException {
+        if (row != currentRow) {
+            if (currentRow >= 0) {
+                writeCurrentRow();
+            }
+            writeRowsWithoutCells(row);
+            currentRow = row;
+        }
+        while (rowValues.size() <= column) {
+            rowValues.add(null);
+        }
+        rowValues.set(column, value);
+    }
+
+    private void finishSheet() throws IOException {
+        if (currentRow >= 0) {
+            writeCurrentRow();
+        }
+        writeRowsWithoutCells(Integer.MAX_VALUE);
+        if (writer != firstSheetWriter) {
+            String sheetName = selectedSheets.get(substreamIndex - 1);
+            results.put(sheetName, writer.finish(sheetName));
+        }
+        writer = null;
+    }
+
+    private void writeCurrentRow() throws IOException {
+        for (Object value : rowValues) {
+            if (value instanceof FormulaRecord) {
+                writer.writeField(renderFormula((FormulaRecord) value));
+            } else {
+                writer.writeField(value == null ? "" : (String) value);
+            }
+        }
+        writer.endRow();
+        rowValues.clear();
+        lastWrittenRow = currentRow;
+        currentRow = -1;
+    }
+
+    /**
+     * Writes an empty line for each row that had a ROW record but no cells, up to {@code beforeRow}.
+     */
+    private void writeRowsWithoutCells(int beforeRow) throws IOException {
+        for (int row = rowsWithRecords.nextSetBit(lastWrittenRow + 1);
+             row >= 0 && row < beforeRow;
+             row = rowsWithRecords.nextSetBit(row + 1)) {
+            writer.endRow();
+            lastWrittenRow = row;
+        }
+    }
+
+
+    /**
+     * Renders the formula text the way {@code HSSFCell.getCellFormula} resolves shared and array
+     * formulas.
+     */
+    private String renderFormula(FormulaRecord formula) {
+        Ptg[] tokens = formula.getParsedExpression();
+        CellReference masterCell = formula.getFormula().getExpReference();
+        if (masterCell != null) {
+            long masterKey = key(masterCell.getRow(), masterCell.getCol());
+            SharedFormulaRecord sharedFormula = formula.isSharedFormula() ? sharedFormulas.get(masterKey) : null;
+            ArrayRecord arrayFormula = arrayFormulas.get(masterKey);
+            if (sharedFormula != null) {
+                tokens = sharedFormula.getFormulaTokens(formula);
+            } else if (arrayFormula != null) {
+                tokens = arrayFormula.getFormulaTokens();
+            }
+        }
+        return HSSFFormulaParser.toFormulaString(globalsWorkbook, tokens);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 16) | column;
+    }
+}
@@ -0,0 +1,88 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Converts sheets of a BIFF8 (.xls) workbook from the record stream, without building an
+ * {@code HSSFWorkbook} of the sheets. Rows are written as their records arrive and reading stops
+ * at the end of the last selected sheet. The CSV is identical to what {@link XlsFileToCsvConverter}
+ * produces.
+ * <p>
+ * The sheets of a BIFF8 workbook follow each other in a single stream, so selected sheets are
+ * converted in one sequential pass rather than on the sheet executor.
+ */
+class XlsStreamingFileToCsvConverter implements FileToCsvConverter {
+
+    @Override
+    public CsvConversionResult convert(Path inputFile, RowSink rowSink) throws IOException {
+        try (CsvRowWriter writer = CsvRowWriter.forInput(inputFile, rowSink)) {
+            process(inputFile, XlsSheetListener.firstSheet(writer), writer);
+            return writer.finish();
+        }
+    }
+
+    @Override
+    public List<String> listSheetNames(Path inputFile) throws IOException {
+        XlsSheetListener listener = XlsSheetListener.sheetNamesOnly();
+        process(inputFile, listener, null);
+        return listener.getSheetNames();
+    }
+
+    @Override
+    public List<CsvConversionResult> convertSheets(Path inputFile, List<String> sheetNames, Executor sheetExecutor,
+                                                   Function<String, RowSink> sheetSinks) throws IOException {
+        Map<String, RowSink> sinks = new LinkedHashMap<>();
+        if (sheetSinks != null) {
+            for (String sheetName : sheetNames) {
+                RowSink sheetSink = sheetSinks.apply(sheetName);
+                if (sheetSink != null) {
+                    sinks.put(sheetName, sheetSink);
+                }
+            }
+        }
+        XlsSheetListener listener = XlsSheetListener.sheets(inputFile, sheetNames, sinks);
+        process(inputFile, listener, sheetNames.isEmpty() ? null : sinks.get(sheetNames.get(0)));
+        return listener.getResults();
+    }
+
+    /**
+     * Reads the workbook stream into {@code listener}, reporting the bytes read to {@code progressSink}
+     * when it is not null.
+     */
+    private static void process(Path inputFile, XlsSheetListener listener, RowSink progressSink) throws IOException {
+        try (POIFSFileSystem fileSystem = new POIFSFileSystem(inputFile.toFile(), true)) {
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(listener);
+            DirectoryNode root = fileSystem.getRoot();
+            DocumentEntry workbook = (DocumentEntry) root.getEntryCaseInsensitive(HSSFWorkbook.getWorkbookDirEntryName(root));
+            try (InputStream workbookStream = root.createDocumentInputStream(workbook)) {
+                InputStream records = progressSink == null
+                        ? workbookStream
+                        : new ProgressInputStream(workbookStream, workbook.getSize(), progressSink);
+                new HSSFEventFactory().abortableProcessEvents(request, records);
+            }
+        } catch (HSSFUserException userException) {
+            if (userException.getReason() instanceof IOException) {
+                throw (IOException) userException.getReason();
+            }
+            throw new IOException("Failed to read XLS workbook " + inputFile.getFileName(), userException);
+        } finally {
+            listener.close();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SAX handler for a worksheet part that writes each {@code <row>} as a CSV row as soon as the row
+ * ends. Only the current row is held in memory.
+ * <p>
+ * Cell values follow what {@link DataFormatter#formatCellValue} returns for the same cell in the
+ * usermodel. Formula cells give their formula text, not the cached result, and numbers use the
+ * cell style's data format. A row is as wide as its right-most {@code <c>} element, blank styled
+ * cells included, and columns without a cell are written as empty fields.
+ */
+final class XlsxSheetHandler extends DefaultHandler {
+
+    private final CsvRowWriter writer;
+    private final SharedStrings sharedStrings;
+    private final ColumnNumberFormats numberFormats;
+    private final XlsxWorkbookMetadata workbookMetadata;
+
+    private final List<String> rowValues = new ArrayList<>();
+    private final Map<Integer, SharedFormulaMaster> sharedFormulas = new HashMap<>();
+    private final List<SharedFormulaMaster> arrayFormulas = new ArrayList<>();
+
+    private boolean inSheetData;
+    private int rowIndex = -1;
+    private int columnIndex = -1;
+
+    private String cellType;
+    private int styleIndex;
+    private final StringBuilder value = new StringBuilder();
+    private boolean hasValue;
+    private boolean inValue;
+    private final StringBuilder formula = new StringBuilder();
+    private boolean hasFormula;
+    private boolean inFormula;
+    private String formulaType;
+    private String formulaRef;
+    private String formulaSharedIndex;
+    private final StringBuilder inlineText = new StringBuilder();
+    private boolean hasInlineString;
+    private boolean inInlineString;
+    private boolean inInlineText;
+    private int phoneticDepth;
+
+    XlsxSheetHandler(CsvRowWriter writer,
+                     SharedStrings sharedStrings,
+                     StylesTable stylesTable,
+                     ScratchCellNumberFormatter numberFormatter,
+                     XlsxWorkbookMetadata workbookMetadata) {
+        this.writer = writer;
+        this.sharedStrings = sharedStrings;
+        this.numberFormats = new ColumnNumberFormats(numberFormatter, index -> {
+            XSSFCellStyle style = stylesTable == null || stylesTable.getNumCellStyles() == 0
+                    ? null
+                    : stylesTable.getStyleAt(index);
+            return style == null ? null : style.getDataFormatString();
+        });
+        this.workbookMetadata = workbookMetadata;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if ("sheetData".equals(localName)) {
+            inSheetData = true;
+            return;
+        }
+        if (!inSheetData) {
+            return;
+        }
+        switch (localName) {
+            case "row":
+                String rowReference = attributes.getValue("r");
+                rowIndex = rowReference == null ? rowIndex + 1 : Integer.parseInt(rowReference) - 1;
+                columnIndex = -1;
+                rowValues.clear();
+                break;
+            case "c":
+                String cellReference = attributes.getValue("r");
+                columnIndex = cellReference == null ? columnIndex + 1 : columnOf(cellReference);
+                cellType = attributes.getValue("t");
+                String style = attributes.getValue("s");
+                styleIndex = style == null ? 0 : Integer.parseInt(style);
+                value.setLength(0);
+                hasValue = false;
+                formula.setLength(0);
+                hasFormula = false;
+                formulaType = null;
+                formulaRef = null;
+                formulaSharedIndex = null;
+                inlineText.setLength(0);
+                hasInlineString = false;
+                break;
+            case "v":
+                inValue = true;
+                hasValue = true;
+                break;
+            case "f":
+                inFormula = true;
+                hasFormula = true;
+                formulaType = attributes.getValue("t");
+                formulaRef = attributes.getValue("ref");
+                formulaSharedIndex = attributes.getValue("si");
+                break;
+            case "is":
+                inInlineString = true;
+                hasInlineString = true;
+                break;
+            case "rPh":
+                phoneticDepth++;
+                break;
+            case "t":
+                inInlineText = inInlineString && phoneticDepth == 0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (inValue) {
+            value.append(ch, start, length);
+        } else if (inFormula) {
+            formula.append(ch, start, length);
+        } else if (inInlineText) {
+            inlineText.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (!inSheetData) {
+            return;
+        }
+        switch (localName) {
+            case "v":
+                inValue = false;
+                break;
+            case "f":
+                inFormula = false;
+                break;
+            case "t":
+                inInlineText = false;
+                break;
+            case "rPh":
+                phoneticDepth--;
+                break;
+            case "is":
+                inInlineString = false;
+                break;
+            case "c":
+                while (rowValues.size() <= columnIndex) {
+                    rowValues.add(null);
+                }
+                rowValues.set(columnIndex, formatCell());
+                break;
+            case "row":
+                writeRow();
+                break;
+            case "sheetData":
+                inSheetData = false;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeRow() throws SAXException {
+        try {
+            for (String rowValue : rowValues) {
+                writer.writeField(rowValue == null ? "" : rowValue);
+            }
+            writer.endRow();
+        } catch (IOException ioException) {
+            throw new SAXException(ioException);
+        }
+    }
+
+    private String formatCell() {
+        String formulaText = formulaText();
+        if (formulaText != null) {
+            return formulaText;
+        }
+        if (cellType == null || "n".equals(cellType)) {
+            return hasValue ? formatNumber(Double.parseDouble(value.toString())) : "";
+        }
+        switch (cellType) {
+            case "s":
+                return hasValue ? sharedStrings.getItemAt(Integer.parseInt(value.toString())).getString() : "";
+            case "inlineStr":
+                if (hasInlineString) {
+                    return decode(inlineText.toString());
+                }
+                return hasValue ? decode(value.toString()) : "";
+            case "b":
+                return hasValue && "1".equals(value.toString()) ? "TRUE" : "FALSE";
+            case "e":
+                return formatError();
+            default:
+                return hasValue ? decode(value.toString()) : "";
+        }
+    }
+
+    /**
+     * Returns the formula the usermodel reports for the current cell, or null when it is not a
+     * formula cell. Cells inside an array formula range take the master cell's formula.
+     */
+    private String formulaText() {
+        if (hasFormula) {
+            String text = formula.toString();
+            if ("shared".equals(formulaType) && formulaSharedIndex != null) {
+                int sharedIndex = Integer.parseInt(formulaSharedIndex);
+                if (formulaRef != null) {
+                    sharedFormulas.put(sharedIndex, new SharedFormulaMaster(text, CellRangeAddress.valueOf(formulaRef)));
+                }
+                SharedFormulaMaster master = sharedFormulas.get(sharedIndex);
+                return master == null ? text : workbookMetadata.renderSharedFormula(
+                        master.formula, master.range, rowIndex, columnIndex);
+            }
+            if ("array".equals(formulaType) && formulaRef != null) {
+                arrayFormulas.add(new SharedFormulaMaster(text, CellRangeAddress.valueOf(formulaRef)));
+            }
+            if (!text.isEmpty()) {
+                return text;
+            }
+        }
+        for (SharedFormulaMaster arrayFormula : arrayFormulas) {
+            if (arrayFormula.range.isInRange(rowIndex, columnIndex)) {
+                return arrayFormula.formula;
+            }
+        }
+        return hasFormula ? "" : null;
+    }
+
+    private String formatNumber(double number) {
+        return numberFormats.format(columnIndex, styleIndex, number);
+    }
+
+    private String formatError() {
+        if (!hasValue) {
+            return FormulaError.forInt(0).getString();
+        }
+        String code = value.toString();
+        try {
+            return FormulaError.forString(code).getString();
+        } catch (IllegalArgumentException unknownError) {
+            return code;
+        }
+    }
+
+    /**
+     * Decodes {@code _xHHHH_} escapes the same way the usermodel does.
+     */
+    private static String decode(String text) {
+        return text.indexOf('_') < 0 ? text : new XSSFRichTextString(text).getString();
+    }
+
+    private static int columnOf(String cellReference) {
+        int column = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    private static final class SharedFormulaMaster {
+        private final String formula;
+        private final CellRangeAddress range;
+
+        private SharedFormulaMaster(String formula, CellRangeAddress range) {
+            this.formula = formula;
+            this.range = range;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Converts sheets of an XLSX workbook by streaming their XML through a SAX handler, so memory use
+ * does not grow with the number of rows. Only shared strings and styles are loaded up front. The
+ * CSV is identical to what {@link XlsxFileToCsvConverter} produces.
+ * <p>
+ * Each sheet is a separate part of the package, so several sheets are parsed in parallel. They
+ * share the read-only shared strings, styles and workbook metadata; every sheet gets its own
+ * number formatter.
+ */
+class XlsxStreamingFileToCsvConverter implements FileToCsvConverter {
+
+    @Override
+    public CsvConversionResult convert(Path inputFile, RowSink rowSink) throws IOException {
+        OPCPackage pkg = open(inputFile);
+        try {
+            Map<String, PackagePart> sheetParts = sheetParts(pkg, inputFile);
+            if (sheetParts.isEmpty()) {
+                throw new IllegalArgumentException("Workbook has no sheets");
+            }
+            WorkbookParts workbookParts = new WorkbookParts(pkg, inputFile);
+            try {
+                PackagePart firstSheet = sheetParts.values().iterator().next();
+                return convertSheet(workbookParts, firstSheet, CsvRowWriter.forInput(inputFile, rowSink), null);
+            } finally {
+                workbookParts.close();
+            }
+        } finally {
+            // Closing a read-only package would try to save it.
+            pkg.revert();
+        }
+    }
+
+    @Override
+    public List<String> listSheetNames(Path inputFile) throws IOException {
+        OPCPackage pkg = open(inputFile);
+        try {
+            return new ArrayList<>(sheetParts(pkg, inputFile).keySet());
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    @Override
+    public List<CsvConversionResult> convertSheets(Path inputFile, List<String> sheetNames, Executor sheetExecutor,
+                                                   Function<String, RowSink> sheetSinks) throws IOException {
+        OPCPackage pkg = open(inputFile);
+        try {
+            Map<String, PackagePart> sheetParts = sheetParts(pkg, inputFile);
+            List<String> workbookOrder = new ArrayList<>(sheetParts.keySet());
+            for (String sheetName : sheetNames) {
+                if (!sheetParts.containsKey(sheetName)) {
+                    throw new SheetNotFoundException("Sheet '" + sheetName + "' not found in " + inputFile.getFileName());
+                }
+            }
+
+            WorkbookParts workbookParts = new WorkbookParts(pkg, inputFile);
+            try {
+                List<CompletableFuture<CsvConversionResult>> conversions = new ArrayList<>();
+                for (String sheetName : sheetNames) {
+                    PackagePart sheetPart = sheetParts.get(sheetName);
+                    int sheetIndex = workbookOrder.indexOf(sheetName);
+                    RowSink sheetSink = sheetSinks == null ? null : sheetSinks.apply(sheetName);
+                    if (sheetSink != null) {
+                        // Sizes are known up front, so the total covers sheets still waiting for a thread.
+                        sheetSink.inputRead(0, sheetPart.getSize());
+                    }
+                    conversions.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return convertSheet(workbookParts, sheetPart, CsvRowWriter.forSheet(inputFile, sheetIndex, sheetSink),
+                                    sheetName);
+                        } catch (IOException ioException) {
+                            throw new UncheckedIOException(ioException);
+                        }
+                    }, sheetExecutor));
+                }
+                return awaitAll(conversions);
+            } finally {
+                workbookParts.close();
+            }
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /**
+     * Waits for every conversion, even after one failed, since they all read from the same package.
+     */
+    private static List<CsvConversionResult> awaitAll(List<CompletableFuture<CsvConversionResult>> conversions)
+            throws IOException {
+        List<CsvConversionResult> results = new ArrayList<>();
+        RuntimeException failure = null;
+        for (CompletableFuture<CsvConversionResult> conversion : conversions) {
+            try {
+                results.add(conversion.join());
+            } catch (CompletionException exception) {
+                if (failure == null) {
+                    failure = exception;
+                }
+            }
+        }
+        if (failure != null) {
+            Throwable cause = failure.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw failure;
+        }
+        return results;
+    }
+
+    private static CsvConversionResult convertSheet(WorkbookParts workbookParts,
+                                                    PackagePart sheetPart,
+                                                    CsvRowWriter csvRowWriter,
+                                                    String sheetName) throws IOException {
+        ScratchCellNumberFormatter numberFormatter =
+                new ScratchCellNumberFormatter(workbookParts.workbookMetadata.isDate1904());
+        try (CsvRowWriter writer = csvRowWriter;
+             InputStream sheetXml = new ProgressInputStream(sheetPart.getInputStream(), sheetPart.getSize(), writer)) {
+            XMLReader sheetParser = XMLHelper.newXMLReader();
+            sheetParser.setContentHandler(new XlsxSheetHandler(writer, workbookParts.sharedStrings,
+                    workbookParts.stylesTable, numberFormatter, workbookParts.workbookMetadata));
+            sheetParser.parse(new InputSource(sheetXml));
+            return writer.finish(sheetName);
+        } catch (SAXException exception) {
+            if (exception.getException() instanceof ConversionCancelledException) {
+                throw (ConversionCancelledException) exception.getException();
+            }
+            throw new IOException("Failed to read sheet " + sheetPart.getPartName(), exception);
+        } catch (ParserConfigurationException exception) {
+            throw new IOException("Failed to read sheet " + sheetPart.getPartName(), exception);
+        } finally {
+            numberFormatter.close();
+        }
+    }
+
+    private static OPCPackage open(Path inputFile) throws IOException {
+        try {
+            return OPCPackage.open(inputFile.toFile(), PackageAccess.READ);
+        } catch (OpenXML4JException exception) {
+            throw new IOException("Failed to read XLSX workbook " + inputFile.getFileName(), exception);
+        }
+    }
+
+    /**
+     * Sheet parts by sheet name, in workbook order.
+     */
+    private static Map<String, PackagePart> sheetParts(OPCPackage pkg, Path inputFile) throws IOException {
+        try {
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+            Map<String, PackagePart> sheetParts = new LinkedHashMap<>();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                sheetParts.put(sheets.getSheetName(), sheets.getSheetPart());
+            }
+            return sheetParts;
+        } catch (OpenXML4JException exception) {
+            throw new IOException("Failed to read XLSX workbook " + inputFile.getFileName(), exception);
+        }
+    }
+
+    /**
+     * Workbook-level parts every sheet handler reads.
+     */
+    private static final class WorkbookParts {
+
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable stylesTable;
+        private final XlsxWorkbookMetadata workbookMetadata;
+
+        private WorkbookParts(OPCPackage pkg, Path inputFile) throws IOException {
+            try {
+                XSSFReader reader = new XSSFReader(pkg);
+                sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+                stylesTable = reader.getStylesTable();
+                try (InputStream workbookXml = reader.getWorkbookData()) {
+                    workbookMetadata = XlsxWorkbookMetadata.read(workbookXml);
+                }
+            } catch (OpenXML4JException | SAXException exception) {
+                throw new IOException("Failed to read XLSX workbook " + inputFile.getFileName(), exception);
+            }
+        }
+
+        private void close() throws IOException {
+            workbookMetadata.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.SharedFormula;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFName;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Workbook-level settings the sheet handler needs, read from {@code xl/workbook.xml}: the date
+ * system and the sheet and defined names.
+ * <p>
+ * Shared formulas are stored once on their master cell, and the usermodel renders every other
+ * cell of the group by parsing and shifting the master formula. Parsing needs sheet and defined
+ * names, so a workbook with only those names is built the first time a shared formula is
+ * rendered. It holds no cells.
+ */
+final class XlsxWorkbookMetadata {
+
+    private boolean date1904;
+    private final List<String> sheetNames = new ArrayList<>();
+    private final List<DefinedName> definedNames = new ArrayList<>();
+    private XSSFWorkbook formulaWorkbook;
+    private XSSFEvaluationWorkbook formulaContext;
+
+    static XlsxWorkbookMetadata read(InputStream workbookXml) throws IOException, SAXException {
+        XlsxWorkbookMetadata metadata = new XlsxWorkbookMetadata();
+        try {
+            XMLReader reader = XMLHelper.newXMLReader();
+            reader.setContentHandler(metadata.new WorkbookHandler());
+            reader.parse(new InputSource(workbookXml));
+        } catch (ParserConfigurationException exception) {
+            throw new IOException("Failed to create XML parser", exception);
+        }
+        return metadata;
+    }
+
+    boolean isDate1904() {
+        return date1904;
+    }
+
+    /**
+     * Renders a shared formula for the cell at {@code rowIndex}/{@code columnIndex} the way
+     * {@code XSSFCell.getCellFormula} does. Falls back to the master formula text when it
+     * cannot be parsed, for example when it refers to another workbook.
+     */
+    synchronized String renderSharedFormula(String masterFormula, CellRangeAddress range, int rowIndex, int columnIndex) {
+        try {
+            XSSFEvaluationWorkbook context = formulaContext();
+            Ptg[] ptgs = FormulaParser.parse(masterFormula, context, FormulaType.CELL, 0, rowIndex);
+            Ptg[] shifted = new SharedFormula(SpreadsheetVersion.EXCEL2007)
+                    .convertSharedFormulas(ptgs, rowIndex - range.getFirstRow(), columnIndex - range.getFirstColumn());
+            return FormulaRenderer.toFormulaString(context, shifted);
+        } catch (RuntimeException unparseable) {
+            return masterFormula;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (formulaWorkbook != null) {
+            formulaWorkbook.close();
+        }
+    }
+
+    private XSSFEvaluationWorkbook formulaContext() {
+        if (formulaContext == null) {
+            formulaWorkbook = new XSSFWorkbook();
+            for (String sheetName : sheetNames) {
+                formulaWorkbook.createSheet(sheetName);
+            }
+            for (DefinedName definedName : definedNames) {
+                try {
+                    XSSFName name = formulaWorkbook.createName();
+                    name.setNameName(definedName.name);
+                    if (definedName.sheetIndex >= 0) {
+                        name.setSheetIndex(definedName.sheetIndex);
+                    }
+                    name.setRefersToFormula(definedName.refersTo);
+                } catch (RuntimeException unsupported) {
+                    // Names that cannot be recreated only matter to formulas that use them.
+                }
+            }
+            formulaContext = XSSFEvaluationWorkbook.create(formulaWorkbook);
+        }
+        return formulaContext;
+    }
+
+    private static final class DefinedName {
+        private final String name;
+        private final int sheetIndex;
+        private final String refersTo;
+
+        private DefinedName(String name, int sheetIndex, String refersTo) {
+            this.name = name;
+            this.sheetIndex = sheetIndex;
+            this.refersTo = refersTo;
+        }
+    }
+
+    private final class WorkbookHandler extends DefaultHandler {
+
+        private final StringBuilder text = new StringBuilder();
+        private String definedName;
+        private int definedNameSheetIndex;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "workbookPr":
+                    String date1904Value = attributes.getValue("date1904");
+                    date1904 = "1".equals(date1904Value) || "true".equals(date1904Value);
+                    break;
+                case "sheet":
+                    sheetNames.add(attributes.getValue("name"));
+                    break;
+                case "definedName":
+                    definedName = attributes.getValue("name");
+                    String localSheetId = attributes.getValue("localSheetId");
+                    definedNameSheetIndex = localSheetId == null ? -1 : Integer.parseInt(localSheetId);
+                    text.setLength(0);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (definedName != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("definedName".equals(localName) && definedName != null) {
+                definedNames.add(new DefinedName(definedName, definedNameSheetIndex, text.toString()));
+                definedName = null;
+            }
+        }
+    }
+}
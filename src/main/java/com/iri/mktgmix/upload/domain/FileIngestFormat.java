@@ -0,0 +1,10 @@
+package com.iri.mktgmix.upload.domain;
+
+/**
+ * How an upload's rows were loaded into its MonetDB staging table.
+ */
+public enum FileIngestFormat {
+    CSV,
+    BINARY,
+    PIPELINED
+}
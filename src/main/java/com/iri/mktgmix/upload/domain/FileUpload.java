@@ -32,6 +32,15 @@ public class FileUpload {
     @Column(name = "bytes_received", nullable = false)
     private Long bytesReceived;
 
+    @Column(name = "chunk_size_bytes")
+    private Long chunkSizeBytes;
+
+    @Column(name = "total_chunks")
+    private Integer totalChunks;
+
+    @Column(name = "chunk_bitmap")
+    private byte[] chunkBitmap;
+
     @Column(name = "upload_etag", length = 64)
     private String uploadEtag;
 
@@ -52,15 +61,52 @@ public class FileUpload {
     @Column(name = "csv_path", length = 1024)
     private String csvPath;
 
+    @Column(name = "sheet_selection")
+    private String sheetSelection;
+
+    @Column(name = "sheet_name", length = 255)
+    private String sheetName;
+
+    @Column(name = "parent_file_upload_id")
+    private Long parentFileUploadId;
+
     @Column(name = "monet_table_name", length = 128)
     private String monetTableName;
 
     @Column(name = "row_count", nullable = false)
     private Long rowCount = 0L;
 
+    @Column(name = "conversion_started_at")
+    private LocalDateTime conversionStartedAt;
+
+    @Column(name = "conversion_rows_processed")
+    private Long conversionRowsProcessed;
+
+    @Column(name = "conversion_bytes_read")
+    private Long conversionBytesRead;
+
+    @Column(name = "conversion_bytes_total")
+    private Long conversionBytesTotal;
+
     @Column(name = "ingested_at")
     private LocalDateTime ingestedAt;
 
+    @Column(name = "ingested_checksum_sha256", length = 64)
+    private String ingestedChecksumSha256;
+
+    @Column(name = "ingest_started_at")
+    private LocalDateTime ingestStartedAt;
+
+    @Column(name = "ingest_rows_loaded")
+    private Long ingestRowsLoaded;
+
+    @Column(name = "ingest_duration_ms")
+    private Long ingestDurationMs;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "ingest_format", length = 16)
+    private FileIngestFormat ingestFormat;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
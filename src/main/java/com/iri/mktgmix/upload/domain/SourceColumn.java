@@ -45,6 +45,18 @@ public class SourceColumn {
     @Column(name = "data_type", length = 50)
     private String dataType;
 
+    @Column(name = "date_format", length = 255)
+    private String dateFormat;
+
+    @Column(name = "null_count")
+    private Long nullCount;
+
+    @Column(name = "blank_count")
+    private Long blankCount;
+
+    @Column(name = "distinct_estimate")
+    private Long distinctEstimate;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "mapping_status", nullable = false, length = 16)
     private SourceColumnMappingStatus mappingStatus;
@@ -0,0 +1,8 @@
+package com.iri.mktgmix.upload.domain;
+
+public enum UploadJobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
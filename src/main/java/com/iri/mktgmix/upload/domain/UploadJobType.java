@@ -0,0 +1,13 @@
+package com.iri.mktgmix.upload.domain;
+
+public enum UploadJobType {
+    /**
+     * Converts a fully received upload to CSV.
+     */
+    CONVERT,
+
+    /**
+     * Loads a converted upload into its MonetDB staging table.
+     */
+    INGEST
+}
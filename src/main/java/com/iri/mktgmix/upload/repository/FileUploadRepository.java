@@ -1,8 +1,187 @@
 package com.iri.mktgmix.upload.repository;
 
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
 import com.iri.mktgmix.upload.domain.FileUpload;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
 
 public interface FileUploadRepository extends JpaRepository<FileUpload, Long> {
-}
 
+    /**
+     * A null {@code sheetName} matches uploads of the default first sheet.
+     */
+    Optional<FileUpload> findFirstByChecksumSourceSha256AndSheetNameAndIngestStatusAndIdNotOrderByIngestedAtDesc(
+            String checksumSourceSha256, String sheetName, FileIngestStatus ingestStatus, Long id);
+
+    List<FileUpload> findByParentFileUploadIdOrderById(Long parentFileUploadId);
+
+    /**
+     * Takes the cross-node lock for an upload session. Held until the surrounding transaction ends.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock(:id)", nativeQuery = true)
+    Integer acquireSessionLock(@Param("id") Long id);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET chunk_size_bytes = :chunkSizeBytes, total_chunks = :totalChunks, "
+            + "chunk_bitmap = :chunkBitmap, bytes_received = 0, modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND chunk_bitmap IS NULL", nativeQuery = true)
+    int initializeChunkBitmap(@Param("id") Long id,
+                              @Param("chunkSizeBytes") long chunkSizeBytes,
+                              @Param("totalChunks") int totalChunks,
+                              @Param("chunkBitmap") byte[] chunkBitmap);
+
+    /**
+     * Records a chunk as received. Returns 0 when the chunk was already recorded (a duplicate or a retry).
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET chunk_bitmap = set_bit(chunk_bitmap, :chunkIndex, 1), "
+            + "bytes_received = bytes_received + :chunkLength, modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND upload_status = 'UPLOADING' AND get_bit(chunk_bitmap, :chunkIndex) = 0",
+            nativeQuery = true)
+    int markChunkReceived(@Param("id") Long id,
+                          @Param("chunkIndex") int chunkIndex,
+                          @Param("chunkLength") long chunkLength);
+
+    /**
+     * Moves a fully received session to COMPLETED. Only one caller can win, so conversion runs once.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET upload_status = 'COMPLETED', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND upload_status = 'UPLOADING' AND bytes_received = file_size_bytes",
+            nativeQuery = true)
+    int claimCompletion(@Param("id") Long id);
+
+    /**
+     * Cancels a session that is still uploading or whose conversion has not recorded its CSV yet.
+     * Returns 0 when the session already ended.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET upload_status = 'CANCELLED', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND (upload_status = 'UPLOADING' OR (upload_status = 'COMPLETED' AND csv_path IS NULL))",
+            nativeQuery = true)
+    int cancelUploadSession(@Param("id") Long id);
+
+    /**
+     * Fails a session whose conversion has not recorded its CSV. Returns 0 when the session was
+     * converted, cancelled or failed already.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET upload_status = 'FAILED', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND upload_status = 'COMPLETED' AND csv_path IS NULL",
+            nativeQuery = true)
+    int failConversion(@Param("id") Long id);
+
+    /**
+     * Records how far a running conversion got. Returns 0 when the upload is no longer converting,
+     * for example because it was cancelled on another node.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET conversion_started_at = :startedAt, "
+            + "conversion_rows_processed = :rowsProcessed, conversion_bytes_read = :bytesRead, "
+            + "conversion_bytes_total = :bytesTotal "
+            + "WHERE id = :id AND upload_status = 'COMPLETED' AND csv_path IS NULL",
+            nativeQuery = true)
+    int updateConversionProgress(@Param("id") Long id,
+                                 @Param("startedAt") LocalDateTime startedAt,
+                                 @Param("rowsProcessed") long rowsProcessed,
+                                 @Param("bytesRead") long bytesRead,
+                                 @Param("bytesTotal") Long bytesTotal);
+
+    /**
+     * Marks a converted upload as being ingested. A load that was interrupted, because its node
+     * stopped, starts over. Returns 0 when the upload is not waiting for ingest.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET ingest_status = 'INGESTING', ingest_started_at = CURRENT_TIMESTAMP, "
+            + "modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND upload_status = 'COMPLETED' AND csv_path IS NOT NULL "
+            + "AND ingest_status IN ('PENDING', 'INGESTING')",
+            nativeQuery = true)
+    int startIngest(@Param("id") Long id);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET ingest_status = 'INGESTED', monet_table_name = :tableName, "
+            + "ingested_checksum_sha256 = :checksum, "
+            + "ingest_rows_loaded = :rowsLoaded, ingest_duration_ms = :durationMs, ingest_format = :format, "
+            + "ingested_at = CURRENT_TIMESTAMP, modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND ingest_status = 'INGESTING'",
+            nativeQuery = true)
+    int finishIngest(@Param("id") Long id,
+                     @Param("tableName") String tableName,
+                     @Param("checksum") String ingestedChecksumSha256,
+                     @Param("rowsLoaded") long rowsLoaded,
+                     @Param("durationMs") long durationMs,
+                     @Param("format") String format);
+
+    /**
+     * Ends an ingest that found the upload's table already loaded, keeping the recorded load.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET ingest_status = 'INGESTED', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND ingest_status = 'INGESTING'",
+            nativeQuery = true)
+    int restoreIngest(@Param("id") Long id);
+
+    /**
+     * Asks for a converted upload to be ingested again. Returns 0 when the upload is not converted
+     * or is being ingested.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET ingest_status = 'PENDING', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND upload_status = 'COMPLETED' AND csv_path IS NOT NULL "
+            + "AND ingest_status IN ('PENDING', 'INGESTED', 'FAILED')",
+            nativeQuery = true)
+    int requestIngest(@Param("id") Long id);
+
+    /**
+     * Fails the ingest of an upload unless it was ingested meanwhile.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET ingest_status = 'FAILED', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND ingest_status IN ('PENDING', 'INGESTING')",
+            nativeQuery = true)
+    int failIngest(@Param("id") Long id);
+
+    @Query(value = "SELECT upload_status FROM app.file_upload WHERE id = :id", nativeQuery = true)
+    String findUploadStatus(@Param("id") Long id);
+
+    /**
+     * Fails a session that has received nothing since {@code modifiedBefore}. Returns 0 when the
+     * session moved on in the meantime.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "UPDATE app.file_upload SET upload_status = 'FAILED', modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND upload_status = 'UPLOADING' AND modified_at < :modifiedBefore",
+            nativeQuery = true)
+    int expireUploadSession(@Param("id") Long id, @Param("modifiedBefore") LocalDateTime modifiedBefore);
+
+    /**
+     * Counts live uploads of this source, which still use its converted CSV: one being uploaded or
+     * converted will read it, and a completed one may be ingested again from it, even once ingested.
+     */
+    @Query(value = "SELECT COUNT(*) FROM app.file_upload WHERE checksum_source_sha256 = :checksum "
+            + "AND upload_status IN ('UPLOADING', 'COMPLETED')",
+            nativeQuery = true)
+    long countUsingContent(@Param("checksum") String checksumSourceSha256);
+}
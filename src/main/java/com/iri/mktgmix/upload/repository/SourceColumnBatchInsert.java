@@ -0,0 +1,18 @@
+package com.iri.mktgmix.upload.repository;
+
+import com.iri.mktgmix.upload.domain.SourceColumn;
+
+import java.util.List;
+
+/**
+ * Inserts the source columns of an upload in bulk. {@code saveAll} inserts IDENTITY entities one
+ * statement at a time, which takes hundreds of round trips for a wide media plan.
+ */
+public interface SourceColumnBatchInsert {
+
+    /**
+     * Inserts {@code sourceColumns} in multi-row statements. Generated ids are not read back, the
+     * entities are left without one.
+     */
+    void insertAll(List<SourceColumn> sourceColumns);
+}
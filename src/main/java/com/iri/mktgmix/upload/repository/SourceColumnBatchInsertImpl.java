@@ -0,0 +1,67 @@
+package com.iri.mktgmix.upload.repository;
+
+import com.iri.mktgmix.upload.domain.SourceColumn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SourceColumnBatchInsert} over the primary PostgreSQL data source.
+ */
+class SourceColumnBatchInsertImpl implements SourceColumnBatchInsert {
+
+    private static final String INSERT_PREFIX = "INSERT INTO app.source_column (file_upload_id, ordinal, "
+            + "name_original, name_sanitized, data_type, date_format, null_count, blank_count, distinct_estimate, "
+            + "mapping_status, created_at, created_user_id, created_by) VALUES ";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int[] ROW_TYPES = {
+            Types.BIGINT, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR};
+
+    /**
+     * Keeps a statement well below PostgreSQL's limit of 32767 bind parameters.
+     */
+    private static final int ROWS_PER_STATEMENT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    SourceColumnBatchInsertImpl(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    @Transactional
+    public void insertAll(List<SourceColumn> sourceColumns) {
+        for (int from = 0; from < sourceColumns.size(); from += ROWS_PER_STATEMENT) {
+            List<SourceColumn> rows = sourceColumns.subList(from, Math.min(from + ROWS_PER_STATEMENT, sourceColumns.size()));
+            Object[] arguments = new Object[rows.size() * ROW_TYPES.length];
+            int[] argumentTypes = new int[arguments.length];
+            int index = 0;
+            for (SourceColumn column : rows) {
+                arguments[index++] = column.getFileUploadId();
+                arguments[index++] = column.getOrdinal();
+                arguments[index++] = column.getOriginalName();
+                arguments[index++] = column.getSanitizedName();
+                arguments[index++] = column.getDataType();
+                arguments[index++] = column.getDateFormat();
+                arguments[index++] = column.getNullCount();
+                arguments[index++] = column.getBlankCount();
+                arguments[index++] = column.getDistinctEstimate();
+                arguments[index++] = column.getMappingStatus().name();
+                arguments[index++] = column.getCreatedAt() == null ? null : Timestamp.valueOf(column.getCreatedAt());
+                arguments[index++] = column.getCreatedUserId();
+                arguments[index++] = column.getCreatedBy();
+            }
+            for (int row = 0; row < rows.size(); row++) {
+                System.arraycopy(ROW_TYPES, 0, argumentTypes, row * ROW_TYPES.length, ROW_TYPES.length);
+            }
+            jdbcTemplate.update(INSERT_PREFIX + String.join(", ", Collections.nCopies(rows.size(), ROW_PLACEHOLDERS)),
+                    arguments, argumentTypes);
+        }
+    }
+}
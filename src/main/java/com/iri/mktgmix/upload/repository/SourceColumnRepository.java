@@ -2,10 +2,21 @@ package com.iri.mktgmix.upload.repository;
 
 import com.iri.mktgmix.upload.domain.SourceColumn;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
-public interface SourceColumnRepository extends JpaRepository<SourceColumn, Long> {
+public interface SourceColumnRepository extends JpaRepository<SourceColumn, Long>, SourceColumnBatchInsert {
     List<SourceColumn> findByFileUploadId(Long fileUploadId);
+
+    boolean existsByFileUploadId(Long fileUploadId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query(value = "DELETE FROM app.source_column WHERE file_upload_id = :fileUploadId", nativeQuery = true)
+    int deleteByFileUploadId(@Param("fileUploadId") Long fileUploadId);
 }
 
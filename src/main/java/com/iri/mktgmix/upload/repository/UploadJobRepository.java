@@ -0,0 +1,106 @@
+package com.iri.mktgmix.upload.repository;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Lease times are taken from the database clock, so nodes with skewed clocks agree on them.
+ */
+public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
+
+    /**
+     * Queues a job unless the upload already has an active job of this type. Returns 0 in that case.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO app.upload_job (file_upload_id, job_type, job_status, source_file_name, "
+            + "attempts, available_at, created_at, modified_at) "
+            + "VALUES (:fileUploadId, :jobType, 'QUEUED', :sourceFileName, 0, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) "
+            + "ON CONFLICT (file_upload_id, job_type) WHERE job_status IN ('QUEUED', 'RUNNING') DO NOTHING",
+            nativeQuery = true)
+    int enqueue(@Param("fileUploadId") Long fileUploadId,
+                @Param("jobType") String jobType,
+                @Param("sourceFileName") String sourceFileName);
+
+    /**
+     * Puts the active job of this type back into the queue, due now and with its attempts reset,
+     * also when it is running. The node running it then loses its lease, so its outcome is not
+     * recorded. Returns 0 when the upload has no active job of this type.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE app.upload_job SET job_status = 'QUEUED', attempts = 0, available_at = CURRENT_TIMESTAMP, "
+            + "locked_by = NULL, lease_expires_at = NULL, modified_at = CURRENT_TIMESTAMP "
+            + "WHERE file_upload_id = :fileUploadId AND job_type = :jobType AND job_status IN ('QUEUED', 'RUNNING')",
+            nativeQuery = true)
+    int restartActive(@Param("fileUploadId") Long fileUploadId, @Param("jobType") String jobType);
+
+    /**
+     * Locks the oldest job that is due, or whose lease expired, skipping jobs another node is
+     * claiming at the same moment. The row stays locked until the surrounding transaction ends.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "SELECT * FROM app.upload_job "
+            + "WHERE (job_status = 'QUEUED' AND available_at <= CURRENT_TIMESTAMP) "
+            + "OR (job_status = 'RUNNING' AND lease_expires_at < CURRENT_TIMESTAMP) "
+            + "ORDER BY id LIMIT 1 FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    Optional<UploadJob> lockNextClaimable();
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "UPDATE app.upload_job SET job_status = 'RUNNING', locked_by = :lockedBy, attempts = attempts + 1, "
+            + "lease_expires_at = CURRENT_TIMESTAMP + make_interval(secs => :leaseSeconds), modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id",
+            nativeQuery = true)
+    int claim(@Param("id") Long id, @Param("lockedBy") String lockedBy, @Param("leaseSeconds") long leaseSeconds);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE app.upload_job SET lease_expires_at = CURRENT_TIMESTAMP + make_interval(secs => :leaseSeconds) "
+            + "WHERE id IN (:ids) AND locked_by = :lockedBy AND job_status = 'RUNNING'",
+            nativeQuery = true)
+    int renewLeases(@Param("ids") Collection<Long> ids,
+                    @Param("lockedBy") String lockedBy,
+                    @Param("leaseSeconds") long leaseSeconds);
+
+    /**
+     * Ends a job this node holds. Returns 0 when its lease was lost to another node meanwhile.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE app.upload_job SET job_status = :jobStatus, last_error = :lastError, locked_by = NULL, "
+            + "lease_expires_at = NULL, modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND locked_by = :lockedBy AND job_status = 'RUNNING'",
+            nativeQuery = true)
+    int finish(@Param("id") Long id,
+               @Param("lockedBy") String lockedBy,
+               @Param("jobStatus") String jobStatus,
+               @Param("lastError") String lastError);
+
+    /**
+     * Hands a job this node holds back to the queue after {@code delaySeconds}. The attempt is not
+     * counted when {@code refundedAttempts} is 1.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE app.upload_job SET job_status = 'QUEUED', attempts = attempts - :refundedAttempts, "
+            + "last_error = :lastError, "
+            + "available_at = CURRENT_TIMESTAMP + make_interval(secs => :delaySeconds), locked_by = NULL, "
+            + "lease_expires_at = NULL, modified_at = CURRENT_TIMESTAMP "
+            + "WHERE id = :id AND locked_by = :lockedBy AND job_status = 'RUNNING'",
+            nativeQuery = true)
+    int requeue(@Param("id") Long id,
+                @Param("lockedBy") String lockedBy,
+                @Param("delaySeconds") long delaySeconds,
+                @Param("refundedAttempts") int refundedAttempts,
+                @Param("lastError") String lastError);
+}
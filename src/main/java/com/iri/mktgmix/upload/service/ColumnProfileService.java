@@ -0,0 +1,90 @@
+package com.iri.mktgmix.upload.service;
+
+import com.iri.mktgmix.upload.converter.ColumnProfile;
+import com.iri.mktgmix.upload.converter.ColumnProfiler;
+import com.iri.mktgmix.upload.converter.CsvConverterFactory;
+import com.iri.mktgmix.upload.domain.DriverIterativeColumnMap;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.SourceColumn;
+import com.iri.mktgmix.upload.domain.SourceColumnMappingStatus;
+import com.iri.mktgmix.upload.repository.DriverIterativeColumnMapRepository;
+import com.iri.mktgmix.upload.repository.SourceColumnRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Records what converting an upload found out about its columns: the row count on the upload, and
+ * a source column per CSV column with its inferred type and value statistics.
+ */
+@Service
+@RequiredArgsConstructor
+public class ColumnProfileService {
+
+    private final SourceColumnRepository sourceColumnRepository;
+    private final DriverIterativeColumnMapRepository driverIterativeColumnMapRepository;
+
+    /**
+     * Returns a profiler that also recognizes the {@code time_format} patterns of the upload's driver.
+     */
+    public ColumnProfiler newProfiler(FileUpload fileUpload) {
+        List<String> timeFormats = driverIterativeColumnMapRepository
+                .findByDriverId(fileUpload.getDriverDetails().getId().intValue()).stream()
+                .map(DriverIterativeColumnMap::getTimeFormat)
+                .filter(StringUtils::hasText)
+                .distinct()
+                .collect(Collectors.toList());
+        return new ColumnProfiler(timeFormats);
+    }
+
+    /**
+     * Profiles a CSV that was not converted just now, such as one reused from the content store.
+     */
+    public ColumnProfiler profileCsv(FileUpload fileUpload, Path csvPath) throws IOException {
+        ColumnProfiler profiler = newProfiler(fileUpload);
+        CsvConverterFactory.readConvertedCsv(csvPath, profiler);
+        return profiler;
+    }
+
+    /**
+     * Sets the upload's row count and saves its source columns. An upload that already has source
+     * columns, from an earlier attempt to complete it, keeps them.
+     */
+    public void applyProfile(FileUpload fileUpload, ColumnProfiler profiler) {
+        fileUpload.setRowCount(profiler.getRowCount());
+        if (sourceColumnRepository.existsByFileUploadId(fileUpload.getId())) {
+            return;
+        }
+        List<ColumnProfile> profiles = profiler.getColumns();
+        List<String> sanitizedNames = SourceColumnNames.sanitize(profiles.stream()
+                .map(ColumnProfile::getHeaderName)
+                .collect(Collectors.toList()));
+        LocalDateTime now = LocalDateTime.now();
+        List<SourceColumn> sourceColumns = new ArrayList<>(profiles.size());
+        for (ColumnProfile profile : profiles) {
+            sourceColumns.add(SourceColumn.builder()
+                    .fileUploadId(fileUpload.getId())
+                    .ordinal(profile.getOrdinal())
+                    .originalName(SourceColumnNames.truncate(profile.getHeaderName()))
+                    .sanitizedName(sanitizedNames.get(profile.getOrdinal() - 1))
+                    .dataType(profile.getDataType().name())
+                    .dateFormat(profile.getDatePattern())
+                    .nullCount(profile.getNullCount())
+                    .blankCount(profile.getBlankCount())
+                    .distinctEstimate(profile.getDistinctEstimate())
+                    .mappingStatus(SourceColumnMappingStatus.UNMAPPED)
+                    .createdAt(now)
+                    .createdUserId(fileUpload.getCreatedById())
+                    .createdBy(fileUpload.getCreatedBy())
+                    .build());
+        }
+        sourceColumnRepository.insertAll(sourceColumns);
+    }
+}
@@ -1,68 +1,776 @@
 package com.iri.mktgmix.upload.service;
 
+import com.iri.mktgmix.upload.converter.ColumnProfiler;
+import com.iri.mktgmix.upload.converter.ConversionCancelledException;
+import com.iri.mktgmix.upload.converter.ConversionProgress;
+import com.iri.mktgmix.upload.converter.CsvConversionResult;
 import com.iri.mktgmix.upload.converter.FileToCsvConverter;
 import com.iri.mktgmix.upload.converter.CsvConverterFactory;
+import com.iri.mktgmix.upload.converter.MonetBinaryColumnWriter;
+import com.iri.mktgmix.upload.converter.RowSink;
+import com.iri.mktgmix.upload.converter.SheetNotFoundException;
+import com.iri.mktgmix.upload.converter.SheetSelection;
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.FileUploadStatus;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.service.admission.AdmissionControl;
+import com.iri.mktgmix.upload.service.admission.WorkType;
+import com.iri.mktgmix.upload.service.dto.SheetSelectionRequest;
+import com.iri.mktgmix.upload.service.dto.UploadProgress;
+import com.iri.mktgmix.upload.service.dto.UploadSessionStatus;
+import com.iri.mktgmix.upload.service.exception.ErrorType;
+import com.iri.mktgmix.upload.service.exception.FileUploadException;
+import com.iri.mktgmix.upload.service.ingest.PipelinedLoad;
+import com.iri.mktgmix.upload.service.ingest.StagingIngestService;
+import com.iri.mktgmix.upload.service.ingest.StagingLoadPipeline;
+import com.iri.mktgmix.upload.service.job.UploadJobQueue;
+import com.iri.mktgmix.upload.service.storage.ContentAddressedCsvStore;
+import com.iri.mktgmix.upload.service.storage.StagingStorageManager;
+import com.iri.mktgmix.upload.service.storage.UploadStoragePaths;
+import com.iri.mktgmix.upload.service.upload.ChunkBitmap;
+import com.iri.mktgmix.upload.service.upload.ChunkEncoding;
+import com.iri.mktgmix.upload.service.upload.ChunkPayload;
+import com.iri.mktgmix.upload.service.upload.ConversionProgressRegistry;
+import com.iri.mktgmix.upload.service.upload.DecodingChunkPayload;
+import com.iri.mktgmix.upload.service.upload.MalformedChunkException;
+import com.iri.mktgmix.upload.service.upload.MultipartChunkPayload;
+import com.iri.mktgmix.upload.service.upload.SpooledChunkPayload;
+import com.iri.mktgmix.upload.service.upload.StreamChunkPayload;
+import com.iri.mktgmix.upload.service.upload.UploadDigestRegistry;
+import com.iri.mktgmix.upload.service.upload.UploadSessionLocks;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Service
+@RequiredArgsConstructor
 public class FileUploadService {
 
-    @Value("${mediamix.upload.storage.base-path:}")
-    private String storageBasePath;
+    /**
+     * The upload ETag is the first 128 bits of the source SHA-256, hex encoded.
+     */
+    private static final int UPLOAD_ETAG_LENGTH = 32;
 
-    public Path mergeChunk(Long uploadSessionId,
-                           String originalFileName,
-                           int chunkNumber,
-                           MultipartFile chunkFile) {
+    private final FileUploadRepository fileUploadRepository;
+    private final UploadDigestRegistry uploadDigestRegistry;
+    private final UploadSessionLocks uploadSessionLocks;
+    private final UploadStoragePaths uploadStoragePaths;
+    private final ContentAddressedCsvStore contentAddressedCsvStore;
+    private final UploadDeduplicationService uploadDeduplicationService;
+    private final ColumnProfileService columnProfileService;
+    private final AdmissionControl admissionControl;
+    private final StagingStorageManager stagingStorageManager;
+    @Qualifier("sheetConversionExecutor")
+    private final ThreadPoolTaskExecutor sheetConversionExecutor;
+    private final ConversionProgressRegistry conversionProgressRegistry;
+    private final UploadJobQueue uploadJobQueue;
+    private final StagingLoadPipeline stagingLoadPipeline;
+    private final StagingIngestService stagingIngestService;
 
+    /**
+     * Also writes MonetDB binary column files while converting the default first sheet.
+     */
+    @Value("${mediamix.upload.binary-columns.enabled:false}")
+    private boolean binaryColumnsEnabled;
+
+    /**
+     * Writes a chunk at {@code (chunkNumber - 1) * chunkSize} into the session file, which is
+     * preallocated to {@code file_size_bytes}. Chunks may arrive in any order and concurrently;
+     * a chunk already recorded in the session bitmap is acknowledged without being rewritten,
+     * even after the session completed.
+     * The request that completes the session queues its conversion to CSV, which an upload job
+     * runs once, on any node.
+     * <p>
+     * Only the copy into the session file and its recording run under the session lock; the chunk
+     * is received from the client before it, so chunks of one session travel in parallel.
+     * <p>
+     * A chunk sent with a gzip or deflate {@code contentEncoding} is inflated while it is written,
+     * and its uncompressed size is what counts toward {@code bytes_received}.
+     */
+    public FileUpload mergeChunk(Long uploadSessionId,
+                                 String originalFileName,
+                                 int chunkNumber,
+                                 long chunkSize,
+                                 MultipartFile chunkFile,
+                                 String contentEncoding) {
+        Path targetPath = resolveTargetPath(uploadSessionId, originalFileName);
+        ChunkEncoding encoding = resolveEncoding(contentEncoding);
+        ChunkPayload chunkPayload;
+        if (encoding == ChunkEncoding.IDENTITY) {
+            chunkPayload = new MultipartChunkPayload(chunkFile, targetPath.getParent());
+        } else {
+            try {
+                chunkPayload = new DecodingChunkPayload(chunkFile.getInputStream(), encoding);
+            } catch (IOException ioException) {
+                throw new IllegalStateException("Failed to read file chunk", ioException);
+            }
+        }
+        return mergeChunk(uploadSessionId, targetPath, chunkNumber, chunkSize, chunkPayload);
+    }
+
+    /**
+     * Same as {@link #mergeChunk(Long, String, int, long, MultipartFile, String)} for a chunk sent as
+     * a raw request body. {@code contentLength} is ignored for encoded bodies.
+     */
+    public FileUpload mergeChunk(Long uploadSessionId,
+                                 String originalFileName,
+                                 int chunkNumber,
+                                 long chunkSize,
+                                 InputStream body,
+                                 long contentLength,
+                                 String contentEncoding) {
+        Path targetPath = resolveTargetPath(uploadSessionId, originalFileName);
+        ChunkEncoding encoding = resolveEncoding(contentEncoding);
+        ChunkPayload chunkPayload = encoding == ChunkEncoding.IDENTITY
+                ? new StreamChunkPayload(body, contentLength)
+                : new DecodingChunkPayload(body, encoding);
+        return mergeChunk(uploadSessionId, targetPath, chunkNumber, chunkSize, chunkPayload);
+    }
+
+    private FileUpload mergeChunk(Long uploadSessionId,
+                                  Path targetPath,
+                                  int chunkNumber,
+                                  long chunkSize,
+                                  ChunkPayload chunkPayload) {
+
+        admissionControl.admit(WorkType.CHUNK_WRITE, () -> {
+            if (chunkPayload.isLocal()) {
+                return recordChunkLocked(uploadSessionId, targetPath, chunkNumber, chunkSize, chunkPayload);
+            }
+            // The body is received before the session lock is taken, so a slow client only holds up its own chunk.
+            try (SpooledChunkPayload spooledPayload = receiveChunk(uploadSessionId, targetPath, chunkNumber, chunkSize,
+                    chunkPayload)) {
+                return recordChunkLocked(uploadSessionId, targetPath, chunkNumber, chunkSize,
+                        spooledPayload == null ? chunkPayload : spooledPayload);
+            }
+        });
+        return findUploadSession(uploadSessionId);
+    }
+
+    private boolean recordChunkLocked(Long uploadSessionId,
+                                      Path targetPath,
+                                      int chunkNumber,
+                                      long chunkSize,
+                                      ChunkPayload chunkPayload) {
+        // Writes are serialized per session.
+        return uploadSessionLocks.withSessionLock(uploadSessionId,
+                () -> recordChunk(uploadSessionId, targetPath, chunkNumber, chunkSize, chunkPayload));
+    }
+
+    /**
+     * Reads the body of a chunk sent over the network into a spool file next to the session file,
+     * checked against the length the session layout expects for it. Returns null, leaving the body
+     * unread, when the chunk is already recorded.
+     */
+    private SpooledChunkPayload receiveChunk(Long uploadSessionId,
+                                             Path targetPath,
+                                             int chunkNumber,
+                                             long chunkSize,
+                                             ChunkPayload chunkPayload) {
+        FileUpload fileUpload = findUploadSession(uploadSessionId);
+        long chunkLength = chunkLength(fileUpload, chunkNumber, chunkSize, chunkPayload);
+        if (fileUpload.getChunkBitmap() != null && ChunkBitmap.isSet(fileUpload.getChunkBitmap(), chunkNumber - 1)) {
+            return null;
+        }
+        requireUploading(fileUpload);
+        try {
+            return SpooledChunkPayload.receive(chunkPayload, targetPath.getParent(), chunkLength);
+        } catch (MalformedChunkException malformedChunk) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "Chunk " + chunkNumber + " rejected: " + malformedChunk.getMessage(), malformedChunk);
+        } catch (IOException ioException) {
+            throw new IllegalStateException("Failed to receive file chunk", ioException);
+        }
+    }
+
+    /**
+     * Writes and records one chunk. Returns true when this chunk completed the session and queued
+     * its conversion.
+     */
+    private boolean recordChunk(Long uploadSessionId,
+                                Path targetPath,
+                                int chunkNumber,
+                                long chunkSize,
+                                ChunkPayload chunkPayload) {
+
+        FileUpload fileUpload = findUploadSession(uploadSessionId);
+        if (fileUpload.getChunkBitmap() == null) {
+            requireUploading(fileUpload);
+            fileUpload = initializeChunkLayout(fileUpload, chunkSize, targetPath);
+        }
+        long chunkLength = chunkLength(fileUpload, chunkNumber, chunkSize, chunkPayload);
+        int chunkIndex = chunkNumber - 1;
+        long offset = chunkIndex * chunkSize;
+        if (ChunkBitmap.isSet(fileUpload.getChunkBitmap(), chunkIndex)) {
+            // A retried final chunk completes a fully received session that was not claimed yet.
+            return fileUpload.getUploadStatus() == FileUploadStatus.UPLOADING
+                    && ChunkBitmap.isComplete(fileUpload.getChunkBitmap(), fileUpload.getTotalChunks())
+                    && claimCompletion(uploadSessionId, targetPath);
+        }
+        requireUploading(fileUpload);
+
+        writeChunk(chunkPayload, targetPath, offset, chunkLength, chunkNumber);
+        if (fileUploadRepository.markChunkReceived(uploadSessionId, chunkIndex, chunkLength) == 0) {
+            return false;
+        }
+        digestReceivedBytes(findUploadSession(uploadSessionId), targetPath);
+        return claimCompletion(uploadSessionId, targetPath);
+    }
+
+    /**
+     * The number of bytes chunk {@code chunkNumber} holds in the session's chunk layout, or in the
+     * layout {@code chunkSize} sets up when there is none yet. Fails when the chunk does not fit it.
+     */
+    private long chunkLength(FileUpload fileUpload, int chunkNumber, long chunkSize, ChunkPayload chunkPayload) {
+        int totalChunks;
+        if (fileUpload.getChunkBitmap() == null) {
+            requireChunkLayout(fileUpload, chunkSize);
+            totalChunks = ChunkBitmap.totalChunks(fileUpload.getFileSizeBytes(), chunkSize);
+        } else if (fileUpload.getChunkSizeBytes() != chunkSize) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "Chunk size " + chunkSize + " does not match session chunk size "
+                            + fileUpload.getChunkSizeBytes() + " for fileUploadId: " + fileUpload.getId());
+        } else {
+            totalChunks = fileUpload.getTotalChunks();
+        }
+        int chunkIndex = chunkNumber - 1;
+        if (chunkIndex < 0 || chunkIndex >= totalChunks) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "Chunk " + chunkNumber + " is outside 1.." + totalChunks
+                            + " for fileUploadId: " + fileUpload.getId());
+        }
+        long chunkLength = Math.min(chunkSize, fileUpload.getFileSizeBytes() - chunkIndex * chunkSize);
+        if (chunkPayload.size() != ChunkPayload.UNKNOWN_SIZE && chunkPayload.size() != chunkLength) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "Chunk " + chunkNumber + " has " + chunkPayload.size() + " bytes, expected "
+                            + chunkLength + " for fileUploadId: " + fileUpload.getId());
+        }
+        return chunkLength;
+    }
+
+    /**
+     * Moves a fully received session to COMPLETED and queues its conversion. Runs under the session
+     * lock, so both commit together. Returns false when the session was not ready or already claimed.
+     */
+    private boolean claimCompletion(Long uploadSessionId, Path targetPath) {
+        if (fileUploadRepository.claimCompletion(uploadSessionId) == 0) {
+            return false;
+        }
+        uploadJobQueue.enqueue(uploadSessionId, UploadJobType.CONVERT, targetPath.getFileName().toString());
+        return true;
+    }
+
+    /**
+     * Completes a session whose chunks have all been recorded but whose completion was not claimed.
+     */
+    public FileUpload finalizeUpload(Long uploadSessionId, String originalFileName) {
+        FileUpload fileUpload = findUploadingSession(uploadSessionId);
+        if (fileUpload.getChunkBitmap() == null
+                || !ChunkBitmap.isComplete(fileUpload.getChunkBitmap(), fileUpload.getTotalChunks())) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "Upload is incomplete: received " + fileUpload.getBytesReceived() + " of "
+                            + fileUpload.getFileSizeBytes() + " bytes for fileUploadId: " + uploadSessionId);
+        }
         Path targetPath = resolveTargetPath(uploadSessionId, originalFileName);
-        writeChunk(chunkFile, targetPath, chunkNumber == 1);
+        boolean claimedCompletion = uploadSessionLocks.withSessionLock(uploadSessionId,
+                () -> claimCompletion(uploadSessionId, targetPath));
+        if (!claimedCompletion) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "FileUpload " + uploadSessionId + " is already being completed");
+        }
+        return findUploadSession(uploadSessionId);
+    }
+
+    /**
+     * Chooses the sheets converted when the session completes. Each selected sheet becomes its own
+     * CSV and staging table: the first one is kept on this upload, every further sheet gets a child
+     * upload. Only allowed while the session is still uploading.
+     */
+    public FileUpload selectSheets(Long uploadSessionId, SheetSelectionRequest sheetSelectionRequest) {
+        SheetSelection selection;
         try {
-            FileToCsvConverter converter = CsvConverterFactory.forFileName(originalFileName);
-            return converter.convert(targetPath);
+            selection = sheetSelectionRequest.isAllSheets()
+                    ? SheetSelection.allSheets()
+                    : SheetSelection.named(sheetSelectionRequest.getSheetNames());
+        } catch (IllegalArgumentException invalidSelection) {
+            throw new FileUploadException(ErrorType.SHEET_SELECTION_ERROR, invalidSelection.getMessage());
+        }
+        return uploadSessionLocks.withSessionLock(uploadSessionId, () -> {
+            FileUpload fileUpload = findUploadingSession(uploadSessionId);
+            fileUpload.setSheetSelection(selection.toColumnValue());
+            fileUpload.setModifiedAt(LocalDateTime.now());
+            return fileUploadRepository.save(fileUpload);
+        });
+    }
+
+    /**
+     * Returns what a client needs to resume an interrupted upload: the committed byte offset and
+     * the chunks that are still missing.
+     */
+    public UploadSessionStatus getSessionStatus(Long uploadSessionId) {
+        FileUpload fileUpload = findUploadSession(uploadSessionId);
+        byte[] chunkBitmap = fileUpload.getChunkBitmap();
+        return UploadSessionStatus.builder()
+                .fileUploadId(fileUpload.getId())
+                .uploadStatus(fileUpload.getUploadStatus().name())
+                .fileSizeBytes(fileUpload.getFileSizeBytes())
+                .bytesReceived(fileUpload.getBytesReceived())
+                .chunkSizeBytes(fileUpload.getChunkSizeBytes())
+                .totalChunks(fileUpload.getTotalChunks())
+                .committedOffset(ChunkBitmap.contiguousBytes(fileUpload))
+                .missingChunks(chunkBitmap == null
+                        ? Collections.<Integer>emptyList()
+                        : ChunkBitmap.missingChunkNumbers(chunkBitmap, fileUpload.getTotalChunks()))
+                .sheetName(fileUpload.getSheetName())
+                .sheetFileUploadIds(sheetFileUploadIds(fileUpload))
+                .build();
+    }
+
+    /**
+     * Returns how far the conversion of a completed upload got. Read from the conversion itself when
+     * it runs on this node, otherwise from what the converting node last recorded.
+     */
+    public UploadProgress getProgress(Long uploadSessionId) {
+        FileUpload fileUpload = findUploadSession(uploadSessionId);
+        boolean converting = isConverting(fileUpload);
+        UploadProgress.UploadProgressBuilder uploadProgress = UploadProgress.builder()
+                .fileUploadId(fileUpload.getId())
+                .uploadStatus(fileUpload.getUploadStatus().name())
+                .converting(converting);
+
+        ConversionProgress progress = conversionProgressRegistry.find(uploadSessionId);
+        if (progress != null) {
+            long bytesTotal = progress.getTotalBytes();
+            return uploadProgress
+                    .rowsProcessed(progress.getRowsProcessed())
+                    .bytesRead(progress.getBytesRead())
+                    .bytesTotal(bytesTotal < 0 ? null : bytesTotal)
+                    .estimatedSecondsRemaining(converting ? toSeconds(progress.getEstimatedRemaining()) : null)
+                    .build();
+        }
+        uploadProgress
+                .rowsProcessed(fileUpload.getConversionRowsProcessed())
+                .bytesRead(fileUpload.getConversionBytesRead())
+                .bytesTotal(fileUpload.getConversionBytesTotal());
+        if (converting && fileUpload.getConversionStartedAt() != null && fileUpload.getConversionBytesTotal() != null) {
+            uploadProgress.estimatedSecondsRemaining(toSeconds(ConversionProgress.estimateRemaining(
+                    Duration.between(fileUpload.getConversionStartedAt(), LocalDateTime.now()),
+                    fileUpload.getConversionBytesRead(), fileUpload.getConversionBytesTotal())));
+        }
+        return uploadProgress.build();
+    }
+
+    /**
+     * Cancels an upload that is still uploading or converting. The session file is removed right
+     * away; a running conversion stops at its next row and then removes what it wrote. A conversion
+     * on another node notices within {@code mediamix.upload.progress.sync-interval}.
+     */
+    public FileUpload cancelUpload(Long uploadSessionId) {
+        boolean converting = uploadSessionLocks.withSessionLock(uploadSessionId, () -> {
+            FileUpload fileUpload = findUploadSession(uploadSessionId);
+            if (fileUploadRepository.cancelUploadSession(uploadSessionId) == 0) {
+                throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                        "FileUpload " + uploadSessionId + " can no longer be cancelled, status: "
+                                + fileUpload.getUploadStatus());
+            }
+            if (fileUpload.getUploadStatus() == FileUploadStatus.UPLOADING) {
+                // Under the lock, so no chunk is being written into the directory.
+                releaseSession(uploadSessionId);
+                return false;
+            }
+            return true;
+        });
+        if (converting) {
+            conversionProgressRegistry.cancel(uploadSessionId);
+        }
+        return findUploadSession(uploadSessionId);
+    }
+
+    /**
+     * Queues a converted upload to be loaded into its MonetDB staging table again. Its current table
+     * stays readable until the new load replaces it, and is kept when the upload's CSV was loaded
+     * into it already. An ingest job still finishing an earlier load is restarted, so the request is
+     * never absorbed by it.
+     */
+    public void requestIngest(Long uploadSessionId) {
+        uploadSessionLocks.withSessionLock(uploadSessionId, () -> {
+            FileUpload fileUpload = findUploadSession(uploadSessionId);
+            if (fileUploadRepository.requestIngest(uploadSessionId) == 0) {
+                throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                        "FileUpload " + uploadSessionId + " cannot be ingested now, status: "
+                                + fileUpload.getUploadStatus() + ", ingest status: " + fileUpload.getIngestStatus());
+            }
+            if (!uploadJobQueue.enqueueOrRestart(uploadSessionId, UploadJobType.INGEST, null)) {
+                // Rolls back the request, so the upload is not left waiting without a job.
+                throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                        "Ingest of fileUploadId: " + uploadSessionId + " could not be queued, retry later");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Runs the queued conversion of a claimed session. Does nothing when the session was cancelled,
+     * or converted by an earlier attempt of the job. An
+     * {@link com.iri.mktgmix.upload.service.exception.AdmissionRejectedException} leaves the session
+     * as it is, to be converted when the job is retried.
+     */
+    public void convertUpload(Long uploadSessionId, String sourceFileName) {
+        FileUpload fileUpload = findUploadSession(uploadSessionId);
+        if (isConverting(fileUpload)) {
+            completeUpload(fileUpload, resolveTargetPath(uploadSessionId, sourceFileName));
+        }
+    }
+
+    /**
+     * Fails a session whose conversion job gave up, unless it was cancelled or converted meanwhile.
+     */
+    public void failConversion(Long uploadSessionId) {
+        fileUploadRepository.failConversion(uploadSessionId);
+    }
+
+    /**
+     * Converts a claimed session. When the session is cancelled meanwhile, its files are removed and
+     * {@link ErrorType#UPLOAD_CANCELLED} is thrown.
+     */
+    private FileUpload completeUpload(FileUpload fileUpload, Path targetPath) {
+        ConversionProgress progress = conversionProgressRegistry.start(fileUpload.getId());
+        fileUpload.setConversionStartedAt(LocalDateTime.now());
+        try {
+            String sourceChecksum = fileUpload.getChecksumSourceSha256();
+            if (sourceChecksum == null) {
+                sourceChecksum = uploadDigestRegistry.finish(fileUpload, targetPath);
+                fileUpload.setChecksumSourceSha256(sourceChecksum);
+                fileUpload.setUploadEtag(sourceChecksum.substring(0, UPLOAD_ETAG_LENGTH));
+            }
+
+            FileToCsvConverter converter = CsvConverterFactory.forFileName(targetPath.getFileName().toString());
+            List<CsvConversionResult> sheetResults = convertSheets(converter,
+                    SheetSelection.fromColumnValue(fileUpload.getSheetSelection()), sourceChecksum, targetPath, progress);
+            CsvConversionResult conversionResult;
+            ColumnProfiler profiler = null;
+            PipelinedLoad loaded = null;
+            if (sheetResults.isEmpty()) {
+                // Identical workbooks are converted once; later uploads reuse the stored CSV.
+                conversionResult = contentAddressedCsvStore.find(sourceChecksum).orElse(null);
+                if (conversionResult == null) {
+                    ColumnProfiler conversionProfiler = columnProfileService.newProfiler(fileUpload);
+                    try (PipelinedLoad pipelinedLoad = stagingLoadPipeline.open(fileUpload)) {
+                        conversionResult = contentAddressedCsvStore.store(sourceChecksum,
+                                admitConversion(() -> convert(converter, targetPath,
+                                        progress.andThen(conversionProfiler).andThen(pipelinedLoad))));
+                        if (pipelinedLoad != null && pipelinedLoad.finish()) {
+                            loaded = pipelinedLoad;
+                        }
+                    }
+                    profiler = conversionProfiler;
+                }
+            } else {
+                conversionResult = sheetResults.get(0);
+                saveSheetUploads(fileUpload, sheetResults.subList(1, sheetResults.size()));
+            }
+            applyConversion(fileUpload, conversionResult);
+            if (loaded != null) {
+                // Loaded while converting; unless its columns cannot be typed, no ingest job is needed.
+                columnProfileService.applyProfile(fileUpload, profiler);
+                stagingIngestService.adoptPipelinedLoad(fileUpload, loaded);
+            } else if (!uploadDeduplicationService.reuseStagingData(fileUpload)) {
+                // A reused or sheet CSV was not profiled while converting; it is read once more.
+                columnProfileService.applyProfile(fileUpload, profiler != null
+                        ? profiler
+                        : columnProfileService.profileCsv(fileUpload, conversionResult.getCsvPath()));
+            }
+            recordProgress(fileUpload, progress);
+            return saveUnlessCancelled(fileUpload);
+        } catch (ConversionCancelledException cancelled) {
+            releaseSession(fileUpload.getId());
+            throw new FileUploadException(ErrorType.UPLOAD_CANCELLED,
+                    "FileUpload " + fileUpload.getId() + " was cancelled", cancelled);
+        } catch (SheetNotFoundException sheetNotFound) {
+            fileUpload.setUploadStatus(FileUploadStatus.FAILED);
+            saveUnlessCancelled(fileUpload);
+            throw new FileUploadException(ErrorType.SHEET_SELECTION_ERROR, sheetNotFound.getMessage(), sheetNotFound);
         } catch (IOException ioException) {
+            fileUpload.setUploadStatus(FileUploadStatus.FAILED);
+            recordProgress(fileUpload, progress);
+            saveUnlessCancelled(fileUpload);
             throw new IllegalStateException("Failed to convert spreadsheet to CSV", ioException);
+        } finally {
+            conversionProgressRegistry.finish(fileUpload.getId(), progress);
+        }
+    }
+
+    /**
+     * Saves the outcome of a conversion, unless the session was cancelled while it ran. Checked
+     * under the session lock, so a cancellation is never overwritten. A converted upload that still
+     * needs loading into MonetDB gets its ingest job in the same transaction. When the session was
+     * cancelled, the staging table and source columns written during the conversion are dropped.
+     */
+    private FileUpload saveUnlessCancelled(FileUpload fileUpload) {
+        fileUpload.setModifiedAt(LocalDateTime.now());
+        FileUpload saved = uploadSessionLocks.withSessionLock(fileUpload.getId(), () ->
+                FileUploadStatus.CANCELLED.name().equals(fileUploadRepository.findUploadStatus(fileUpload.getId()))
+                        ? null
+                        : saveAndQueueIngest(fileUpload));
+        if (saved == null) {
+            uploadDeduplicationService.discardStagingData(fileUpload);
+            releaseSession(fileUpload.getId());
+            throw new FileUploadException(ErrorType.UPLOAD_CANCELLED, "FileUpload " + fileUpload.getId() + " was cancelled");
+        }
+        return saved;
+    }
+
+    private FileUpload saveAndQueueIngest(FileUpload fileUpload) {
+        FileUpload saved = fileUploadRepository.save(fileUpload);
+        if (saved.getUploadStatus() == FileUploadStatus.COMPLETED && saved.getIngestStatus() == FileIngestStatus.PENDING) {
+            uploadJobQueue.enqueue(saved.getId(), UploadJobType.INGEST, null);
+        }
+        return saved;
+    }
+
+    private void releaseSession(Long uploadSessionId) {
+        uploadDigestRegistry.discard(uploadSessionId);
+        stagingStorageManager.release(uploadSessionId);
+    }
+
+    private static void recordProgress(FileUpload fileUpload, ConversionProgress progress) {
+        fileUpload.setConversionRowsProcessed(progress.getRowsProcessed());
+        fileUpload.setConversionBytesRead(progress.getBytesRead());
+        fileUpload.setConversionBytesTotal(progress.getTotalBytes() < 0 ? null : progress.getTotalBytes());
+    }
+
+    private static boolean isConverting(FileUpload fileUpload) {
+        return fileUpload.getUploadStatus() == FileUploadStatus.COMPLETED && fileUpload.getCsvPath() == null;
+    }
+
+    private static Long toSeconds(Duration duration) {
+        return duration == null ? null : duration.getSeconds();
+    }
+
+    /**
+     * Converts the selected sheets, reusing the CSVs of sheets already in the content store. Returns
+     * an empty list for the default first-sheet selection and for files without sheets, which are
+     * converted as a whole. Every converted sheet reports to {@code progress} and stops once it is
+     * cancelled.
+     */
+    private List<CsvConversionResult> convertSheets(FileToCsvConverter converter,
+                                                    SheetSelection selection,
+                                                    String sourceChecksum,
+                                                    Path targetPath,
+                                                    ConversionProgress progress) throws IOException {
+        if (selection.isFirstSheetOnly()) {
+            return Collections.emptyList();
+        }
+        List<String> sheetNames = selection.resolve(converter.listSheetNames(targetPath));
+        Map<String, CsvConversionResult> storedSheets = new HashMap<>();
+        List<String> missingSheets = new ArrayList<>();
+        for (String sheetName : sheetNames) {
+            CsvConversionResult stored = contentAddressedCsvStore.find(sourceChecksum, sheetName).orElse(null);
+            if (stored == null) {
+                missingSheets.add(sheetName);
+            } else {
+                storedSheets.put(sheetName, stored);
+            }
+        }
+        if (!missingSheets.isEmpty()) {
+            // The whole workbook is admitted as one conversion; its sheets share the bounded sheet pool.
+            List<CsvConversionResult> converted = admitConversion(
+                    () -> converter.convertSheets(targetPath, missingSheets, sheetConversionExecutor,
+                            sheetName -> progress.newPart()));
+            for (CsvConversionResult sheetResult : converted) {
+                storedSheets.put(sheetResult.getSheetName(), contentAddressedCsvStore.store(sourceChecksum, sheetResult));
+            }
+        }
+        List<CsvConversionResult> sheetResults = new ArrayList<>();
+        for (String sheetName : sheetNames) {
+            sheetResults.add(storedSheets.get(sheetName));
+        }
+        return sheetResults;
+    }
+
+    private CsvConversionResult convert(FileToCsvConverter converter,
+                                        Path targetPath,
+                                        RowSink rowSink) throws IOException {
+        if (!binaryColumnsEnabled) {
+            return converter.convert(targetPath, rowSink);
+        }
+        try (MonetBinaryColumnWriter binaryColumnWriter = MonetBinaryColumnWriter.forInput(targetPath)) {
+            CsvConversionResult conversionResult = converter.convert(targetPath, rowSink.andThen(binaryColumnWriter));
+            return conversionResult.withBinaryColumnsDirectory(binaryColumnWriter.finish());
+        }
+    }
+
+    private <T> T admitConversion(AdmissionControl.AdmittedWork<T, IOException> conversion) throws IOException {
+        return admissionControl.admit(WorkType.CONVERSION, conversion);
+    }
+
+    private static void applyConversion(FileUpload fileUpload, CsvConversionResult conversionResult) {
+        fileUpload.setCsvPath(conversionResult.getCsvPath().toString());
+        fileUpload.setChecksumSha256(conversionResult.getChecksumSha256());
+        fileUpload.setSheetName(conversionResult.getSheetName());
+        fileUpload.setIngestStatus(FileIngestStatus.PENDING);
+    }
+
+    /**
+     * Creates a completed child upload for every further selected sheet. Sheets that already have
+     * one, from an earlier attempt to complete the session, are skipped.
+     */
+    private void saveSheetUploads(FileUpload parent, List<CsvConversionResult> sheetResults) throws IOException {
+        Map<String, Long> existing = sheetFileUploadIds(parent);
+        LocalDateTime now = LocalDateTime.now();
+        for (CsvConversionResult sheetResult : sheetResults) {
+            if (existing.containsKey(sheetResult.getSheetName())) {
+                continue;
+            }
+            FileUpload sheetUpload = FileUpload.builder()
+                    .projectId(parent.getProjectId())
+                    .originalFileName(parent.getOriginalFileName())
+                    .fileSizeBytes(parent.getFileSizeBytes())
+                    .mimeType(parent.getMimeType())
+                    .bytesReceived(parent.getBytesReceived())
+                    .uploadEtag(parent.getUploadEtag())
+                    .checksumSourceSha256(parent.getChecksumSourceSha256())
+                    .parentFileUploadId(parent.getId())
+                    .uploadStatus(FileUploadStatus.COMPLETED)
+                    .rowCount(0L)
+                    .createdAt(now)
+                    .createdById(parent.getCreatedById())
+                    .createdBy(parent.getCreatedBy())
+                    .modifiedAt(now)
+                    .driverDetails(parent.getDriverDetails())
+                    .build();
+            applyConversion(sheetUpload, sheetResult);
+            // Saved first, since the staging table name is derived from the id.
+            sheetUpload = fileUploadRepository.save(sheetUpload);
+            if (!uploadDeduplicationService.reuseStagingData(sheetUpload)) {
+                columnProfileService.applyProfile(sheetUpload,
+                        columnProfileService.profileCsv(sheetUpload, sheetResult.getCsvPath()));
+            }
+            saveAndQueueIngest(sheetUpload);
+        }
+    }
+
+    private Map<String, Long> sheetFileUploadIds(FileUpload fileUpload) {
+        if (fileUpload.getSheetSelection() == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> sheetFileUploadIds = new LinkedHashMap<>();
+        for (FileUpload sheetUpload : fileUploadRepository.findByParentFileUploadIdOrderById(fileUpload.getId())) {
+            sheetFileUploadIds.put(sheetUpload.getSheetName(), sheetUpload.getId());
+        }
+        return sheetFileUploadIds;
+    }
+
+    private FileUpload initializeChunkLayout(FileUpload fileUpload, long chunkSize, Path targetPath) {
+        requireChunkLayout(fileUpload, chunkSize);
+        long fileSizeBytes = fileUpload.getFileSizeBytes();
+        stagingStorageManager.reserve(fileUpload.getId(), fileSizeBytes);
+        preallocate(targetPath, fileSizeBytes);
+        int totalChunks = ChunkBitmap.totalChunks(fileSizeBytes, chunkSize);
+        fileUploadRepository.initializeChunkBitmap(fileUpload.getId(), chunkSize, totalChunks, ChunkBitmap.empty(totalChunks));
+        return findUploadSession(fileUpload.getId());
+    }
+
+    private void requireChunkLayout(FileUpload fileUpload, long chunkSize) {
+        Long fileSizeBytes = fileUpload.getFileSizeBytes();
+        if (fileSizeBytes == null || fileSizeBytes <= 0) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "file_size_bytes must be declared before uploading chunks for fileUploadId: " + fileUpload.getId());
+        }
+        if (chunkSize <= 0) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR, "Chunk size must be positive");
         }
     }
 
-    private void writeChunk(MultipartFile chunkFile, Path targetPath, boolean isFirstChunk) {
+    private FileUpload findUploadSession(Long uploadSessionId) {
+        return fileUploadRepository.findById(uploadSessionId)
+                .orElseThrow(() -> new FileUploadException(
+                        ErrorType.UPLOAD_SESSION_ERROR,
+                        "FileUpload not found for fileUploadId: " + uploadSessionId));
+    }
+
+    private FileUpload findUploadingSession(Long uploadSessionId) {
+        FileUpload fileUpload = findUploadSession(uploadSessionId);
+        requireUploading(fileUpload);
+        return fileUpload;
+    }
+
+    private void requireUploading(FileUpload fileUpload) {
+        if (fileUpload.getUploadStatus() != FileUploadStatus.UPLOADING) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "FileUpload " + fileUpload.getId() + " is not accepting chunks, status: " + fileUpload.getUploadStatus());
+        }
+    }
+
+    private void preallocate(Path targetPath, long fileSizeBytes) {
         try {
             Files.createDirectories(targetPath.getParent());
-            if (isFirstChunk && Files.exists(targetPath)) {
-                Files.delete(targetPath);
-            }
-            try (InputStream inputStream = chunkFile.getInputStream();
-                 OutputStream outputStream = Files.newOutputStream(targetPath,
-                         StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+            try (FileChannel channel = FileChannel.open(targetPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (channel.size() < fileSizeBytes) {
+                    // Extends the file to its final length; the content is filled in by positional writes.
+                    channel.write(ByteBuffer.allocate(1), fileSizeBytes - 1);
                 }
             }
+        } catch (IOException ioException) {
+            throw new IllegalStateException("Failed to preallocate upload file", ioException);
+        }
+    }
+
+    private void digestReceivedBytes(FileUpload fileUpload, Path targetPath) {
+        try {
+            uploadDigestRegistry.advance(fileUpload, targetPath);
+        } catch (IOException ioException) {
+            // The digest is rebuilt from the file when the upload completes.
+            uploadDigestRegistry.discard(fileUpload.getId());
+        }
+    }
+
+    private void writeChunk(ChunkPayload chunkPayload, Path targetPath, long offset, long chunkLength, int chunkNumber) {
+        try (FileChannel channel = FileChannel.open(targetPath, StandardOpenOption.WRITE)) {
+            chunkPayload.writeTo(channel, offset, chunkLength);
+            // A chunk is only recorded in the bitmap once it is durable, so resume never skips lost data.
+            channel.force(false);
+        } catch (MalformedChunkException malformedChunk) {
+            throw new FileUploadException(ErrorType.UPLOAD_SESSION_ERROR,
+                    "Chunk " + chunkNumber + " rejected: " + malformedChunk.getMessage(), malformedChunk);
         } catch (IOException ioException) {
             throw new IllegalStateException("Failed to persist file chunk", ioException);
         }
     }
 
-    private Path resolveTargetPath(Long uploadSessionId, String originalFileName) {
-        Path basePath;
-        if (storageBasePath != null && !storageBasePath.trim().isEmpty()) {
-            basePath = Paths.get(storageBasePath);
-        } else {
-            basePath = Paths.get(System.getProperty("java.io.tmpdir"), "mediamix-uploads");
+    private ChunkEncoding resolveEncoding(String contentEncoding) {
+        ChunkEncoding encoding = ChunkEncoding.fromHeader(contentEncoding);
+        if (encoding == null) {
+            throw new FileUploadException(ErrorType.UNSUPPORTED_CONTENT_ENCODING,
+                    "Unsupported Content-Encoding: " + contentEncoding);
         }
-        return basePath.resolve(String.valueOf(uploadSessionId)).resolve(originalFileName);
+        return encoding;
+    }
+
+    private Path resolveTargetPath(Long uploadSessionId, String originalFileName) {
+        return uploadStoragePaths.sessionFile(uploadSessionId, originalFileName);
     }
 }
 
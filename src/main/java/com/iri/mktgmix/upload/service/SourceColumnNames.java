@@ -0,0 +1,81 @@
+package com.iri.mktgmix.upload.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Derives the sanitized column names of an upload from its header: lower case letters, digits and
+ * single underscores, {@code Project (Output) Geography} becomes {@code project_output_geography}.
+ * <p>
+ * Names are unique per upload, as {@code uq_source_column_name_sanitized_per_file} requires. A name
+ * that is already taken gets the first free {@code _2}, {@code _3}, ... suffix. The next suffix to
+ * try is remembered per name, so a header repeating one name n times takes O(n) lookups rather
+ * than O(n^2).
+ */
+public final class SourceColumnNames {
+
+    /**
+     * Length of {@code source_column.name_original} and {@code name_sanitized}.
+     */
+    static final int MAX_LENGTH = 255;
+
+    /**
+     * Leaves room for a collision suffix within {@link #MAX_LENGTH}.
+     */
+    private static final int MAX_BASE_LENGTH = MAX_LENGTH - 12;
+
+    private SourceColumnNames() {
+    }
+
+    /**
+     * Returns one unique sanitized name per header name, in order. A header name without letters or
+     * digits is named after its 1-based position, {@code column_3}.
+     */
+    public static List<String> sanitize(List<String> headerNames) {
+        List<String> sanitizedNames = new ArrayList<>(headerNames.size());
+        Set<String> taken = new HashSet<>();
+        Map<String, Integer> nextSuffixes = new HashMap<>();
+        for (int i = 0; i < headerNames.size(); i++) {
+            String baseName = sanitize(headerNames.get(i));
+            if (baseName.isEmpty()) {
+                baseName = "column_" + (i + 1);
+            }
+            String name = baseName;
+            if (!taken.add(name)) {
+                int suffix = nextSuffixes.getOrDefault(baseName, 2);
+                do {
+                    name = baseName + "_" + suffix++;
+                } while (!taken.add(name));
+                nextSuffixes.put(baseName, suffix);
+            }
+            sanitizedNames.add(name);
+        }
+        return sanitizedNames;
+    }
+
+    static String truncate(String value) {
+        return value.length() <= MAX_LENGTH ? value : value.substring(0, MAX_LENGTH);
+    }
+
+    private static String sanitize(String headerName) {
+        StringBuilder sanitized = new StringBuilder(Math.min(headerName.length(), MAX_BASE_LENGTH));
+        boolean pendingUnderscore = false;
+        for (int i = 0; i < headerName.length() && sanitized.length() < MAX_BASE_LENGTH; i++) {
+            char c = Character.toLowerCase(headerName.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                if (pendingUnderscore && sanitized.length() > 0) {
+                    sanitized.append('_');
+                }
+                pendingUnderscore = false;
+                sanitized.append(c);
+            } else {
+                pendingUnderscore = true;
+            }
+        }
+        return sanitized.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package com.iri.mktgmix.upload.service;
+
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.SourceColumn;
+import com.iri.mktgmix.upload.domain.SourceColumnMappingStatus;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.repository.SourceColumnRepository;
+import com.iri.mktgmix.upload.service.ingest.StagingTableNames;
+import com.iri.mktgmix.upload.service.ingest.StagingTables;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Reuses the staging data of an earlier upload with the same source checksum. Instead of loading
+ * the CSV again, the earlier staging table is cloned inside MonetDB and its source columns are
+ * copied. Each upload keeps its own table, so re-ingesting or deleting one upload never affects another.
+ */
+@Service
+public class UploadDeduplicationService {
+
+    private final FileUploadRepository fileUploadRepository;
+    private final SourceColumnRepository sourceColumnRepository;
+    private final StagingTables stagingTables;
+
+    @Autowired
+    public UploadDeduplicationService(
+            FileUploadRepository fileUploadRepository,
+            SourceColumnRepository sourceColumnRepository,
+            StagingTables stagingTables) {
+        this.fileUploadRepository = fileUploadRepository;
+        this.sourceColumnRepository = sourceColumnRepository;
+        this.stagingTables = stagingTables;
+    }
+
+    /**
+     * Clones the staging data of an ingested upload with the same {@code checksum_source_sha256}
+     * and sheet into {@code fileUpload}'s own staging table. Returns false, leaving the upload to be ingested
+     * normally, when there is nothing to reuse or the clone fails.
+     */
+    public boolean reuseStagingData(FileUpload fileUpload) {
+        Optional<FileUpload> donor = fileUploadRepository
+                .findFirstByChecksumSourceSha256AndSheetNameAndIngestStatusAndIdNotOrderByIngestedAtDesc(
+                        fileUpload.getChecksumSourceSha256(), fileUpload.getSheetName(),
+                        FileIngestStatus.INGESTED, fileUpload.getId());
+        if (!donor.isPresent() || donor.get().getMonetTableName() == null) {
+            return false;
+        }
+
+        FileUpload donorUpload = donor.get();
+        String tableName = StagingTableNames.forUpload(fileUpload);
+        try {
+            stagingTables.replaceWithCopy(donorUpload.getMonetTableName(), tableName);
+        } catch (SQLException exception) {
+            return false;
+        }
+
+        copySourceColumns(donorUpload, fileUpload);
+        fileUpload.setMonetTableName(tableName);
+        fileUpload.setRowCount(donorUpload.getRowCount());
+        fileUpload.setIngestStatus(FileIngestStatus.INGESTED);
+        fileUpload.setIngestedChecksumSha256(fileUpload.getChecksumSha256());
+        fileUpload.setIngestedAt(LocalDateTime.now());
+        return true;
+    }
+
+    /**
+     * Drops the staging table and source columns written for {@code fileUpload} while it was
+     * converted, when its outcome is not saved because the session was cancelled meanwhile.
+     */
+    public void discardStagingData(FileUpload fileUpload) {
+        if (fileUpload.getMonetTableName() != null) {
+            stagingTables.drop(fileUpload.getMonetTableName());
+        }
+        sourceColumnRepository.deleteByFileUploadId(fileUpload.getId());
+    }
+
+    private void copySourceColumns(FileUpload donorUpload, FileUpload fileUpload) {
+        LocalDateTime now = LocalDateTime.now();
+        List<SourceColumn> copies = sourceColumnRepository.findByFileUploadId(donorUpload.getId()).stream()
+                .map(column -> SourceColumn.builder()
+                        .fileUploadId(fileUpload.getId())
+                        .ordinal(column.getOrdinal())
+                        .originalName(column.getOriginalName())
+                        .sanitizedName(column.getSanitizedName())
+                        .dataType(column.getDataType())
+                        .dateFormat(column.getDateFormat())
+                        .nullCount(column.getNullCount())
+                        .blankCount(column.getBlankCount())
+                        .distinctEstimate(column.getDistinctEstimate())
+                        .mappingStatus(SourceColumnMappingStatus.UNMAPPED)
+                        .createdAt(now)
+                        .createdUserId(fileUpload.getCreatedById())
+                        .createdBy(fileUpload.getCreatedBy())
+                        .build())
+                .collect(Collectors.toList());
+        sourceColumnRepository.insertAll(copies);
+    }
+}
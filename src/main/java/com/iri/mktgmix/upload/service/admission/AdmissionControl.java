@@ -0,0 +1,63 @@
+package com.iri.mktgmix.upload.service.admission;
+
+import com.iri.mktgmix.upload.service.dto.AdmissionStats;
+import com.iri.mktgmix.upload.service.exception.AdmissionRejectedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits how much upload work runs at once, so a burst of large uploads cannot exhaust request
+ * threads or heap and stall interactive queries. Work over the limit waits briefly in a bounded
+ * queue. When that queue is full, the work is rejected with {@link AdmissionRejectedException},
+ * which the API returns as 429 with a Retry-After header.
+ */
+@Component
+public class AdmissionControl {
+
+    private final Map<WorkType, Bulkhead> bulkheads = new EnumMap<>(WorkType.class);
+    private final int retryAfterSeconds;
+
+    public AdmissionControl(
+            @Value("${mediamix.upload.admission.chunk-writes.max-concurrent:16}") int chunkWritesMaxConcurrent,
+            @Value("${mediamix.upload.admission.chunk-writes.max-queued:32}") int chunkWritesMaxQueued,
+            @Value("${mediamix.upload.admission.conversions.max-concurrent:4}") int conversionsMaxConcurrent,
+            @Value("${mediamix.upload.admission.conversions.max-queued:8}") int conversionsMaxQueued,
+            @Value("${mediamix.upload.admission.max-wait-ms:2000}") long maxWaitMillis,
+            @Value("${mediamix.upload.admission.retry-after-seconds:5}") int retryAfterSeconds) {
+        bulkheads.put(WorkType.CHUNK_WRITE,
+                new Bulkhead(WorkType.CHUNK_WRITE, chunkWritesMaxConcurrent, chunkWritesMaxQueued, maxWaitMillis));
+        bulkheads.put(WorkType.CONVERSION,
+                new Bulkhead(WorkType.CONVERSION, conversionsMaxConcurrent, conversionsMaxQueued, maxWaitMillis));
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public <T, E extends Exception> T admit(WorkType workType, AdmittedWork<T, E> work) throws E {
+        Bulkhead bulkhead = bulkheads.get(workType);
+        if (!bulkhead.tryEnter()) {
+            throw new AdmissionRejectedException(workType.name(), retryAfterSeconds);
+        }
+        try {
+            return work.run();
+        } finally {
+            bulkhead.exit();
+        }
+    }
+
+    public List<AdmissionStats> getStats() {
+        List<AdmissionStats> stats = new ArrayList<>();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            stats.add(bulkhead.stats());
+        }
+        return stats;
+    }
+
+    @FunctionalInterface
+    public interface AdmittedWork<T, E extends Exception> {
+        T run() throws E;
+    }
+}
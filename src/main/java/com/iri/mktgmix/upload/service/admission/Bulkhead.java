@@ -0,0 +1,73 @@
+package com.iri.mktgmix.upload.service.admission;
+
+import com.iri.mktgmix.upload.service.dto.AdmissionStats;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrency limit with a bounded wait queue. Callers beyond {@code maxConcurrent} wait at most
+ * {@code maxWaitMillis}, and only {@code maxQueued} of them may wait at once. Everyone else is
+ * turned away immediately.
+ */
+class Bulkhead {
+
+    private final WorkType workType;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    Bulkhead(WorkType workType, int maxConcurrent, int maxQueued, long maxWaitMillis) {
+        this.workType = workType;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    boolean tryEnter() {
+        if (permits.tryAcquire()) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                admitted.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued.decrementAndGet();
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    void exit() {
+        permits.release();
+    }
+
+    AdmissionStats stats() {
+        return AdmissionStats.builder()
+                .workType(workType.name())
+                .maxConcurrent(maxConcurrent)
+                .active(maxConcurrent - permits.availablePermits())
+                .maxQueued(maxQueued)
+                .queued(queued.get())
+                .admitted(admitted.get())
+                .rejected(rejected.get())
+                .build();
+    }
+}
@@ -0,0 +1,16 @@
+package com.iri.mktgmix.upload.service.admission;
+
+/**
+ * Kinds of upload work that are admitted separately, each with its own concurrency limit and queue.
+ */
+public enum WorkType {
+    /**
+     * Writing one chunk into an upload session file.
+     */
+    CHUNK_WRITE,
+
+    /**
+     * Converting a completed upload to CSV.
+     */
+    CONVERSION
+}
@@ -0,0 +1,20 @@
+package com.iri.mktgmix.upload.service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AdmissionStats {
+    private String workType;
+    private Integer maxConcurrent;
+    private Integer active;
+    private Integer maxQueued;
+    private Integer queued;
+    private Long admitted;
+    private Long rejected;
+}
@@ -0,0 +1,20 @@
+package com.iri.mktgmix.upload.service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Sheets to convert when the upload completes. Without either field only the first sheet is converted.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SheetSelectionRequest {
+    private boolean allSheets;
+    private List<String> sheetNames;
+}
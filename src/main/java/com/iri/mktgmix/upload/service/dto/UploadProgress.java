@@ -0,0 +1,40 @@
+package com.iri.mktgmix.upload.service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Progress of an upload's conversion to CSV. The counts are null until the conversion started,
+ * and as reported by the converting node they may lag behind by a few seconds.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadProgress {
+    private Long fileUploadId;
+    private String uploadStatus;
+    /**
+     * Whether the conversion is still running.
+     */
+    private boolean converting;
+    /**
+     * Rows converted so far, the header included.
+     */
+    private Long rowsProcessed;
+    /**
+     * Bytes of the input read so far: the file itself for CSV and TSV, the uncompressed sheet or
+     * workbook stream for XLSX and XLS.
+     */
+    private Long bytesRead;
+    /**
+     * Size of that input, null while it is not known.
+     */
+    private Long bytesTotal;
+    /**
+     * At the rate the input has been read so far; null when it cannot be estimated.
+     */
+    private Long estimatedSecondsRemaining;
+}
@@ -0,0 +1,42 @@
+package com.iri.mktgmix.upload.service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resume information for an upload session. A client that lost its connection re-sends only
+ * {@code missingChunks}, or streams on from {@code committedOffset} when it uploads sequentially.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionStatus {
+    private Long fileUploadId;
+    private String uploadStatus;
+    private Long fileSizeBytes;
+    private Long bytesReceived;
+    private Long chunkSizeBytes;
+    private Integer totalChunks;
+    /**
+     * End of the contiguous run of durable chunks starting at offset 0.
+     */
+    private Long committedOffset;
+    /**
+     * 1-based numbers of the chunks not received yet.
+     */
+    private List<Integer> missingChunks;
+    /**
+     * Sheet converted into this upload, null for the default first sheet.
+     */
+    private String sheetName;
+    /**
+     * Upload holding each further selected sheet, by sheet name, once the upload has completed.
+     */
+    private Map<String, Long> sheetFileUploadIds;
+}
@@ -0,0 +1,19 @@
+package com.iri.mktgmix.upload.service.exception;
+
+/**
+ * Raised when upload work is turned away because its concurrency limit and wait queue are full.
+ */
+public class AdmissionRejectedException extends FileUploadException {
+
+    private final int retryAfterSeconds;
+
+    public AdmissionRejectedException(String workType, int retryAfterSeconds) {
+        super(ErrorType.SERVICE_BUSY, "Too many concurrent " + workType + " requests, retry after "
+                + retryAfterSeconds + " seconds");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
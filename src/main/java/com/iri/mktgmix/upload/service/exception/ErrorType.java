@@ -1,18 +1,49 @@
 package com.iri.mktgmix.upload.service.exception;
 
 /**
- * Enum representing different types of errors that can occur in UploadedFileDataService.
+ * Enum representing different types of errors that can occur in UploadedFileDataService
+ * and FileUploadService.
  */
 public enum ErrorType {
     /**
      * Error related to invalid input formula (FormulaTranslationException).
      */
     INVALID_INPUT_FORMULA_ERROR(1000),
+
+    /**
+     * Error related to the state of an upload session (unknown session, unexpected chunk).
+     */
+    UPLOAD_SESSION_ERROR(2000),
+
+    /**
+     * Staging storage has no room for a new upload session.
+     */
+    STORAGE_QUOTA_EXCEEDED(2100),
+
+    /**
+     * A chunk was sent with a Content-Encoding other than identity, gzip or deflate.
+     */
+    UNSUPPORTED_CONTENT_ENCODING(2200),
+
+    /**
+     * A sheet selection names a sheet the workbook does not have, or is not a valid selection.
+     */
+    SHEET_SELECTION_ERROR(2300),
+
+    /**
+     * The upload was cancelled while it was being completed.
+     */
+    UPLOAD_CANCELLED(2400),
     
     /**
      * Error related to database operations (DataAccessException).
      */
     DB_TRANSLATION_ERROR(3000),
+
+    /**
+     * Work rejected by admission control because the service is at capacity.
+     */
+    SERVICE_BUSY(4000),
     
     /**
      * Other types of errors.
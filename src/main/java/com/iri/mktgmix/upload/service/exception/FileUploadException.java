@@ -0,0 +1,38 @@
+package com.iri.mktgmix.upload.service.exception;
+
+/**
+ * Runtime exception raised when an upload session cannot accept a chunk or be completed.
+ * Contains error type, error message, and error code.
+ */
+public class FileUploadException extends RuntimeException {
+
+    private final ErrorType errorType;
+    private final String errorMessage;
+    private final Integer errorCode;
+
+    public FileUploadException(ErrorType errorType, String errorMessage) {
+        super(errorMessage);
+        this.errorType = errorType;
+        this.errorMessage = errorMessage;
+        this.errorCode = errorType.getErrorCode();
+    }
+
+    public FileUploadException(ErrorType errorType, String errorMessage, Throwable cause) {
+        super(errorMessage, cause);
+        this.errorType = errorType;
+        this.errorMessage = errorMessage;
+        this.errorCode = errorType.getErrorCode();
+    }
+
+    public ErrorType getErrorType() {
+        return errorType;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public Integer getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,141 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits converted CSV into byte ranges of whole records, to be loaded in parallel.
+ * <p>
+ * A record boundary is a line break outside quotes, and whether a byte is quoted depends on every
+ * quote before it. So the file is scanned once from the start, memory-mapped a window at a time,
+ * and each range ends at the first boundary after its share of the bytes. Quotes and line breaks
+ * are single bytes that never occur inside a multi-byte UTF-8 character, so bytes are scanned
+ * without decoding them.
+ */
+final class CsvRanges {
+
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    private CsvRanges() {
+    }
+
+    /**
+     * Splits the records after the header into at most {@code parts} ranges of about the same size.
+     * Returns no ranges when there are no records after the header.
+     */
+    static List<CsvRange> split(Path csvPath, int parts) throws IOException {
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<CsvRange> ranges = new ArrayList<>(parts);
+            long rangeStart = -1;
+            long nextSplit = 0;
+            int split = 0;
+            boolean quoted = false;
+            for (long windowStart = 0; windowStart < size; windowStart += MAP_WINDOW_BYTES) {
+                long windowLength = Math.min(MAP_WINDOW_BYTES, size - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+                for (int i = 0; i < windowLength; i++) {
+                    byte b = window.get(i);
+                    if (b == '"') {
+                        quoted = !quoted;
+                    } else if (b == '\n' && !quoted && windowStart + i >= nextSplit) {
+                        long boundary = windowStart + i + 1;
+                        if (rangeStart < 0) {
+                            // The end of the header; the first range starts after it.
+                            rangeStart = boundary;
+                        } else {
+                            ranges.add(new CsvRange(rangeStart, boundary));
+                            rangeStart = boundary;
+                        }
+                        split++;
+                        nextSplit = rangeStart + (size - rangeStart) / (parts - split + 1);
+                        if (split == parts) {
+                            nextSplit = Long.MAX_VALUE;
+                        }
+                    }
+                }
+            }
+            if (rangeStart >= 0 && rangeStart < size) {
+                ranges.add(new CsvRange(rangeStart, size));
+            }
+            return ranges;
+        }
+    }
+
+    /**
+     * Reads the bytes of one range; any number of ranges of a file can be read at once.
+     */
+    static InputStream open(Path csvPath, CsvRange range) throws IOException {
+        return new RangeInputStream(FileChannel.open(csvPath, StandardOpenOption.READ), range);
+    }
+
+    /**
+     * Bytes {@code start} up to {@code end} of a CSV, a whole number of records.
+     */
+    static final class CsvRange {
+
+        private final long start;
+        private final long end;
+
+        CsvRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    private static final class RangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        RangeInputStream(FileChannel channel, CsvRange range) {
+            this.channel = channel;
+            this.position = range.getStart();
+            this.end = range.getEnd();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Copies converted CSV for {@code COPY INTO}, which needs every record to have all the table's
+ * fields. The converters write rows as long as their last cell, so short records are padded with
+ * empty fields, which load as NULL. Line breaks outside quotes become {@code \n}. Quoted values are
+ * copied as they are.
+ */
+final class CsvRecordPadding {
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private final Reader in;
+    private final Writer out;
+    private final int columnCount;
+    private final char[] input = new char[BUFFER_CHARS];
+    private final char[] output = new char[BUFFER_CHARS];
+    private int outputLength;
+    private boolean quoted;
+    private int separators;
+    private boolean recordStarted;
+    private long records;
+
+    private CsvRecordPadding(Reader in, Writer out, int columnCount) {
+        this.in = in;
+        this.out = out;
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * Copies the records of {@code in} after the first {@code recordsToSkip} to {@code out}, each
+     * padded to {@code columnCount} fields, and returns how many were copied. A record with more
+     * fields fails the copy, since the table has no column for them.
+     */
+    static long copy(Reader in, Writer out, int columnCount, long recordsToSkip) throws IOException {
+        CsvRecordPadding padding = new CsvRecordPadding(in, out, columnCount);
+        padding.run(recordsToSkip);
+        return padding.records - recordsToSkip;
+    }
+
+    private void run(long recordsToSkip) throws IOException {
+        int read;
+        while ((read = in.read(input)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = input[i];
+                if (!quoted && c == '\r') {
+                    continue;
+                }
+                if (!quoted && c == '\n') {
+                    endRecord(recordsToSkip);
+                    continue;
+                }
+                recordStarted = true;
+                if (quoted) {
+                    quoted = c != '"';
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',' && ++separators == columnCount) {
+                    throw new IOException("Record " + (records + 1) + " has more than " + columnCount + " fields");
+                }
+                if (records >= recordsToSkip) {
+                    append(c);
+                }
+            }
+        }
+        if (recordStarted) {
+            endRecord(recordsToSkip);
+        }
+        out.write(output, 0, outputLength);
+        outputLength = 0;
+    }
+
+    private void endRecord(long recordsToSkip) throws IOException {
+        if (records >= recordsToSkip) {
+            for (int i = separators + 1; i < columnCount; i++) {
+                append(',');
+            }
+            append('\n');
+        }
+        records++;
+        separators = 0;
+        recordStarted = false;
+    }
+
+    private void append(char c) throws IOException {
+        if (outputLength == output.length) {
+            out.write(output, 0, outputLength);
+            outputLength = 0;
+        }
+        output[outputLength++] = c;
+    }
+}
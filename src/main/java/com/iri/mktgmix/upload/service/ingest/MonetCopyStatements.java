@@ -0,0 +1,112 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SQL for loading CSV written by the converters into MonetDB staging tables. Empty values load as
+ * NULL, and backslashes are kept as they are: the CSV only escapes quotes, by doubling them.
+ */
+public final class MonetCopyStatements {
+
+    private MonetCopyStatements() {
+    }
+
+    /**
+     * Creates a table with one text column per name, in order.
+     */
+    public static String createTextTable(String tableName, List<String> columnNames) {
+        return createTable(tableName, columnNames,
+                Collections.nCopies(columnNames.size(), StagingColumnTypes.TEXT));
+    }
+
+    /**
+     * Creates a table with a column of the given SQL type per name, in order.
+     */
+    public static String createTable(String tableName, List<String> columnNames, List<String> sqlTypes) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE ").append(StagingTableNames.quote(tableName)).append(" (");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(StagingTableNames.quote(columnNames.get(i))).append(' ').append(sqlTypes.get(i));
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Creates a table holding the rows of {@code sourceTable}, with each column cast to the given
+     * SQL type. Text columns are copied as they are.
+     */
+    public static String createCastTable(String tableName, String sourceTable,
+                                         List<String> columnNames, List<String> sqlTypes) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE ").append(StagingTableNames.quote(tableName))
+                .append(" AS SELECT ");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            String column = StagingTableNames.quote(columnNames.get(i));
+            if (StagingColumnTypes.TEXT.equals(sqlTypes.get(i))) {
+                sql.append(column);
+            } else {
+                sql.append("CAST(").append(column).append(" AS ").append(sqlTypes.get(i)).append(") AS ").append(column);
+            }
+        }
+        return sql.append(" FROM ").append(StagingTableNames.quote(sourceTable)).append(" WITH DATA").toString();
+    }
+
+    /**
+     * Creates a table holding a copy of {@code sourceTable}.
+     */
+    public static String createCopyTable(String tableName, String sourceTable) {
+        return "CREATE TABLE " + StagingTableNames.quote(tableName) + " AS SELECT * FROM "
+                + StagingTableNames.quote(sourceTable) + " WITH DATA";
+    }
+
+    /**
+     * Loads the CSV the client sends for {@code name} when the server asks for it, see
+     * {@code MonetConnection.setUploadHandler}.
+     */
+    public static String copyFromClient(String tableName, String name) {
+        return copyFromClient(tableName, name, 0);
+    }
+
+    /**
+     * Same as {@link #copyFromClient(String, String)} for CSV starting with {@code headerRows} rows
+     * that are not loaded. The server passes them on to the upload handler as lines to skip.
+     */
+    public static String copyFromClient(String tableName, String name, int headerRows) {
+        return "COPY " + (headerRows > 0 ? "OFFSET " + (headerRows + 1) + " " : "")
+                + "INTO " + StagingTableNames.quote(tableName) + " FROM " + quoteLiteral(name) + " ON CLIENT"
+                + " USING DELIMITERS ',', E'\\n', '\"' NULL AS '' NO ESCAPE";
+    }
+
+    /**
+     * Loads one binary column file per table column, in order, which the client sends for each of
+     * {@code names}; see {@link com.iri.mktgmix.upload.converter.MonetBinaryColumnType}.
+     */
+    public static String copyBinaryFromClient(String tableName, List<String> names) {
+        StringBuilder sql = new StringBuilder("COPY LITTLE ENDIAN BINARY INTO ")
+                .append(StagingTableNames.quote(tableName)).append(" FROM ");
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(quoteLiteral(names.get(i)));
+        }
+        return sql.append(" ON CLIENT").toString();
+    }
+
+    public static String renameTable(String tableName, String newName) {
+        return "ALTER TABLE " + StagingTableNames.quote(tableName) + " RENAME TO " + StagingTableNames.quote(newName);
+    }
+
+    public static String dropTable(String tableName) {
+        return "DROP TABLE IF EXISTS " + StagingTableNames.quote(tableName);
+    }
+
+    private static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
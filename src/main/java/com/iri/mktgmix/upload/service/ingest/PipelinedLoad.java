@@ -0,0 +1,327 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import com.iri.mktgmix.upload.converter.RowSink;
+import com.iri.mktgmix.upload.service.SourceColumnNames;
+import lombok.extern.slf4j.Slf4j;
+import org.monetdb.jdbc.MonetConnection;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads the rows of a conversion into a MonetDB table while the conversion runs.
+ * <p>
+ * The converting thread formats rows as CSV into chunks and hands them over a bounded queue to a
+ * loader thread. That thread runs {@code COPY INTO ... ON CLIENT} and streams the chunks to the
+ * server as it asks for them, so parsing and loading overlap. A full queue makes the conversion
+ * wait for the load. The first row is the header: once it is complete, the table is created with
+ * a text column per header name, named as the upload's source columns are.
+ * <p>
+ * The load is given up, and its table dropped, when a row has more fields than the header, the
+ * load fails or stalls, or the conversion ends without {@link #finish()}. The conversion itself
+ * carries on; its CSV is then ingested as usual.
+ */
+@Slf4j
+public final class PipelinedLoad implements RowSink, Closeable {
+
+    private static final int CHUNK_CHARS = 64 * 1024;
+    private static final long POLL_MILLIS = 100;
+    private static final String UPLOAD_NAME = "rows";
+
+    /**
+     * Marks the end of the rows; compared by identity.
+     */
+    private static final String END_OF_ROWS = new String(new char[0]);
+
+    private final String tableName;
+    private final DataSource monetDataSource;
+    private final JdbcTemplate monetJdbcTemplate;
+    private final ThreadPoolTaskExecutor loadExecutor;
+    private final long stallTimeoutNanos;
+    private final BlockingQueue<String> chunks;
+
+    private final List<String> headerNames = new ArrayList<>();
+    private final StringBuilder chunk = new StringBuilder(CHUNK_CHARS + 1024);
+    private boolean headerRow = true;
+    private int columnCount;
+    private int fieldIndex;
+    private long rowCount;
+    private Future<Long> loader;
+    private long loadStartedAt;
+    private long loadMillis;
+    private boolean finished;
+
+    private volatile boolean abandoned;
+    private volatile String abandonReason;
+
+    PipelinedLoad(String tableName,
+                  DataSource monetDataSource,
+                  JdbcTemplate monetJdbcTemplate,
+                  ThreadPoolTaskExecutor loadExecutor,
+                  int queueChunks,
+                  long stallTimeoutNanos) {
+        this.tableName = tableName;
+        this.monetDataSource = monetDataSource;
+        this.monetJdbcTemplate = monetJdbcTemplate;
+        this.loadExecutor = loadExecutor;
+        this.stallTimeoutNanos = stallTimeoutNanos;
+        this.chunks = new ArrayBlockingQueue<>(queueChunks);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Columns of the table, one per header name.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Rows sent to the table, without the header.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * How long the load took from the header to {@link #finish()}.
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    @Override
+    public void writeField(String value) {
+        if (headerRow) {
+            headerNames.add(value == null ? "" : value);
+            return;
+        }
+        if (abandoned) {
+            return;
+        }
+        if (fieldIndex == columnCount) {
+            abandon("row " + (rowCount + 1) + " has more fields than the header");
+            return;
+        }
+        if (fieldIndex > 0) {
+            chunk.append(',');
+        }
+        appendField(value);
+        fieldIndex++;
+    }
+
+    @Override
+    public void endRow() {
+        if (headerRow) {
+            headerRow = false;
+            columnCount = headerNames.size();
+            startLoader();
+            return;
+        }
+        if (abandoned) {
+            fieldIndex = 0;
+            return;
+        }
+        // Missing trailing fields load as NULL.
+        for (; fieldIndex < columnCount; fieldIndex++) {
+            if (fieldIndex > 0) {
+                chunk.append(',');
+            }
+        }
+        chunk.append('\n');
+        rowCount++;
+        fieldIndex = 0;
+        if (chunk.length() >= CHUNK_CHARS) {
+            handOver(chunk.toString());
+            chunk.setLength(0);
+        }
+    }
+
+    /**
+     * Sends the last rows and waits for the load to complete. Returns true when the staging table
+     * holds every row; otherwise the table was dropped and the CSV must be ingested instead.
+     */
+    public boolean finish() {
+        finished = true;
+        if (loader == null) {
+            return false;
+        }
+        if (!abandoned) {
+            if (chunk.length() > 0) {
+                handOver(chunk.toString());
+                chunk.setLength(0);
+            }
+            handOver(END_OF_ROWS);
+        }
+        try {
+            long loadedRows = loader.get(stallTimeoutNanos, TimeUnit.NANOSECONDS);
+            if (loadedRows != rowCount) {
+                log.warn("Pipelined load into {} loaded {} of {} rows, falling back to the CSV",
+                        tableName, loadedRows, rowCount);
+                dropTable();
+                return false;
+            }
+            loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStartedAt);
+            return true;
+        } catch (ExecutionException failed) {
+            log.warn("Pipelined load into {} failed, falling back to the CSV: {}", tableName,
+                    abandonReason != null ? abandonReason : String.valueOf(failed.getCause()));
+            return false;
+        } catch (TimeoutException stalled) {
+            abandon("load did not complete in time");
+            return false;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            abandon("interrupted");
+            return false;
+        }
+    }
+
+    /**
+     * Gives the load up unless {@link #finish()} was called; the loader drops its table.
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            abandon("conversion ended without finishing the load");
+        }
+    }
+
+    private void startLoader() {
+        List<String> columnNames = SourceColumnNames.sanitize(headerNames);
+        loadStartedAt = System.nanoTime();
+        try {
+            loader = loadExecutor.submit(() -> load(columnNames));
+        } catch (TaskRejectedException rejected) {
+            abandon("no loader thread free");
+        }
+    }
+
+    private long load(List<String> columnNames) throws SQLException {
+        try (Connection connection = monetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            MonetConnection monetConnection = connection.unwrap(MonetConnection.class);
+            statement.execute(MonetCopyStatements.dropTable(tableName));
+            statement.execute(MonetCopyStatements.createTextTable(tableName, columnNames));
+            monetConnection.setUploadHandler((handle, name, textMode, linesToSkip) -> streamChunks(handle));
+            try {
+                return statement.executeUpdate(MonetCopyStatements.copyFromClient(tableName, UPLOAD_NAME));
+            } finally {
+                // The connection goes back to the pool.
+                monetConnection.setUploadHandler(null);
+            }
+        } catch (SQLException | RuntimeException exception) {
+            abandon("load failed: " + exception.getMessage());
+            dropTable();
+            throw exception;
+        }
+    }
+
+    private void streamChunks(MonetConnection.Upload handle) throws IOException {
+        Writer writer = new OutputStreamWriter(handle.getStream(), StandardCharsets.UTF_8);
+        while (true) {
+            String next;
+            try {
+                next = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for rows", interrupted);
+            }
+            if (abandoned) {
+                // Fails the COPY, so the partly loaded rows are not committed.
+                throw new IOException("Pipelined load abandoned: " + abandonReason);
+            }
+            if (next == END_OF_ROWS) {
+                break;
+            }
+            if (next != null) {
+                writer.write(next);
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Waits for room in the queue while the loader keeps up; gives the load up once it stalled.
+     */
+    private void handOver(String rows) {
+        long deadline = System.nanoTime() + stallTimeoutNanos;
+        try {
+            while (!chunks.offer(rows, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (abandoned) {
+                    return;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    abandon("MonetDB did not take rows for too long");
+                    return;
+                }
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            abandon("interrupted");
+        }
+    }
+
+    private void abandon(String reason) {
+        if (!abandoned) {
+            abandonReason = reason;
+            abandoned = true;
+        }
+        // Called from either thread, so it leaves the converting thread's chunk alone.
+        chunks.clear();
+    }
+
+    private void dropTable() {
+        try {
+            monetJdbcTemplate.execute(MonetCopyStatements.dropTable(tableName));
+        } catch (RuntimeException exception) {
+            log.warn("Failed to drop staging table {} of an abandoned load", tableName, exception);
+        }
+    }
+
+    private void appendField(String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            chunk.append(value);
+            return;
+        }
+        chunk.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                chunk.append('"');
+            }
+            chunk.append(c);
+        }
+        chunk.append('"');
+    }
+}
@@ -0,0 +1,51 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import com.iri.mktgmix.upload.converter.ColumnDataType;
+
+/**
+ * MonetDB column types of staging tables, chosen from the {@code source_column.data_type} the
+ * conversion inferred. Every value of a typed column was checked to parse as that type, see
+ * {@link com.iri.mktgmix.upload.converter.ColumnProfiler}. Dates in a driver {@code time_format}
+ * stay text, since MonetDB only reads ISO dates.
+ */
+public final class StagingColumnTypes {
+
+    /**
+     * The type of text columns; the one {@link com.iri.mktgmix.upload.converter.MonetBinaryColumnType#TEXT}
+     * files load into.
+     */
+    public static final String TEXT = "STRING";
+
+    private StagingColumnTypes() {
+    }
+
+    public static String sqlType(String dataType, String dateFormat) {
+        ColumnDataType columnDataType = parse(dataType);
+        if (columnDataType == null) {
+            return TEXT;
+        }
+        switch (columnDataType) {
+            case INTEGER:
+                return "BIGINT";
+            case DECIMAL:
+                return "DOUBLE";
+            case DATE:
+                return dateFormat == null ? "DATE" : TEXT;
+            case BOOLEAN:
+                return "BOOLEAN";
+            default:
+                return TEXT;
+        }
+    }
+
+    private static ColumnDataType parse(String dataType) {
+        if (dataType == null) {
+            return null;
+        }
+        try {
+            return ColumnDataType.valueOf(dataType);
+        } catch (IllegalArgumentException unknown) {
+            return null;
+        }
+    }
+}
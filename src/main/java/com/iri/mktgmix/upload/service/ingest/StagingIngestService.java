@@ -0,0 +1,378 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import com.iri.mktgmix.upload.converter.CsvConversionResult;
+import com.iri.mktgmix.upload.converter.MonetBinaryColumn;
+import com.iri.mktgmix.upload.domain.FileIngestFormat;
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.SourceColumn;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.repository.SourceColumnRepository;
+import com.iri.mktgmix.upload.service.storage.ContentAddressedCsvStore;
+import lombok.extern.slf4j.Slf4j;
+import org.monetdb.jdbc.MonetConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Loads converted uploads into their MonetDB staging tables, {@code stg_p{project}_f{file}}, with a
+ * column per source column typed from its {@code data_type}, see {@link StagingColumnTypes}.
+ * <p>
+ * Rows are bulk loaded with {@code COPY INTO ... ON CLIENT}, so the MonetDB server needs no access
+ * to the upload storage: the driver asks for the data and it is streamed from here. When the binary
+ * column files written with the CSV have the table's column types, they are loaded instead, which
+ * spares MonetDB parsing any text. Otherwise the CSV is loaded, with short records padded.
+ * <p>
+ * Rows are loaded into the table's shadow and only then replace it, see {@link StagingTables}, so
+ * queries never see a load in progress and a failed load leaves the previous rows in place. An
+ * upload whose table already holds the rows of its current CSV, by {@code checksum_sha256}, is not
+ * loaded again.
+ * <p>
+ * One {@code COPY INTO} stream is bound by its one connection. So a CSV of at least
+ * {@code mediamix.upload.ingest.parallel-min-size} is split into {@code parallelism} ranges of
+ * whole records, see {@link CsvRanges}, which are loaded into the table at once over their own
+ * connections.
+ */
+@Slf4j
+@Service
+public class StagingIngestService {
+
+    private static final String CSV_UPLOAD_NAME = "rows.csv";
+
+    private final FileUploadRepository fileUploadRepository;
+    private final SourceColumnRepository sourceColumnRepository;
+    private final ContentAddressedCsvStore contentAddressedCsvStore;
+    private final DataSource monetDataSource;
+    private final StagingTables stagingTables;
+    private final ThreadPoolTaskExecutor monetIngestExecutor;
+    private final int parallelism;
+    private final long parallelMinBytes;
+
+    @Autowired
+    public StagingIngestService(
+            FileUploadRepository fileUploadRepository,
+            SourceColumnRepository sourceColumnRepository,
+            ContentAddressedCsvStore contentAddressedCsvStore,
+            @Qualifier("monetDataSource") DataSource monetDataSource,
+            StagingTables stagingTables,
+            @Qualifier("monetIngestExecutor") ThreadPoolTaskExecutor monetIngestExecutor,
+            @Value("${mediamix.upload.ingest.parallelism:4}") int parallelism,
+            @Value("${mediamix.upload.ingest.parallel-min-size:256MB}") DataSize parallelMinSize) {
+        this.fileUploadRepository = fileUploadRepository;
+        this.sourceColumnRepository = sourceColumnRepository;
+        this.contentAddressedCsvStore = contentAddressedCsvStore;
+        this.monetDataSource = monetDataSource;
+        this.stagingTables = stagingTables;
+        this.monetIngestExecutor = monetIngestExecutor;
+        this.parallelism = parallelism;
+        this.parallelMinBytes = parallelMinSize.toBytes();
+    }
+
+    /**
+     * Loads a converted upload into its staging table and records the row count and duration.
+     * Does nothing when the upload is not waiting for ingest, and only marks it ingested when its
+     * table already holds the rows of its CSV. Fails, keeping the table as it was, when the load
+     * does not end up with the upload's {@code row_count} rows.
+     */
+    public void ingest(Long fileUploadId) {
+        if (fileUploadRepository.startIngest(fileUploadId) == 0) {
+            return;
+        }
+        FileUpload fileUpload = fileUploadRepository.findById(fileUploadId)
+                .orElseThrow(() -> new IllegalStateException("FileUpload not found for fileUploadId: " + fileUploadId));
+        String tableName = StagingTableNames.forUpload(fileUpload);
+        if (holdsCurrentCsv(fileUpload, tableName)) {
+            fileUploadRepository.restoreIngest(fileUploadId);
+            log.info("fileUploadId: {} is already ingested into {} from CSV {}",
+                    fileUploadId, tableName, fileUpload.getChecksumSha256());
+            return;
+        }
+        List<SourceColumn> sourceColumns = findSourceColumns(fileUploadId);
+        if (sourceColumns.isEmpty()) {
+            throw new IllegalStateException("No source columns for fileUploadId: " + fileUploadId);
+        }
+        List<String> columnNames = columnNames(sourceColumns);
+        List<String> sqlTypes = sqlTypes(sourceColumns);
+        String shadowTable = StagingTableNames.shadowOf(tableName);
+        stagingTables.dropStaleShadows(tableName);
+
+        long startedAt = System.nanoTime();
+        FileIngestFormat format;
+        long rowsLoaded;
+        try {
+            List<MonetBinaryColumn> binaryColumns = findBinaryColumns(fileUpload, sqlTypes);
+            if (binaryColumns != null) {
+                format = FileIngestFormat.BINARY;
+                rowsLoaded = loadBinaryColumns(shadowTable, columnNames, sqlTypes, binaryColumns);
+            } else {
+                format = FileIngestFormat.CSV;
+                rowsLoaded = loadCsv(shadowTable, columnNames, sqlTypes, Paths.get(fileUpload.getCsvPath()));
+            }
+            if (rowsLoaded != fileUpload.getRowCount()) {
+                throw new IllegalStateException("Loaded " + rowsLoaded + " of " + fileUpload.getRowCount()
+                        + " rows of fileUploadId: " + fileUploadId + " into " + shadowTable);
+            }
+            stagingTables.replace(shadowTable, tableName);
+        } catch (SQLException | IOException exception) {
+            stagingTables.drop(shadowTable);
+            throw new IllegalStateException("Failed to load fileUploadId: " + fileUploadId + " into " + tableName, exception);
+        } catch (RuntimeException exception) {
+            stagingTables.drop(shadowTable);
+            throw exception;
+        }
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        fileUploadRepository.finishIngest(fileUploadId, tableName, fileUpload.getChecksumSha256(),
+                rowsLoaded, durationMs, format.name());
+        log.info("Ingested {} rows of fileUploadId: {} into {} from {} in {} ms",
+                rowsLoaded, fileUploadId, tableName, format, durationMs);
+    }
+
+    /**
+     * Fails the ingest of an upload whose ingest job gave up.
+     */
+    public void failIngest(Long fileUploadId) {
+        fileUploadRepository.failIngest(fileUploadId);
+    }
+
+    /**
+     * Puts the rows of a finished {@link PipelinedLoad} in place of the upload's staging table. Its
+     * text columns are cast to the types of the upload's source columns, which must be saved
+     * already. Returns false, having dropped the loaded rows, when a cast fails; the upload is then
+     * ingested from its CSV.
+     */
+    public boolean adoptPipelinedLoad(FileUpload fileUpload, PipelinedLoad load) {
+        long startedAt = System.nanoTime();
+        String tableName = StagingTableNames.forUpload(fileUpload);
+        List<SourceColumn> sourceColumns = findSourceColumns(fileUpload.getId());
+        List<String> sqlTypes = sqlTypes(sourceColumns);
+        if (sourceColumns.size() != load.getColumnCount()) {
+            log.warn("Pipelined load into {} has {} columns, fileUploadId: {} has {}; ingesting the CSV instead",
+                    load.getTableName(), load.getColumnCount(), fileUpload.getId(), sourceColumns.size());
+            stagingTables.drop(load.getTableName());
+            return false;
+        }
+        try {
+            if (sqlTypes.stream().allMatch(StagingColumnTypes.TEXT::equals)) {
+                stagingTables.replace(load.getTableName(), tableName);
+            } else {
+                stagingTables.replaceCast(load.getTableName(), tableName, columnNames(sourceColumns), sqlTypes);
+            }
+        } catch (SQLException exception) {
+            log.warn("Failed to type the columns of pipelined load {}, ingesting the CSV instead",
+                    load.getTableName(), exception);
+            stagingTables.drop(load.getTableName());
+            return false;
+        }
+        stagingTables.dropStaleShadows(tableName);
+        long durationMs = load.getLoadMillis() + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        LocalDateTime now = LocalDateTime.now();
+        fileUpload.setMonetTableName(tableName);
+        fileUpload.setIngestStatus(FileIngestStatus.INGESTED);
+        fileUpload.setIngestedChecksumSha256(fileUpload.getChecksumSha256());
+        fileUpload.setIngestFormat(FileIngestFormat.PIPELINED);
+        fileUpload.setIngestStartedAt(now.minus(Duration.ofMillis(durationMs)));
+        fileUpload.setIngestRowsLoaded(load.getRowCount());
+        fileUpload.setIngestDurationMs(durationMs);
+        fileUpload.setIngestedAt(now);
+        return true;
+    }
+
+    private long loadCsv(String tableName, List<String> columnNames, List<String> sqlTypes, Path csvPath)
+            throws SQLException, IOException {
+        int columnCount = columnNames.size();
+        if (parallelism > 1 && Files.size(csvPath) >= parallelMinBytes) {
+            List<CsvRanges.CsvRange> ranges = CsvRanges.split(csvPath, parallelism);
+            if (ranges.size() > 1) {
+                return loadCsvRanges(tableName, columnNames, sqlTypes, csvPath, ranges);
+            }
+        }
+        return load(tableName, columnNames, sqlTypes, MonetCopyStatements.copyFromClient(tableName, CSV_UPLOAD_NAME, 1),
+                (handle, name, textMode, linesToSkip) -> {
+                    try (Reader reader = Files.newBufferedReader(csvPath, StandardCharsets.UTF_8)) {
+                        uploadCsv(handle, reader, columnCount, linesToSkip);
+                    }
+                });
+    }
+
+    /**
+     * Loads each range over its own connection, all at once. Fails as soon as one of them fails.
+     */
+    private long loadCsvRanges(String tableName, List<String> columnNames, List<String> sqlTypes, Path csvPath,
+                               List<CsvRanges.CsvRange> ranges) throws SQLException {
+        try (Connection connection = monetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(MonetCopyStatements.dropTable(tableName));
+            statement.execute(MonetCopyStatements.createTable(tableName, columnNames, sqlTypes));
+        }
+        log.info("Loading {} into {} as {} ranges", csvPath, tableName, ranges.size());
+        int columnCount = columnNames.size();
+        String copySql = MonetCopyStatements.copyFromClient(tableName, CSV_UPLOAD_NAME);
+        List<Future<Long>> copies = new ArrayList<>(ranges.size());
+        try {
+            for (CsvRanges.CsvRange range : ranges) {
+                copies.add(monetIngestExecutor.submit(() -> {
+                    try (Connection connection = monetDataSource.getConnection();
+                         Statement statement = connection.createStatement()) {
+                        return copy(connection, statement, copySql, (handle, name, textMode, linesToSkip) -> {
+                            try (Reader reader = new InputStreamReader(CsvRanges.open(csvPath, range), StandardCharsets.UTF_8)) {
+                                uploadCsv(handle, reader, columnCount, linesToSkip);
+                            }
+                        });
+                    }
+                }));
+            }
+            long rowsLoaded = 0;
+            for (Future<Long> copy : copies) {
+                rowsLoaded += copy.get();
+            }
+            return rowsLoaded;
+        } catch (ExecutionException failed) {
+            if (failed.getCause() instanceof SQLException) {
+                throw (SQLException) failed.getCause();
+            }
+            throw new SQLException("Failed to load a range of " + csvPath, failed.getCause());
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading " + csvPath, interrupted);
+        } finally {
+            // Stops the other ranges once one failed; the caller drops the table.
+            for (Future<Long> copy : copies) {
+                copy.cancel(true);
+            }
+        }
+    }
+
+    private static void uploadCsv(MonetConnection.Upload handle, Reader reader, int columnCount, long linesToSkip)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(handle.getStream(), StandardCharsets.UTF_8);
+        CsvRecordPadding.copy(reader, writer, columnCount, linesToSkip);
+        writer.flush();
+    }
+
+    private long loadBinaryColumns(String tableName, List<String> columnNames, List<String> sqlTypes,
+                                   List<MonetBinaryColumn> binaryColumns) throws SQLException {
+        Map<String, Path> files = new HashMap<>();
+        List<String> fileNames = new ArrayList<>(binaryColumns.size());
+        for (MonetBinaryColumn binaryColumn : binaryColumns) {
+            String fileName = binaryColumn.getPath().getFileName().toString();
+            files.put(fileName, binaryColumn.getPath());
+            fileNames.add(fileName);
+        }
+        return load(tableName, columnNames, sqlTypes, MonetCopyStatements.copyBinaryFromClient(tableName, fileNames),
+                (handle, name, textMode, linesToSkip) -> {
+                    Path file = files.get(name);
+                    if (file == null) {
+                        handle.sendError("Unknown column file " + name);
+                        return;
+                    }
+                    try (InputStream in = Files.newInputStream(file)) {
+                        handle.uploadFrom(in);
+                    }
+                });
+    }
+
+    /**
+     * Recreates the table and runs {@code copySql}, whose data {@code uploadHandler} sends. Returns
+     * the number of rows loaded.
+     */
+    private long load(String tableName, List<String> columnNames, List<String> sqlTypes, String copySql,
+                      MonetConnection.UploadHandler uploadHandler) throws SQLException {
+        try (Connection connection = monetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(MonetCopyStatements.dropTable(tableName));
+            statement.execute(MonetCopyStatements.createTable(tableName, columnNames, sqlTypes));
+            return copy(connection, statement, copySql, uploadHandler);
+        }
+    }
+
+    private static long copy(Connection connection, Statement statement, String copySql,
+                             MonetConnection.UploadHandler uploadHandler) throws SQLException {
+        MonetConnection monetConnection = connection.unwrap(MonetConnection.class);
+        monetConnection.setUploadHandler(uploadHandler);
+        try {
+            return statement.executeUpdate(copySql);
+        } finally {
+            // The connection goes back to the pool.
+            monetConnection.setUploadHandler(null);
+        }
+    }
+
+    private boolean holdsCurrentCsv(FileUpload fileUpload, String tableName) {
+        return fileUpload.getChecksumSha256() != null
+                && fileUpload.getChecksumSha256().equals(fileUpload.getIngestedChecksumSha256())
+                && tableName.equals(fileUpload.getMonetTableName())
+                && stagingTables.countRows(tableName) == fileUpload.getRowCount();
+    }
+
+    /**
+     * The binary column files stored with the upload's CSV, or null when there are none or their
+     * types differ from the table's, such as for boolean columns, which are written as text.
+     */
+    private List<MonetBinaryColumn> findBinaryColumns(FileUpload fileUpload, List<String> sqlTypes) throws IOException {
+        if (fileUpload.getChecksumSourceSha256() == null) {
+            return null;
+        }
+        CsvConversionResult stored = contentAddressedCsvStore
+                .find(fileUpload.getChecksumSourceSha256(), fileUpload.getSheetName()).orElse(null);
+        if (stored == null || stored.getBinaryColumnsDirectory() == null
+                || !stored.getCsvPath().toString().equals(fileUpload.getCsvPath())) {
+            return null;
+        }
+        List<MonetBinaryColumn> binaryColumns = MonetBinaryColumn.list(stored.getBinaryColumnsDirectory());
+        if (binaryColumns.size() != sqlTypes.size()) {
+            return null;
+        }
+        for (int i = 0; i < binaryColumns.size(); i++) {
+            if (!binaryColumns.get(i).getType().getSqlType().equals(sqlTypes.get(i))) {
+                return null;
+            }
+        }
+        return binaryColumns;
+    }
+
+    private List<SourceColumn> findSourceColumns(Long fileUploadId) {
+        List<SourceColumn> sourceColumns = new ArrayList<>(sourceColumnRepository.findByFileUploadId(fileUploadId));
+        sourceColumns.sort(Comparator.comparing(SourceColumn::getOrdinal));
+        return sourceColumns;
+    }
+
+    private static List<String> columnNames(List<SourceColumn> sourceColumns) {
+        return sourceColumns.stream().map(SourceColumn::getSanitizedName).collect(Collectors.toList());
+    }
+
+    private static List<String> sqlTypes(List<SourceColumn> sourceColumns) {
+        return sourceColumns.stream()
+                .map(column -> StagingColumnTypes.sqlType(column.getDataType(), column.getDateFormat()))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,54 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import com.iri.mktgmix.upload.domain.FileUpload;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Loads uploads into MonetDB while they are converted, see {@link PipelinedLoad}. Each load takes a
+ * thread of {@code monetLoadExecutor} and a {@code monetDataSource} connection for as long as the
+ * conversion runs. When no loader thread is free, the upload is converted without a pipelined load.
+ */
+@Component
+public class StagingLoadPipeline {
+
+    private final DataSource monetDataSource;
+    private final JdbcTemplate monetJdbcTemplate;
+    private final ThreadPoolTaskExecutor monetLoadExecutor;
+    private final boolean enabled;
+    private final int queueChunks;
+    private final Duration stallTimeout;
+
+    public StagingLoadPipeline(
+            @Qualifier("monetDataSource") DataSource monetDataSource,
+            @Qualifier("monetJdbcTemplate") JdbcTemplate monetJdbcTemplate,
+            @Qualifier("monetLoadExecutor") ThreadPoolTaskExecutor monetLoadExecutor,
+            @Value("${mediamix.upload.pipeline.enabled:false}") boolean enabled,
+            @Value("${mediamix.upload.pipeline.queue-chunks:16}") int queueChunks,
+            @Value("${mediamix.upload.pipeline.stall-timeout:PT5M}") Duration stallTimeout) {
+        this.monetDataSource = monetDataSource;
+        this.monetJdbcTemplate = monetJdbcTemplate;
+        this.monetLoadExecutor = monetLoadExecutor;
+        this.enabled = enabled;
+        this.queueChunks = queueChunks;
+        this.stallTimeout = stallTimeout;
+    }
+
+    /**
+     * Returns a load into the shadow of the upload's staging table, to be passed the rows of its
+     * conversion, or null when pipelined loading is disabled.
+     */
+    public PipelinedLoad open(FileUpload fileUpload) {
+        if (!enabled) {
+            return null;
+        }
+        return new PipelinedLoad(StagingTableNames.shadowOf(StagingTableNames.forUpload(fileUpload)), monetDataSource, monetJdbcTemplate,
+                monetLoadExecutor, queueChunks, stallTimeout.toNanos());
+    }
+}
@@ -0,0 +1,68 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import com.iri.mktgmix.upload.domain.FileUpload;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Naming of the MonetDB staging table holding an upload's rows.
+ */
+public final class StagingTableNames {
+
+    private static final String SHADOW_INFIX = "_load";
+    private static final Pattern SHADOW_SUFFIX = Pattern.compile("_(\\d{1,19})_[0-9a-f]{8}");
+
+    private StagingTableNames() {
+    }
+
+    public static String forUpload(FileUpload fileUpload) {
+        return "stg_p" + fileUpload.getProjectId() + "_f" + fileUpload.getId();
+    }
+
+    /**
+     * A new table for a staging table to be loaded into before it replaces it, see
+     * {@link StagingTables}. Each load gets its own, {@code {table}_load_{created millis}_{random}},
+     * so loads of the same upload that overlap never share one.
+     */
+    public static String shadowOf(String tableName) {
+        return tableName + SHADOW_INFIX + "_" + System.currentTimeMillis()
+                + "_" + String.format("%08x", ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * The {@code LIKE} pattern of the names of the shadows of a staging table. It may also match
+     * other names, as {@code _} matches any character.
+     */
+    static String shadowPattern(String tableName) {
+        return tableName + SHADOW_INFIX + "%";
+    }
+
+    /**
+     * The epoch millis a shadow of {@code tableName} was named at, 0 for the single shadow name
+     * used before shadows were named per load, or -1 when {@code name} is no shadow of it.
+     */
+    static long shadowCreatedAt(String tableName, String name) {
+        String prefix = tableName + SHADOW_INFIX;
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        if (name.length() == prefix.length()) {
+            return 0;
+        }
+        Matcher suffix = SHADOW_SUFFIX.matcher(name.substring(prefix.length()));
+        if (!suffix.matches()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(suffix.group(1));
+        } catch (NumberFormatException outOfRange) {
+            return -1;
+        }
+    }
+
+    public static String quote(String tableName) {
+        return "\"" + tableName.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,149 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Puts loaded rows in place of a staging table. Rows are loaded into the table's shadow,
+ * {@link StagingTableNames#shadowOf}, and then replace the table in one MonetDB transaction. A
+ * query of the staging table sees either all of its old rows or all of the new ones, and never
+ * waits for a load. Each load has a shadow of its own, so loads of the same upload that overlap
+ * never write into or rename each other's rows; the load that replaces the table last wins. A load
+ * that fails drops its shadow. One whose node died leaves it behind, and it is dropped by a later
+ * load of the table once older than {@code mediamix.upload.ingest.shadow-retention}, which must
+ * exceed the longest load.
+ */
+@Slf4j
+@Component
+public class StagingTables {
+
+    private final DataSource monetDataSource;
+    private final JdbcTemplate monetJdbcTemplate;
+    private final Duration shadowRetention;
+
+    @Autowired
+    public StagingTables(@Qualifier("monetDataSource") DataSource monetDataSource,
+                         @Qualifier("monetJdbcTemplate") JdbcTemplate monetJdbcTemplate,
+                         @Value("${mediamix.upload.ingest.shadow-retention:PT6H}") Duration shadowRetention) {
+        this.monetDataSource = monetDataSource;
+        this.monetJdbcTemplate = monetJdbcTemplate;
+        this.shadowRetention = shadowRetention;
+    }
+
+    /**
+     * Replaces {@code tableName} by {@code loadedTable}, renamed.
+     */
+    public void replace(String loadedTable, String tableName) throws SQLException {
+        inTransaction(statement -> {
+            statement.execute(MonetCopyStatements.dropTable(tableName));
+            statement.execute(MonetCopyStatements.renameTable(loadedTable, tableName));
+        });
+    }
+
+    /**
+     * Replaces {@code tableName} by a copy of {@code loadedTable} with its columns cast to the given
+     * types, and drops {@code loadedTable}. Fails, changing nothing, when a value does not cast.
+     */
+    public void replaceCast(String loadedTable, String tableName, List<String> columnNames, List<String> sqlTypes)
+            throws SQLException {
+        inTransaction(statement -> {
+            statement.execute(MonetCopyStatements.dropTable(tableName));
+            statement.execute(MonetCopyStatements.createCastTable(tableName, loadedTable, columnNames, sqlTypes));
+            statement.execute(MonetCopyStatements.dropTable(loadedTable));
+        });
+    }
+
+    /**
+     * Replaces {@code tableName} by a copy of {@code sourceTable}, which is left as it is.
+     */
+    public void replaceWithCopy(String sourceTable, String tableName) throws SQLException {
+        inTransaction(statement -> {
+            statement.execute(MonetCopyStatements.dropTable(tableName));
+            statement.execute(MonetCopyStatements.createCopyTable(tableName, sourceTable));
+        });
+    }
+
+    /**
+     * The number of rows of a table, or -1 when it does not exist.
+     */
+    public long countRows(String tableName) {
+        try {
+            Long rows = monetJdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM " + StagingTableNames.quote(tableName), Long.class);
+            return rows == null ? -1 : rows;
+        } catch (DataAccessException missing) {
+            return -1;
+        }
+    }
+
+    /**
+     * Drops a table if it exists; a failure is only logged.
+     */
+    public void drop(String tableName) {
+        try {
+            monetJdbcTemplate.execute(MonetCopyStatements.dropTable(tableName));
+        } catch (DataAccessException exception) {
+            log.warn("Failed to drop staging table {}", tableName, exception);
+        }
+    }
+
+    /**
+     * Drops the shadows of {@code tableName} left behind by loads that did not finish, those named
+     * longer than the shadow retention ago. Returns the number dropped; a failure is only logged.
+     */
+    public int dropStaleShadows(String tableName) {
+        List<String> names;
+        try {
+            names = monetJdbcTemplate.queryForList("SELECT name FROM sys.tables WHERE name LIKE ?",
+                    String.class, StagingTableNames.shadowPattern(tableName));
+        } catch (DataAccessException exception) {
+            log.warn("Failed to list the shadows of staging table {}", tableName, exception);
+            return 0;
+        }
+        long staleBefore = System.currentTimeMillis() - shadowRetention.toMillis();
+        int dropped = 0;
+        for (String name : names) {
+            long createdAt = StagingTableNames.shadowCreatedAt(tableName, name);
+            if (createdAt >= 0 && createdAt < staleBefore) {
+                log.info("Dropping stale shadow {} of staging table {}", name, tableName);
+                drop(name);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    private void inTransaction(StatementWork work) throws SQLException {
+        try (Connection connection = monetDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            try {
+                work.run(statement);
+                connection.commit();
+            } catch (SQLException | RuntimeException exception) {
+                connection.rollback();
+                throw exception;
+            } finally {
+                // The connection goes back to the pool.
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StatementWork {
+        void run(Statement statement) throws SQLException;
+    }
+}
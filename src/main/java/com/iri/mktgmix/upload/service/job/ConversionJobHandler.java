@@ -0,0 +1,32 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.service.FileUploadService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Converts an upload once all of its chunks were received.
+ */
+@Component
+@RequiredArgsConstructor
+public class ConversionJobHandler implements UploadJobHandler {
+
+    private final FileUploadService fileUploadService;
+
+    @Override
+    public UploadJobType getJobType() {
+        return UploadJobType.CONVERT;
+    }
+
+    @Override
+    public void run(UploadJob job) {
+        fileUploadService.convertUpload(job.getFileUploadId(), job.getSourceFileName());
+    }
+
+    @Override
+    public void onFailure(UploadJob job, String error) {
+        fileUploadService.failConversion(job.getFileUploadId());
+    }
+}
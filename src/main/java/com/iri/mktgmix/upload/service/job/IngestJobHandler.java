@@ -0,0 +1,32 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.service.ingest.StagingIngestService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads a converted upload into its MonetDB staging table.
+ */
+@Component
+@RequiredArgsConstructor
+public class IngestJobHandler implements UploadJobHandler {
+
+    private final StagingIngestService stagingIngestService;
+
+    @Override
+    public UploadJobType getJobType() {
+        return UploadJobType.INGEST;
+    }
+
+    @Override
+    public void run(UploadJob job) {
+        stagingIngestService.ingest(job.getFileUploadId());
+    }
+
+    @Override
+    public void onFailure(UploadJob job, String error) {
+        stagingIngestService.failIngest(job.getFileUploadId());
+    }
+}
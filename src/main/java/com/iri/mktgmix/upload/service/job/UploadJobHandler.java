@@ -0,0 +1,25 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+
+/**
+ * Runs the jobs of one {@link UploadJobType}. A job may run more than once, when the node running
+ * it stopped before it finished, so {@link #run} must be safe to repeat.
+ */
+public interface UploadJobHandler {
+
+    UploadJobType getJobType();
+
+    /**
+     * Runs the job. An {@link com.iri.mktgmix.upload.service.exception.AdmissionRejectedException}
+     * puts the job back into the queue, and a transient failure retries it until it used up its
+     * attempts; any other exception fails it.
+     */
+    void run(UploadJob job);
+
+    /**
+     * Called once the job has failed for good, to move the upload into a failed state.
+     */
+    void onFailure(UploadJob job, String error);
+}
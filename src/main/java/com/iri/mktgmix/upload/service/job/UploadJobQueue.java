@@ -0,0 +1,126 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import com.iri.mktgmix.upload.domain.UploadJobStatus;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.repository.UploadJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * The app.upload_job table as seen by one node. Jobs this node claims are held under its node id
+ * for the lease duration, and the lease is renewed while they run.
+ */
+@Slf4j
+@Component
+public class UploadJobQueue {
+
+    private static final int MAX_ERROR_LENGTH = 4000;
+
+    private final UploadJobRepository uploadJobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long leaseSeconds;
+    private final String nodeId;
+
+    public UploadJobQueue(UploadJobRepository uploadJobRepository,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${mediamix.upload.jobs.lease:PT2M}") Duration lease) {
+        this.uploadJobRepository = uploadJobRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.leaseSeconds = lease.getSeconds();
+        // pid@host identifies the process; the suffix tells a restarted process with a reused pid apart.
+        this.nodeId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Queues a job for {@code fileUploadId}. Joins the caller's transaction, so a job is queued
+     * exactly when the state change that calls for it commits. Does nothing when the upload already
+     * has an active job of this type.
+     */
+    public void enqueue(Long fileUploadId, UploadJobType jobType, String sourceFileName) {
+        uploadJobRepository.enqueue(fileUploadId, jobType.name(), sourceFileName);
+    }
+
+    /**
+     * Queues a job for {@code fileUploadId} like {@link #enqueue}, except that an active job of this
+     * type is put back into the queue to run again from the start: a running job may be past reading
+     * the state the caller just changed. Returns false when no job could be queued.
+     */
+    public boolean enqueueOrRestart(Long fileUploadId, UploadJobType jobType, String sourceFileName) {
+        return uploadJobRepository.enqueue(fileUploadId, jobType.name(), sourceFileName) == 1
+                || uploadJobRepository.restartActive(fileUploadId, jobType.name()) == 1
+                // The active job ended in between.
+                || uploadJobRepository.enqueue(fileUploadId, jobType.name(), sourceFileName) == 1;
+    }
+
+    /**
+     * Claims the next due job for this node, or returns null when there is none.
+     */
+    public UploadJob claimNext() {
+        return transactionTemplate.execute(status -> {
+            UploadJob job = uploadJobRepository.lockNextClaimable().orElse(null);
+            if (job == null) {
+                return null;
+            }
+            uploadJobRepository.claim(job.getId(), nodeId, leaseSeconds);
+            return uploadJobRepository.findById(job.getId()).orElse(null);
+        });
+    }
+
+    public void renewLeases(Collection<Long> jobIds) {
+        uploadJobRepository.renewLeases(jobIds, nodeId, leaseSeconds);
+    }
+
+    public void succeed(UploadJob job) {
+        finish(job, UploadJobStatus.SUCCEEDED, null);
+    }
+
+    /**
+     * Fails a job this node holds. Returns false when its lease was lost, because the job was
+     * reclaimed or restarted meanwhile.
+     */
+    public boolean fail(UploadJob job, String error) {
+        return finish(job, UploadJobStatus.FAILED, error);
+    }
+
+    /**
+     * Puts a job back into the queue to be retried after {@code delay}; the attempt is not counted.
+     */
+    public void retryLater(UploadJob job, Duration delay, String reason) {
+        requeue(job, delay, 1, reason);
+    }
+
+    /**
+     * Puts a job that failed back into the queue to be retried after {@code delay}. The attempt
+     * counts toward the job's maximum attempts.
+     */
+    public void retryAfterFailure(UploadJob job, Duration delay, String error) {
+        requeue(job, delay, 0, error);
+    }
+
+    private void requeue(UploadJob job, Duration delay, int refundedAttempts, String reason) {
+        if (uploadJobRepository.requeue(job.getId(), nodeId, delay.getSeconds(), refundedAttempts, truncate(reason)) == 0) {
+            log.warn("Lease on upload job {} was lost before it was requeued", job.getId());
+        }
+    }
+
+    private boolean finish(UploadJob job, UploadJobStatus jobStatus, String error) {
+        if (uploadJobRepository.finish(job.getId(), nodeId, jobStatus.name(), truncate(error)) == 0) {
+            log.warn("Lease on upload job {} was lost before it ended as {}", job.getId(), jobStatus);
+            return false;
+        }
+        return true;
+    }
+
+    private static String truncate(String error) {
+        return error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -0,0 +1,197 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.service.exception.AdmissionRejectedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs queued upload jobs on this node. A poll claims jobs while a worker is free, so a node never
+ * holds more jobs than it can run and the others are left for other nodes. A worker is only free
+ * again once its job has ended. The leases of running jobs are renewed well before they expire; a
+ * job is only reclaimed by another node after this one stopped renewing it.
+ * <p>
+ * A job failing on a transient error, such as a lost database connection, is retried after a
+ * backoff that doubles with every attempt, and only fails for good once it used up its attempts.
+ */
+@Slf4j
+@Component
+public class UploadJobWorkers {
+
+    private final UploadJobQueue uploadJobQueue;
+    private final ThreadPoolTaskExecutor uploadJobExecutor;
+    private final Map<UploadJobType, UploadJobHandler> handlers = new EnumMap<>(UploadJobType.class);
+    private final Semaphore freeWorkers;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+
+    private final Set<Long> runningJobIds = ConcurrentHashMap.newKeySet();
+
+    public UploadJobWorkers(UploadJobQueue uploadJobQueue,
+                            @Qualifier("uploadJobExecutor") ThreadPoolTaskExecutor uploadJobExecutor,
+                            List<UploadJobHandler> handlers,
+                            @Value("${mediamix.upload.jobs.max-attempts:3}") int maxAttempts,
+                            @Value("${mediamix.upload.jobs.retry-backoff:PT30S}") Duration retryBackoff) {
+        this.uploadJobQueue = uploadJobQueue;
+        this.uploadJobExecutor = uploadJobExecutor;
+        for (UploadJobHandler handler : handlers) {
+            this.handlers.put(handler.getJobType(), handler);
+        }
+        this.freeWorkers = new Semaphore(uploadJobExecutor.getMaxPoolSize());
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+    }
+
+    @Scheduled(fixedDelayString = "${mediamix.upload.jobs.poll-interval:PT1S}")
+    public void poll() {
+        try {
+            while (freeWorkers.tryAcquire()) {
+                UploadJob job = claimNext();
+                if (job == null || !start(job)) {
+                    return;
+                }
+            }
+        } catch (RuntimeException exception) {
+            log.warn("Failed to claim upload jobs", exception);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mediamix.upload.jobs.lease-renewal-interval:PT30S}")
+    public void renewLeases() {
+        if (runningJobIds.isEmpty()) {
+            return;
+        }
+        try {
+            uploadJobQueue.renewLeases(new ArrayList<>(runningJobIds));
+        } catch (RuntimeException exception) {
+            log.warn("Failed to renew upload job leases", exception);
+        }
+    }
+
+    /**
+     * Claims a job for the worker just acquired, giving the worker back when there is none.
+     */
+    private UploadJob claimNext() {
+        UploadJob job = null;
+        try {
+            job = uploadJobQueue.claimNext();
+            return job;
+        } finally {
+            if (job == null) {
+                freeWorkers.release();
+            }
+        }
+    }
+
+    /**
+     * Hands a claimed job to a worker thread. The worker and the job's id are only released once the
+     * job has ended. Should the executor still turn the job away, for instance while shutting down,
+     * the job goes straight back to the queue rather than staying claimed by this node.
+     */
+    private boolean start(UploadJob job) {
+        runningJobIds.add(job.getId());
+        try {
+            uploadJobExecutor.execute(() -> {
+                try {
+                    run(job);
+                } finally {
+                    runningJobIds.remove(job.getId());
+                    freeWorkers.release();
+                }
+            });
+            return true;
+        } catch (TaskRejectedException rejected) {
+            runningJobIds.remove(job.getId());
+            freeWorkers.release();
+            log.warn("Upload job {} was claimed but no worker thread took it", job.getId(), rejected);
+            uploadJobQueue.retryLater(job, Duration.ZERO, "No worker thread free on this node");
+            return false;
+        }
+    }
+
+    private void run(UploadJob job) {
+        UploadJobHandler handler = handlers.get(job.getJobType());
+        try {
+            if (handler == null) {
+                uploadJobQueue.fail(job, "No handler for job type " + job.getJobType());
+            } else if (job.getAttempts() > maxAttempts) {
+                // Every earlier attempt ended with its lease expiring, so the job likely takes its node down.
+                fail(handler, job, "Abandoned after " + maxAttempts + " attempts");
+            } else {
+                handler.run(job);
+                uploadJobQueue.succeed(job);
+            }
+        } catch (AdmissionRejectedException rejected) {
+            uploadJobQueue.retryLater(job, Duration.ofSeconds(rejected.getRetryAfterSeconds()), rejected.getMessage());
+        } catch (RuntimeException exception) {
+            if (isTransient(exception) && job.getAttempts() < maxAttempts) {
+                Duration backoff = retryBackoff.multipliedBy(1L << Math.min(job.getAttempts() - 1, 16));
+                log.warn("Upload job {} ({}) for fileUploadId: {} failed on attempt {}, retrying in {}",
+                        job.getId(), job.getJobType(), job.getFileUploadId(), job.getAttempts(), backoff, exception);
+                uploadJobQueue.retryAfterFailure(job, backoff, String.valueOf(exception));
+            } else {
+                log.warn("Upload job {} ({}) for fileUploadId: {} failed",
+                        job.getId(), job.getJobType(), job.getFileUploadId(), exception);
+                fail(handler, job, String.valueOf(exception));
+            }
+        }
+    }
+
+    /**
+     * Whether the failure is likely to go away when the job runs again: a database or connection
+     * that is briefly unavailable, a timeout, a deadlock, or a MonetDB transaction aborted by a
+     * concurrent one.
+     */
+    static boolean isTransient(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                    || cause instanceof RecoverableDataAccessException
+                    || cause instanceof DataAccessResourceFailureException
+                    || cause instanceof CannotCreateTransactionException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                // Class 08 is a connection exception, class 40 a transaction rollback.
+                if (sqlState != null && (sqlState.startsWith("08") || sqlState.startsWith("40"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fails the job and then its upload. A job whose lease was lost meanwhile leaves the upload to
+     * the node that holds the job now.
+     */
+    private void fail(UploadJobHandler handler, UploadJob job, String error) {
+        if (uploadJobQueue.fail(job, error)) {
+            handler.onFailure(job, error);
+        }
+    }
+}
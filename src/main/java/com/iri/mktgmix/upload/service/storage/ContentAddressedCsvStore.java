@@ -0,0 +1,131 @@
+package com.iri.mktgmix.upload.service.storage;
+
+import com.iri.mktgmix.upload.converter.Checksums;
+import com.iri.mktgmix.upload.converter.CsvConversionResult;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+/**
+ * Converted CSVs keyed by the SHA-256 of the uploaded source file. A workbook uploaded again, into
+ * any project or session, reuses the CSV produced the first time instead of being converted again.
+ * <p>
+ * Entries are immutable and stored as {@code content/{sourceSha256}/{csvSha256}.csv}, so the CSV
+ * checksum is known without reading the file. CSVs of explicitly selected sheets live in
+ * {@code content/{sourceSha256}/sheets/{sheetNameSha256}/} under the same entry, so they are swept
+ * together with it. Binary column files written with a CSV are stored next to it, in
+ * {@code {csvSha256}.columns/}.
+ */
+@Component
+@RequiredArgsConstructor
+public class ContentAddressedCsvStore {
+
+    private static final String CSV_EXTENSION = ".csv";
+    private static final String SHEETS_DIRECTORY = "sheets";
+    private static final String BINARY_COLUMNS_EXTENSION = ".columns";
+
+    private final UploadStoragePaths uploadStoragePaths;
+    private final StagingStorageManager stagingStorageManager;
+
+    public Optional<CsvConversionResult> find(String sourceChecksum) throws IOException {
+        return find(sourceChecksum, null);
+    }
+
+    /**
+     * Looks up the CSV of one sheet of the source; a null {@code sheetName} stands for the default
+     * first sheet.
+     */
+    public Optional<CsvConversionResult> find(String sourceChecksum, String sheetName) throws IOException {
+        Path csvDirectory = csvDirectory(sourceChecksum, sheetName);
+        if (!Files.isDirectory(csvDirectory)) {
+            return Optional.empty();
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(csvDirectory, "*" + CSV_EXTENSION)) {
+            for (Path csvPath : entries) {
+                // Marks the entry as recently used so the staging sweep keeps it.
+                Files.setLastModifiedTime(entryDirectory(sourceChecksum), FileTime.fromMillis(System.currentTimeMillis()));
+                String fileName = csvPath.getFileName().toString();
+                String csvChecksum = fileName.substring(0, fileName.length() - CSV_EXTENSION.length());
+                Path binaryColumnsDirectory = csvDirectory.resolve(csvChecksum + BINARY_COLUMNS_EXTENSION);
+                return Optional.of(CsvConversionResult.builder()
+                        .csvPath(csvPath)
+                        .checksumSha256(csvChecksum)
+                        .sheetName(sheetName)
+                        .binaryColumnsDirectory(Files.isDirectory(binaryColumnsDirectory) ? binaryColumnsDirectory : null)
+                        .build());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Moves a freshly converted CSV, and its binary column files if any, into the store and returns
+     * their stored locations. Their size counts toward the staging storage quota.
+     */
+    public CsvConversionResult store(String sourceChecksum, CsvConversionResult conversionResult) throws IOException {
+        Path csvDirectory = Files.createDirectories(csvDirectory(sourceChecksum, conversionResult.getSheetName()));
+        Path storedBinaryColumns = null;
+        long storedBytes = 0L;
+        if (conversionResult.getBinaryColumnsDirectory() != null) {
+            // Moved first: find() takes the CSV as the sign of a complete entry.
+            storedBinaryColumns = csvDirectory.resolve(conversionResult.getChecksumSha256() + BINARY_COLUMNS_EXTENSION);
+            if (Files.isDirectory(storedBinaryColumns)) {
+                deleteDirectory(conversionResult.getBinaryColumnsDirectory());
+            } else {
+                Files.move(conversionResult.getBinaryColumnsDirectory(), storedBinaryColumns, StandardCopyOption.ATOMIC_MOVE);
+                storedBytes += StagingStorageManager.measure(storedBinaryColumns);
+            }
+        }
+        Path storedPath = csvDirectory.resolve(conversionResult.getChecksumSha256() + CSV_EXTENSION);
+        move(conversionResult.getCsvPath(), storedPath);
+        stagingStorageManager.recordWrite(storedBytes + Files.size(storedPath));
+        return CsvConversionResult.builder()
+                .csvPath(storedPath)
+                .checksumSha256(conversionResult.getChecksumSha256())
+                .sheetName(conversionResult.getSheetName())
+                .binaryColumnsDirectory(storedBinaryColumns)
+                .build();
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a directory of column files, which has no subdirectories.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private Path entryDirectory(String sourceChecksum) {
+        return uploadStoragePaths.contentDirectory().resolve(sourceChecksum);
+    }
+
+    private Path csvDirectory(String sourceChecksum, String sheetName) {
+        if (sheetName == null) {
+            return entryDirectory(sourceChecksum);
+        }
+        // Sheet names may contain characters that are not valid in file names.
+        String sheetKey = Checksums.toHex(Checksums.newSha256().digest(sheetName.getBytes(StandardCharsets.UTF_8)));
+        return entryDirectory(sourceChecksum).resolve(SHEETS_DIRECTORY).resolve(sheetKey);
+    }
+}
@@ -0,0 +1,359 @@
+package com.iri.mktgmix.upload.service.storage;
+
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.FileUploadStatus;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.service.exception.ErrorType;
+import com.iri.mktgmix.upload.service.exception.FileUploadException;
+import com.iri.mktgmix.upload.service.upload.UploadDigestRegistry;
+import com.iri.mktgmix.upload.service.upload.UploadSessionLocks;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the upload staging directory bounded.
+ * <p>
+ * Each sweep runs on the scheduler thread and looks at a limited batch of session directories and
+ * content-store entries. A cursor keeps the directory listing open and carries on from where the
+ * previous sweep stopped, so a large directory is covered over several sweeps, no single sweep takes
+ * long, and the directory is never listed as a whole. A sweep removes:
+ * <ul>
+ *   <li>session directories of uploads that were abandoned while UPLOADING (the session is failed first),</li>
+ *   <li>session directories of FAILED or CANCELLED uploads, or of uploads whose ingest failed, after a retention period,</li>
+ *   <li>session directories of uploads that reached INGESTED, whose source is no longer needed,</li>
+ *   <li>session directories without a file_upload row,</li>
+ *   <li>content-store CSVs that have not been used for the retention period and that no live upload
+ *       still refers to, since a completed upload may be ingested again from its CSV at any time.</li>
+ * </ul>
+ * When usage exceeds the quota, the retention period is skipped so space is reclaimed immediately.
+ * <p>
+ * Usage is tracked as files come and go: reserved session files and stored CSVs are added, removed
+ * directories are subtracted. Only every {@code reconcile-interval} does a sweep walk the whole
+ * directory to correct the drift, such as spooled chunks or files removed by hand.
+ * New sessions are refused with {@link ErrorType#STORAGE_QUOTA_EXCEEDED} while their declared size
+ * does not fit.
+ */
+@Slf4j
+@Component
+public class StagingStorageManager {
+
+    private final UploadStoragePaths uploadStoragePaths;
+    private final FileUploadRepository fileUploadRepository;
+    private final UploadDigestRegistry uploadDigestRegistry;
+    private final UploadSessionLocks uploadSessionLocks;
+    private final long quotaBytes;
+    private final Duration abandonedAfter;
+    private final Duration retention;
+    private final int batchSize;
+    private final Duration reconcileInterval;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final DirectoryCursor sessionCursor = new DirectoryCursor(
+            entry -> isNumeric(entry.getFileName().toString()) && Files.isDirectory(entry));
+    private final DirectoryCursor contentCursor = new DirectoryCursor(entry -> true);
+    private Instant nextReconcile = Instant.MIN;
+
+    public StagingStorageManager(
+            UploadStoragePaths uploadStoragePaths,
+            FileUploadRepository fileUploadRepository,
+            UploadDigestRegistry uploadDigestRegistry,
+            UploadSessionLocks uploadSessionLocks,
+            @Value("${mediamix.upload.storage.quota:50GB}") DataSize quota,
+            @Value("${mediamix.upload.storage.abandoned-after:24h}") Duration abandonedAfter,
+            @Value("${mediamix.upload.storage.retention:1h}") Duration retention,
+            @Value("${mediamix.upload.storage.sweep-batch-size:200}") int batchSize,
+            @Value("${mediamix.upload.storage.reconcile-interval:PT1H}") Duration reconcileInterval) {
+        this.uploadStoragePaths = uploadStoragePaths;
+        this.fileUploadRepository = fileUploadRepository;
+        this.uploadDigestRegistry = uploadDigestRegistry;
+        this.uploadSessionLocks = uploadSessionLocks;
+        this.quotaBytes = quota.toBytes();
+        this.abandonedAfter = abandonedAfter;
+        this.retention = retention;
+        this.batchSize = batchSize;
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    /**
+     * Reserves space for a new session file, which is preallocated to its declared size. The space
+     * is given back when the session directory is removed.
+     */
+    public void reserve(Long uploadSessionId, long bytes) {
+        long used = usedBytes.addAndGet(bytes);
+        if (used > quotaBytes) {
+            usedBytes.addAndGet(-bytes);
+            throw new FileUploadException(ErrorType.STORAGE_QUOTA_EXCEEDED,
+                    "Staging storage quota exceeded, cannot reserve " + bytes + " bytes for fileUploadId: "
+                            + uploadSessionId);
+        }
+    }
+
+    /**
+     * Counts files moved into staging storage outside a reserved session file, such as a converted
+     * CSV stored in the content store.
+     */
+    public void recordWrite(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Removes the directory of a cancelled session now rather than after the retention period, and
+     * gives its space back to the quota.
+     */
+    public void release(Long uploadSessionId) {
+        remove(uploadStoragePaths.sessionDirectory(uploadSessionId));
+    }
+
+    @Scheduled(fixedDelayString = "${mediamix.upload.storage.sweep-interval:PT1M}",
+            initialDelayString = "${mediamix.upload.storage.sweep-interval:PT1M}")
+    public void sweep() {
+        try {
+            Path basePath = uploadStoragePaths.basePath();
+            if (!Files.isDirectory(basePath)) {
+                usedBytes.set(0L);
+                return;
+            }
+            Instant now = Instant.now();
+            if (!now.isBefore(nextReconcile)) {
+                usedBytes.set(measure(basePath));
+                nextReconcile = now.plus(reconcileInterval);
+            }
+            boolean overQuota = usedBytes.get() > quotaBytes;
+            sweepSessions(basePath, overQuota);
+            sweepContentStore(overQuota);
+        } catch (IOException | RuntimeException exception) {
+            log.warn("Staging storage sweep failed", exception);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        sessionCursor.close();
+        contentCursor.close();
+    }
+
+    private void sweepSessions(Path basePath, boolean overQuota) throws IOException {
+        List<Long> batch = new ArrayList<>();
+        for (Path sessionDirectory : sessionCursor.next(basePath, batchSize)) {
+            batch.add(Long.valueOf(sessionDirectory.getFileName().toString()));
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Long, FileUpload> uploadsById = new HashMap<>();
+        for (FileUpload fileUpload : fileUploadRepository.findAllById(batch)) {
+            uploadsById.put(fileUpload.getId(), fileUpload);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime retainedSince = overQuota ? now : now.minus(retention);
+        for (Long uploadSessionId : batch) {
+            Path sessionDirectory = uploadStoragePaths.sessionDirectory(uploadSessionId);
+            FileUpload fileUpload = uploadsById.get(uploadSessionId);
+            if (fileUpload == null) {
+                if (olderThan(sessionDirectory, retainedSince)) {
+                    remove(sessionDirectory);
+                }
+            } else if (fileUpload.getUploadStatus() == FileUploadStatus.UPLOADING) {
+                if (isBefore(fileUpload.getModifiedAt(), now.minus(abandonedAfter))) {
+                    expire(uploadSessionId, now.minus(abandonedAfter));
+                }
+            } else if (isRemovable(fileUpload, retainedSince)) {
+                remove(sessionDirectory);
+            }
+        }
+    }
+
+    private boolean isRemovable(FileUpload fileUpload, LocalDateTime retainedSince) {
+        if (fileUpload.getIngestStatus() == FileIngestStatus.INGESTED) {
+            return true;
+        }
+        boolean failed = fileUpload.getUploadStatus() == FileUploadStatus.FAILED
+                || fileUpload.getUploadStatus() == FileUploadStatus.CANCELLED
+                || fileUpload.getIngestStatus() == FileIngestStatus.FAILED;
+        return failed && isBefore(fileUpload.getModifiedAt(), retainedSince);
+    }
+
+    /**
+     * Fails an abandoned session and removes its file. Runs under the session lock so it cannot
+     * interleave with a late chunk.
+     */
+    private void expire(Long uploadSessionId, LocalDateTime modifiedBefore) {
+        uploadSessionLocks.withSessionLock(uploadSessionId, () -> {
+            if (fileUploadRepository.expireUploadSession(uploadSessionId, modifiedBefore) == 1) {
+                uploadDigestRegistry.discard(uploadSessionId);
+                remove(uploadStoragePaths.sessionDirectory(uploadSessionId));
+            }
+            return null;
+        });
+    }
+
+    private void sweepContentStore(boolean overQuota) throws IOException {
+        Path contentDirectory = uploadStoragePaths.contentDirectory();
+        if (!Files.isDirectory(contentDirectory)) {
+            return;
+        }
+        LocalDateTime retainedSince = overQuota ? LocalDateTime.now() : LocalDateTime.now().minus(retention);
+        for (Path entryDirectory : contentCursor.next(contentDirectory, batchSize)) {
+            // The content store touches an entry whenever it is reused, so recently used CSVs stay.
+            if (olderThan(entryDirectory, retainedSince)
+                    && fileUploadRepository.countUsingContent(entryDirectory.getFileName().toString()) == 0) {
+                remove(entryDirectory);
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory and gives the space of the files deleted back to the quota.
+     */
+    private void remove(Path directory) {
+        long freed = delete(directory);
+        usedBytes.updateAndGet(used -> Math.max(0L, used - freed));
+    }
+
+    private static boolean isNumeric(String name) {
+        if (name.isEmpty() || name.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBefore(LocalDateTime modifiedAt, LocalDateTime cutoff) {
+        return modifiedAt == null || modifiedAt.isBefore(cutoff);
+    }
+
+    private static boolean olderThan(Path path, LocalDateTime cutoff) throws IOException {
+        try {
+            Instant lastModified = Files.getLastModifiedTime(path).toInstant();
+            return lastModified.isBefore(cutoff.atZone(ZoneId.systemDefault()).toInstant());
+        } catch (NoSuchFileException removed) {
+            // Removed since it was listed.
+            return false;
+        }
+    }
+
+    static long measure(Path basePath) throws IOException {
+        AtomicLong total = new AtomicLong();
+        Files.walkFileTree(basePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                total.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exception) {
+                // Files removed while the walk runs are simply not counted.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total.get();
+    }
+
+    /**
+     * Deletes a directory tree and returns the size of the files it deleted.
+     */
+    private static long delete(Path directory) {
+        AtomicLong deleted = new AtomicLong();
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    if (Files.deleteIfExists(file)) {
+                        deleted.addAndGet(attributes.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exception) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException alreadyDeleted) {
+            // Removed concurrently; nothing left to do.
+        } catch (IOException ioException) {
+            log.warn("Failed to delete staging directory {}", directory, ioException);
+        }
+        return deleted.get();
+    }
+
+    /**
+     * Lists a directory a batch at a time. The {@link DirectoryStream} stays open between batches and
+     * is closed once exhausted, so the next batch starts a new pass over the directory. Entries
+     * created or removed during a pass may or may not be returned in it.
+     */
+    private static final class DirectoryCursor {
+
+        private final DirectoryStream.Filter<Path> filter;
+        private DirectoryStream<Path> stream;
+        private Iterator<Path> iterator;
+
+        private DirectoryCursor(DirectoryStream.Filter<Path> filter) {
+            this.filter = filter;
+        }
+
+        List<Path> next(Path directory, int batchSize) throws IOException {
+            if (stream == null) {
+                stream = Files.newDirectoryStream(directory, filter);
+                iterator = stream.iterator();
+            }
+            List<Path> batch = new ArrayList<>(batchSize);
+            try {
+                while (batch.size() < batchSize && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+                if (!iterator.hasNext()) {
+                    close();
+                }
+            } catch (DirectoryIteratorException exception) {
+                close();
+                throw exception.getCause();
+            }
+            return batch;
+        }
+
+        void close() {
+            if (stream == null) {
+                return;
+            }
+            try {
+                stream.close();
+            } catch (IOException ioException) {
+                log.debug("Failed to close staging directory listing", ioException);
+            }
+            stream = null;
+            iterator = null;
+        }
+    }
+}
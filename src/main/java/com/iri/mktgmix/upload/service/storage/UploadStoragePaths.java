@@ -0,0 +1,42 @@
+package com.iri.mktgmix.upload.service.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Layout of the upload staging directory:
+ * <pre>
+ *   {base}/{fileUploadId}/{originalFileName}   session file receiving chunks
+ *   {base}/content/{sourceSha256}/...           content-addressed conversion output
+ * </pre>
+ */
+@Component
+public class UploadStoragePaths {
+
+    private static final String CONTENT_DIRECTORY = "content";
+
+    @Value("${mediamix.upload.storage.base-path:}")
+    private String storageBasePath;
+
+    public Path basePath() {
+        if (storageBasePath != null && !storageBasePath.trim().isEmpty()) {
+            return Paths.get(storageBasePath);
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "mediamix-uploads");
+    }
+
+    public Path sessionDirectory(Long uploadSessionId) {
+        return basePath().resolve(String.valueOf(uploadSessionId));
+    }
+
+    public Path sessionFile(Long uploadSessionId, String originalFileName) {
+        return sessionDirectory(uploadSessionId).resolve(originalFileName);
+    }
+
+    public Path contentDirectory() {
+        return basePath().resolve(CONTENT_DIRECTORY);
+    }
+}
@@ -0,0 +1,86 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import com.iri.mktgmix.upload.domain.FileUpload;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for the per-session chunk bitmap stored in {@code app.file_upload.chunk_bitmap}.
+ * <p>
+ * Bit {@code n} lives in byte {@code n / 8} at position {@code n % 8}, counting from the least
+ * significant bit. This is the numbering PostgreSQL uses for {@code get_bit}/{@code set_bit} on
+ * {@code bytea}, so the bitmap can be updated atomically in SQL and read back here unchanged.
+ */
+public final class ChunkBitmap {
+
+    private ChunkBitmap() {
+    }
+
+    public static byte[] empty(int totalChunks) {
+        return new byte[(totalChunks + 7) / 8];
+    }
+
+    public static boolean isSet(byte[] bitmap, int chunkIndex) {
+        return (bitmap[chunkIndex >>> 3] & (1 << (chunkIndex & 7))) != 0;
+    }
+
+    public static int countSet(byte[] bitmap) {
+        int count = 0;
+        for (byte bits : bitmap) {
+            count += Integer.bitCount(bits & 0xFF);
+        }
+        return count;
+    }
+
+    /**
+     * Index of the first chunk not yet received, or {@code totalChunks} when all chunks are present.
+     */
+    public static int firstMissing(byte[] bitmap, int totalChunks) {
+        int byteIndex = 0;
+        while (byteIndex < bitmap.length && bitmap[byteIndex] == (byte) 0xFF) {
+            byteIndex++;
+        }
+        int chunkIndex = byteIndex * 8;
+        while (chunkIndex < totalChunks && isSet(bitmap, chunkIndex)) {
+            chunkIndex++;
+        }
+        return Math.min(chunkIndex, totalChunks);
+    }
+
+    /**
+     * 1-based numbers of the chunks not received yet, as used by the chunk upload endpoints.
+     */
+    public static List<Integer> missingChunkNumbers(byte[] bitmap, int totalChunks) {
+        List<Integer> missing = new ArrayList<>();
+        for (int chunkIndex = firstMissing(bitmap, totalChunks); chunkIndex < totalChunks; chunkIndex++) {
+            if (!isSet(bitmap, chunkIndex)) {
+                missing.add(chunkIndex + 1);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Number of bytes from offset 0 covered by received chunks without a gap.
+     */
+    public static long contiguousBytes(FileUpload fileUpload) {
+        if (fileUpload.getChunkBitmap() == null) {
+            return 0L;
+        }
+        int firstMissing = firstMissing(fileUpload.getChunkBitmap(), fileUpload.getTotalChunks());
+        return Math.min(firstMissing * fileUpload.getChunkSizeBytes(), fileUpload.getFileSizeBytes());
+    }
+
+    public static boolean isComplete(byte[] bitmap, int totalChunks) {
+        return countSet(bitmap) == totalChunks;
+    }
+
+    public static int totalChunks(long fileSizeBytes, long chunkSizeBytes) {
+        long totalChunks = (fileSizeBytes + chunkSizeBytes - 1) / chunkSizeBytes;
+        if (totalChunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Chunk size " + chunkSizeBytes + " is too small for " + fileSizeBytes + " bytes");
+        }
+        return (int) Math.max(totalChunks, 1L);
+    }
+}
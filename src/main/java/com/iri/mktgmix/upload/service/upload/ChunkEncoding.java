@@ -0,0 +1,54 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@code Content-Encoding} values accepted for chunk bodies.
+ */
+public enum ChunkEncoding {
+
+    IDENTITY,
+    GZIP,
+    /**
+     * HTTP {@code deflate}, which is zlib-wrapped deflate data.
+     */
+    DEFLATE;
+
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Parses a {@code Content-Encoding} header. Returns null for an encoding that is not supported.
+     */
+    public static ChunkEncoding fromHeader(String contentEncoding) {
+        if (contentEncoding == null || contentEncoding.trim().isEmpty()) {
+            return IDENTITY;
+        }
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "identity":
+                return IDENTITY;
+            case "gzip":
+            case "x-gzip":
+                return GZIP;
+            case "deflate":
+                return DEFLATE;
+            default:
+                return null;
+        }
+    }
+
+    public InputStream decode(InputStream encoded) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(encoded, INFLATE_BUFFER_SIZE);
+            case DEFLATE:
+                return new InflaterInputStream(encoded, new Inflater(), INFLATE_BUFFER_SIZE);
+            default:
+                return encoded;
+        }
+    }
+}
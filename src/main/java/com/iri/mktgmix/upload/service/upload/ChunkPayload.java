@@ -0,0 +1,35 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bytes of a single upload chunk, written into the session file at a fixed position.
+ */
+public interface ChunkPayload {
+
+    /**
+     * Returned by {@link #size()} when the size is only known once the payload is decoded.
+     */
+    long UNKNOWN_SIZE = -1L;
+
+    /**
+     * Number of bytes this payload writes into the session file, or {@link #UNKNOWN_SIZE}.
+     */
+    long size();
+
+    /**
+     * True when the payload is already on local disk, so writing it never waits for the client.
+     * Other payloads are received into a {@link SpooledChunkPayload} before the session lock is taken.
+     */
+    default boolean isLocal() {
+        return false;
+    }
+
+    /**
+     * Writes exactly {@code length} bytes into {@code target} starting at {@code position}, and
+     * fails with {@link MalformedChunkException} if the payload holds fewer or more bytes.
+     * The target must already be preallocated past {@code position}.
+     */
+    void writeTo(FileChannel target, long position, long length) throws IOException;
+}
@@ -0,0 +1,78 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import com.iri.mktgmix.upload.converter.ConversionProgress;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the conversions running on this node.
+ * <p>
+ * A request on the converting node reads and cancels a conversion here directly. Other nodes only
+ * see the database: a sync writes each conversion's progress to its file_upload row every few
+ * seconds. When that write finds the upload no longer converting, because it was cancelled
+ * through another node, the conversion here is cancelled as well.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversionProgressRegistry {
+
+    private final FileUploadRepository fileUploadRepository;
+
+    private final Map<Long, ConversionProgress> conversions = new ConcurrentHashMap<>();
+
+    public ConversionProgress start(Long uploadSessionId) {
+        ConversionProgress progress = new ConversionProgress();
+        conversions.put(uploadSessionId, progress);
+        return progress;
+    }
+
+    public void finish(Long uploadSessionId, ConversionProgress progress) {
+        conversions.remove(uploadSessionId, progress);
+    }
+
+    /**
+     * The conversion of this session if it runs on this node, otherwise null.
+     */
+    public ConversionProgress find(Long uploadSessionId) {
+        return conversions.get(uploadSessionId);
+    }
+
+    /**
+     * Stops the conversion of this session at its next row, if it runs on this node.
+     */
+    public void cancel(Long uploadSessionId) {
+        ConversionProgress progress = conversions.get(uploadSessionId);
+        if (progress != null) {
+            progress.cancel();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mediamix.upload.progress.sync-interval:PT2S}",
+            initialDelayString = "${mediamix.upload.progress.sync-interval:PT2S}")
+    public void sync() {
+        for (Map.Entry<Long, ConversionProgress> conversion : conversions.entrySet()) {
+            ConversionProgress progress = conversion.getValue();
+            long bytesTotal = progress.getTotalBytes();
+            try {
+                int updated = fileUploadRepository.updateConversionProgress(conversion.getKey(),
+                        LocalDateTime.now().minus(progress.getElapsed()),
+                        progress.getRowsProcessed(),
+                        progress.getBytesRead(),
+                        bytesTotal < 0 ? null : bytesTotal);
+                if (updated == 0) {
+                    progress.cancel();
+                }
+            } catch (RuntimeException exception) {
+                log.warn("Failed to record conversion progress of fileUploadId: {}", conversion.getKey(), exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.zip.ZipException;
+
+/**
+ * Chunk sent with a {@code Content-Encoding}. The body is inflated as it is read and streamed into
+ * its spool file, see {@link SpooledChunkPayload}, so the compressed bytes are never buffered. The
+ * decoded size is only known after reading the body, so it is checked against the length the
+ * session layout expects for this chunk.
+ */
+public class DecodingChunkPayload implements ChunkPayload {
+
+    private final InputStream encodedBody;
+    private final ChunkEncoding encoding;
+
+    public DecodingChunkPayload(InputStream encodedBody, ChunkEncoding encoding) {
+        this.encodedBody = encodedBody;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public long size() {
+        return UNKNOWN_SIZE;
+    }
+
+    @Override
+    public void writeTo(FileChannel target, long position, long length) throws IOException {
+        try (InputStream decoded = encoding.decode(encodedBody)) {
+            StreamChunkPayload.transfer(Channels.newChannel(decoded), target, position, length);
+            if (decoded.read() != -1) {
+                throw new MalformedChunkException("Chunk decodes to more than " + length + " bytes");
+            }
+        } catch (ZipException zipException) {
+            throw new MalformedChunkException("Chunk is not valid " + encoding.name().toLowerCase(Locale.ROOT) + " data",
+                    zipException);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import java.io.IOException;
+
+/**
+ * The chunk body does not hold the expected number of bytes, or cannot be decoded.
+ */
+public class MalformedChunkException extends IOException {
+
+    public MalformedChunkException(String message) {
+        super(message);
+    }
+
+    public MalformedChunkException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
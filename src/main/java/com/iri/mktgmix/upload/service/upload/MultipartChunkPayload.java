@@ -0,0 +1,50 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Chunk received as a multipart part. The servlet container has already spooled the part to disk,
+ * so the part is moved next to the session file and copied into place with
+ * {@link FileChannel#transferTo}, which stays in the kernel instead of looping through a heap buffer.
+ */
+public class MultipartChunkPayload implements ChunkPayload {
+
+    private final MultipartFile chunkFile;
+    private final Path spoolDirectory;
+
+    public MultipartChunkPayload(MultipartFile chunkFile, Path spoolDirectory) {
+        this.chunkFile = chunkFile;
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    @Override
+    public long size() {
+        return chunkFile.getSize();
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(FileChannel target, long position, long length) throws IOException {
+        Path spoolPath = spoolDirectory.resolve(".chunk-" + UUID.randomUUID() + ".part");
+        try {
+            // Part.write renames the container's temp file when it is on the same file system.
+            chunkFile.transferTo(spoolPath.toFile());
+            try (FileChannel source = FileChannel.open(spoolPath, StandardOpenOption.READ)) {
+                SpooledChunkPayload.transfer(source, target, position, length);
+            }
+        } finally {
+            Files.deleteIfExists(spoolPath);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Chunk whose body was received into a spool file next to the session file before the session lock
+ * is taken. Writing it into the session file is then a local copy with {@link FileChannel#transferTo},
+ * so a slow client never holds the lock. Closing it removes the spool file.
+ */
+public class SpooledChunkPayload implements ChunkPayload, Closeable {
+
+    private final Path spoolPath;
+    private final long length;
+
+    private SpooledChunkPayload(Path spoolPath, long length) {
+        this.spoolPath = spoolPath;
+        this.length = length;
+    }
+
+    /**
+     * Reads exactly {@code length} bytes of {@code body} into a new spool file in {@code spoolDirectory},
+     * failing with {@link MalformedChunkException} like {@link ChunkPayload#writeTo} does.
+     */
+    public static SpooledChunkPayload receive(ChunkPayload body, Path spoolDirectory, long length) throws IOException {
+        Files.createDirectories(spoolDirectory);
+        Path spoolPath = spoolDirectory.resolve(".chunk-" + UUID.randomUUID() + ".part");
+        try (FileChannel spool = FileChannel.open(spoolPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            body.writeTo(spool, 0, length);
+        } catch (IOException | RuntimeException exception) {
+            Files.deleteIfExists(spoolPath);
+            throw exception;
+        }
+        return new SpooledChunkPayload(spoolPath, length);
+    }
+
+    @Override
+    public long size() {
+        return length;
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(FileChannel target, long position, long length) throws IOException {
+        try (FileChannel source = FileChannel.open(spoolPath, StandardOpenOption.READ)) {
+            transfer(source, target, position, length);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(spoolPath);
+        } catch (IOException ignored) {
+            // Left for the staging storage sweep, which removes the session directory.
+        }
+    }
+
+    static void transfer(FileChannel source, FileChannel target, long position, long length) throws IOException {
+        long transferred = 0;
+        target.position(position);
+        while (transferred < length) {
+            long count = source.transferTo(transferred, length - transferred, target);
+            if (count <= 0) {
+                throw new MalformedChunkException("Chunk ended after " + transferred + " of " + length + " bytes");
+            }
+            transferred += count;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Chunk sent as a raw request body. The body is streamed into its spool file, see
+ * {@link SpooledChunkPayload}, with {@link FileChannel#transferFrom}, so it is never held on the heap.
+ * A body sent without a {@code Content-Length} is checked for trailing bytes after the transfer,
+ * so an oversized chunk is rejected instead of silently truncated.
+ */
+public class StreamChunkPayload implements ChunkPayload {
+
+    private final InputStream body;
+    private final long contentLength;
+
+    public StreamChunkPayload(InputStream body, long contentLength) {
+        this.body = body;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public long size() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(FileChannel target, long position, long length) throws IOException {
+        transfer(Channels.newChannel(body), target, position, length);
+        if (contentLength == UNKNOWN_SIZE && body.read() != -1) {
+            throw new MalformedChunkException("Chunk holds more than " + length + " bytes");
+        }
+    }
+
+    static void transfer(ReadableByteChannel source, FileChannel target, long position, long length) throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            long count = target.transferFrom(source, position + transferred, length - transferred);
+            if (count <= 0) {
+                throw new MalformedChunkException("Chunk ended after " + transferred + " of " + length + " bytes");
+            }
+            transferred += count;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import com.iri.mktgmix.upload.converter.Checksums;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a running SHA-256 of each upload session's file while its chunks arrive.
+ * <p>
+ * A digest can only consume bytes in order, so each session's state covers the contiguous prefix
+ * of received chunks. Whenever a chunk extends that prefix, the newly contiguous bytes are hashed
+ * straight from the session file, which is still in the page cache right after the write. When the
+ * upload completes, only the tail that is not yet digested needs reading. If the state is missing,
+ * for example after a restart or because another node received the earlier chunks, the digest
+ * starts again from offset 0.
+ */
+@Component
+public class UploadDigestRegistry {
+
+    private static final long MAX_MAPPED_REGION = 64L * 1024 * 1024;
+
+    private final Map<Long, SessionDigest> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Digests every received byte that directly follows the bytes already digested.
+     */
+    public void advance(FileUpload fileUpload, Path sessionFile) throws IOException {
+        SessionDigest sessionDigest = digests.computeIfAbsent(fileUpload.getId(), id -> new SessionDigest());
+        synchronized (sessionDigest) {
+            sessionDigest.digestUpTo(sessionFile, ChunkBitmap.contiguousBytes(fileUpload));
+        }
+    }
+
+    /**
+     * Digests the rest of the session file and returns the hex SHA-256 of the whole upload.
+     */
+    public String finish(FileUpload fileUpload, Path sessionFile) throws IOException {
+        SessionDigest sessionDigest = digests.computeIfAbsent(fileUpload.getId(), id -> new SessionDigest());
+        try {
+            synchronized (sessionDigest) {
+                sessionDigest.digestUpTo(sessionFile, fileUpload.getFileSizeBytes());
+                return Checksums.toHex(sessionDigest.digest.digest());
+            }
+        } finally {
+            digests.remove(fileUpload.getId());
+        }
+    }
+
+    public void discard(Long uploadSessionId) {
+        digests.remove(uploadSessionId);
+    }
+
+    private static final class SessionDigest {
+
+        private final MessageDigest digest = Checksums.newSha256();
+        private long digestedBytes;
+
+        private void digestUpTo(Path sessionFile, long endOffset) throws IOException {
+            if (endOffset <= digestedBytes) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(sessionFile, StandardOpenOption.READ)) {
+                while (digestedBytes < endOffset) {
+                    long length = Math.min(endOffset - digestedBytes, MAX_MAPPED_REGION);
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, digestedBytes, length);
+                    digest.update(region);
+                    digestedBytes += length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes work on a single upload session while sessions proceed independently.
+ * <p>
+ * Within a node, a session id maps to one of a fixed number of lock stripes, so the lock table stays
+ * bounded however many sessions are active. Sessions sharing a stripe wait for each other, which
+ * is rare with enough stripes. Across nodes, the work then runs in a Postgres transaction holding
+ * {@code pg_advisory_xact_lock(file_upload.id)}. Postgres releases that lock on commit or rollback,
+ * and every repository call in the action reuses the same connection, so a request never needs a
+ * second pooled connection while it holds the lock.
+ * <p>
+ * That connection and its transaction are held for the whole action, so an action never waits on
+ * a client: a chunk's body is received into a spool file first, and under the lock it is only
+ * copied from local disk into the session file and recorded. A chunk write under the lock still
+ * occupies one pooled Postgres connection, so the pool is sized above the chunk-write bulkhead. The
+ * transaction times out after {@code mediamix.upload.lock.timeout}; a chunk still being written by
+ * then is rolled back and has to be sent again.
+ */
+@Component
+public class UploadSessionLocks {
+
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private final FileUploadRepository fileUploadRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public UploadSessionLocks(
+            @Value("${mediamix.upload.lock.stripes:64}") int stripeCount,
+            @Value("${mediamix.upload.lock.timeout:PT5M}") Duration timeout,
+            FileUploadRepository fileUploadRepository,
+            PlatformTransactionManager transactionManager) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.stripeMask = size - 1;
+        this.fileUploadRepository = fileUploadRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setTimeout((int) timeout.getSeconds());
+    }
+
+    public <T> T withSessionLock(Long uploadSessionId, Supplier<T> action) {
+        ReentrantLock stripe = stripeFor(uploadSessionId);
+        stripe.lock();
+        try {
+            return transactionTemplate.execute(status -> {
+                fileUploadRepository.acquireSessionLock(uploadSessionId);
+                return action.get();
+            });
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private ReentrantLock stripeFor(Long uploadSessionId) {
+        int hash = Long.hashCode(uploadSessionId);
+        hash ^= (hash >>> 16);
+        return stripes[hash & stripeMask];
+    }
+}
@@ -0,0 +1,10 @@
+--===============================================
+-- app.file_upload source checksum index
+--===============================================
+
+-- Uploads are looked up by the checksum of their source file: the staging data of an earlier
+-- upload of the same file and sheet is reused on every completion, and the storage sweep counts
+-- the live uploads of each stored CSV. Both filter on checksum_source_sha256, the former also on
+-- sheet_name.
+
+CREATE INDEX idx_file_upload_source_checksum ON app.file_upload USING btree (checksum_source_sha256, sheet_name);
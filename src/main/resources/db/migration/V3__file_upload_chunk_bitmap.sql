@@ -0,0 +1,13 @@
+--===============================================
+-- app.file_upload chunk tracking
+--===============================================
+
+-- Chunks are written at (chunk_number - 1) * chunk_size_bytes into a file preallocated to
+-- file_size_bytes. chunk_bitmap holds one bit per received chunk (bit n of the bytea, as read
+-- by get_bit/set_bit), so duplicate and missing chunks are detected without touching the file.
+
+ALTER TABLE app.file_upload ADD COLUMN chunk_size_bytes int8 NULL;
+ALTER TABLE app.file_upload ADD COLUMN total_chunks int4 NULL;
+ALTER TABLE app.file_upload ADD COLUMN chunk_bitmap bytea NULL;
+
+ALTER TABLE app.file_upload ADD CONSTRAINT chk_chunk_size_positive CHECK (((chunk_size_bytes IS NULL) OR (chunk_size_bytes > 0)));
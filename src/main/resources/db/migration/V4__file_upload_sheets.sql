@@ -0,0 +1,15 @@
+--===============================================
+-- app.file_upload sheet selection
+--===============================================
+
+-- sheet_selection is set on an upload before it completes: NULL converts the first sheet, '*' every
+-- sheet, anything else is a '/'-separated list of sheet names ('/' and '*' cannot occur in Excel
+-- sheet names). The first selected sheet stays on the upload itself; every further sheet gets a
+-- row of its own with parent_file_upload_id pointing at the upload, and its own CSV and staging table.
+
+ALTER TABLE app.file_upload ADD COLUMN sheet_selection text NULL;
+ALTER TABLE app.file_upload ADD COLUMN sheet_name varchar(255) NULL;
+ALTER TABLE app.file_upload ADD COLUMN parent_file_upload_id int8 NULL;
+
+ALTER TABLE app.file_upload ADD CONSTRAINT fk_file_upload_parent FOREIGN KEY (parent_file_upload_id) REFERENCES app.file_upload(id) ON DELETE CASCADE;
+CREATE INDEX idx_file_upload_parent ON app.file_upload USING btree (parent_file_upload_id);
@@ -0,0 +1,13 @@
+--===============================================
+-- app.source_column profile
+--===============================================
+
+-- Collected while the upload is converted. data_type is one of INTEGER, DECIMAL, DATE, BOOLEAN or
+-- TEXT; date_format is the time_format pattern of a DATE column, NULL for ISO dates. null_count
+-- includes the missing cells of short rows, blank_count counts whitespace-only values and
+-- distinct_estimate is approximate (about 3%).
+
+ALTER TABLE app.source_column ADD COLUMN date_format varchar(255) NULL;
+ALTER TABLE app.source_column ADD COLUMN null_count int8 NULL;
+ALTER TABLE app.source_column ADD COLUMN blank_count int8 NULL;
+ALTER TABLE app.source_column ADD COLUMN distinct_estimate int8 NULL;
@@ -0,0 +1,13 @@
+--===============================================
+-- app.file_upload conversion progress
+--===============================================
+
+-- Written every few seconds by the node converting the upload, so any node can report progress.
+-- conversion_bytes_read counts bytes of the input the converter reads: the file itself for CSV and
+-- TSV, the uncompressed sheet or workbook stream for XLSX and XLS. conversion_bytes_total is NULL
+-- while that size is not known.
+
+ALTER TABLE app.file_upload ADD COLUMN conversion_started_at timestamp NULL;
+ALTER TABLE app.file_upload ADD COLUMN conversion_rows_processed int8 NULL;
+ALTER TABLE app.file_upload ADD COLUMN conversion_bytes_read int8 NULL;
+ALTER TABLE app.file_upload ADD COLUMN conversion_bytes_total int8 NULL;
@@ -0,0 +1,29 @@
+--===============================================
+-- app.upload_job definition
+--===============================================
+
+-- Durable queue of background work on uploads. Workers on any node claim a QUEUED job, or a RUNNING
+-- job whose lease expired because its node stopped, with SELECT ... FOR UPDATE SKIP LOCKED, and keep
+-- renewing lease_expires_at while they run it. attempts counts the claims; a job whose lease expired
+-- too often is failed instead of being run again. At most one job per upload and type is active.
+
+CREATE TABLE app.upload_job (
+    id bigserial NOT NULL,
+    file_upload_id int8 NOT NULL,
+    job_type varchar(16) NOT NULL,
+    job_status varchar(16) NOT NULL,
+    source_file_name varchar(255) NULL,
+    attempts int4 DEFAULT 0 NOT NULL,
+    available_at timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    locked_by varchar(255) NULL,
+    lease_expires_at timestamp NULL,
+    last_error text NULL,
+    created_at timestamp DEFAULT CURRENT_TIMESTAMP NULL,
+    modified_at timestamp NULL,
+    CONSTRAINT upload_job_pkey PRIMARY KEY (id),
+    CONSTRAINT upload_job_job_status_check CHECK (((job_status)::text = ANY ((ARRAY['QUEUED'::character varying, 'RUNNING'::character varying, 'SUCCEEDED'::character varying, 'FAILED'::character varying])::text[]))),
+    CONSTRAINT upload_job_file_upload_id_fkey FOREIGN KEY (file_upload_id) REFERENCES app.file_upload(id) ON DELETE CASCADE
+);
+CREATE UNIQUE INDEX uq_upload_job_active ON app.upload_job USING btree (file_upload_id, job_type) WHERE ((job_status)::text = ANY ((ARRAY['QUEUED'::character varying, 'RUNNING'::character varying])::text[]));
+CREATE INDEX idx_upload_job_queued ON app.upload_job USING btree (available_at) WHERE ((job_status)::text = 'QUEUED'::text);
+CREATE INDEX idx_upload_job_lease ON app.upload_job USING btree (lease_expires_at) WHERE ((job_status)::text = 'RUNNING'::text);
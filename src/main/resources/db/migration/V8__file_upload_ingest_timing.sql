@@ -0,0 +1,13 @@
+--===============================================
+-- app.file_upload ingest timing
+--===============================================
+
+-- Recorded when a converted upload is loaded into its MonetDB staging table. ingest_started_at is
+-- set when the load starts, ingest_rows_loaded and ingest_duration_ms once it succeeded.
+-- ingest_format is how the rows were loaded: CSV, BINARY (the binary column files written with the
+-- CSV) or PIPELINED (streamed into MonetDB while the upload was converted).
+
+ALTER TABLE app.file_upload ADD COLUMN ingest_started_at timestamp NULL;
+ALTER TABLE app.file_upload ADD COLUMN ingest_rows_loaded int8 NULL;
+ALTER TABLE app.file_upload ADD COLUMN ingest_duration_ms int8 NULL;
+ALTER TABLE app.file_upload ADD COLUMN ingest_format varchar(16) NULL;
@@ -0,0 +1,8 @@
+--===============================================
+-- app.file_upload ingested checksum
+--===============================================
+
+-- The checksum_sha256 of the CSV whose rows monet_table_name holds. An ingest of an upload whose
+-- table already holds the rows of its current CSV does not load it again.
+
+ALTER TABLE app.file_upload ADD COLUMN ingested_checksum_sha256 varchar(64) NULL;
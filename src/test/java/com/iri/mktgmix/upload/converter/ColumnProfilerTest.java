@@ -0,0 +1,88 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ColumnProfilerTest {
+
+    @Test
+    void infersTypesAndCountsNullsAndBlanks() {
+        ColumnProfiler profiler = profile(new ColumnProfiler(Arrays.asList("MM/dd/yyyy", "not a [pattern")),
+                new String[]{"week", "spend", "units", "active", "brand", "notes"},
+                new String[]{"01/07/2024", "10", "3", "TRUE", "Acme", ""},
+                new String[]{"", "2.5", "-4", "false", "Acme", " "},
+                new String[]{"12/29/2024", "1E+3", "", "", "Zenith", "x"},
+                new String[]{"02/29/2024"});
+
+        List<ColumnProfile> columns = profiler.getColumns();
+
+        assertThat(profiler.getRowCount()).isEqualTo(4);
+        assertThat(columns).extracting(ColumnProfile::getHeaderName)
+                .containsExactly("week", "spend", "units", "active", "brand", "notes");
+        assertThat(columns).extracting(ColumnProfile::getDataType).containsExactly(
+                ColumnDataType.DATE, ColumnDataType.DECIMAL, ColumnDataType.INTEGER,
+                ColumnDataType.BOOLEAN, ColumnDataType.TEXT, ColumnDataType.TEXT);
+        assertThat(columns.get(0).getDatePattern()).isEqualTo("MM/dd/yyyy");
+        assertThat(columns).extracting(ColumnProfile::getNullCount).containsExactly(1L, 1L, 2L, 2L, 1L, 2L);
+        assertThat(columns.get(5).getBlankCount()).isEqualTo(1);
+        assertThat(columns.get(4).getDistinctEstimate()).isEqualTo(2);
+    }
+
+    @Test
+    void fallsBackToTextOnConflictingValues() {
+        ColumnProfiler profiler = profile(new ColumnProfiler(Arrays.asList("MM/dd/yyyy", "dd/MM/yyyy")),
+                new String[]{"zip", "mixed", "day", "invalid", "large"},
+                new String[]{"02134", "1", "01/02/2024", "2024-02-30", "1234567890123456789"},
+                new String[]{"10001", "2024-01-01", "13/02/2024", "2024-03-01", "1"},
+                new String[]{"", "", "02/13/2024", "", ""});
+
+        assertThat(profiler.getColumns()).extracting(ColumnProfile::getDataType).containsOnly(ColumnDataType.TEXT);
+    }
+
+    @Test
+    void keepsIsoDatesAndEmptyColumnsBeyondTheHeader() {
+        ColumnProfiler profiler = profile(new ColumnProfiler(),
+                new String[]{"week", "empty"},
+                new String[]{"2024-01-07"},
+                new String[]{"2024-01-14", "", "late"});
+
+        List<ColumnProfile> columns = profiler.getColumns();
+
+        assertThat(columns).extracting(ColumnProfile::getDataType)
+                .containsExactly(ColumnDataType.DATE, ColumnDataType.TEXT, ColumnDataType.TEXT);
+        assertThat(columns.get(0).getDatePattern()).isNull();
+        assertThat(columns.get(2).getHeaderName()).isEmpty();
+        assertThat(columns.get(2).getNullCount()).isEqualTo(1);
+    }
+
+    @Test
+    void estimatesDistinctValues() {
+        ColumnProfiler profiler = new ColumnProfiler();
+        profiler.writeField("id");
+        profiler.endRow();
+        for (int row = 0; row < 200_000; row++) {
+            profiler.writeField("campaign-" + (row % 50_000));
+            profiler.endRow();
+        }
+
+        ColumnProfile column = profiler.getColumns().get(0);
+
+        assertThat(column.getDataType()).isEqualTo(ColumnDataType.TEXT);
+        assertThat((double) column.getDistinctEstimate()).isCloseTo(50_000, within(50_000 * 0.1));
+    }
+
+    private static ColumnProfiler profile(ColumnProfiler profiler, String[]... rows) {
+        for (String[] row : rows) {
+            for (String value : row) {
+                profiler.writeField(value);
+            }
+            profiler.endRow();
+        }
+        return profiler;
+    }
+}
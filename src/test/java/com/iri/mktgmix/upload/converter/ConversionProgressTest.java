@@ -0,0 +1,159 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConversionProgressTest {
+
+    private static final List<String> SHEETS = Arrays.asList("TV", "Radio", "Print");
+    private static final int ROWS_PER_SHEET = 500;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void countsRowsAndInputBytes() throws IOException {
+        byte[] content = "\"brand\",spend\nAcme,1\nZenith,2\n".getBytes(StandardCharsets.UTF_8);
+        Path input = Files.write(tempDir.resolve("plan.csv"), content);
+        ConversionProgress progress = new ConversionProgress();
+
+        CsvConverterFactory.forFileName("plan.csv").convert(input, progress);
+
+        assertThat(progress.getRowsProcessed()).isEqualTo(3);
+        assertThat(progress.getBytesRead()).isEqualTo(content.length);
+        assertThat(progress.getTotalBytes()).isEqualTo(content.length);
+        assertThat(progress.getEstimatedRemaining()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void stopsAtTheNextRowOnceCancelled() throws IOException {
+        Path input = Files.write(tempDir.resolve("plan.csv"),
+                "\"brand\",spend\nAcme,1\nZenith,2\nUmbrella,3\n".getBytes(StandardCharsets.UTF_8));
+        ConversionProgress progress = new ConversionProgress();
+        RowSink cancelAfterTwoRows = new RowSink() {
+            private int rows;
+
+            @Override
+            public void writeField(String value) {
+            }
+
+            @Override
+            public void endRow() {
+                if (++rows == 2) {
+                    progress.cancel();
+                }
+            }
+        };
+
+        assertThatThrownBy(() -> CsvConverterFactory.forFileName("plan.csv")
+                .convert(input, cancelAfterTwoRows.andThen(progress)))
+                .isInstanceOf(ConversionCancelledException.class);
+        assertThat(progress.getRowsProcessed()).isEqualTo(1);
+    }
+
+    @Test
+    void estimatesFromTheReadRate() {
+        assertThat(ConversionProgress.estimateRemaining(Duration.ofSeconds(10), 250, 1000))
+                .isEqualTo(Duration.ofSeconds(30));
+        assertThat(ConversionProgress.estimateRemaining(Duration.ofSeconds(10), 0, 1000)).isNull();
+        assertThat(ConversionProgress.estimateRemaining(Duration.ofSeconds(10), 250, -1)).isNull();
+    }
+
+    @Test
+    void countsEverySheetOfAMultiSheetConversion() throws IOException {
+        for (Path workbook : Arrays.asList(writeWorkbook(new XSSFWorkbook(), "plan.xlsx"),
+                writeWorkbook(new HSSFWorkbook(), "plan.xls"))) {
+            ConversionProgress progress = new ConversionProgress();
+            ExecutorService sheetExecutor = Executors.newFixedThreadPool(2);
+            try {
+                List<CsvConversionResult> results = CsvConverterFactory.forFileName(workbook.getFileName().toString())
+                        .convertSheets(workbook, SHEETS, sheetExecutor, sheetName -> progress.newPart());
+
+                assertThat(results).extracting(CsvConversionResult::getSheetName).containsExactlyElementsOf(SHEETS);
+            } finally {
+                sheetExecutor.shutdownNow();
+            }
+            assertThat(progress.getRowsProcessed()).as(workbook.toString()).isEqualTo(3 * (ROWS_PER_SHEET + 1));
+            assertThat(progress.getTotalBytes()).as(workbook.toString()).isPositive();
+            assertThat(progress.getBytesRead()).as(workbook.toString()).isEqualTo(progress.getTotalBytes());
+        }
+    }
+
+    @Test
+    void stopsAMultiSheetConversionOnceCancelled() throws IOException {
+        for (Path workbook : Arrays.asList(writeWorkbook(new XSSFWorkbook(), "plan.xlsx"),
+                writeWorkbook(new HSSFWorkbook(), "plan.xls"))) {
+            ConversionProgress progress = new ConversionProgress();
+            ExecutorService sheetExecutor = Executors.newFixedThreadPool(2);
+            try {
+                assertThatThrownBy(() -> CsvConverterFactory.forFileName(workbook.getFileName().toString())
+                        .convertSheets(workbook, SHEETS, sheetExecutor,
+                                sheetName -> sheetName.equals(SHEETS.get(0))
+                                        ? cancelAfter(progress, 10).andThen(progress.newPart())
+                                        : progress.newPart()))
+                        .as(workbook.toString())
+                        .isInstanceOf(ConversionCancelledException.class);
+            } finally {
+                sheetExecutor.shutdownNow();
+            }
+            assertThat(progress.isCancelled()).isTrue();
+            assertThat(progress.getRowsProcessed()).as(workbook.toString()).isLessThan(3 * (ROWS_PER_SHEET + 1));
+        }
+    }
+
+    private Path writeWorkbook(Workbook workbook, String fileName) throws IOException {
+        Path workbookPath = tempDir.resolve(fileName);
+        try (Workbook closing = workbook) {
+            for (String channel : SHEETS) {
+                Sheet sheet = closing.createSheet(channel);
+                sheet.createRow(0).createCell(0).setCellValue("week");
+                sheet.getRow(0).createCell(1).setCellValue(channel + " spend");
+                for (int rowIndex = 1; rowIndex <= ROWS_PER_SHEET; rowIndex++) {
+                    Row row = sheet.createRow(rowIndex);
+                    row.createCell(0).setCellValue(rowIndex);
+                    row.createCell(1).setCellValue(rowIndex * 1.5);
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                closing.write(out);
+            }
+        }
+        return workbookPath;
+    }
+
+    private static RowSink cancelAfter(ConversionProgress progress, int rows) {
+        return new RowSink() {
+            private int written;
+
+            @Override
+            public void writeField(String value) {
+            }
+
+            @Override
+            public void endRow() {
+                if (++written == rows) {
+                    progress.cancel();
+                }
+            }
+        };
+    }
+}
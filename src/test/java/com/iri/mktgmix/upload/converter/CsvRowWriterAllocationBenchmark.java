@@ -0,0 +1,200 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+
+/**
+ * Measures heap allocated per CSV row by the row-writing path, before and after the
+ * allocation-free {@link CsvRowWriter}. Not a unit test; run it with
+ * {@code java -cp <test classpath> com.iri.mktgmix.upload.converter.CsvRowWriterAllocationBenchmark}.
+ * <p>
+ * "before" is the previous implementation: four {@code String.contains} scans, {@code replace} and
+ * concatenation per quoted value, a {@code BufferedWriter} over an {@code OutputStreamWriter}, and
+ * {@code CREATE_NULL_AS_BLANK} for missing cells. Cell formatting by {@link DataFormatter} is the
+ * same on both sides and included in the sheet numbers.
+ */
+public final class CsvRowWriterAllocationBenchmark {
+
+    private static final int ROWS = 200_000;
+    private static final int SHEET_ROWS = 20_000;
+    private static final int COLUMNS = 24;
+
+    private CsvRowWriterAllocationBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("csv-row-writer-benchmark");
+        try {
+            run(directory);
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    private static void run(Path directory) throws IOException {
+        String[] values = new String[COLUMNS];
+        for (int column = 0; column < COLUMNS; column++) {
+            switch (column % 4) {
+                case 0:
+                    values[column] = "2024-0" + (column % 9 + 1) + "-01";
+                    break;
+                case 1:
+                    values[column] = "Brand \"" + column + "\", national";
+                    break;
+                case 2:
+                    values[column] = null;
+                    break;
+                default:
+                    values[column] = String.valueOf(column * 1234.5);
+                    break;
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            // The first rounds warm up the JIT; the last one is reported.
+            long before = measure(() -> writeLegacyRows(directory.resolve("legacy.csv"), values));
+            long after = measure(() -> writeRows(directory.resolve("values.xlsx"), values));
+            if (round == 2) {
+                report("values", before, after, ROWS);
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            // CREATE_NULL_AS_BLANK adds the blank cells to the sheet, so each side gets a fresh one.
+            long before;
+            long after;
+            try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+                Sheet sheet = createSparseSheet(workbook, values);
+                before = measure(() -> writeLegacySheet(directory.resolve("legacy-sheet.csv"), sheet));
+            }
+            try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+                Sheet sheet = createSparseSheet(workbook, values);
+                after = measure(() -> writeSheet(directory.resolve("sheet.xlsx"), sheet));
+            }
+            if (round == 2) {
+                report("sheet", before, after, SHEET_ROWS);
+            }
+        }
+    }
+
+    /**
+     * Every third column is missing, as in sparse media plans.
+     */
+    private static Sheet createSparseSheet(XSSFWorkbook workbook, String[] values) {
+        Sheet sheet = workbook.createSheet("Sparse");
+        for (int rowIndex = 0; rowIndex < SHEET_ROWS; rowIndex++) {
+            Row row = sheet.createRow(rowIndex);
+            for (int column = 0; column < COLUMNS; column++) {
+                if (column % 3 != 2) {
+                    row.createCell(column).setCellValue(values[column] == null ? "x" : values[column]);
+                }
+            }
+        }
+        return sheet;
+    }
+
+    private static void writeRows(Path inputFile, String[] values) throws IOException {
+        try (CsvRowWriter writer = CsvRowWriter.forInput(inputFile)) {
+            for (int row = 0; row < ROWS; row++) {
+                for (String value : values) {
+                    writer.writeField(value);
+                }
+                writer.endRow();
+            }
+            writer.finish();
+        }
+    }
+
+    private static void writeLegacyRows(Path csvPath, String[] values) throws IOException {
+        try (BufferedWriter writer = legacyWriter(csvPath)) {
+            for (int row = 0; row < ROWS; row++) {
+                for (int column = 0; column < values.length; column++) {
+                    if (column > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(legacyEscape(values[column]));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private static void writeSheet(Path inputFile, Sheet sheet) throws IOException {
+        DataFormatter formatter = new DataFormatter();
+        try (CsvRowWriter writer = CsvRowWriter.forInput(inputFile)) {
+            for (Row row : sheet) {
+                int nextColumn = 0;
+                for (Cell cell : row) {
+                    writer.writeEmptyFields(cell.getColumnIndex() - nextColumn);
+                    writer.writeField(formatter.formatCellValue(cell));
+                    nextColumn = cell.getColumnIndex() + 1;
+                }
+                writer.endRow();
+            }
+            writer.finish();
+        }
+    }
+
+    private static void writeLegacySheet(Path csvPath, Sheet sheet) throws IOException {
+        DataFormatter formatter = new DataFormatter();
+        try (BufferedWriter writer = legacyWriter(csvPath)) {
+            for (Row row : sheet) {
+                for (int cellIndex = 0; cellIndex < row.getLastCellNum(); cellIndex++) {
+                    if (cellIndex > 0) {
+                        writer.write(',');
+                    }
+                    Cell cell = row.getCell(cellIndex, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
+                    writer.write(legacyEscape(formatter.formatCellValue(cell)));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private static BufferedWriter legacyWriter(Path csvPath) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new DigestOutputStream(Files.newOutputStream(csvPath), Checksums.newSha256()), StandardCharsets.UTF_8));
+    }
+
+    private static String legacyEscape(String value) {
+        if (value == null) {
+            return "";
+        }
+        boolean requiresQuoting = value.contains(",") || value.contains("\"")
+                || value.contains("\n") || value.contains("\r");
+        if (!requiresQuoting) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static long measure(Workload workload) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        workload.run();
+        return threads.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    private static void report(String scenario, long before, long after, int rows) {
+        System.out.printf("%-7s before: %8.1f B/row   after: %8.1f B/row%n",
+                scenario, (double) before / rows, (double) after / rows);
+    }
+
+    private interface Workload {
+        void run() throws IOException;
+    }
+}
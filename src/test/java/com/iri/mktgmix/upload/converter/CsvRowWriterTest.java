@@ -0,0 +1,63 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvRowWriterTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void quotesOnlyFieldsThatNeedIt() throws IOException {
+        CsvConversionResult result;
+        try (CsvRowWriter writer = CsvRowWriter.forInput(tempDir.resolve("fields.xlsx"))) {
+            writer.writeField("plain");
+            writer.writeField(null);
+            writer.writeField("a,b");
+            writer.writeField("say \"hi\"");
+            writer.writeEmptyFields(2);
+            writer.writeField("two\r\nlines");
+            writer.endRow();
+            writer.endRow();
+            result = writer.finish();
+        }
+
+        byte[] written = Files.readAllBytes(result.getCsvPath());
+        assertThat(new String(written, StandardCharsets.UTF_8))
+                .isEqualTo("plain,,\"a,b\",\"say \"\"hi\"\"\",,,\"two\r\nlines\"" + NL + NL);
+        assertThat(result.getChecksumSha256()).isEqualTo(Checksums.toHex(Checksums.newSha256().digest(written)));
+    }
+
+    @Test
+    void encodesValuesSpanningBufferBoundaries() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        CsvConversionResult result;
+        try (CsvRowWriter writer = CsvRowWriter.forInput(tempDir.resolve("long.xls"))) {
+            // Odd lengths move surrogate pairs and doubled quotes across every buffer boundary.
+            for (int row = 0; row < 40; row++) {
+                StringBuilder value = new StringBuilder();
+                for (int i = 0; i < 4001 + row; i++) {
+                    value.append(i % 7 == 0 ? "\"" : i % 5 == 0 ? "\uD83D\uDCC8" : "\u00e9");
+                }
+                writer.writeField(value.toString());
+                writer.writeField("x");
+                writer.endRow();
+                expected.append('"').append(value.toString().replace("\"", "\"\"")).append("\",x").append(NL);
+            }
+            result = writer.finish();
+        }
+
+        assertThat(new String(Files.readAllBytes(result.getCsvPath()), StandardCharsets.UTF_8))
+                .isEqualTo(expected.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DelimitedTextFileToCsvConverterTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void passesCanonicalCsvThrough() throws IOException {
+        String content = "brand,spend" + NL + "\"Acme, Inc\",100" + NL + "\"say \"\"hi\"\"\"," + NL + NL;
+        Path input = write("canonical.csv", content.getBytes(StandardCharsets.UTF_8));
+
+        CsvConversionResult result = CsvConverterFactory.forFileName("canonical.csv").convert(input);
+
+        assertThat(result.getCsvPath()).isEqualTo(input);
+        assertThat(result.getChecksumSha256()).isEqualTo(sha256(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void rewritesWhenQuotingIsNotCanonical() throws IOException {
+        Path input = write("quoted.csv", ("\"brand\",spend" + NL + "x,1").getBytes(StandardCharsets.UTF_8));
+
+        CsvConversionResult result = CsvConverterFactory.forFileName("quoted.csv").convert(input);
+
+        assertThat(result.getCsvPath()).isNotEqualTo(input);
+        assertThat(read(result)).isEqualTo("brand,spend" + NL + "x,1" + NL);
+        assertThat(result.getChecksumSha256()).isEqualTo(sha256(Files.readAllBytes(result.getCsvPath())));
+    }
+
+    @Test
+    void normalizesSemicolonSeparatedWindowsExport() throws IOException {
+        String content = "Marke;Ausgaben;Notiz\r\nM\u00fcller;1,5;\"a;b\"\r\nCaf\u00e9;2,0;\"zwei\r\nZeilen\"\r\n";
+        Path input = write("export.txt", content.getBytes(Charset.forName("windows-1252")));
+
+        CsvConversionResult result = CsvConverterFactory.forFileName("export.txt").convert(input);
+
+        assertThat(read(result)).isEqualTo("Marke,Ausgaben,Notiz" + NL
+                + "M\u00fcller,\"1,5\",a;b" + NL
+                + "Caf\u00e9,\"2,0\",\"zwei\r\nZeilen\"" + NL);
+    }
+
+    @Test
+    void normalizesTabSeparatedWithBom() throws IOException {
+        byte[] body = "week\tspend\n2024-01-01\t10\n".getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[body.length + 3];
+        content[0] = (byte) 0xEF;
+        content[1] = (byte) 0xBB;
+        content[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, content, 3, body.length);
+        Path input = write("weekly.tsv", content);
+
+        CsvConversionResult result = CsvConverterFactory.forFileName("weekly.tsv").convert(input);
+
+        assertThat(read(result)).isEqualTo("week,spend" + NL + "2024-01-01,10" + NL);
+    }
+
+    @Test
+    void handlesBackslashEscapedQuotes() throws IOException {
+        Path input = write("escaped.csv", "id|note\n1|\"he said \\\"no\\\"\"\n2|plain\n".getBytes(StandardCharsets.UTF_8));
+
+        CsvConversionResult result = CsvConverterFactory.forFileName("escaped.csv").convert(input);
+
+        assertThat(read(result)).isEqualTo("id,note" + NL + "1,\"he said \"\"no\"\"\"" + NL + "2,plain" + NL);
+    }
+
+    private Path write(String fileName, byte[] content) throws IOException {
+        return Files.write(tempDir.resolve(fileName), content);
+    }
+
+    private static String read(CsvConversionResult result) throws IOException {
+        return new String(Files.readAllBytes(result.getCsvPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(byte[] content) {
+        return Checksums.toHex(Checksums.newSha256().digest(content));
+    }
+}
@@ -0,0 +1,163 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MonetBinaryColumnWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesOneTypedFilePerColumnWithoutTheHeader() throws IOException {
+        Path directory = write(
+                new String[]{"week", "spend", "units", "brand"},
+                new String[]{"2024-02-29", "1.5", "-7", "Acme"},
+                new String[]{"", "", "", ""},
+                new String[]{"1999-12-31", "2E+3", "0", "M\u00fcller"});
+
+        List<MonetBinaryColumn> columns = MonetBinaryColumn.list(directory);
+
+        assertThat(columns).extracting(MonetBinaryColumn::getType).containsExactly(
+                MonetBinaryColumnType.DATE, MonetBinaryColumnType.DOUBLE,
+                MonetBinaryColumnType.BIGINT, MonetBinaryColumnType.TEXT);
+        assertThat(Files.readAllBytes(columns.get(0).getPath())).containsExactly(
+                29, 2, (byte) 0xE8, 0x07,
+                -1, -1, -1, -1,
+                31, 12, (byte) 0xCF, 0x07);
+        assertThat(doubles(columns.get(1))).containsExactly(1.5, Double.NaN, 2000.0);
+        assertThat(longs(columns.get(2))).containsExactly(-7L, Long.MIN_VALUE, 0L);
+        assertThat(Files.readAllBytes(columns.get(3).getPath())).containsExactly(
+                text("Acme", "\u0080", "M\u00fcller"));
+        assertThat(Files.list(directory)).hasSize(4);
+    }
+
+    @Test
+    void widensIntegersFollowedByDecimals() throws IOException {
+        Path directory = write(
+                new String[]{"spend"},
+                new String[]{""},
+                new String[]{"12"},
+                new String[]{"0.25"},
+                new String[]{"3"});
+
+        MonetBinaryColumn column = MonetBinaryColumn.list(directory).get(0);
+
+        assertThat(column.getType()).isEqualTo(MonetBinaryColumnType.DOUBLE);
+        assertThat(doubles(column)).containsExactly(Double.NaN, 12.0, 0.25, 3.0);
+    }
+
+    @Test
+    void fallsBackToTextForMixedAndInexactValues() throws IOException {
+        Path directory = write(
+                new String[]{"mixed", "large", "empty"},
+                new String[]{"1", "9007199254740993", ""},
+                new String[]{"n/a", "0.5", ""});
+
+        List<MonetBinaryColumn> columns = MonetBinaryColumn.list(directory);
+
+        assertThat(columns).extracting(MonetBinaryColumn::getType).containsOnly(MonetBinaryColumnType.TEXT);
+        assertThat(Files.readAllBytes(columns.get(0).getPath())).containsExactly(text("1", "n/a"));
+        assertThat(Files.readAllBytes(columns.get(1).getPath())).containsExactly(text("9007199254740993", "0.5"));
+        assertThat(Files.readAllBytes(columns.get(2).getPath())).containsExactly(text("\u0080", "\u0080"));
+    }
+
+    @Test
+    void padsShortRowsAndBackfillsLateColumns() throws IOException {
+        Path directory = write(
+                new String[]{"a"},
+                new String[]{"1", "x"},
+                new String[]{"2", "y", "2024-01-01"},
+                new String[]{});
+
+        List<MonetBinaryColumn> columns = MonetBinaryColumn.list(directory);
+
+        assertThat(longs(columns.get(0))).containsExactly(1L, 2L, Long.MIN_VALUE);
+        assertThat(Files.readAllBytes(columns.get(1).getPath())).containsExactly(text("x", "y", "\u0080"));
+        assertThat(Files.readAllBytes(columns.get(2).getPath())).containsExactly(
+                -1, -1, -1, -1,
+                1, 1, (byte) 0xE8, 0x07,
+                -1, -1, -1, -1);
+    }
+
+    @Test
+    void dropsTheFilesWhenAValueContainsNul() throws IOException {
+        Path input = tempDir.resolve("nul.xlsx");
+        try (MonetBinaryColumnWriter writer = MonetBinaryColumnWriter.forInput(input)) {
+            writer.writeField("a");
+            writer.endRow();
+            writer.writeField("x\0y");
+            writer.endRow();
+
+            assertThat(writer.finish()).isNull();
+        }
+        assertThat(Files.list(tempDir)).isEmpty();
+    }
+
+    @Test
+    void removesTheFilesWhenClosedUnfinished() throws IOException {
+        Path input = tempDir.resolve("failed.xlsx");
+        try (MonetBinaryColumnWriter writer = MonetBinaryColumnWriter.forInput(input)) {
+            writer.writeField("a");
+            writer.endRow();
+            writer.writeField("1");
+            writer.endRow();
+        }
+        assertThat(Files.list(tempDir)).isEmpty();
+    }
+
+    private Path write(String[]... rows) throws IOException {
+        try (MonetBinaryColumnWriter writer = MonetBinaryColumnWriter.forInput(tempDir.resolve("plan.xlsx"))) {
+            for (String[] row : rows) {
+                for (String value : row) {
+                    writer.writeField(value);
+                }
+                writer.endRow();
+            }
+            assertThat(writer.getRowCount()).isEqualTo(rows.length - 1);
+            return writer.finish();
+        }
+    }
+
+    private static long[] longs(MonetBinaryColumn column) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(column.getPath())).order(ByteOrder.LITTLE_ENDIAN);
+        long[] values = new long[buffer.remaining() / Long.BYTES];
+        buffer.asLongBuffer().get(values);
+        return values;
+    }
+
+    private static double[] doubles(MonetBinaryColumn column) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(column.getPath())).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values = new double[buffer.remaining() / Double.BYTES];
+        buffer.asDoubleBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Zero-terminated UTF-8 values; {@code "\u0080"} stands for the null marker byte.
+     */
+    private static byte[] text(String... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String value : values) {
+            if ("\u0080".equals(value)) {
+                bytes.write(0x80);
+            } else {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+            bytes.write(0);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,154 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class XlsStreamingFileToCsvConverterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void matchesUsermodelOutput() throws IOException {
+        Path workbookPath = tempDir.resolve("legacy.xls");
+        try (HSSFWorkbook workbook = new HSSFWorkbook()) {
+            CreationHelper helper = workbook.getCreationHelper();
+            Sheet sheet = workbook.createSheet("Data");
+            Sheet other = workbook.createSheet("Other");
+            other.createRow(0).createCell(0).setCellValue("ignored");
+            String[] formats = {"General", "0", "0.00", "#,##0.00", "0%", "0.00E+00", "$#,##0.00;[Red]($#,##0.00)",
+                    "yyyy-mm-dd", "m/d/yy h:mm", "[h]:mm:ss", "@", "# ?/?", "0.000;-0.000;\"zero\""};
+            double[] values = {0, 1, -1.5, 0.1 + 0.2, 1234567.891, 1e-7, 12345678901234.0, 43831.75, 2.675, 12};
+
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("value, \"quoted\"");
+            header.createCell(2).setCellValue("line\nbreak");
+            for (int i = 0; i < formats.length; i++) {
+                CellStyle style = workbook.createCellStyle();
+                style.setDataFormat(helper.createDataFormat().getFormat(formats[i]));
+                Row row = sheet.createRow(i + 1);
+                for (int j = 0; j < values.length; j++) {
+                    row.createCell(j).setCellValue(values[j]);
+                    row.getCell(j).setCellStyle(style);
+                }
+            }
+
+            Row mixed = sheet.createRow(20);
+            mixed.createCell(0).setCellValue(true);
+            mixed.createCell(1).setCellValue(false);
+            mixed.createCell(2).setCellErrorValue(FormulaError.NA.getCode());
+            mixed.createCell(3).setCellFormula("SUM(A2:C2)*2");
+            mixed.createCell(4).setCellFormula("Other!A1&\"x\"");
+            mixed.createCell(5).setCellValue(new HSSFRichTextString("rich text"));
+            Calendar calendar = Calendar.getInstance();
+            calendar.set(2021, Calendar.MARCH, 14, 9, 26, 53);
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(helper.createDataFormat().getFormat("dd/mm/yyyy hh:mm:ss"));
+            mixed.createCell(6).setCellValue(calendar.getTime());
+            mixed.getCell(6).setCellStyle(dateStyle);
+            // Consecutive styled blanks are written as one MULBLANK record.
+            mixed.createCell(8).setCellStyle(dateStyle);
+            mixed.createCell(9).setCellStyle(dateStyle);
+
+            sheet.createRow(22);
+            sheet.setArrayFormula("A2:B3*2", CellRangeAddress.valueOf("D24:E25"));
+            sheet.createRow(30).createCell(3).setCellValue("after gap");
+            sheet.createRow(31);
+
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        Path usermodelInput = Files.copy(workbookPath, tempDir.resolve("usermodel.xls"));
+        Path streamingInput = Files.copy(workbookPath, tempDir.resolve("streaming.xls"));
+        CsvConversionResult expected = new XlsFileToCsvConverter().convert(usermodelInput);
+        CsvConversionResult actual = new XlsStreamingFileToCsvConverter().convert(streamingInput);
+
+        assertThat(new String(Files.readAllBytes(actual.getCsvPath()), StandardCharsets.UTF_8))
+                .isEqualTo(new String(Files.readAllBytes(expected.getCsvPath()), StandardCharsets.UTF_8));
+        assertThat(actual.getChecksumSha256()).isEqualTo(expected.getChecksumSha256());
+    }
+
+    @Test
+    void convertsSelectedSheetsInRequestedOrder() throws IOException {
+        Path workbookPath = tempDir.resolve("channels.xls");
+        try (HSSFWorkbook workbook = new HSSFWorkbook()) {
+            String[] channels = {"TV", "Radio", "Print"};
+            for (int sheetIndex = 0; sheetIndex < channels.length; sheetIndex++) {
+                Sheet sheet = workbook.createSheet(channels[sheetIndex]);
+                sheet.createRow(0).createCell(0).setCellValue("week");
+                sheet.getRow(0).createCell(1).setCellValue(channels[sheetIndex] + " spend");
+                for (int rowIndex = 1; rowIndex <= 50 * (sheetIndex + 1); rowIndex++) {
+                    Row row = sheet.createRow(rowIndex);
+                    row.createCell(0).setCellValue(rowIndex);
+                    row.createCell(1).setCellValue(rowIndex * 1.5 + sheetIndex);
+                    row.createCell(2).setCellFormula("B" + (rowIndex + 1) + "*2");
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        Path usermodelInput = Files.copy(workbookPath, tempDir.resolve("usermodel.xls"));
+        Path streamingInput = Files.copy(workbookPath, tempDir.resolve("streaming.xls"));
+        List<String> selection = Arrays.asList("Print", "TV");
+        ExecutorService sheetExecutor = Executors.newFixedThreadPool(2);
+        try {
+            XlsStreamingFileToCsvConverter streaming = new XlsStreamingFileToCsvConverter();
+            assertThat(streaming.listSheetNames(streamingInput)).containsExactly("TV", "Radio", "Print");
+
+            List<CsvConversionResult> expected = new XlsFileToCsvConverter().convertSheets(usermodelInput, selection, sheetExecutor);
+            List<CsvConversionResult> actual = streaming.convertSheets(streamingInput, selection, sheetExecutor);
+
+            assertThat(actual).extracting(CsvConversionResult::getSheetName).containsExactly("Print", "TV");
+            for (int i = 0; i < selection.size(); i++) {
+                assertThat(new String(Files.readAllBytes(actual.get(i).getCsvPath()), StandardCharsets.UTF_8))
+                        .isEqualTo(new String(Files.readAllBytes(expected.get(i).getCsvPath()), StandardCharsets.UTF_8));
+                assertThat(actual.get(i).getChecksumSha256()).isEqualTo(expected.get(i).getChecksumSha256());
+            }
+            assertThat(actual.get(0).getChecksumSha256()).isNotEqualTo(actual.get(1).getChecksumSha256());
+        } finally {
+            sheetExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsUnknownSheet() throws IOException {
+        Path workbookPath = tempDir.resolve("single.xls");
+        try (HSSFWorkbook workbook = new HSSFWorkbook()) {
+            workbook.createSheet("Only").createRow(0).createCell(0).setCellValue("x");
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        assertThatThrownBy(() -> new XlsStreamingFileToCsvConverter()
+                .convertSheets(workbookPath, Collections.singletonList("Missing"), Runnable::run))
+                .isInstanceOf(SheetNotFoundException.class);
+    }
+}
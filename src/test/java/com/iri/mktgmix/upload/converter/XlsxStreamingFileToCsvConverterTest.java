@@ -0,0 +1,249 @@
+package com.iri.mktgmix.upload.converter;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class XlsxStreamingFileToCsvConverterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void matchesUsermodelOutputForFormattedCells() throws IOException {
+        Path workbookPath = tempDir.resolve("formats.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            CreationHelper helper = workbook.getCreationHelper();
+            Sheet sheet = workbook.createSheet("Data");
+            workbook.createSheet("Other");
+            String[] formats = {"General", "0", "0.00", "#,##0.00", "0%", "0.00E+00", "$#,##0.00;[Red]($#,##0.00)",
+                    "yyyy-mm-dd", "m/d/yy h:mm", "mmm-yy", "[h]:mm:ss", "@", "# ?/?", "0.000;-0.000;\"zero\""};
+            double[] values = {0, 1, -1.5, 0.1 + 0.2, 1234567.891, 1e-7, 12345678901234.0, 43831.75, 2.675, -0.0001};
+
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("value, \"quoted\"");
+            header.createCell(2).setCellValue("line\nbreak");
+            for (int i = 0; i < formats.length; i++) {
+                CellStyle style = workbook.createCellStyle();
+                style.setDataFormat(helper.createDataFormat().getFormat(formats[i]));
+                Row row = sheet.createRow(i + 1);
+                for (int j = 0; j < values.length; j++) {
+                    row.createCell(j).setCellValue(values[j]);
+                    row.getCell(j).setCellStyle(style);
+                }
+            }
+
+            Row mixed = sheet.createRow(20);
+            mixed.createCell(0).setCellValue(true);
+            mixed.createCell(1).setCellValue(false);
+            mixed.createCell(2).setCellErrorValue(FormulaError.DIV0.getCode());
+            mixed.createCell(3).setCellFormula("SUM(A2:C2)*2");
+            mixed.createCell(4).setCellFormula("Other!A1&\"x\"");
+            XSSFRichTextString rich = new XSSFRichTextString("rich text");
+            rich.applyFont(0, 4, workbook.createFont());
+            mixed.createCell(5).setCellValue(rich);
+            Calendar calendar = Calendar.getInstance();
+            calendar.set(2021, Calendar.MARCH, 14, 9, 26, 53);
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(helper.createDataFormat().getFormat("dd/mm/yyyy hh:mm:ss"));
+            mixed.createCell(6).setCellValue(calendar.getTime());
+            mixed.getCell(6).setCellStyle(dateStyle);
+            // A blank cell that only carries a style still widens the row.
+            mixed.createCell(9).setCellStyle(dateStyle);
+
+            sheet.createRow(22);
+            sheet.createRow(25).createCell(3).setCellValue("after gap");
+
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        assertSameCsv(workbookPath);
+    }
+
+    @Test
+    void matchesUsermodelOutputForSharedArrayAndInlineCells() throws IOException {
+        Path template = tempDir.resolve("template.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            workbook.createSheet("Data").createRow(0).createCell(0).setCellValue("shared");
+            workbook.createSheet("Other");
+            CellStyle style = workbook.createCellStyle();
+            style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("0.0"));
+            try (OutputStream out = Files.newOutputStream(template)) {
+                workbook.write(out);
+            }
+        }
+        String sheetXml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+                + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheetData>"
+                + "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" s=\"1\"><v>2</v></c>"
+                + "<c r=\"C1\"><f t=\"shared\" ref=\"C1:C3\" si=\"0\">A1+ B1 * Other!$A$1</f><v>0</v></c></row>"
+                + "<row r=\"2\"><c r=\"A2\"><v>3</v></c><c r=\"B2\" s=\"1\"><v>4.25</v></c>"
+                + "<c r=\"C2\"><f t=\"shared\" si=\"0\"/><v>0</v></c>"
+                + "<c r=\"D2\"><f t=\"array\" ref=\"D2:E3\">A2:B3*2</f><v>6</v></c><c r=\"E2\"><v>8</v></c></row>"
+                + "<row r=\"3\"><c t=\"inlineStr\"><is><t>inline,</t></is></c>"
+                + "<c t=\"inlineStr\"><is><r><t>ri</t></r><r><t>ch</t></r><rPh sb=\"0\" eb=\"1\"><t>skip</t></rPh></is></c>"
+                + "<c r=\"C3\"><f t=\"shared\" si=\"0\"/><v>0</v></c><c r=\"D3\"><v>1</v></c><c r=\"E3\"><v>1</v></c>"
+                + "<c r=\"G3\" s=\"1\"/></row>"
+                + "<row r=\"5\"><c r=\"B5\" t=\"str\"><v>plain_x0041_</v></c><c r=\"C5\" t=\"e\"><v>#N/A</v></c></row>"
+                + "</sheetData></worksheet>";
+        Path workbookPath = tempDir.resolve("crafted.xlsx");
+        replaceEntry(template, workbookPath, "xl/worksheets/sheet1.xml", sheetXml);
+
+        assertSameCsv(workbookPath);
+    }
+
+    @Test
+    void matchesUsermodelOutputForColumnsFormattedAfterTheirFirstValue() throws IOException {
+        Path workbookPath = tempDir.resolve("columns.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            workbook.getCTWorkbook().getWorkbookPr().setDate1904(true);
+            CreationHelper helper = workbook.getCreationHelper();
+            String[] formats = {"General", "0.00%", "yyyy-mm-dd", "[h]:mm:ss", "0.00E+00", "#,##0.00"};
+            CellStyle[] styles = new CellStyle[formats.length];
+            for (int i = 0; i < formats.length; i++) {
+                styles[i] = workbook.createCellStyle();
+                styles[i].setDataFormat(helper.createDataFormat().getFormat(formats[i]));
+            }
+            Sheet sheet = workbook.createSheet("Data");
+            double[] values = {42, -17, 43831.75, 0.125, -2.5, 1e15, 12345678901.0, 0, -0.0, 1e-12};
+            for (int rowIndex = 0; rowIndex < 40; rowIndex++) {
+                Row row = sheet.createRow(rowIndex);
+                for (int column = 0; column < formats.length; column++) {
+                    row.createCell(column).setCellValue(values[(rowIndex + column) % values.length] * (rowIndex + 1));
+                    row.getCell(column).setCellStyle(styles[column]);
+                }
+                // A column whose style changes from row to row.
+                row.createCell(formats.length).setCellValue(rowIndex * 1.5);
+                row.getCell(formats.length).setCellStyle(styles[rowIndex % formats.length]);
+            }
+
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        assertSameCsv(workbookPath);
+    }
+
+
+    @Test
+    void convertsSelectedSheetsInRequestedOrder() throws IOException {
+        Path workbookPath = tempDir.resolve("channels.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            String[] channels = {"TV", "Radio", "Print"};
+            for (int sheetIndex = 0; sheetIndex < channels.length; sheetIndex++) {
+                Sheet sheet = workbook.createSheet(channels[sheetIndex]);
+                sheet.createRow(0).createCell(0).setCellValue("week");
+                sheet.getRow(0).createCell(1).setCellValue(channels[sheetIndex] + " spend");
+                for (int rowIndex = 1; rowIndex <= 50 * (sheetIndex + 1); rowIndex++) {
+                    Row row = sheet.createRow(rowIndex);
+                    row.createCell(0).setCellValue(rowIndex);
+                    row.createCell(1).setCellValue(rowIndex * 1.5 + sheetIndex);
+                    row.createCell(2).setCellFormula("B" + (rowIndex + 1) + "*2");
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        Path usermodelInput = Files.copy(workbookPath, tempDir.resolve("usermodel.xlsx"));
+        Path streamingInput = Files.copy(workbookPath, tempDir.resolve("streaming.xlsx"));
+        List<String> selection = Arrays.asList("Print", "TV");
+        ExecutorService sheetExecutor = Executors.newFixedThreadPool(2);
+        try {
+            XlsxStreamingFileToCsvConverter streaming = new XlsxStreamingFileToCsvConverter();
+            assertThat(streaming.listSheetNames(streamingInput)).containsExactly("TV", "Radio", "Print");
+
+            List<CsvConversionResult> expected = new XlsxFileToCsvConverter().convertSheets(usermodelInput, selection, sheetExecutor);
+            List<CsvConversionResult> actual = streaming.convertSheets(streamingInput, selection, sheetExecutor);
+
+            assertThat(actual).extracting(CsvConversionResult::getSheetName).containsExactly("Print", "TV");
+            for (int i = 0; i < selection.size(); i++) {
+                assertThat(new String(Files.readAllBytes(actual.get(i).getCsvPath()), StandardCharsets.UTF_8))
+                        .isEqualTo(new String(Files.readAllBytes(expected.get(i).getCsvPath()), StandardCharsets.UTF_8));
+                assertThat(actual.get(i).getChecksumSha256()).isEqualTo(expected.get(i).getChecksumSha256());
+            }
+            assertThat(actual.get(0).getChecksumSha256()).isNotEqualTo(actual.get(1).getChecksumSha256());
+        } finally {
+            sheetExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsUnknownSheet() throws IOException {
+        Path workbookPath = tempDir.resolve("single.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            workbook.createSheet("Only").createRow(0).createCell(0).setCellValue("x");
+            try (OutputStream out = Files.newOutputStream(workbookPath)) {
+                workbook.write(out);
+            }
+        }
+
+        assertThatThrownBy(() -> new XlsxStreamingFileToCsvConverter()
+                .convertSheets(workbookPath, Collections.singletonList("Missing"), Runnable::run))
+                .isInstanceOf(SheetNotFoundException.class);
+    }
+    private void assertSameCsv(Path workbookPath) throws IOException {
+        Path usermodelInput = Files.copy(workbookPath, tempDir.resolve("usermodel-" + workbookPath.getFileName()));
+        Path streamingInput = Files.copy(workbookPath, tempDir.resolve("streaming-" + workbookPath.getFileName()));
+
+        CsvConversionResult expected = new XlsxFileToCsvConverter().convert(usermodelInput);
+        CsvConversionResult actual = new XlsxStreamingFileToCsvConverter().convert(streamingInput);
+
+        assertThat(new String(Files.readAllBytes(actual.getCsvPath()), StandardCharsets.UTF_8))
+                .isEqualTo(new String(Files.readAllBytes(expected.getCsvPath()), StandardCharsets.UTF_8));
+        assertThat(actual.getChecksumSha256()).isEqualTo(expected.getChecksumSha256());
+    }
+
+    private static void replaceEntry(Path source, Path target, String entryName, String content) throws IOException {
+        try (ZipFile zip = new ZipFile(source.toFile());
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(target))) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().equals(entryName)) {
+                    out.write(content.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.iri.mktgmix.upload.service;
+
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.FileUploadStatus;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.service.admission.AdmissionControl;
+import com.iri.mktgmix.upload.service.exception.ErrorType;
+import com.iri.mktgmix.upload.service.exception.FileUploadException;
+import com.iri.mktgmix.upload.service.ingest.StagingIngestService;
+import com.iri.mktgmix.upload.service.ingest.StagingLoadPipeline;
+import com.iri.mktgmix.upload.service.job.UploadJobQueue;
+import com.iri.mktgmix.upload.service.storage.ContentAddressedCsvStore;
+import com.iri.mktgmix.upload.service.storage.StagingStorageManager;
+import com.iri.mktgmix.upload.service.storage.UploadStoragePaths;
+import com.iri.mktgmix.upload.service.upload.ChunkBitmap;
+import com.iri.mktgmix.upload.service.upload.ChunkPayload;
+import com.iri.mktgmix.upload.service.upload.ConversionProgressRegistry;
+import com.iri.mktgmix.upload.service.upload.UploadDigestRegistry;
+import com.iri.mktgmix.upload.service.upload.UploadSessionLocks;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class FileUploadServiceTest {
+
+    private static final Long FILE_UPLOAD_ID = 42L;
+
+    private final FileUploadRepository fileUploadRepository = mock(FileUploadRepository.class);
+    private final UploadSessionLocks uploadSessionLocks = mock(UploadSessionLocks.class);
+    private final UploadJobQueue uploadJobQueue = mock(UploadJobQueue.class);
+    private final UploadStoragePaths uploadStoragePaths = mock(UploadStoragePaths.class);
+    private final UploadDigestRegistry uploadDigestRegistry = mock(UploadDigestRegistry.class);
+    private final ConversionProgressRegistry conversionProgressRegistry = mock(ConversionProgressRegistry.class);
+    private FileUploadService fileUploadService;
+    private FileUpload fileUpload;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        when(uploadSessionLocks.withSessionLock(anyLong(), any()))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(1)).get());
+        when(fileUploadRepository.findById(FILE_UPLOAD_ID)).thenReturn(Optional.of(FileUpload.builder()
+                .id(FILE_UPLOAD_ID)
+                .uploadStatus(FileUploadStatus.COMPLETED)
+                .ingestStatus(FileIngestStatus.INGESTED)
+                .build()));
+        fileUploadService = new FileUploadService(fileUploadRepository, uploadDigestRegistry,
+                uploadSessionLocks, uploadStoragePaths, mock(ContentAddressedCsvStore.class),
+                mock(UploadDeduplicationService.class), mock(ColumnProfileService.class),
+                new AdmissionControl(16, 32, 4, 8, 2000, 5),
+                mock(StagingStorageManager.class), mock(ThreadPoolTaskExecutor.class),
+                conversionProgressRegistry, uploadJobQueue, mock(StagingLoadPipeline.class),
+                mock(StagingIngestService.class));
+    }
+
+    @Test
+    void requestIngestQueuesAnIngestJob() {
+        when(fileUploadRepository.requestIngest(FILE_UPLOAD_ID)).thenReturn(1);
+        when(uploadJobQueue.enqueueOrRestart(FILE_UPLOAD_ID, UploadJobType.INGEST, null)).thenReturn(true);
+
+        assertThatCode(() -> fileUploadService.requestIngest(FILE_UPLOAD_ID)).doesNotThrowAnyException();
+
+        verify(uploadJobQueue).enqueueOrRestart(FILE_UPLOAD_ID, UploadJobType.INGEST, null);
+    }
+
+    @Test
+    void requestIngestRejectsAnUploadThatIsBeingIngested() {
+        when(fileUploadRepository.requestIngest(FILE_UPLOAD_ID)).thenReturn(0);
+
+        assertThatThrownBy(() -> fileUploadService.requestIngest(FILE_UPLOAD_ID))
+                .isInstanceOfSatisfying(FileUploadException.class,
+                        exception -> assertThat(exception.getErrorType())
+                                .isEqualTo(ErrorType.UPLOAD_SESSION_ERROR));
+        verify(uploadJobQueue, never()).enqueueOrRestart(any(), any(), any());
+    }
+
+    @Test
+    void requestIngestFailsWhenNoJobCouldBeQueued() {
+        when(fileUploadRepository.requestIngest(FILE_UPLOAD_ID)).thenReturn(1);
+        when(uploadJobQueue.enqueueOrRestart(FILE_UPLOAD_ID, UploadJobType.INGEST, null)).thenReturn(false);
+
+        assertThatThrownBy(() -> fileUploadService.requestIngest(FILE_UPLOAD_ID))
+                .isInstanceOfSatisfying(FileUploadException.class,
+                        exception -> assertThat(exception.getErrorType())
+                                .isEqualTo(ErrorType.UPLOAD_SESSION_ERROR));
+    }
+
+    @Test
+    void receivesARawChunkBeforeTakingTheSessionLock() throws IOException {
+        Path sessionFile = uploadingSession(ChunkBitmap.empty(3));
+        ByteArrayInputStream body = new ByteArrayInputStream(bytes("efgh"));
+        doAnswer(invocation -> {
+            assertThat(body.available()).isZero();
+            return ((Supplier<?>) invocation.getArgument(1)).get();
+        }).when(uploadSessionLocks).withSessionLock(anyLong(), any());
+        when(fileUploadRepository.markChunkReceived(FILE_UPLOAD_ID, 1, 4L)).thenReturn(1);
+
+        fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 2, 4L, body, ChunkPayload.UNKNOWN_SIZE, null);
+
+        assertThat(new String(Files.readAllBytes(sessionFile), StandardCharsets.US_ASCII).substring(4, 8))
+                .isEqualTo("efgh");
+        verify(fileUploadRepository).markChunkReceived(FILE_UPLOAD_ID, 1, 4L);
+        assertThat(spoolFiles(sessionFile)).isEmpty();
+    }
+
+    @Test
+    void rejectsAShortRawChunkWithoutTakingTheSessionLock() throws IOException {
+        Path sessionFile = uploadingSession(ChunkBitmap.empty(3));
+
+        assertThatThrownBy(() -> fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 2, 4L,
+                new ByteArrayInputStream(bytes("efg")), ChunkPayload.UNKNOWN_SIZE, null))
+                .isInstanceOfSatisfying(FileUploadException.class,
+                        exception -> assertThat(exception.getErrorType()).isEqualTo(ErrorType.UPLOAD_SESSION_ERROR));
+
+        verify(uploadSessionLocks, never()).withSessionLock(anyLong(), any());
+        assertThat(spoolFiles(sessionFile)).isEmpty();
+    }
+
+    @Test
+    void doesNotReceiveAChunkThatIsAlreadyRecorded() throws IOException {
+        byte[] bitmap = ChunkBitmap.empty(3);
+        bitmap[0] = 0b010;
+        uploadingSession(bitmap);
+        ByteArrayInputStream body = new ByteArrayInputStream(bytes("efgh"));
+
+        fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 2, 4L, body, 4L, null);
+
+        assertThat(body.available()).isEqualTo(4);
+        verify(fileUploadRepository, never()).markChunkReceived(anyLong(), anyInt(), anyLong());
+    }
+
+    @Test
+    void queuesOneConversionWhenTheLastChunkArrives() throws IOException {
+        byte[] bitmap = ChunkBitmap.empty(3);
+        bitmap[0] = 0b011;
+        uploadingSession(bitmap);
+        when(fileUploadRepository.markChunkReceived(FILE_UPLOAD_ID, 2, 2L)).thenReturn(1);
+        when(fileUploadRepository.claimCompletion(FILE_UPLOAD_ID)).thenReturn(1);
+
+        fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 3, 4L, new ByteArrayInputStream(bytes("ij")), 2L, null);
+
+        verify(uploadJobQueue).enqueue(FILE_UPLOAD_ID, UploadJobType.CONVERT, "data.csv");
+    }
+
+    @Test
+    void doesNotQueueASecondConversionForARetriedLastChunk() throws IOException {
+        byte[] bitmap = ChunkBitmap.empty(3);
+        bitmap[0] = 0b011;
+        uploadingSession(bitmap);
+        when(fileUploadRepository.markChunkReceived(FILE_UPLOAD_ID, 2, 2L)).thenReturn(1);
+        when(fileUploadRepository.claimCompletion(FILE_UPLOAD_ID)).thenReturn(1);
+        fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 3, 4L, new ByteArrayInputStream(bytes("ij")), 2L, null);
+
+        // The client did not see the response and sends the last chunk again.
+        fileUpload.setChunkBitmap(new byte[]{0b111});
+        fileUpload.setUploadStatus(FileUploadStatus.COMPLETED);
+        fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 3, 4L, new ByteArrayInputStream(bytes("ij")), 2L, null);
+
+        verify(fileUploadRepository).markChunkReceived(FILE_UPLOAD_ID, 2, 2L);
+        verify(uploadJobQueue).enqueue(FILE_UPLOAD_ID, UploadJobType.CONVERT, "data.csv");
+    }
+
+    @Test
+    void doesNotQueueAConversionWhenAnotherRequestClaimedTheCompletion() throws IOException {
+        byte[] bitmap = ChunkBitmap.empty(3);
+        bitmap[0] = 0b111;
+        uploadingSession(bitmap);
+        when(fileUploadRepository.claimCompletion(FILE_UPLOAD_ID)).thenReturn(0);
+
+        fileUploadService.mergeChunk(FILE_UPLOAD_ID, "data.csv", 3, 4L, new ByteArrayInputStream(bytes("ij")), 2L, null);
+
+        verify(uploadJobQueue, never()).enqueue(any(), any(), any());
+    }
+
+    @Test
+    void finalizeUploadRejectsAnIncompleteUpload() throws IOException {
+        byte[] bitmap = ChunkBitmap.empty(3);
+        bitmap[0] = 0b101;
+        uploadingSession(bitmap);
+
+        assertThatThrownBy(() -> fileUploadService.finalizeUpload(FILE_UPLOAD_ID, "data.csv"))
+                .isInstanceOfSatisfying(FileUploadException.class,
+                        exception -> assertThat(exception.getErrorType()).isEqualTo(ErrorType.UPLOAD_SESSION_ERROR));
+
+        verify(fileUploadRepository, never()).claimCompletion(anyLong());
+        verify(uploadJobQueue, never()).enqueue(any(), any(), any());
+    }
+
+    @Test
+    void convertUploadDoesNothingForAConvertedUpload() {
+        when(fileUploadRepository.findById(FILE_UPLOAD_ID)).thenReturn(Optional.of(FileUpload.builder()
+                .id(FILE_UPLOAD_ID)
+                .uploadStatus(FileUploadStatus.COMPLETED)
+                .csvPath(tempDir.resolve("data.csv").toString())
+                .build()));
+
+        fileUploadService.convertUpload(FILE_UPLOAD_ID, "data.csv");
+
+        verify(conversionProgressRegistry, never()).start(anyLong());
+        verifyNoInteractions(uploadDigestRegistry);
+        verify(fileUploadRepository, never()).save(any());
+    }
+
+    /**
+     * A 10 byte upload in three 4 byte chunks, preallocated on disk.
+     */
+    private Path uploadingSession(byte[] chunkBitmap) throws IOException {
+        Path sessionFile = tempDir.resolve(String.valueOf(FILE_UPLOAD_ID)).resolve("data.csv");
+        Files.createDirectories(sessionFile.getParent());
+        Files.write(sessionFile, new byte[10]);
+        when(uploadStoragePaths.sessionFile(FILE_UPLOAD_ID, "data.csv")).thenReturn(sessionFile);
+        fileUpload = FileUpload.builder()
+                .id(FILE_UPLOAD_ID)
+                .uploadStatus(FileUploadStatus.UPLOADING)
+                .fileSizeBytes(10L)
+                .bytesReceived(0L)
+                .chunkSizeBytes(4L)
+                .totalChunks(3)
+                .chunkBitmap(chunkBitmap)
+                .build();
+        when(fileUploadRepository.findById(FILE_UPLOAD_ID)).thenReturn(Optional.of(fileUpload));
+        return sessionFile;
+    }
+
+    private static List<Path> spoolFiles(Path sessionFile) throws IOException {
+        try (Stream<Path> files = Files.list(sessionFile.getParent())) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".part")).collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
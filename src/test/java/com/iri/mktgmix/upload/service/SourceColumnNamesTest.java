@@ -0,0 +1,43 @@
+package com.iri.mktgmix.upload.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SourceColumnNamesTest {
+
+    @Test
+    void sanitizesLikeTheSeedData() {
+        assertThat(SourceColumnNames.sanitize(Arrays.asList(
+                "Project (Output) Geography", "Week ending Sunday", " Spend ($) ", "Search Branded / NonBranded")))
+                .containsExactly("project_output_geography", "week_ending_sunday", "spend", "search_branded_nonbranded");
+    }
+
+    @Test
+    void makesCollidingAndEmptyNamesUnique() {
+        assertThat(SourceColumnNames.sanitize(Arrays.asList(
+                "Spend", "spend", "SPEND!", "spend_2", "", "***", "Spend")))
+                .containsExactly("spend", "spend_2", "spend_3", "spend_2_2", "column_5", "column_6", "spend_4");
+    }
+
+    @Test
+    void keepsManyRepeatedNamesUniqueAndShort() {
+        List<String> headerNames = new ArrayList<>(Collections.nCopies(20_000, "Impressions"));
+        char[] longName = new char[400];
+        Arrays.fill(longName, 'x');
+        headerNames.add(new String(longName));
+        headerNames.add(new String(longName));
+
+        List<String> sanitizedNames = SourceColumnNames.sanitize(headerNames);
+
+        assertThat(new HashSet<>(sanitizedNames)).hasSize(headerNames.size());
+        assertThat(sanitizedNames.get(19_999)).isEqualTo("impressions_20000");
+        assertThat(sanitizedNames).allMatch(name -> name.length() <= SourceColumnNames.MAX_LENGTH);
+    }
+}
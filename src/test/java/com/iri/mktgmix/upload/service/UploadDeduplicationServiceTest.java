@@ -0,0 +1,142 @@
+package com.iri.mktgmix.upload.service;
+
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.SourceColumn;
+import com.iri.mktgmix.upload.domain.SourceColumnMappingStatus;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.repository.SourceColumnRepository;
+import com.iri.mktgmix.upload.service.ingest.StagingTables;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadDeduplicationServiceTest {
+
+    private static final String SOURCE_CHECKSUM = "source";
+
+    private final FileUploadRepository fileUploadRepository = mock(FileUploadRepository.class);
+    private final SourceColumnRepository sourceColumnRepository = mock(SourceColumnRepository.class);
+    private final StagingTables stagingTables = mock(StagingTables.class);
+    private final UploadDeduplicationService uploadDeduplicationService =
+            new UploadDeduplicationService(fileUploadRepository, sourceColumnRepository, stagingTables);
+
+    @Test
+    void clonesTheStagingTableAndSourceColumnsOfAnIngestedUpload() throws SQLException {
+        FileUpload fileUpload = upload(9L, 2L, "Radio");
+        givenDonor(fileUpload, upload(4L, 1L, "Radio"));
+        when(sourceColumnRepository.findByFileUploadId(4L)).thenReturn(Arrays.asList(
+                SourceColumn.builder().fileUploadId(4L).ordinal(0).originalName("Week").sanitizedName("week")
+                        .dataType("DATE").nullCount(0L).mappingStatus(SourceColumnMappingStatus.MAPPED).build(),
+                SourceColumn.builder().fileUploadId(4L).ordinal(1).originalName("Spend").sanitizedName("spend")
+                        .dataType("DECIMAL").distinctEstimate(17L).build()));
+
+        assertThat(uploadDeduplicationService.reuseStagingData(fileUpload)).isTrue();
+
+        verify(stagingTables).replaceWithCopy("stg_p1_f4", "stg_p2_f9");
+        assertThat(fileUpload.getMonetTableName()).isEqualTo("stg_p2_f9");
+        assertThat(fileUpload.getRowCount()).isEqualTo(120L);
+        assertThat(fileUpload.getIngestStatus()).isEqualTo(FileIngestStatus.INGESTED);
+        assertThat(fileUpload.getIngestedChecksumSha256()).isEqualTo(fileUpload.getChecksumSha256());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<SourceColumn>> copies = ArgumentCaptor.forClass(List.class);
+        verify(sourceColumnRepository).insertAll(copies.capture());
+        assertThat(copies.getValue()).extracting(SourceColumn::getFileUploadId).containsOnly(9L);
+        assertThat(copies.getValue()).extracting(SourceColumn::getSanitizedName).containsExactly("week", "spend");
+        assertThat(copies.getValue()).extracting(SourceColumn::getDataType).containsExactly("DATE", "DECIMAL");
+        assertThat(copies.getValue()).extracting(SourceColumn::getDistinctEstimate).containsExactly(null, 17L);
+        assertThat(copies.getValue()).extracting(SourceColumn::getMappingStatus)
+                .containsOnly(SourceColumnMappingStatus.UNMAPPED);
+    }
+
+    @Test
+    void looksUpDonorsBySourceAndSheet() {
+        FileUpload fileUpload = upload(9L, 2L, null);
+
+        assertThat(uploadDeduplicationService.reuseStagingData(fileUpload)).isFalse();
+
+        verify(fileUploadRepository).findFirstByChecksumSourceSha256AndSheetNameAndIngestStatusAndIdNotOrderByIngestedAtDesc(
+                SOURCE_CHECKSUM, null, FileIngestStatus.INGESTED, 9L);
+        verify(sourceColumnRepository, never()).insertAll(anyList());
+    }
+
+    @Test
+    void ingestsNormallyWhenTheCloneFails() throws SQLException {
+        FileUpload fileUpload = upload(9L, 2L, "Radio");
+        givenDonor(fileUpload, upload(4L, 1L, "Radio"));
+        doThrow(new SQLException("no such table")).when(stagingTables).replaceWithCopy(anyString(), anyString());
+
+        assertThat(uploadDeduplicationService.reuseStagingData(fileUpload)).isFalse();
+
+        verify(sourceColumnRepository, never()).insertAll(anyList());
+        assertThat(fileUpload.getMonetTableName()).isNull();
+        assertThat(fileUpload.getIngestStatus()).isEqualTo(FileIngestStatus.PENDING);
+    }
+
+    @Test
+    void ignoresADonorWithoutStagingTable() throws SQLException {
+        FileUpload fileUpload = upload(9L, 2L, "Radio");
+        FileUpload donor = upload(4L, 1L, "Radio");
+        donor.setMonetTableName(null);
+        givenDonor(fileUpload, donor);
+
+        assertThat(uploadDeduplicationService.reuseStagingData(fileUpload)).isFalse();
+
+        verify(stagingTables, never()).replaceWithCopy(anyString(), anyString());
+    }
+
+    @Test
+    void discardsTheClonedStagingDataOfACancelledUpload() throws SQLException {
+        FileUpload fileUpload = upload(9L, 2L, "Radio");
+        givenDonor(fileUpload, upload(4L, 1L, "Radio"));
+        uploadDeduplicationService.reuseStagingData(fileUpload);
+
+        uploadDeduplicationService.discardStagingData(fileUpload);
+
+        verify(stagingTables).drop("stg_p2_f9");
+        verify(sourceColumnRepository).deleteByFileUploadId(9L);
+    }
+
+    @Test
+    void discardsOnlySourceColumnsWhenNoTableWasCloned() {
+        FileUpload fileUpload = upload(9L, 2L, "Radio");
+
+        uploadDeduplicationService.discardStagingData(fileUpload);
+
+        verify(stagingTables, never()).drop(any());
+        verify(sourceColumnRepository).deleteByFileUploadId(9L);
+    }
+
+    private void givenDonor(FileUpload fileUpload, FileUpload donor) {
+        when(fileUploadRepository.findFirstByChecksumSourceSha256AndSheetNameAndIngestStatusAndIdNotOrderByIngestedAtDesc(
+                SOURCE_CHECKSUM, fileUpload.getSheetName(), FileIngestStatus.INGESTED, fileUpload.getId()))
+                .thenReturn(Optional.of(donor));
+    }
+
+    private static FileUpload upload(Long id, Long projectId, String sheetName) {
+        return FileUpload.builder()
+                .id(id)
+                .projectId(projectId)
+                .sheetName(sheetName)
+                .checksumSourceSha256(SOURCE_CHECKSUM)
+                .checksumSha256("csv-" + id)
+                .monetTableName(id == 4L ? "stg_p" + projectId + "_f" + id : null)
+                .rowCount(120L)
+                .ingestStatus(id == 4L ? FileIngestStatus.INGESTED : FileIngestStatus.PENDING)
+                .build();
+    }
+}
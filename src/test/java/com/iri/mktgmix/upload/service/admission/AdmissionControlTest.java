@@ -0,0 +1,142 @@
+package com.iri.mktgmix.upload.service.admission;
+
+import com.iri.mktgmix.upload.service.dto.AdmissionStats;
+import com.iri.mktgmix.upload.service.exception.AdmissionRejectedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdmissionControlTest {
+
+    @Test
+    void admitsWorkWithinTheLimit() {
+        AdmissionControl admissionControl = admissionControl(2, 0, 0);
+
+        String result = admissionControl.admit(WorkType.CHUNK_WRITE, () -> "written");
+
+        assertThat(result).isEqualTo("written");
+        AdmissionStats stats = stats(admissionControl, WorkType.CHUNK_WRITE);
+        assertThat(stats.getAdmitted()).isEqualTo(1L);
+        assertThat(stats.getActive()).isZero();
+        assertThat(stats.getRejected()).isZero();
+    }
+
+    @Test
+    void queuesWorkUntilASlotFrees() throws Exception {
+        AdmissionControl admissionControl = admissionControl(1, 1, 5000);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = hold(admissionControl, release);
+
+        CompletableFuture<String> waiting = CompletableFuture.supplyAsync(
+                () -> admissionControl.admit(WorkType.CHUNK_WRITE, () -> "written"));
+        awaitQueued(admissionControl, 1);
+        assertThat(waiting).isNotDone();
+        assertThat(stats(admissionControl, WorkType.CHUNK_WRITE).getActive()).isEqualTo(1);
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("written");
+        AdmissionStats stats = stats(admissionControl, WorkType.CHUNK_WRITE);
+        assertThat(stats.getAdmitted()).isEqualTo(2L);
+        assertThat(stats.getQueued()).isZero();
+        assertThat(stats.getRejected()).isZero();
+    }
+
+    @Test
+    void rejectsWorkBeyondTheQueue() throws Exception {
+        AdmissionControl admissionControl = admissionControl(1, 0, 5000);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = hold(admissionControl, release);
+
+        try {
+            assertThatThrownBy(() -> admissionControl.admit(WorkType.CHUNK_WRITE, () -> "written"))
+                    .isInstanceOfSatisfying(AdmissionRejectedException.class,
+                            rejected -> assertThat(rejected.getRetryAfterSeconds()).isEqualTo(5));
+        } finally {
+            release.countDown();
+        }
+        holder.get(5, TimeUnit.SECONDS);
+        AdmissionStats stats = stats(admissionControl, WorkType.CHUNK_WRITE);
+        assertThat(stats.getAdmitted()).isEqualTo(1L);
+        assertThat(stats.getRejected()).isEqualTo(1L);
+    }
+
+    @Test
+    void rejectsQueuedWorkAfterMaxWait() throws Exception {
+        AdmissionControl admissionControl = admissionControl(1, 1, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = hold(admissionControl, release);
+
+        try {
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> admissionControl.admit(WorkType.CHUNK_WRITE, () -> "written"))
+                    .isInstanceOf(AdmissionRejectedException.class);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(100L);
+        } finally {
+            release.countDown();
+        }
+        holder.get(5, TimeUnit.SECONDS);
+        AdmissionStats stats = stats(admissionControl, WorkType.CHUNK_WRITE);
+        assertThat(stats.getRejected()).isEqualTo(1L);
+        assertThat(stats.getQueued()).isZero();
+    }
+
+    @Test
+    void reportsEveryWorkTypeSeparately() {
+        AdmissionControl admissionControl = admissionControl(1, 0, 0);
+
+        admissionControl.admit(WorkType.CONVERSION, () -> null);
+
+        assertThat(admissionControl.getStats()).extracting(AdmissionStats::getWorkType)
+                .containsExactly(WorkType.CHUNK_WRITE.name(), WorkType.CONVERSION.name());
+        assertThat(stats(admissionControl, WorkType.CHUNK_WRITE).getAdmitted()).isZero();
+        AdmissionStats conversions = stats(admissionControl, WorkType.CONVERSION);
+        assertThat(conversions.getAdmitted()).isEqualTo(1L);
+        assertThat(conversions.getMaxConcurrent()).isEqualTo(3);
+        assertThat(conversions.getMaxQueued()).isEqualTo(6);
+    }
+
+    private static AdmissionControl admissionControl(int chunkWritesMaxConcurrent, int chunkWritesMaxQueued,
+                                                     long maxWaitMillis) {
+        return new AdmissionControl(chunkWritesMaxConcurrent, chunkWritesMaxQueued, 3, 6, maxWaitMillis, 5);
+    }
+
+    /**
+     * Occupies one chunk-write slot until {@code release} is counted down.
+     */
+    private static CompletableFuture<Void> hold(AdmissionControl admissionControl, CountDownLatch release)
+            throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> admissionControl.admit(WorkType.CHUNK_WRITE, () -> {
+            entered.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        return holder;
+    }
+
+    private static void awaitQueued(AdmissionControl admissionControl, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stats(admissionControl, WorkType.CHUNK_WRITE).getQueued() < queued && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(stats(admissionControl, WorkType.CHUNK_WRITE).getQueued()).isEqualTo(queued);
+    }
+
+    private static AdmissionStats stats(AdmissionControl admissionControl, WorkType workType) {
+        return admissionControl.getStats().stream()
+                .filter(stats -> stats.getWorkType().equals(workType.name()))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+    }
+}
@@ -0,0 +1,76 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvRangesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void splitsAfterTheHeaderAtRecordBoundariesOutsideQuotes() throws IOException {
+        StringBuilder csv = new StringBuilder("id,note\n");
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            records.append(i).append(",\"line one\nline \"\"two\"\"\n,three\"\n");
+        }
+        csv.append(records);
+        Path csvPath = write(csv.toString());
+
+        List<CsvRanges.CsvRange> ranges = CsvRanges.split(csvPath, 4);
+
+        assertThat(ranges).hasSize(4);
+        StringBuilder joined = new StringBuilder();
+        for (CsvRanges.CsvRange range : ranges) {
+            String text = read(csvPath, range);
+            assertThat(text).matches("(?s)(\\d+,\"line one\nline \"\"two\"\"\n,three\"\n)+");
+            joined.append(text);
+        }
+        assertThat(joined.toString()).isEqualTo(records.toString());
+    }
+
+    @Test
+    void keepsRecordsWithoutATrailingLineBreak() throws IOException {
+        Path csvPath = write("a,b\n1,2\n3,4");
+
+        List<CsvRanges.CsvRange> ranges = CsvRanges.split(csvPath, 8);
+
+        StringBuilder joined = new StringBuilder();
+        for (CsvRanges.CsvRange range : ranges) {
+            joined.append(read(csvPath, range));
+        }
+        assertThat(joined.toString()).isEqualTo("1,2\n3,4");
+    }
+
+    @Test
+    void returnsNoRangesForAHeaderOnly() throws IOException {
+        assertThat(CsvRanges.split(write("a,b\n"), 4)).isEmpty();
+    }
+
+    private Path write(String csv) throws IOException {
+        return Files.write(tempDir.resolve("rows.csv"), csv.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path csvPath, CsvRanges.CsvRange range) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = CsvRanges.open(csvPath, range)) {
+            byte[] buffer = new byte[7];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
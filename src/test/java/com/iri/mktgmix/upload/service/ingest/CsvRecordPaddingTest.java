@@ -0,0 +1,41 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvRecordPaddingTest {
+
+    @Test
+    void padsShortRecordsAndSkipsTheHeader() throws IOException {
+        StringWriter out = new StringWriter();
+
+        long records = CsvRecordPadding.copy(new StringReader("a,b,c\n1\n1,2,3\n\n1,2\n"), out, 3, 1);
+
+        assertThat(records).isEqualTo(4);
+        assertThat(out.toString()).isEqualTo("1,,\n1,2,3\n,,\n1,2,\n");
+    }
+
+    @Test
+    void keepsSeparatorsAndLineBreaksInsideQuotes() throws IOException {
+        StringWriter out = new StringWriter();
+
+        long records = CsvRecordPadding.copy(
+                new StringReader("h1,h2\r\n\"a,\"\"b\"\"\r\nc\"\r\n\"x\"\r\nlast"), out, 2, 1);
+
+        assertThat(records).isEqualTo(3);
+        assertThat(out.toString()).isEqualTo("\"a,\"\"b\"\"\r\nc\",\n\"x\",\nlast,\n");
+    }
+
+    @Test
+    void rejectsRecordsWithMoreFieldsThanColumns() {
+        assertThatThrownBy(() -> CsvRecordPadding.copy(new StringReader("a,b\n1,2,3\n"), new StringWriter(), 2, 1))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Record 2");
+    }
+}
@@ -0,0 +1,206 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.monetdb.jdbc.MonetConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PipelinedLoadTest {
+
+    private static final String TABLE = "stg_p1_f2";
+    private static final long STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final DataSource monetDataSource = mock(DataSource.class);
+    private final JdbcTemplate monetJdbcTemplate = mock(JdbcTemplate.class);
+    private final Connection connection = mock(Connection.class);
+    private final Statement statement = mock(Statement.class);
+    private final MonetConnection monetConnection = mock(MonetConnection.class);
+    private final AtomicReference<MonetConnection.UploadHandler> uploadHandler = new AtomicReference<>();
+    private final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+    private ThreadPoolTaskExecutor loadExecutor;
+
+    /**
+     * Rows the COPY reports as loaded; by default the rows it was sent.
+     */
+    private volatile long loadedRows = -1;
+    /**
+     * Holds the COPY back before it asks for rows.
+     */
+    private volatile CountDownLatch copyReleased = new CountDownLatch(0);
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(monetDataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.unwrap(MonetConnection.class)).thenReturn(monetConnection);
+        doAnswer(invocation -> {
+            MonetConnection.UploadHandler handler = invocation.getArgument(0);
+            if (handler != null) {
+                uploadHandler.set(handler);
+            }
+            return null;
+        }).when(monetConnection).setUploadHandler(any());
+        when(statement.executeUpdate(startsWith("COPY"))).thenAnswer(invocation -> copy());
+
+        loadExecutor = new ThreadPoolTaskExecutor();
+        loadExecutor.setCorePoolSize(1);
+        loadExecutor.setMaxPoolSize(1);
+        loadExecutor.setQueueCapacity(1);
+        loadExecutor.setDaemon(true);
+        loadExecutor.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        copyReleased.countDown();
+        loadExecutor.shutdown();
+    }
+
+    @Test
+    void loadsEveryRowIntoATableNamedAfterTheHeader() throws SQLException {
+        try (PipelinedLoad load = load(16, STALL_TIMEOUT_NANOS)) {
+            row(load, "Week", "Project (Output) Geography", "Week");
+            row(load, "2024-01-01", "North, East", "3");
+            row(load, "2024-01-08", "say \"hi\"");
+            row(load, "2024-01-15", null, "");
+
+            assertThat(load.finish()).isTrue();
+            assertThat(load.getTableName()).isEqualTo(TABLE);
+            assertThat(load.getColumnCount()).isEqualTo(3);
+            assertThat(load.getRowCount()).isEqualTo(3);
+        }
+
+        verify(statement).execute(MonetCopyStatements.createTextTable(TABLE,
+                Arrays.asList("week", "project_output_geography", "week_2")));
+        assertThat(uploaded()).isEqualTo("2024-01-01,\"North, East\",3\n"
+                + "2024-01-08,\"say \"\"hi\"\"\",\n"
+                + "2024-01-15,,\n");
+        verify(monetJdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void abandonsTheLoadOnARowWithMoreFieldsThanTheHeader() {
+        try (PipelinedLoad load = load(16, STALL_TIMEOUT_NANOS)) {
+            row(load, "a", "b");
+            row(load, "1", "2");
+            row(load, "1", "2", "3");
+            row(load, "4", "5");
+
+            assertThat(load.finish()).isFalse();
+        }
+
+        verify(monetJdbcTemplate, timeout(5000)).execute(MonetCopyStatements.dropTable(TABLE));
+        assertThat(uploaded()).isEmpty();
+    }
+
+    @Test
+    void abandonsTheLoadOnceMonetDbStopsTakingRows() {
+        copyReleased = new CountDownLatch(1);
+        long stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(300);
+        long started = System.nanoTime();
+        try (PipelinedLoad load = load(1, stallTimeoutNanos)) {
+            row(load, "a");
+            // Several 64K-character chunks; only the first fits the queue.
+            for (int i = 0; i < 30_000; i++) {
+                row(load, String.format("row-%06d", i));
+            }
+
+            assertThat(load.finish()).isFalse();
+        }
+        assertThat(System.nanoTime() - started).isLessThan(TimeUnit.SECONDS.toNanos(5));
+
+        copyReleased.countDown();
+        verify(monetJdbcTemplate, timeout(5000)).execute(MonetCopyStatements.dropTable(TABLE));
+        assertThat(uploaded()).isEmpty();
+    }
+
+    @Test
+    void dropsTheTableWhenClosedWithoutFinishing() {
+        try (PipelinedLoad load = load(16, STALL_TIMEOUT_NANOS)) {
+            row(load, "a", "b");
+            row(load, "1", "2");
+        }
+
+        verify(monetJdbcTemplate, timeout(5000)).execute(MonetCopyStatements.dropTable(TABLE));
+        assertThat(uploaded()).isEmpty();
+    }
+
+    @Test
+    void fallsBackToTheCsvWhenMonetDbLoadsAnotherRowCount() {
+        loadedRows = 1;
+        try (PipelinedLoad load = load(16, STALL_TIMEOUT_NANOS)) {
+            row(load, "a", "b");
+            row(load, "1", "2");
+            row(load, "3", "4");
+
+            assertThat(load.finish()).isFalse();
+            assertThat(load.getRowCount()).isEqualTo(2);
+        }
+
+        verify(monetJdbcTemplate).execute(MonetCopyStatements.dropTable(TABLE));
+    }
+
+    private PipelinedLoad load(int queueChunks, long stallTimeoutNanos) {
+        return new PipelinedLoad(TABLE, monetDataSource, monetJdbcTemplate, loadExecutor,
+                queueChunks, stallTimeoutNanos);
+    }
+
+    /**
+     * Runs the upload handler as the driver does for {@code COPY ... ON CLIENT}.
+     */
+    private int copy() throws SQLException, InterruptedException {
+        copyReleased.await(5, TimeUnit.SECONDS);
+        MonetConnection.Upload upload = mock(MonetConnection.Upload.class);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            when(upload.getStream()).thenReturn(new PrintStream(stream, true));
+            uploadHandler.get().handleUpload(upload, "rows", true, 0);
+        } catch (IOException failed) {
+            throw new SQLException("COPY failed", failed);
+        }
+        synchronized (uploaded) {
+            uploaded.write(stream.toByteArray(), 0, stream.size());
+        }
+        String rows = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+        return (int) (loadedRows >= 0 ? loadedRows : rows.chars().filter(c -> c == '\n').count());
+    }
+
+    private String uploaded() {
+        synchronized (uploaded) {
+            return new String(uploaded.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void row(PipelinedLoad load, String... fields) {
+        for (String field : fields) {
+            load.writeField(field);
+        }
+        load.endRow();
+    }
+}
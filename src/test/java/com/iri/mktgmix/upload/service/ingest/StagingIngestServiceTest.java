@@ -0,0 +1,145 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.SourceColumn;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.repository.SourceColumnRepository;
+import com.iri.mktgmix.upload.service.storage.ContentAddressedCsvStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.monetdb.jdbc.MonetConnection;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class StagingIngestServiceTest {
+
+    private static final Long FILE_UPLOAD_ID = 2L;
+    private static final String TABLE = "stg_p1_f2";
+
+    @TempDir
+    Path tempDir;
+
+    private final FileUploadRepository fileUploadRepository = mock(FileUploadRepository.class);
+    private final SourceColumnRepository sourceColumnRepository = mock(SourceColumnRepository.class);
+    private final DataSource monetDataSource = mock(DataSource.class);
+    private final StagingTables stagingTables = mock(StagingTables.class);
+    private final Connection connection = mock(Connection.class);
+    private final Statement statement = mock(Statement.class);
+    private StagingIngestService stagingIngestService;
+    private FileUpload fileUpload;
+
+    @BeforeEach
+    void setUp() throws IOException, SQLException {
+        Path csv = Files.write(tempDir.resolve("rows.csv"), "a,b\n1,x\n2,y\n3,z\n".getBytes(StandardCharsets.UTF_8));
+        fileUpload = FileUpload.builder()
+                .id(FILE_UPLOAD_ID)
+                .projectId(1L)
+                .csvPath(csv.toString())
+                .rowCount(3L)
+                .checksumSha256("new")
+                .ingestedChecksumSha256("old")
+                .monetTableName(TABLE)
+                .build();
+        when(fileUploadRepository.startIngest(FILE_UPLOAD_ID)).thenReturn(1);
+        when(fileUploadRepository.findById(FILE_UPLOAD_ID)).thenReturn(Optional.of(fileUpload));
+        when(sourceColumnRepository.findByFileUploadId(FILE_UPLOAD_ID)).thenReturn(Arrays.asList(
+                SourceColumn.builder().ordinal(0).sanitizedName("a").dataType("INTEGER").build(),
+                SourceColumn.builder().ordinal(1).sanitizedName("b").dataType("STRING").build()));
+        when(monetDataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.unwrap(MonetConnection.class)).thenReturn(mock(MonetConnection.class));
+        stagingIngestService = new StagingIngestService(fileUploadRepository, sourceColumnRepository,
+                mock(ContentAddressedCsvStore.class), monetDataSource, stagingTables,
+                mock(ThreadPoolTaskExecutor.class), 1, DataSize.ofMegabytes(256));
+    }
+
+    @Test
+    void loadsTheCsvIntoAShadowThatReplacesTheTable() throws SQLException {
+        when(statement.executeUpdate(anyString())).thenReturn(3);
+
+        stagingIngestService.ingest(FILE_UPLOAD_ID);
+
+        verify(statement).execute(startsWith("CREATE TABLE \"" + TABLE + "_load_"));
+        verify(stagingTables).dropStaleShadows(TABLE);
+        verify(stagingTables).replace(startsWith(TABLE + "_load_"), eq(TABLE));
+        verify(fileUploadRepository).finishIngest(eq(FILE_UPLOAD_ID), eq(TABLE), eq("new"), eq(3L), anyLong(), eq("CSV"));
+    }
+
+    @Test
+    void doesNotReloadATableHoldingTheCurrentCsv() throws SQLException {
+        fileUpload.setIngestedChecksumSha256("new");
+        when(stagingTables.countRows(TABLE)).thenReturn(3L);
+
+        stagingIngestService.ingest(FILE_UPLOAD_ID);
+
+        verify(fileUploadRepository).restoreIngest(FILE_UPLOAD_ID);
+        verify(stagingTables, never()).replace(anyString(), anyString());
+        verify(fileUploadRepository, never()).finishIngest(any(), any(), any(), anyLong(), anyLong(), any());
+        verifyNoInteractions(monetDataSource);
+    }
+
+    @Test
+    void reloadsATableThatLostRowsOfTheCurrentCsv() throws SQLException {
+        fileUpload.setIngestedChecksumSha256("new");
+        when(stagingTables.countRows(TABLE)).thenReturn(2L);
+        when(statement.executeUpdate(anyString())).thenReturn(3);
+
+        stagingIngestService.ingest(FILE_UPLOAD_ID);
+
+        verify(fileUploadRepository, never()).restoreIngest(any());
+        verify(stagingTables).replace(startsWith(TABLE + "_load_"), eq(TABLE));
+    }
+
+    @Test
+    void keepsTheTableWhenTheLoadFails() throws SQLException {
+        SQLException copyFailure = new SQLException("COPY INTO failed");
+        when(statement.executeUpdate(anyString())).thenThrow(copyFailure);
+
+        assertThatThrownBy(() -> stagingIngestService.ingest(FILE_UPLOAD_ID))
+                .isInstanceOf(IllegalStateException.class)
+                .hasCause(copyFailure);
+
+        verify(stagingTables).drop(startsWith(TABLE + "_load_"));
+        verify(stagingTables, never()).replace(anyString(), anyString());
+        verify(stagingTables, never()).drop(TABLE);
+        verify(fileUploadRepository, never()).finishIngest(any(), any(), any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void keepsTheTableWhenTheLoadMissesRows() throws SQLException {
+        when(statement.executeUpdate(anyString())).thenReturn(2);
+
+        assertThatThrownBy(() -> stagingIngestService.ingest(FILE_UPLOAD_ID))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith("Loaded 2 of 3 rows");
+
+        verify(stagingTables).drop(startsWith(TABLE + "_load_"));
+        verify(stagingTables, never()).replace(anyString(), anyString());
+        assertThat(fileUpload.getMonetTableName()).isEqualTo(TABLE);
+    }
+}
@@ -0,0 +1,102 @@
+package com.iri.mktgmix.upload.service.ingest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StagingTablesTest {
+
+    private static final String TABLE = "stg_p1_f2";
+
+    private final DataSource monetDataSource = mock(DataSource.class);
+    private final JdbcTemplate monetJdbcTemplate = mock(JdbcTemplate.class);
+    private final Connection connection = mock(Connection.class);
+    private final Statement statement = mock(Statement.class);
+    private final StagingTables stagingTables = new StagingTables(monetDataSource, monetJdbcTemplate, Duration.ofHours(6));
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(monetDataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+    }
+
+    @Test
+    void replacesTheTableByItsShadowInOneTransaction() throws SQLException {
+        String shadow = StagingTableNames.shadowOf(TABLE);
+
+        stagingTables.replace(shadow, TABLE);
+
+        InOrder order = inOrder(connection, statement);
+        order.verify(connection).setAutoCommit(false);
+        order.verify(statement).execute(MonetCopyStatements.dropTable(TABLE));
+        order.verify(statement).execute(MonetCopyStatements.renameTable(shadow, TABLE));
+        order.verify(connection).commit();
+        order.verify(connection).setAutoCommit(true);
+        verify(connection, never()).rollback();
+        verify(connection).close();
+    }
+
+    @Test
+    void keepsTheTableWhenTheShadowCannotReplaceIt() throws SQLException {
+        String shadow = StagingTableNames.shadowOf(TABLE);
+        SQLException renameFailure = new SQLException("no such table");
+        when(statement.execute(MonetCopyStatements.renameTable(shadow, TABLE))).thenThrow(renameFailure);
+
+        assertThatThrownBy(() -> stagingTables.replace(shadow, TABLE)).isSameAs(renameFailure);
+
+        InOrder order = inOrder(connection);
+        order.verify(connection).rollback();
+        order.verify(connection).setAutoCommit(true);
+        verify(connection, never()).commit();
+        verify(connection).close();
+    }
+
+    @Test
+    void namesEveryLoadItsOwnShadow() {
+        String first = StagingTableNames.shadowOf(TABLE);
+        String second = StagingTableNames.shadowOf(TABLE);
+
+        assertThat(first).isNotEqualTo(second).startsWith(TABLE + "_load_");
+        assertThat(StagingTableNames.shadowCreatedAt(TABLE, first))
+                .isBetween(System.currentTimeMillis() - 60_000, System.currentTimeMillis());
+        assertThat(StagingTableNames.shadowCreatedAt(TABLE, TABLE + "_load")).isZero();
+        assertThat(StagingTableNames.shadowCreatedAt(TABLE, TABLE)).isEqualTo(-1);
+        assertThat(StagingTableNames.shadowCreatedAt(TABLE, "stg_p1_f23_load_1_0000abcd")).isEqualTo(-1);
+        assertThat(StagingTableNames.shadowCreatedAt(TABLE, TABLE + "_load_1_0000abcd_x")).isEqualTo(-1);
+    }
+
+    @Test
+    void dropsOnlyStaleShadowsOfTheTable() {
+        String running = StagingTableNames.shadowOf(TABLE);
+        String stale = TABLE + "_load_" + (System.currentTimeMillis() - Duration.ofHours(7).toMillis()) + "_0000abcd";
+        String legacy = TABLE + "_load";
+        String otherTable = "stg_p1_f2xload_1_0000abcd";
+        when(monetJdbcTemplate.queryForList(anyString(), eq(String.class), eq(TABLE + "_load%")))
+                .thenReturn(Arrays.asList(running, stale, legacy, otherTable));
+
+        assertThat(stagingTables.dropStaleShadows(TABLE)).isEqualTo(2);
+
+        verify(monetJdbcTemplate).execute(MonetCopyStatements.dropTable(stale));
+        verify(monetJdbcTemplate).execute(MonetCopyStatements.dropTable(legacy));
+        verify(monetJdbcTemplate, never()).execute(MonetCopyStatements.dropTable(running));
+        verify(monetJdbcTemplate, never()).execute(MonetCopyStatements.dropTable(otherTable));
+    }
+}
@@ -0,0 +1,61 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import com.iri.mktgmix.upload.repository.UploadJobRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadJobQueueTest {
+
+    private final UploadJobRepository uploadJobRepository = mock(UploadJobRepository.class);
+    private final UploadJobQueue uploadJobQueue = new UploadJobQueue(uploadJobRepository,
+            mock(PlatformTransactionManager.class), Duration.ofMinutes(2));
+
+    @Test
+    void enqueuesANewJob() {
+        when(uploadJobRepository.enqueue(7L, "INGEST", null)).thenReturn(1);
+
+        assertThat(uploadJobQueue.enqueueOrRestart(7L, UploadJobType.INGEST, null)).isTrue();
+
+        verify(uploadJobRepository, never()).restartActive(any(), anyString());
+    }
+
+    @Test
+    void restartsTheActiveJob() {
+        when(uploadJobRepository.enqueue(7L, "INGEST", null)).thenReturn(0);
+        when(uploadJobRepository.restartActive(7L, "INGEST")).thenReturn(1);
+
+        assertThat(uploadJobQueue.enqueueOrRestart(7L, UploadJobType.INGEST, null)).isTrue();
+
+        verify(uploadJobRepository).enqueue(7L, "INGEST", null);
+    }
+
+    @Test
+    void enqueuesAgainWhenTheActiveJobEndedMeanwhile() {
+        when(uploadJobRepository.enqueue(7L, "INGEST", null)).thenReturn(0, 1);
+        when(uploadJobRepository.restartActive(7L, "INGEST")).thenReturn(0);
+
+        assertThat(uploadJobQueue.enqueueOrRestart(7L, UploadJobType.INGEST, null)).isTrue();
+
+        verify(uploadJobRepository, times(2)).enqueue(7L, "INGEST", null);
+    }
+
+    @Test
+    void reportsAJobThatCouldNotBeQueued() {
+        when(uploadJobRepository.enqueue(7L, "INGEST", null)).thenReturn(0);
+        when(uploadJobRepository.restartActive(7L, "INGEST")).thenReturn(0);
+
+        assertThat(uploadJobQueue.enqueueOrRestart(7L, UploadJobType.INGEST, null)).isFalse();
+    }
+}
@@ -0,0 +1,203 @@
+package com.iri.mktgmix.upload.service.job;
+
+import com.iri.mktgmix.upload.domain.UploadJob;
+import com.iri.mktgmix.upload.domain.UploadJobType;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadJobWorkersTest {
+
+    private static final Duration RETRY_BACKOFF = Duration.ofSeconds(30);
+
+    private final UploadJobQueue uploadJobQueue = mock(UploadJobQueue.class);
+    private final UploadJobHandler handler = mock(UploadJobHandler.class);
+
+    @Test
+    void requeuesAJobTheSaturatedExecutorRejects() throws Exception {
+        ThreadPoolTaskExecutor executor = executor(0);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+        UploadJob job = job(1);
+        when(uploadJobQueue.claimNext()).thenReturn(job, job, null);
+        UploadJobWorkers workers = workers(executor);
+
+        try {
+            workers.poll();
+
+            verify(uploadJobQueue).retryLater(eq(job), eq(Duration.ZERO), anyString());
+            verify(handler, never()).run(any());
+        } finally {
+            release.countDown();
+        }
+
+        // The rejected job held neither a worker nor a lease renewal: once a thread is free it runs.
+        awaitIdle(executor);
+        workers.poll();
+        verify(handler, timeout(5000)).run(job);
+        verify(uploadJobQueue, timeout(5000)).succeed(job);
+        executor.shutdown();
+    }
+
+    @Test
+    void keepsAWorkerClaimedUntilItsJobEnds() throws Exception {
+        ThreadPoolTaskExecutor executor = executor(1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        UploadJob job = job(1);
+        when(uploadJobQueue.claimNext()).thenReturn(job);
+        blockHandlerUntil(running, release);
+        UploadJobWorkers workers = workers(executor);
+
+        workers.poll();
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        workers.poll();
+        release.countDown();
+
+        verify(uploadJobQueue, timeout(5000)).succeed(job);
+        verify(uploadJobQueue).claimNext();
+        executor.shutdown();
+    }
+
+    @Test
+    void retriesATransientFailureWithBackoff() {
+        ThreadPoolTaskExecutor executor = executor(1);
+        UploadJob job = job(2);
+        when(uploadJobQueue.claimNext()).thenReturn(job, (UploadJob) null);
+        doThrow(new QueryTimeoutException("MonetDB did not answer")).when(handler).run(job);
+
+        workers(executor).poll();
+
+        verify(uploadJobQueue, timeout(5000)).retryAfterFailure(eq(job), eq(RETRY_BACKOFF.multipliedBy(2)), anyString());
+        verify(uploadJobQueue, never()).fail(any(), anyString());
+        verify(handler, never()).onFailure(any(), anyString());
+        executor.shutdown();
+    }
+
+    @Test
+    void failsATransientFailureOnTheLastAttempt() {
+        ThreadPoolTaskExecutor executor = executor(1);
+        UploadJob job = job(3);
+        when(uploadJobQueue.claimNext()).thenReturn(job, (UploadJob) null);
+        when(uploadJobQueue.fail(eq(job), anyString())).thenReturn(true);
+        doThrow(new QueryTimeoutException("MonetDB did not answer")).when(handler).run(job);
+
+        workers(executor).poll();
+
+        verify(uploadJobQueue, timeout(5000)).fail(eq(job), anyString());
+        verify(handler).onFailure(eq(job), anyString());
+        verify(uploadJobQueue, never()).retryAfterFailure(any(), any(), anyString());
+        executor.shutdown();
+    }
+
+    @Test
+    void failsAPermanentFailureAtOnce() {
+        ThreadPoolTaskExecutor executor = executor(1);
+        UploadJob job = job(1);
+        when(uploadJobQueue.claimNext()).thenReturn(job, (UploadJob) null);
+        doThrow(new IllegalStateException("Failed to convert spreadsheet to CSV")).when(handler).run(job);
+
+        workers(executor).poll();
+
+        verify(uploadJobQueue, timeout(5000)).fail(eq(job), anyString());
+        verify(uploadJobQueue, never()).retryAfterFailure(any(), any(), anyString());
+        executor.shutdown();
+    }
+
+    @Test
+    void leavesTheUploadAloneWhenTheLeaseWasLost() {
+        ThreadPoolTaskExecutor executor = executor(1);
+        UploadJob job = job(1);
+        when(uploadJobQueue.claimNext()).thenReturn(job, (UploadJob) null);
+        doThrow(new IllegalStateException("Failed to load")).when(handler).run(job);
+        when(uploadJobQueue.fail(eq(job), anyString())).thenReturn(false);
+
+        workers(executor).poll();
+
+        verify(uploadJobQueue, timeout(5000)).fail(eq(job), anyString());
+        verify(handler, never()).onFailure(any(), anyString());
+        executor.shutdown();
+    }
+
+    @Test
+    void classifiesTransientFailures() {
+        assertThat(UploadJobWorkers.isTransient(new QueryTimeoutException("timeout"))).isTrue();
+        assertThat(UploadJobWorkers.isTransient(
+                new IllegalStateException("Failed to load", new SQLException("connection reset", "08006")))).isTrue();
+        assertThat(UploadJobWorkers.isTransient(
+                new IllegalStateException("Failed to swap", new SQLException("COMMIT: transaction is aborted", "40000"))))
+                .isTrue();
+        assertThat(UploadJobWorkers.isTransient(
+                new IllegalStateException("Failed to load", new SQLException("syntax error", "42000")))).isFalse();
+        assertThat(UploadJobWorkers.isTransient(new DataIntegrityViolationException("duplicate"))).isFalse();
+        assertThat(UploadJobWorkers.isTransient(new IllegalArgumentException("Unsupported file type"))).isFalse();
+    }
+
+    private void blockHandlerUntil(CountDownLatch running, CountDownLatch release) {
+        doAnswer(invocation -> {
+            running.countDown();
+            await(release);
+            return null;
+        }).when(handler).run(any());
+    }
+
+    private UploadJobWorkers workers(ThreadPoolTaskExecutor executor) {
+        when(handler.getJobType()).thenReturn(UploadJobType.INGEST);
+        return new UploadJobWorkers(uploadJobQueue, executor, Collections.singletonList(handler), 3, RETRY_BACKOFF);
+    }
+
+    private static ThreadPoolTaskExecutor executor(int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setDaemon(true);
+        executor.initialize();
+        return executor;
+    }
+
+    private static UploadJob job(int attempts) {
+        return UploadJob.builder()
+                .id(11L)
+                .fileUploadId(7L)
+                .jobType(UploadJobType.INGEST)
+                .attempts(attempts)
+                .build();
+    }
+
+    private static void awaitIdle(ThreadPoolTaskExecutor executor) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.getActiveCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // A finished thread still has to return to the pool before it takes new work.
+        Thread.sleep(50);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.iri.mktgmix.upload.service.storage;
+
+import com.iri.mktgmix.upload.converter.CsvConversionResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class ContentAddressedCsvStoreTest {
+
+    private static final String SOURCE_CHECKSUM = "0123456789abcdef";
+
+    @TempDir
+    Path basePath;
+
+    private final StagingStorageManager stagingStorageManager = mock(StagingStorageManager.class);
+    private ContentAddressedCsvStore contentAddressedCsvStore;
+
+    @BeforeEach
+    void setUp() {
+        UploadStoragePaths uploadStoragePaths = new UploadStoragePaths();
+        ReflectionTestUtils.setField(uploadStoragePaths, "storageBasePath", basePath.toString());
+        contentAddressedCsvStore = new ContentAddressedCsvStore(uploadStoragePaths, stagingStorageManager);
+    }
+
+    @Test
+    void reusesAStoredCsv() throws IOException {
+        assertThat(contentAddressedCsvStore.find(SOURCE_CHECKSUM)).isEmpty();
+        Path converted = write(basePath.resolve("session").resolve("plan.csv"), "week,spend\n1,2\n");
+
+        CsvConversionResult stored = contentAddressedCsvStore.store(SOURCE_CHECKSUM, result(converted, "csvsha", null));
+
+        assertThat(converted).doesNotExist();
+        assertThat(stored.getCsvPath()).exists().hasFileName("csvsha.csv");
+        CsvConversionResult found = contentAddressedCsvStore.find(SOURCE_CHECKSUM).orElseThrow(AssertionError::new);
+        assertThat(found.getCsvPath()).isEqualTo(stored.getCsvPath());
+        assertThat(found.getChecksumSha256()).isEqualTo("csvsha");
+        assertThat(found.getSheetName()).isNull();
+        assertThat(found.getBinaryColumnsDirectory()).isNull();
+        verify(stagingStorageManager).recordWrite(Files.size(stored.getCsvPath()));
+    }
+
+    @Test
+    void keysSheetsSeparatelyFromTheFirstSheet() throws IOException {
+        contentAddressedCsvStore.store(SOURCE_CHECKSUM,
+                result(write(basePath.resolve("session").resolve("plan.csv"), "a\n"), "firstsha", null));
+        contentAddressedCsvStore.store(SOURCE_CHECKSUM,
+                result(write(basePath.resolve("session").resolve("plan.sheet1.csv"), "b\n"), "radiosha", "Radio/TV"));
+
+        assertThat(contentAddressedCsvStore.find(SOURCE_CHECKSUM).map(CsvConversionResult::getChecksumSha256))
+                .contains("firstsha");
+        CsvConversionResult radio = contentAddressedCsvStore.find(SOURCE_CHECKSUM, "Radio/TV")
+                .orElseThrow(AssertionError::new);
+        assertThat(radio.getChecksumSha256()).isEqualTo("radiosha");
+        assertThat(radio.getSheetName()).isEqualTo("Radio/TV");
+        assertThat(radio.getCsvPath().startsWith(basePath.resolve("content").resolve(SOURCE_CHECKSUM))).isTrue();
+        assertThat(contentAddressedCsvStore.find(SOURCE_CHECKSUM, "Print")).isEmpty();
+        assertThat(contentAddressedCsvStore.find("other", "Radio/TV")).isEmpty();
+    }
+
+    @Test
+    void movesBinaryColumnsWithTheirCsv() throws IOException {
+        Path session = basePath.resolve("session");
+        Path converted = write(session.resolve("plan.csv"), "week,spend\n1,2\n");
+        Path columns = Files.createDirectories(session.resolve("plan.xlsx.columns"));
+        write(columns.resolve("0.int"), "1234");
+        write(columns.resolve("1.dbl"), "12345678");
+
+        CsvConversionResult stored = contentAddressedCsvStore.store(SOURCE_CHECKSUM,
+                result(converted, "csvsha", null).withBinaryColumnsDirectory(columns));
+
+        assertThat(columns).doesNotExist();
+        assertThat(stored.getBinaryColumnsDirectory()).hasFileName("csvsha.columns");
+        assertThat(stored.getBinaryColumnsDirectory().resolve("1.dbl")).hasContent("12345678");
+        assertThat(contentAddressedCsvStore.find(SOURCE_CHECKSUM).map(CsvConversionResult::getBinaryColumnsDirectory))
+                .contains(stored.getBinaryColumnsDirectory());
+        verify(stagingStorageManager).recordWrite(12 + Files.size(stored.getCsvPath()));
+    }
+
+    @Test
+    void keepsTheStoredBinaryColumnsWhenStoredAgain() throws IOException {
+        Path session = basePath.resolve("session");
+        Path columns = Files.createDirectories(session.resolve("plan.xlsx.columns"));
+        write(columns.resolve("0.int"), "1234");
+        CsvConversionResult first = contentAddressedCsvStore.store(SOURCE_CHECKSUM,
+                result(write(session.resolve("plan.csv"), "a\n"), "csvsha", null).withBinaryColumnsDirectory(columns));
+        Path againColumns = Files.createDirectories(session.resolve("again.xlsx.columns"));
+        write(againColumns.resolve("0.int"), "5678");
+
+        CsvConversionResult again = contentAddressedCsvStore.store(SOURCE_CHECKSUM,
+                result(write(session.resolve("again.csv"), "a\n"), "csvsha", null).withBinaryColumnsDirectory(againColumns));
+
+        assertThat(againColumns).doesNotExist();
+        assertThat(again.getBinaryColumnsDirectory()).isEqualTo(first.getBinaryColumnsDirectory());
+        assertThat(again.getBinaryColumnsDirectory().resolve("0.int")).hasContent("1234");
+    }
+
+    private static CsvConversionResult result(Path csvPath, String checksum, String sheetName) {
+        return CsvConversionResult.builder().csvPath(csvPath).checksumSha256(checksum).sheetName(sheetName).build();
+    }
+
+    private static Path write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        return Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
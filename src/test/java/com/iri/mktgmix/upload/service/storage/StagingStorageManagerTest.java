@@ -0,0 +1,225 @@
+package com.iri.mktgmix.upload.service.storage;
+
+import com.iri.mktgmix.upload.domain.FileIngestStatus;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import com.iri.mktgmix.upload.domain.FileUploadStatus;
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import com.iri.mktgmix.upload.service.exception.ErrorType;
+import com.iri.mktgmix.upload.service.exception.FileUploadException;
+import com.iri.mktgmix.upload.service.upload.UploadDigestRegistry;
+import com.iri.mktgmix.upload.service.upload.UploadSessionLocks;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StagingStorageManagerTest {
+
+    private static final long QUOTA_BYTES = 1000L;
+
+    @TempDir
+    Path basePath;
+
+    private final FileUploadRepository fileUploadRepository = mock(FileUploadRepository.class);
+    private final UploadDigestRegistry uploadDigestRegistry = mock(UploadDigestRegistry.class);
+    private final UploadSessionLocks uploadSessionLocks = mock(UploadSessionLocks.class);
+    private final AtomicBoolean sessionLocked = new AtomicBoolean();
+    private UploadStoragePaths uploadStoragePaths;
+    private StagingStorageManager stagingStorageManager;
+
+    @BeforeEach
+    void setUp() {
+        uploadStoragePaths = new UploadStoragePaths();
+        ReflectionTestUtils.setField(uploadStoragePaths, "storageBasePath", basePath.toString());
+        when(uploadSessionLocks.withSessionLock(anyLong(), any())).thenAnswer(invocation -> {
+            sessionLocked.set(true);
+            try {
+                return ((Supplier<?>) invocation.getArgument(1)).get();
+            } finally {
+                sessionLocked.set(false);
+            }
+        });
+        stagingStorageManager = new StagingStorageManager(uploadStoragePaths, fileUploadRepository,
+                uploadDigestRegistry, uploadSessionLocks, DataSize.ofBytes(QUOTA_BYTES), Duration.ofHours(24),
+                Duration.ofHours(1), 2, Duration.ofHours(1));
+    }
+
+    @Test
+    void refusesReservationsBeyondTheQuota() {
+        stagingStorageManager.reserve(1L, 600L);
+
+        assertThatThrownBy(() -> stagingStorageManager.reserve(2L, 600L))
+                .isInstanceOfSatisfying(FileUploadException.class,
+                        exception -> assertThat(exception.getErrorType()).isEqualTo(ErrorType.STORAGE_QUOTA_EXCEEDED));
+        assertThatCode(() -> stagingStorageManager.reserve(3L, 400L)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void releasingASessionGivesItsSpaceBack() throws IOException {
+        stagingStorageManager.reserve(1L, 800L);
+        Path sessionDirectory = sessionFile(1L, 800);
+
+        stagingStorageManager.release(1L);
+
+        assertThat(sessionDirectory).doesNotExist();
+        assertThatCode(() -> stagingStorageManager.reserve(2L, 900L)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void sweepMeasuresExistingFilesAndSubtractsRemovedOnes() throws IOException {
+        Path ingested = sessionFile(1L, 700);
+        givenUploads(upload(1L, FileUploadStatus.COMPLETED, FileIngestStatus.INGESTED, LocalDateTime.now()));
+
+        stagingStorageManager.sweep();
+
+        assertThat(ingested).doesNotExist();
+        assertThatCode(() -> stagingStorageManager.reserve(2L, 900L)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void sweepKeepsFailedSessionsForTheRetentionPeriod() throws IOException {
+        Path recent = sessionFile(1L, 10);
+        Path old = sessionFile(2L, 10);
+        givenUploads(upload(1L, FileUploadStatus.FAILED, null, LocalDateTime.now()),
+                upload(2L, FileUploadStatus.CANCELLED, null, LocalDateTime.now().minusHours(2)));
+
+        stagingStorageManager.sweep();
+
+        assertThat(recent).exists();
+        assertThat(old).doesNotExist();
+    }
+
+    @Test
+    void sweepSkipsTheRetentionPeriodWhileOverQuota() throws IOException {
+        Path recent = sessionFile(1L, 1200);
+        givenUploads(upload(1L, FileUploadStatus.FAILED, null, LocalDateTime.now()));
+
+        stagingStorageManager.sweep();
+
+        assertThat(recent).doesNotExist();
+    }
+
+    @Test
+    void sweepExpiresAbandonedSessionsUnderTheSessionLock() throws IOException {
+        Path abandoned = sessionFile(1L, 10);
+        givenUploads(upload(1L, FileUploadStatus.UPLOADING, null, LocalDateTime.now().minusHours(25)));
+        when(fileUploadRepository.expireUploadSession(eq(1L), any())).thenAnswer(invocation -> {
+            assertThat(sessionLocked).isTrue();
+            return 1;
+        });
+
+        stagingStorageManager.sweep();
+
+        verify(uploadSessionLocks).withSessionLock(eq(1L), any());
+        verify(uploadDigestRegistry).discard(1L);
+        assertThat(abandoned).doesNotExist();
+    }
+
+    @Test
+    void sweepKeepsSessionsThatAreStillUploading() throws IOException {
+        Path uploading = sessionFile(1L, 10);
+        givenUploads(upload(1L, FileUploadStatus.UPLOADING, null, LocalDateTime.now().minusHours(1)));
+
+        stagingStorageManager.sweep();
+
+        assertThat(uploading).exists();
+        verify(fileUploadRepository, never()).expireUploadSession(anyLong(), any());
+    }
+
+    @Test
+    void sweepCoversSessionsOverSeveralBatches() throws IOException {
+        Path first = sessionFile(1L, 10);
+        Path second = sessionFile(2L, 10);
+        Path third = sessionFile(3L, 10);
+        givenUploads(upload(1L, FileUploadStatus.COMPLETED, FileIngestStatus.INGESTED, LocalDateTime.now()),
+                upload(2L, FileUploadStatus.COMPLETED, FileIngestStatus.INGESTED, LocalDateTime.now()),
+                upload(3L, FileUploadStatus.COMPLETED, FileIngestStatus.INGESTED, LocalDateTime.now()));
+
+        stagingStorageManager.sweep();
+        long remainingAfterFirstSweep = Arrays.asList(first, second, third).stream().filter(Files::exists).count();
+        stagingStorageManager.sweep();
+
+        assertThat(remainingAfterFirstSweep).isEqualTo(1L);
+        assertThat(first).doesNotExist();
+        assertThat(second).doesNotExist();
+        assertThat(third).doesNotExist();
+    }
+
+    @Test
+    void sweepKeepsContentStillUsedByAnUpload() throws IOException {
+        Path used = contentEntry("used", Instant.now().minus(Duration.ofHours(2)));
+        Path unused = contentEntry("unused", Instant.now().minus(Duration.ofHours(2)));
+        Path recent = contentEntry("recent", Instant.now());
+        when(fileUploadRepository.countUsingContent(anyString())).thenReturn(0L);
+        when(fileUploadRepository.countUsingContent("used")).thenReturn(1L);
+
+        stagingStorageManager.sweep();
+        stagingStorageManager.sweep();
+
+        assertThat(used).exists();
+        assertThat(unused).doesNotExist();
+        assertThat(recent).exists();
+    }
+
+    private Path sessionFile(Long uploadSessionId, int size) throws IOException {
+        Path sessionDirectory = Files.createDirectories(uploadStoragePaths.sessionDirectory(uploadSessionId));
+        Files.write(sessionDirectory.resolve("plan.xlsx"), new byte[size]);
+        return sessionDirectory;
+    }
+
+    private Path contentEntry(String sourceChecksum, Instant lastModified) throws IOException {
+        Path entryDirectory = Files.createDirectories(uploadStoragePaths.contentDirectory().resolve(sourceChecksum));
+        Files.write(entryDirectory.resolve("csv.csv"), new byte[10]);
+        Files.setLastModifiedTime(entryDirectory, FileTime.from(lastModified));
+        return entryDirectory;
+    }
+
+    private void givenUploads(FileUpload... fileUploads) {
+        List<FileUpload> uploads = Arrays.asList(fileUploads);
+        when(fileUploadRepository.findAllById(anyIterable())).thenAnswer(invocation -> {
+            Iterable<Long> ids = invocation.getArgument(0);
+            List<Long> requested = new ArrayList<>();
+            ids.forEach(requested::add);
+            return uploads.stream().filter(upload -> requested.contains(upload.getId()))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    private static FileUpload upload(Long id, FileUploadStatus uploadStatus, FileIngestStatus ingestStatus,
+                                     LocalDateTime modifiedAt) {
+        return FileUpload.builder()
+                .id(id)
+                .uploadStatus(uploadStatus)
+                .ingestStatus(ingestStatus)
+                .modifiedAt(modifiedAt)
+                .build();
+    }
+}
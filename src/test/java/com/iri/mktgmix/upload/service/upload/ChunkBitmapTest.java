@@ -0,0 +1,48 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkBitmapTest {
+
+    @Test
+    void usesPostgresBitNumberingWithinBytes() {
+        byte[] bitmap = ChunkBitmap.empty(10);
+        assertThat(bitmap).hasSize(2);
+
+        // set_bit('\x0000'::bytea, 0, 1) = '\x0100' and set_bit(..., 9, 1) = '\x0002'
+        bitmap[0] = 0x01;
+        bitmap[1] = 0x02;
+        assertThat(ChunkBitmap.isSet(bitmap, 0)).isTrue();
+        assertThat(ChunkBitmap.isSet(bitmap, 9)).isTrue();
+        assertThat(ChunkBitmap.isSet(bitmap, 1)).isFalse();
+        assertThat(ChunkBitmap.isSet(bitmap, 8)).isFalse();
+        assertThat(ChunkBitmap.countSet(bitmap)).isEqualTo(2);
+    }
+
+    @Test
+    void detectsCompletion() {
+        byte[] bitmap = ChunkBitmap.empty(3);
+        assertThat(ChunkBitmap.isComplete(bitmap, 3)).isFalse();
+        bitmap[0] = 0x07;
+        assertThat(ChunkBitmap.isComplete(bitmap, 3)).isTrue();
+    }
+
+    @Test
+    void listsMissingChunksAfterCommittedPrefix() {
+        byte[] bitmap = ChunkBitmap.empty(12);
+        bitmap[0] = (byte) 0xFF;
+        bitmap[1] = 0x05;
+
+        assertThat(ChunkBitmap.firstMissing(bitmap, 12)).isEqualTo(9);
+        assertThat(ChunkBitmap.missingChunkNumbers(bitmap, 12)).containsExactly(10, 12);
+    }
+
+    @Test
+    void roundsTotalChunksUp() {
+        assertThat(ChunkBitmap.totalChunks(10, 5)).isEqualTo(2);
+        assertThat(ChunkBitmap.totalChunks(11, 5)).isEqualTo(3);
+        assertThat(ChunkBitmap.totalChunks(1, 5)).isEqualTo(1);
+    }
+}
@@ -0,0 +1,91 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DecodingChunkPayloadTest {
+
+    private static final byte[] CHUNK = "a,b,c\n1,2,3\n4,5,6\n".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void inflatesGzipIntoPosition() throws IOException {
+        Path sessionFile = preallocated(4 + CHUNK.length);
+
+        write(new DecodingChunkPayload(new ByteArrayInputStream(gzip(CHUNK)), ChunkEncoding.GZIP),
+                sessionFile, 4, CHUNK.length);
+
+        byte[] content = Files.readAllBytes(sessionFile);
+        assertThat(Arrays.copyOfRange(content, 4, content.length)).isEqualTo(CHUNK);
+    }
+
+    @Test
+    void inflatesZlibDeflate() throws IOException {
+        Path sessionFile = preallocated(CHUNK.length);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream deflater = new DeflaterOutputStream(encoded)) {
+            deflater.write(CHUNK);
+        }
+
+        write(new DecodingChunkPayload(new ByteArrayInputStream(encoded.toByteArray()), ChunkEncoding.DEFLATE),
+                sessionFile, 0, CHUNK.length);
+
+        assertThat(Files.readAllBytes(sessionFile)).isEqualTo(CHUNK);
+    }
+
+    @Test
+    void rejectsChunkThatDecodesToWrongLength() throws IOException {
+        Path sessionFile = preallocated(CHUNK.length + 1);
+
+        assertThatThrownBy(() -> write(new DecodingChunkPayload(new ByteArrayInputStream(gzip(CHUNK)), ChunkEncoding.GZIP),
+                sessionFile, 0, CHUNK.length + 1))
+                .isInstanceOf(MalformedChunkException.class);
+        assertThatThrownBy(() -> write(new DecodingChunkPayload(new ByteArrayInputStream(gzip(CHUNK)), ChunkEncoding.GZIP),
+                sessionFile, 0, CHUNK.length - 1))
+                .isInstanceOf(MalformedChunkException.class);
+    }
+
+    @Test
+    void parsesContentEncodingHeader() {
+        assertThat(ChunkEncoding.fromHeader(null)).isEqualTo(ChunkEncoding.IDENTITY);
+        assertThat(ChunkEncoding.fromHeader(" GZIP ")).isEqualTo(ChunkEncoding.GZIP);
+        assertThat(ChunkEncoding.fromHeader("deflate")).isEqualTo(ChunkEncoding.DEFLATE);
+        assertThat(ChunkEncoding.fromHeader("br")).isNull();
+    }
+
+    private Path preallocated(int size) throws IOException {
+        return Files.write(tempDir.resolve("session.bin"), new byte[size]);
+    }
+
+    private static void write(ChunkPayload payload, Path sessionFile, long position, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(sessionFile, StandardOpenOption.WRITE)) {
+            payload.writeTo(channel, position, length);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(encoded)) {
+            gzip.write(data);
+        }
+        return encoded.toByteArray();
+    }
+}
@@ -0,0 +1,61 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamChunkPayloadTest {
+
+    private static final byte[] CHUNK = "a,b,c\n1,2,3\n".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesBodyWithoutContentLength() throws IOException {
+        Path sessionFile = preallocated(CHUNK.length);
+
+        write(new StreamChunkPayload(new ByteArrayInputStream(CHUNK), ChunkPayload.UNKNOWN_SIZE),
+                sessionFile, 0, CHUNK.length);
+
+        assertThat(Files.readAllBytes(sessionFile)).isEqualTo(CHUNK);
+    }
+
+    @Test
+    void rejectsOversizedBodyWithoutContentLength() throws IOException {
+        Path sessionFile = preallocated(CHUNK.length);
+
+        assertThatThrownBy(() -> write(new StreamChunkPayload(new ByteArrayInputStream(CHUNK), ChunkPayload.UNKNOWN_SIZE),
+                sessionFile, 0, CHUNK.length - 1))
+                .isInstanceOf(MalformedChunkException.class);
+    }
+
+    @Test
+    void rejectsShortBody() throws IOException {
+        Path sessionFile = preallocated(CHUNK.length + 1);
+
+        assertThatThrownBy(() -> write(new StreamChunkPayload(new ByteArrayInputStream(CHUNK), ChunkPayload.UNKNOWN_SIZE),
+                sessionFile, 0, CHUNK.length + 1))
+                .isInstanceOf(MalformedChunkException.class);
+    }
+
+    private Path preallocated(int size) throws IOException {
+        return Files.write(tempDir.resolve("session.bin"), new byte[size]);
+    }
+
+    private static void write(ChunkPayload payload, Path sessionFile, long position, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(sessionFile, StandardOpenOption.WRITE)) {
+            payload.writeTo(channel, position, length);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import com.iri.mktgmix.upload.converter.Checksums;
+import com.iri.mktgmix.upload.domain.FileUpload;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadDigestRegistryTest {
+
+    private static final long CHUNK_SIZE = 4;
+
+    @TempDir
+    Path tempDir;
+
+    private final UploadDigestRegistry registry = new UploadDigestRegistry();
+
+    @Test
+    void digestsOnlyTheContiguousPrefixOfOutOfOrderChunks() throws IOException {
+        Path sessionFile = tempDir.resolve("data.csv");
+        FileUpload fileUpload = session(10);
+        write(sessionFile, 0, "AAAA");
+        write(sessionFile, 8, "CC");
+        fileUpload.setChunkBitmap(new byte[]{0x05});
+        registry.advance(fileUpload, sessionFile);
+
+        // Chunk 0 is already digested, so rewriting it on disk does not change the result.
+        write(sessionFile, 0, "XXXX");
+        write(sessionFile, 4, "BBBB");
+        fileUpload.setChunkBitmap(new byte[]{0x07});
+        registry.advance(fileUpload, sessionFile);
+
+        assertThat(registry.finish(fileUpload, sessionFile)).isEqualTo(sha256("AAAABBBBCC".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void rehashesTheWholeFileWithoutEarlierState() throws IOException {
+        Path sessionFile = tempDir.resolve("data.csv");
+        FileUpload fileUpload = session(10);
+        write(sessionFile, 0, "AAAABBBBCC");
+        fileUpload.setChunkBitmap(new byte[]{0x07});
+        String expected = sha256("AAAABBBBCC".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(registry.finish(fileUpload, sessionFile)).isEqualTo(expected);
+        // finish forgets the session, so finishing again starts over rather than from the end.
+        assertThat(registry.finish(fileUpload, sessionFile)).isEqualTo(expected);
+    }
+
+    @Test
+    void startsAgainFromOffsetZeroAfterDiscard() throws IOException {
+        Path sessionFile = tempDir.resolve("data.csv");
+        FileUpload fileUpload = session(10);
+        write(sessionFile, 0, "AAAA");
+        fileUpload.setChunkBitmap(new byte[]{0x01});
+        registry.advance(fileUpload, sessionFile);
+
+        registry.discard(fileUpload.getId());
+        write(sessionFile, 0, "XXXXBBBBCC");
+        fileUpload.setChunkBitmap(new byte[]{0x07});
+
+        assertThat(registry.finish(fileUpload, sessionFile)).isEqualTo(sha256("XXXXBBBBCC".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void matchesTheSha256OfTheWholeFileWhateverTheChunkOrder() throws IOException {
+        int chunkSize = 64 * 1024;
+        int totalChunks = 37;
+        byte[] content = new byte[chunkSize * (totalChunks - 1) + 1234];
+        Random random = new Random(7);
+        random.nextBytes(content);
+        Path sessionFile = tempDir.resolve("data.bin");
+        FileUpload fileUpload = FileUpload.builder()
+                .id(9L)
+                .fileSizeBytes((long) content.length)
+                .chunkSizeBytes((long) chunkSize)
+                .totalChunks(totalChunks)
+                .chunkBitmap(ChunkBitmap.empty(totalChunks))
+                .build();
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < totalChunks; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        try (FileChannel channel = FileChannel.open(sessionFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (int chunk : order) {
+                int offset = chunk * chunkSize;
+                int length = Math.min(chunkSize, content.length - offset);
+                channel.write(ByteBuffer.wrap(content, offset, length), offset);
+                fileUpload.getChunkBitmap()[chunk / 8] |= (byte) (1 << (chunk % 8));
+                registry.advance(fileUpload, sessionFile);
+            }
+        }
+
+        assertThat(registry.finish(fileUpload, sessionFile)).isEqualTo(sha256(content));
+    }
+
+    private static FileUpload session(long fileSize) {
+        return FileUpload.builder()
+                .id(42L)
+                .fileSizeBytes(fileSize)
+                .chunkSizeBytes(CHUNK_SIZE)
+                .totalChunks(ChunkBitmap.totalChunks(fileSize, CHUNK_SIZE))
+                .build();
+    }
+
+    private static void write(Path file, long position, String bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes.getBytes(StandardCharsets.UTF_8)), position);
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        return Checksums.toHex(Checksums.newSha256().digest(content));
+    }
+}
@@ -0,0 +1,88 @@
+package com.iri.mktgmix.upload.service.upload;
+
+import com.iri.mktgmix.upload.repository.FileUploadRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadSessionLocksTest {
+
+    private final FileUploadRepository fileUploadRepository = mock(FileUploadRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private UploadSessionLocks uploadSessionLocks;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        uploadSessionLocks = new UploadSessionLocks(64, Duration.ofMinutes(5), fileUploadRepository, transactionManager);
+    }
+
+    @Test
+    void serializesWritersToOneSession() throws Exception {
+        CountDownLatch firstEntered = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        AtomicBoolean secondRan = new AtomicBoolean();
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> uploadSessionLocks.withSessionLock(7L, () -> {
+            firstEntered.countDown();
+            await(releaseFirst);
+            return null;
+        }));
+        assertThat(firstEntered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> uploadSessionLocks.withSessionLock(7L, () -> {
+            secondRan.set(true);
+            return null;
+        }));
+
+        Thread.sleep(200);
+        assertThat(secondRan).isFalse();
+        releaseFirst.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(secondRan).isTrue();
+        verify(fileUploadRepository, times(2)).acquireSessionLock(7L);
+    }
+
+    @Test
+    void distinctSessionsDoNotContend() throws Exception {
+        CountDownLatch firstEntered = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> uploadSessionLocks.withSessionLock(1L, () -> {
+            firstEntered.countDown();
+            await(releaseFirst);
+            return null;
+        }));
+        assertThat(firstEntered.await(5, TimeUnit.SECONDS)).isTrue();
+        try {
+            String result = CompletableFuture.supplyAsync(() -> uploadSessionLocks.withSessionLock(2L, () -> "written"))
+                    .get(5, TimeUnit.SECONDS);
+            assertThat(result).isEqualTo("written");
+        } finally {
+            releaseFirst.countDown();
+        }
+        first.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}